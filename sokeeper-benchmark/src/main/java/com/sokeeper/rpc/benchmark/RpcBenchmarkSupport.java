@@ -0,0 +1,84 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.benchmark;
+
+import java.util.Map;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import com.sokeeper.rpc.message.RpcConfiguration;
+import com.sokeeper.rpc.transport.support.RpcClientIoHandlerImpl;
+import com.sokeeper.rpc.transport.support.RpcServerIoHandlerImpl;
+import com.sokeeper.util.Assert;
+import com.sokeeper.util.RpcAddress;
+
+/**
+ * Starts the loopback servers and clients the benchmarks run against, the
+ * ports are above the ones the functional tests use.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcBenchmarkSupport {
+    final static public int    BASE_PORT = 9310;
+    final static public String HOST      = "localhost";
+
+    /**
+     * the handlers log every session event, which would be measured too.
+     */
+    public static void quiet() {
+        Logger.getRootLogger().setLevel(Level.WARN);
+    }
+
+    /**
+     * @param port: the port to listen.
+     * @param params: the url parameters, could be empty.
+     */
+    public static RpcServerIoHandlerImpl startServer(int port, String params) {
+        RpcServerIoHandlerImpl server = new RpcServerIoHandlerImpl(new RpcConfiguration("tcp://"
+                + HOST + ":" + port + "/server?" + params));
+        server.registerRequestHandler(BenchmarkService.class, new BenchmarkService() {
+            public String echo(String message) {
+                return message;
+            }
+
+            public String broadcast(Map<RpcAddress, String> messages) {
+                return messages.values().iterator().next();
+            }
+        });
+        Assert.isTrue(server.startup(), "server not started at port:" + port);
+        return server;
+    }
+
+    /**
+     * @param port: the port of the main server.
+     * @param params: the url parameters, could be empty.
+     */
+    public static RpcClientIoHandlerImpl startClient(int port, String params) {
+        RpcClientIoHandlerImpl client = newClient(port, params);
+        Assert.isTrue(client.startup(), "client not connected to port:" + port);
+        return client;
+    }
+
+    public static RpcClientIoHandlerImpl newClient(int port, String params) {
+        return new RpcClientIoHandlerImpl(new RpcConfiguration("tcp://" + HOST + ":" + port
+                + "/client?" + params));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.benchmark;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sokeeper.rpc.transport.support.RpcClientIoHandlerImpl;
+import com.sokeeper.rpc.transport.support.RpcServerIoHandlerImpl;
+import com.sokeeper.util.RpcAddress;
+import com.sokeeper.util.RpcSocketAddress;
+
+/**
+ * One call to all the loopback servers through
+ * {@link RpcClientIoHandlerImpl#invoke(Method, Object[], java.util.Set, String, boolean)}
+ * with the argsFilterEnabled, every server gets its own message.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RpcBroadcastBenchmark {
+    @Param( { "1", "3", "8" })
+    public int                       targets;
+
+    private RpcServerIoHandlerImpl[] servers;
+    private RpcClientIoHandlerImpl   client;
+    private Method                   method;
+    private Object[]                 args;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        RpcBenchmarkSupport.quiet();
+        int port = RpcBenchmarkSupport.BASE_PORT + 1;
+        servers = new RpcServerIoHandlerImpl[targets];
+        Map<RpcAddress, String> messages = new HashMap<RpcAddress, String>();
+        StringBuilder others = new StringBuilder();
+        for (int i = 0; i < targets; i++) {
+            servers[i] = RpcBenchmarkSupport.startServer(port + i, "");
+            messages.put(new RpcSocketAddress(RpcBenchmarkSupport.HOST, port + i), "message"
+                    + i);
+            if (i > 0) {
+                others.append(i > 1 ? "," : "").append(RpcBenchmarkSupport.HOST).append(':')
+                        .append(port + i);
+            }
+        }
+        client = RpcBenchmarkSupport.startClient(port, "connect_policy=all"
+                + (targets > 1 ? "&servers=" + others : ""));
+        method = BenchmarkService.class.getMethod("broadcast", Map.class);
+        args = new Object[] { messages };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.shutdown();
+        for (RpcServerIoHandlerImpl server : servers) {
+            server.shutdown();
+        }
+    }
+
+    @Benchmark
+    public Object broadcast() throws Throwable {
+        return client.invoke(method, args, null, null, true);
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sokeeper.rpc.service.support.RpcServiceBuilderImpl;
+import com.sokeeper.rpc.transport.support.RpcClientIoHandlerImpl;
+import com.sokeeper.rpc.transport.support.RpcServerIoHandlerImpl;
+
+/**
+ * One call through the service proxy over loopback: the latency of a lonely
+ * caller and the throughput of the concurrent callers sharing the client.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RpcCallBenchmark {
+    @Param( { "binary", "java" })
+    public String                  codec;
+
+    @Param( { "16", "4096" })
+    public int                     messageBytes;
+
+    private RpcServerIoHandlerImpl server;
+    private RpcClientIoHandlerImpl client;
+    private BenchmarkService       service;
+    private String                 message;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        RpcBenchmarkSupport.quiet();
+        server = RpcBenchmarkSupport.startServer(RpcBenchmarkSupport.BASE_PORT, "codec=" + codec);
+        client = RpcBenchmarkSupport.startClient(RpcBenchmarkSupport.BASE_PORT, "codec=" + codec);
+        service = new RpcServiceBuilderImpl().buildRemoteServiceProxy(BenchmarkService.class,
+                null, null, client, false);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < messageBytes; i++) {
+            sb.append((char) ('a' + i % 26));
+        }
+        message = sb.toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.shutdown();
+        server.shutdown();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public String latency() {
+        return service.echo(message);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(16)
+    public String throughput() {
+        return service.echo(message);
+    }
+}
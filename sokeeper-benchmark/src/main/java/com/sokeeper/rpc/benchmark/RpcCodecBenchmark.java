@@ -0,0 +1,143 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.benchmark;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.common.ByteBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sokeeper.domain.ChangesEvent;
+import com.sokeeper.domain.ResourceChangesEvent;
+import com.sokeeper.domain.resource.AttributeEntity;
+import com.sokeeper.domain.resource.ResourceEntity;
+import com.sokeeper.rpc.codec.RpcCodec;
+import com.sokeeper.rpc.codec.RpcSymbolTable;
+import com.sokeeper.rpc.codec.support.RpcProtocolCodecFactory;
+import com.sokeeper.rpc.message.RpcConfiguration;
+import com.sokeeper.rpc.message.RpcRequest;
+
+/**
+ * The encode and decode cost of the messages the server pushes most: a batch
+ * of resource changes and a resource with its attributes. The symbol tables
+ * are warmed first, the way they are on a long lived session.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+@State(Scope.Thread)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RpcCodecBenchmark {
+    @Param( { "binary", "java" })
+    public String          codec;
+
+    @Param( { "changes", "resource" })
+    public String          payload;
+
+    private RpcCodec       rpcCodec;
+    private Object         message;
+    private RpcSymbolTable sending;
+    private RpcSymbolTable receiving;
+    private ByteBuffer     out;
+    private ByteBuffer     encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        rpcCodec = RpcProtocolCodecFactory.getCodec(Arrays.asList(RpcConfiguration.CODECS)
+                .indexOf(codec));
+        message = new RpcRequest("service.name()", new Object[] { "changes".equals(payload) ? newChanges(100)
+                : newResource(20) });
+        sending = new RpcSymbolTable();
+        out = ByteBuffer.allocate(1024).setAutoExpand(true);
+        rpcCodec.encode(message, out, sending);
+        // the steady state: all the symbols known by both sides
+        out.clear();
+        rpcCodec.encode(message, out, sending);
+        out.flip();
+        encoded = ByteBuffer.allocate(out.remaining());
+        encoded.put(out);
+        encoded.flip();
+        receiving = new RpcSymbolTable();
+        for (int i = 0; i < sending.size(); i++) {
+            receiving.define(i, sending.getSymbol(i));
+        }
+    }
+
+    @Benchmark
+    public ByteBuffer encode() throws Exception {
+        out.clear();
+        rpcCodec.encode(message, out, sending);
+        return out;
+    }
+
+    @Benchmark
+    public Object decode() throws Exception {
+        encoded.rewind();
+        return rpcCodec.decode(encoded, receiving);
+    }
+
+    private static List<ChangesEvent> newChanges(int count) {
+        List<ChangesEvent> events = new ArrayList<ChangesEvent>();
+        for (int i = 0; i < count; i++) {
+            ResourceChangesEvent event = new ResourceChangesEvent();
+            event.setChanges("UPDATED");
+            event.setSubscriber("127.0.0.1:9010");
+            event.setSequence((long) i);
+            event.setResourceType("type");
+            event.setResourceId("resource" + i);
+            events.add(event);
+        }
+        return events;
+    }
+
+    private static ResourceEntity newResource(int attributes) {
+        ResourceEntity entity = new ResourceEntity();
+        entity.setId(10L);
+        entity.setResourceType("type");
+        entity.setResourceName("name");
+        entity.setVersion(3L);
+        entity.setGmtCreated(new Timestamp(System.currentTimeMillis()));
+        for (int i = 0; i < attributes; i++) {
+            AttributeEntity attribute = new AttributeEntity();
+            attribute.setKey("key" + i);
+            attribute.setValue("value" + i);
+            entity.addAttribute(attribute);
+        }
+        return entity;
+    }
+}
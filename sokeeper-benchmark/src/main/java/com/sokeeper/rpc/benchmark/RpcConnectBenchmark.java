@@ -0,0 +1,86 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sokeeper.rpc.transport.support.RpcClientIoHandlerImpl;
+import com.sokeeper.rpc.transport.support.RpcServerIoHandlerImpl;
+import com.sokeeper.util.Assert;
+
+/**
+ * The time a new client takes until it can call: the tcp connect plus the
+ * handshakes of both sides. The client is created and shut down out of the
+ * measurement.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RpcConnectBenchmark {
+    final static private int       PORT = RpcBenchmarkSupport.BASE_PORT + 20;
+
+    private RpcServerIoHandlerImpl server;
+    private RpcClientIoHandlerImpl client;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        RpcBenchmarkSupport.quiet();
+        server = RpcBenchmarkSupport.startServer(PORT, "");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.shutdown();
+    }
+
+    @Setup(Level.Invocation)
+    public void newClient() {
+        client = RpcBenchmarkSupport.newClient(PORT, "");
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeClient() {
+        client.shutdown();
+    }
+
+    @Benchmark
+    public RpcClientIoHandlerImpl connect() {
+        Assert.isTrue(client.startup(), "client not connected.");
+        return client;
+    }
+}
@@ -19,6 +19,7 @@
  */
 package com.sokeeper.client;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -27,7 +28,6 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
@@ -53,6 +53,7 @@ import com.sokeeper.rpc.service.support.RpcServiceBuilderImpl;
 import com.sokeeper.rpc.transport.RpcConnection;
 import com.sokeeper.rpc.transport.RpcIoHandler;
 import com.sokeeper.rpc.transport.RpcIoListener;
+import com.sokeeper.rpc.transport.RpcStream;
 import com.sokeeper.rpc.transport.support.RpcClientIoHandlerImpl;
 import com.sokeeper.util.Assert;
 import com.sokeeper.util.NamedThreadFactory;
@@ -62,16 +63,15 @@ import com.sokeeper.util.RpcAddress;
  * @author James Fu (fuyinhai@gmail.com)
  */
 public class Client implements ResourceChangesHandler, RpcIoListener {
+    final static public int                                               LOST_EVENTS_BATCH = 256;
     final protected Logger                                                logger            = LoggerFactory
                                                                                                     .getLogger(getClass());
     private RpcIoHandler                                                  clientIoHandler;
     private String                                                        serverUrl;
     private Cache<ResourceKey, ResourceEntity>                            resourcesCache;
     private ResourceAccessHandler                                         resourceAccessHandler;
+    private ResourceAccessStreamHandler                                   resourceAccessStreamHandler;
     private RpcServiceBuilder                                             serviceBuilder;
-    private AtomicBoolean                                                 recoverEnabled    = new AtomicBoolean(
-                                                                                                    false);
-
     private AtomicLong                                                    rcsVisited        = new AtomicLong(
                                                                                                     -1);
     private ConcurrentMap<ResourceKey, Collection<ResourceEventListener>> resourceListeners = new ConcurrentHashMap<ResourceKey, Collection<ResourceEventListener>>();
@@ -102,6 +102,7 @@ public class Client implements ResourceChangesHandler, RpcIoListener {
 
     public void setResourceAccessHandler(ResourceAccessHandler resourceAccessHandler) {
         this.resourceAccessHandler = resourceAccessHandler;
+        this.resourceAccessStreamHandler = null;
     }
 
     public Long getVisitedSequenceOfChanges() {
@@ -215,13 +216,20 @@ public class Client implements ResourceChangesHandler, RpcIoListener {
         notifierThreadPool = Executors.newCachedThreadPool(new NamedThreadFactory("notifier["
                 + serverUrl + "]", true));
         if (clientIoHandler == null) {
-            clientIoHandler = new RpcClientIoHandlerImpl(new RpcConfiguration(serverUrl));
+            // the changes notified by a server wait the recover of its
+            // connection finished.
+            RpcConfiguration configuration = new RpcConfiguration(serverUrl);
+            configuration.setExecution(RpcConfiguration.EXECUTION_ORDERED);
+            clientIoHandler = new RpcClientIoHandlerImpl(configuration);
             clientIoHandler.registerRequestHandler(ResourceChangesHandler.class, this);
             clientIoHandler.registerIoListener(this);
         }
         if (resourceAccessHandler == null) {
             resourceAccessHandler = serviceBuilder.buildRemoteServiceProxy(
                     ResourceAccessHandler.class, null, null, clientIoHandler, false);
+            resourceAccessStreamHandler = serviceBuilder.buildRemoteServiceProxy(
+                    ResourceAccessStreamHandler.class, ResourceAccessHandler.class, null, null,
+                    clientIoHandler, false);
         }
         if (resourcesCache == null) {
             setResourcesCache(new CacheLRU<ResourceKey, ResourceEntity>(
@@ -250,61 +258,67 @@ public class Client implements ResourceChangesHandler, RpcIoListener {
     }
 
     /**
-     * To avoid during the recover time the new incoming resource changes impact
-     * the recover for lost changes events,we set the recoverEnabled signal
-     * variable,when this variable set to true, the onResourcesChanged notify
-     * thread will wait until the recover finished.
+     * The client handler runs the requests and events of one connection in
+     * order, so the resource changes notified through the new connection are
+     * only processed after the lost changes events recovered here.
      */
     public void onConnectionCreated(RpcConnection connection, RpcIoHandler ioHandler) {
-        try {
-            // enter into recover mode
-            recoverEnabled.set(true);
-
-            if (resourcesCache != null) {
-                resourcesCache.clear();
-            }
-            if (rcsVisited.get() < 0L) {
-                updateRcsVisited(resourceAccessHandler.getCurrentSequenceOfChanges());
-
-                // quit recover mode
-                recoverEnabled.set(false);
-
-            }
-            if (resourceListeners.size() > 0) {
-                try {
-                    synchronized (resourceListeners) {
-                        HashSet<ResourceKey> keys = new HashSet<ResourceKey>();
-                        keys.addAll(resourceListeners.keySet());
-                        resourceAccessHandler.subscribe(keys);
-                    }
-                    // recover the lost changes events
-                    if (recoverEnabled.get()) {
-                        Collection<ChangesEvent> changes = resourceAccessHandler
-                                .getLostEvents(rcsVisited.get());
-                        publishChanges(changes);
-                    }
-                } catch (RpcException e) {
-                    logger.error("recoverLostEvents:", e);
+        if (resourcesCache != null) {
+            resourcesCache.clear();
+        }
+        boolean recover = true;
+        if (rcsVisited.get() < 0L) {
+            // nothing lost before the first connection
+            updateRcsVisited(resourceAccessHandler.getCurrentSequenceOfChanges());
+            recover = false;
+        }
+        if (resourceListeners.size() > 0) {
+            try {
+                synchronized (resourceListeners) {
+                    HashSet<ResourceKey> keys = new HashSet<ResourceKey>();
+                    keys.addAll(resourceListeners.keySet());
+                    resourceAccessHandler.subscribe(keys);
                 }
+                // recover the lost changes events
+                if (recover) {
+                    recoverLostEvents(rcsVisited.get());
+                }
+            } catch (Throwable e) {
+                logger.error("recoverLostEvents:", e);
             }
-        } finally {
-            // quit recover mode
-            recoverEnabled.set(false);
         }
         for (RpcIoEventListener listener : ioListeners) {
             listener.onConnectionCreated(connection, ioHandler);
         }
     }
 
-    /////////////////////////////////////////receive resource events/////////////////////////////////////////////////////////////
-    public void onResourcesChanged(Map<RpcAddress, Collection<ChangesEvent>> changes) {
-        // wait until the recover thread finished
-        while (recoverEnabled.get()) {
-            try {
-                Thread.sleep(10);
-            } catch (InterruptedException e) {
+    /**
+     * The lost changes events could be too many to be sent in one response, so
+     * they are streamed and published batch by batch in their sequences order.
+     */
+    private void recoverLostEvents(Long sequenceGot) throws Throwable {
+        if (resourceAccessStreamHandler == null) {
+            publishChanges(resourceAccessHandler.getLostEvents(sequenceGot));
+            return;
+        }
+        RpcStream<ChangesEvent> stream = resourceAccessStreamHandler.getLostEvents(sequenceGot);
+        try {
+            Collection<ChangesEvent> changes = new ArrayList<ChangesEvent>();
+            while (stream.hasNext()) {
+                changes.add(stream.next());
+                if (changes.size() >= LOST_EVENTS_BATCH) {
+                    publishChanges(changes);
+                    changes = new ArrayList<ChangesEvent>();
+                }
             }
+            publishChanges(changes);
+        } finally {
+            stream.close();
         }
+    }
+
+    /////////////////////////////////////////receive resource events/////////////////////////////////////////////////////////////
+    public void onResourcesChanged(Map<RpcAddress, Collection<ChangesEvent>> changes) {
         Collection<ChangesEvent> resourceChanges = null;
         if (changes.size() > 0) {
             resourceChanges = changes.values().iterator().next();
@@ -314,6 +328,21 @@ public class Client implements ResourceChangesHandler, RpcIoListener {
         }
     }
 
+    /**
+     * Recovered at once, so the changes notified after are only processed
+     * after the dropped ones.
+     */
+    public void onChangesDropped(Map<RpcAddress, Long> sequences) {
+        if (sequences.size() > 0) {
+            Long sequence = Math.min(sequences.values().iterator().next(), rcsVisited.get());
+            try {
+                recoverLostEvents(sequence);
+            } catch (Throwable e) {
+                logger.error("recoverLostEvents:", e);
+            }
+        }
+    }
+
     private void updateRcsVisited(Long sequence) {
         if (rcsVisited.get() < sequence) {
             rcsVisited.set(sequence);
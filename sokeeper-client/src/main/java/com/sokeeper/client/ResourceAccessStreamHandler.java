@@ -0,0 +1,40 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.client;
+
+import com.sokeeper.domain.ChangesEvent;
+import com.sokeeper.exception.RpcException;
+import com.sokeeper.handler.ResourceAccessHandler;
+import com.sokeeper.rpc.transport.RpcStream;
+
+/**
+ * The streamed view of {@link ResourceAccessHandler}, its methods are mapped to
+ * the same named methods of the server side handler, the results are sent back
+ * in chunks as the stream consumed.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public interface ResourceAccessStreamHandler {
+    /**
+     * @see ResourceAccessHandler#getLostEvents(Long)
+     * @return: the lost changes events in the order of their sequences.
+     */
+    public RpcStream<ChangesEvent> getLostEvents(Long sequenceGot) throws RpcException;
+}
@@ -27,19 +27,29 @@ import com.sokeeper.util.MapParameters;
  * @author James Fu (fuyinhai@gmail.com)
  */
 public class PersistedConfiguration extends MapParameters {
-    private static final long   serialVersionUID                              = -8470261819746028399L;
+    private static final long    serialVersionUID                              = -8470261819746028399L;
 
-    public static final String  KEY_SECONDS_OF_RESOURCE_CHANGES_WATCHER_TIMER = "secondsOfResourceChangesWatcherTimer";
-    public static final String  KEY_SECONDS_OF_PRESENCE_TIMER                 = "secondsOfPresenceTimer";
-    public static final String  KEY_SECONDS_OF_NODE_KEEP_ALIVE                = "secondsOfNodeKeepAlive";
-    public static final String  KEY_SUFFIX_OF_SERVER                          = "suffixOfServer";
-    public static final String  KEY_MAX_CACHED_ENTITIES                       = "maxCachedEntities";
+    public static final String   KEY_SECONDS_OF_RESOURCE_CHANGES_WATCHER_TIMER = "secondsOfResourceChangesWatcherTimer";
+    public static final String   KEY_SECONDS_OF_PRESENCE_TIMER                 = "secondsOfPresenceTimer";
+    public static final String   KEY_SECONDS_OF_NODE_KEEP_ALIVE                = "secondsOfNodeKeepAlive";
+    public static final String   KEY_SUFFIX_OF_SERVER                          = "suffixOfServer";
+    public static final String   KEY_MAX_CACHED_ENTITIES                       = "maxCachedEntities";
+    public static final String   KEY_MAX_PENDING_CHANGES_OF_CLIENT             = "maxPendingChangesOfClient";
+    public static final String   KEY_PENDING_CHANGES_OVERFLOW                  = "pendingChangesOverflow";
+    public static final String   KEY_MILLIS_OF_COALESCING_WINDOW               = "millisOfCoalescingWindow";
+    public static final String   KEY_PEER_PORT_OFFSET                          = "peerPortOffset";
 
-    public static final int     DEFAULT_MAX_CACHED_ENTITIES                   = 100000;
-    private static final String DEFAULT_SUFFIX_OF_SERVER                      = "/server?timeout_ms=5000&max_connections=500&hb_sec=10";
+    public static final int      OVERFLOW_COALESCE                             = 0;
+    public static final int      OVERFLOW_RESYNC                               = 1;
+    public static final String[] OVERFLOWS                                     = new String[] {
+            "coalesce", "resync"                                              };
 
-    private int                 secondsOfPresenceTimer                        = -1;
-    private int                 secondsOfNodeKeepAlive                        = -1;
+    public static final int      DEFAULT_MAX_CACHED_ENTITIES                   = 100000;
+    public static final int      DEFAULT_PEER_PORT_OFFSET                      = 0;
+    private static final String  DEFAULT_SUFFIX_OF_SERVER                      = "/server?timeout_ms=5000&max_connections=500&hb_sec=10";
+
+    private int                  secondsOfPresenceTimer                        = -1;
+    private int                  secondsOfNodeKeepAlive                        = -1;
 
     public int getSecondsOfPresenceTimer() {
         if (secondsOfPresenceTimer < 0) {
@@ -68,10 +78,54 @@ public class PersistedConfiguration extends MapParameters {
     }
 
     public int getSecondsOfResourceChangesWatcherTimer() {
-        return this.getParameter(KEY_SECONDS_OF_RESOURCE_CHANGES_WATCHER_TIMER, 1);
+        return this.getParameter(KEY_SECONDS_OF_RESOURCE_CHANGES_WATCHER_TIMER, 10);
     }
 
     public int getMaxCachedEntities() {
         return this.getParameter(KEY_MAX_CACHED_ENTITIES, DEFAULT_MAX_CACHED_ENTITIES);
     }
+
+    /**
+     * @return: how many changes waiting for one client before its overflow.
+     */
+    public int getMaxPendingChangesOfClient() {
+        return this.getParameter(KEY_MAX_PENDING_CHANGES_OF_CLIENT, 10000);
+    }
+
+    /**
+     * @return: {@link #OVERFLOW_COALESCE} keeps the latest changes of each
+     *          resource or association, the client is resynchronized when they
+     *          still overflow; {@link #OVERFLOW_RESYNC} drops the pending
+     *          changes and resynchronizes the client at once.
+     */
+    public int getPendingChangesOverflow() {
+        return this.getIndexedParameter(KEY_PENDING_CHANGES_OVERFLOW, OVERFLOWS,
+                OVERFLOW_COALESCE, true);
+    }
+
+    /**
+     * @param resourceType: the window of the resource type is given by the
+     *            parameter millisOfCoalescingWindow.&lt;resourceType&gt;, the
+     *            parameter millisOfCoalescingWindow is the default of all the
+     *            types.
+     * @return: how long the changes of the resource type are held to coalesce,
+     *          0 means they are notified at once.
+     */
+    public int getMillisOfCoalescingWindow(String resourceType) {
+        int window = this.getParameter(KEY_MILLIS_OF_COALESCING_WINDOW, 0);
+        if (resourceType != null) {
+            window = this.getParameter(KEY_MILLIS_OF_COALESCING_WINDOW + "." + resourceType,
+                    window);
+        }
+        return Math.max(window, 0);
+    }
+
+    /**
+     * @return: the servers listen for their peers on the server port plus
+     *          the offset, the peers never mix with the clients. 0 means no
+     *          peer endpoint, the peers poll the changes sequence.
+     */
+    public int getPeerPortOffset() {
+        return this.getParameter(KEY_PEER_PORT_OFFSET, DEFAULT_PEER_PORT_OFFSET);
+    }
 }
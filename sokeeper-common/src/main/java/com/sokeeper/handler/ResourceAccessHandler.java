@@ -37,6 +37,7 @@ public interface ResourceAccessHandler {
      *
      * @return: the sequence value of changes event.
      */
+    @Idempotent
     public Long getCurrentSequenceOfChanges();
 
     /**
@@ -56,6 +57,7 @@ public interface ResourceAccessHandler {
      * @return: the new added or updated resource entity.
      * @throws RpcException
      */
+    @Idempotent
     public ResourceEntity addOrUpdateResource(ResourceEntity resourceEntity,
                                               String rightResourceType,
                                               Map<String, AssociationEntity> rightAssociations)
@@ -72,6 +74,7 @@ public interface ResourceAccessHandler {
      *            {@link IllegalArgumentException}.
      * @throws RpcException
      */
+    @Idempotent
     public void removeResource(ResourceKey resourceKey) throws RpcException;
 
     /**
@@ -120,7 +123,8 @@ public interface ResourceAccessHandler {
      * @param sequenceGot: so far, the changes events' sequence client side
      *            already have.
      * @return: the resource/association changes whose sequence between
-     *          sequenceGot and the server side cached sequence.
+     *          sequenceGot and the server side cached sequence, in the order
+     *          of their sequences.
      * @throws RpcException
      */
     public Collection<ChangesEvent> getLostEvents(Long sequenceGot) throws RpcException;
@@ -137,6 +141,7 @@ public interface ResourceAccessHandler {
      * @return: the given resourceEntity or null when it is not existed.
      * @throws RpcException
      */
+    @Idempotent
     public ResourceEntity getResourceEntity(ResourceKey resourceKey) throws RpcException;
 
     /**
@@ -158,6 +163,7 @@ public interface ResourceAccessHandler {
      * @return: the new created or updated association.
      * @throws RpcException
      */
+    @Idempotent
     public AssociationEntity addOrUpdateAssociation(ResourceKey leftKey, ResourceKey rightKey,
                                                     Map<String, String> attributes)
             throws RpcException, IllegalStateException;
@@ -174,6 +180,7 @@ public interface ResourceAccessHandler {
      * @param rightKey.resourceName:can not be empty.
      * @throws RpcException
      */
+    @Idempotent
     public void removeAssociation(ResourceKey leftKey, ResourceKey rightKey) throws RpcException;
 
     /**
@@ -188,6 +195,7 @@ public interface ResourceAccessHandler {
      * @return: the association's id or the null.
      * @throws RpcException
      */
+    @Idempotent
     public AssociationEntity getAssociationEntity(ResourceKey leftKey, ResourceKey rightKey)
             throws RpcException;
 }
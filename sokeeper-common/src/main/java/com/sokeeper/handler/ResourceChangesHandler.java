@@ -41,4 +41,16 @@ public interface ResourceChangesHandler {
      */
     public void onResourcesChanged(Map<RpcAddress, Collection<ChangesEvent>> changes)
             throws RpcException;
+
+    /**
+     * The server dropped the changes of the client, its notifications
+     * overflowed or failed, the client should recover the changes after the
+     * given sequence through {@link ResourceAccessHandler#getLostEvents(Long)}
+     * .
+     *
+     * @param sequences: the client's address mapped to the sequence of the
+     *            last changes delivered to it.
+     * @throws RpcException
+     */
+    public void onChangesDropped(Map<RpcAddress, Long> sequences) throws RpcException;
 }
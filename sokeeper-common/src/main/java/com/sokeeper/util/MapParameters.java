@@ -20,6 +20,7 @@
 package com.sokeeper.util;
 
 import java.io.Serializable;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -73,6 +74,13 @@ public class MapParameters implements Serializable {
         return Boolean.valueOf(val);
     }
 
+    /**
+     * @return: a read-only view of all the parameters.
+     */
+    public Map<String, String> getParameters() {
+        return Collections.unmodifiableMap(parameters);
+    }
+
     public int getIndexedParameter(String paramName, String[] values, int defaultIndex,
                                    boolean ignoreCase) {
         Assert.notEmpty(values, "values can not be null.");
@@ -172,6 +172,20 @@ public class DomainTest extends TestCase {
         assertNotNull(config.getSuffixOfServer());
         assertNotNull(config.getSecondsOfResourceChangesWatcherTimer() > 0);
 
+        assertTrue(config.getMaxPendingChangesOfClient() > 0);
+        assertEquals(config.getPendingChangesOverflow(), PersistedConfiguration.OVERFLOW_COALESCE);
+        config.addParameter(PersistedConfiguration.KEY_PENDING_CHANGES_OVERFLOW, "resync");
+        assertEquals(config.getPendingChangesOverflow(), PersistedConfiguration.OVERFLOW_RESYNC);
+
+        assertEquals(config.getPeerPortOffset(), PersistedConfiguration.DEFAULT_PEER_PORT_OFFSET);
+        config.addParameter(PersistedConfiguration.KEY_PEER_PORT_OFFSET, "100");
+        assertEquals(config.getPeerPortOffset(), 100);
+
+        assertEquals(config.getMillisOfCoalescingWindow("t1"), 0);
+        config.addParameter(PersistedConfiguration.KEY_MILLIS_OF_COALESCING_WINDOW, "100");
+        config.addParameter(PersistedConfiguration.KEY_MILLIS_OF_COALESCING_WINDOW + ".t2", "0");
+        assertEquals(config.getMillisOfCoalescingWindow("t1"), 100);
+        assertEquals(config.getMillisOfCoalescingWindow("t2"), 0);
     }
 
     public void test_resource_domains() throws Throwable {
@@ -294,6 +294,33 @@ public interface ChangesService {
                                                                            String serverAddress)
             throws IllegalArgumentException;
 
+    /**
+     * Query the resource changes within the sequences without joining the
+     * subscribers, the caller resolves the subscribers itself.
+     *
+     * @param sequenceFrom: should be >= 0 otherwise throw
+     *            {@link IllegalArgumentException}.
+     * @param sequenceTo: should be >= sequenceFrom otherwise throw
+     *            {@link IllegalArgumentException}.
+     * @return: the resource changes events, their subscriber is null.
+     * @throws IllegalArgumentException
+     */
+    public Collection<ResourceChangesEvent> listResourceChanges(Long sequenceFrom, Long sequenceTo)
+            throws IllegalArgumentException;
+
+    /**
+     * Query the association changes within the sequences without joining the
+     * subscribers.
+     *
+     * @param sequenceFrom: refer to {@link #listResourceChanges(Long, Long)}.
+     * @param sequenceTo: refer to {@link #listResourceChanges(Long, Long)}.
+     * @return: the association changes events, their subscriber is null.
+     * @throws IllegalArgumentException
+     */
+    public Collection<AssociationChangesEvent> listAssociationChanges(Long sequenceFrom,
+                                                                      Long sequenceTo)
+            throws IllegalArgumentException;
+
     /**
      * Get the current resource changes' sequence from persistence layer.
      */
@@ -126,4 +126,16 @@ public interface SubscriberService {
     public Collection<ChangesSubscriber> getSubscribedResources(String clientAddress,
                                                                 String serverAddress)
             throws IllegalArgumentException;
+
+    /**
+     * Query the subscriber list of the given servers.
+     *
+     * @param serverAddresses:the subscriber's server side addresses.can not be
+     *            null otherwise throw {@link IllegalArgumentException},could be
+     *            empty,when its empty will return empty.
+     * @return: the subscriber list records.
+     * @throws IllegalArgumentException
+     */
+    public Collection<ChangesSubscriber> getSubscribersOfServers(Collection<String> serverAddresses)
+            throws IllegalArgumentException;
 }
@@ -163,6 +163,31 @@ public class ChangesServiceImpl extends BaseResourceService implements ChangesSe
         return getSqlMapClientTemplate().queryForList("resource.listAssociationChangesEvent", map);
     }
 
+    @SuppressWarnings("unchecked")
+    public Collection<ResourceChangesEvent> listResourceChanges(Long sequenceFrom, Long sequenceTo)
+            throws IllegalArgumentException {
+        Assert.isTrue(sequenceFrom != null && sequenceFrom >= 0, "sequenceFrom should >= 0");
+        Assert.isTrue(sequenceTo != null && sequenceTo >= sequenceFrom,
+                "sequenceTo should >= sequenceFrom");
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        map.put("sequenceFrom", sequenceFrom);
+        map.put("sequenceTo", sequenceTo);
+        return getSqlMapClientTemplate().queryForList("resource.listResourceChanges", map);
+    }
+
+    @SuppressWarnings("unchecked")
+    public Collection<AssociationChangesEvent> listAssociationChanges(Long sequenceFrom,
+                                                                      Long sequenceTo)
+            throws IllegalArgumentException {
+        Assert.isTrue(sequenceFrom != null && sequenceFrom >= 0, "sequenceFrom should >= 0");
+        Assert.isTrue(sequenceTo != null && sequenceTo >= sequenceFrom,
+                "sequenceTo should >= sequenceFrom");
+        HashMap<String, Object> map = new HashMap<String, Object>();
+        map.put("sequenceFrom", sequenceFrom);
+        map.put("sequenceTo", sequenceTo);
+        return getSqlMapClientTemplate().queryForList("resource.listAssociationChanges", map);
+    }
+
     @Transactional
     public int addOrUpdateResourceCreatedChanges(String resourceType, String resourceId)
             throws IllegalArgumentException {
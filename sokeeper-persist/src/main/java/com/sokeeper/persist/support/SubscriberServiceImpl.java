@@ -19,6 +19,7 @@
  */
 package com.sokeeper.persist.support;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 
@@ -96,6 +97,17 @@ public class SubscriberServiceImpl extends SqlMapClientDaoSupport implements Sub
                 "subscribe.getSubscribedResources", map);
     }
 
+    @SuppressWarnings("unchecked")
+    public Collection<ChangesSubscriber> getSubscribersOfServers(Collection<String> serverAddresses)
+            throws IllegalArgumentException {
+        Assert.notNull(serverAddresses, "serverAddresses can not be null.");
+        if (serverAddresses.isEmpty()) {
+            return new ArrayList<ChangesSubscriber>();
+        }
+        return (Collection<ChangesSubscriber>) getSqlMapClientTemplate().queryForList(
+                "subscribe.getSubscribersOfServers", serverAddresses.toArray(new String[0]));
+    }
+
     public int removeSubscribersOfServers(Collection<String> serverAddresses)
             throws IllegalArgumentException {
         Assert.notNull(serverAddresses, "serverAddresses can not be null.");
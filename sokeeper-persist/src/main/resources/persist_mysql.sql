@@ -203,8 +203,10 @@ CREATE TABLE `subject_keyword` (
 ALTER TABLE node_online_status  ADD UNIQUE INDEX idx_nos_pid_address(p_node_address,node_address);
 ALTER TABLE resource_subscribe  ADD UNIQUE INDEX idx_rsl_resource_node_addr(resource_type,resource_id,client_address,server_address);
 ALTER TABLE resource_changes    ADD UNIQUE INDEX idx_rc_resource_type_id(resource_type,resource_id);
+ALTER TABLE resource_changes    ADD INDEX idx_rc_seq(seq);
 ALTER TABLE association_changes ADD UNIQUE INDEX idx_ac_resource_type_id(left_type,left_id,right_type,right_id);
 ALTER TABLE association_changes ADD UNIQUE INDEX idx_ac_association_id(association_id);
+ALTER TABLE association_changes ADD INDEX idx_ac_seq(seq);
 ALTER TABLE resource_types      ADD UNIQUE INDEX idx_rt_resource_type_name(type_name);
 ALTER TABLE resources           ADD UNIQUE INDEX idx_r_resource_type_name(resource_type,resource_name);
 ALTER TABLE association         ADD UNIQUE INDEX idx_ass_left_right_ids(left_id,right_id);
@@ -219,7 +221,7 @@ insert into t_sequence values('resource_changes',1,1);
 insert into t_sequence values('resources',1,1);
 
 insert into presence_config values('maxCachedEntities','1000000');
-insert into presence_config values('secondsOfResourceChangesWatcherTimer','1');
+insert into presence_config values('secondsOfResourceChangesWatcherTimer','10');
 insert into presence_config values('secondsOfPresenceTimer','5');
 insert into presence_config values('secondsOfNodeKeepAlive','20');
 insert into presence_config values('suffixOfServer','/server?timeout_ms=5000&max_connections=500&hb_sec=10');
@@ -480,6 +480,38 @@ public class ChangesServiceImplTest extends BaseTestCase {
 
     }
 
+    public void test_listResourceChanges() throws Throwable {
+        try {
+            changesService.listResourceChanges(null, null);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            changesService.listAssociationChanges(5L, 0L);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        cleanupResourceChangesTable();
+        cleanupResourceSubscribeListTable();
+        resetResourceChangesSequence();
+        // no subscriber needed
+        changesService.addOrUpdateResourceCreatedChanges("t1", "r1", "localhost:7010",
+                "localhost:9012");
+        changesService.addOrUpdateResourceCreatedChanges("t1", "r2");
+        Collection<ResourceChangesEvent> changes = changesService.listResourceChanges(0L, 10L);
+        assertEquals(changes.size(), 2);
+        for (ResourceChangesEvent event : changes) {
+            assertNull(event.getSubscriber());
+            assertEquals(event.getResourceType(), "t1");
+            assertEquals(event.getChanges(), ResourceChanges.CHANGES_CREATED);
+            assertNotNull(event.getSequence());
+        }
+        Long sequence = changesService.getCurrentSequenceOfChanges();
+        assertEquals(changesService.listResourceChanges(sequence, sequence).size(), 1);
+        assertEquals(changesService.listResourceChanges(100L, 110L).size(), 0);
+        assertEquals(changesService.listAssociationChanges(0L, 10L).size(), 0);
+    }
+
     public void test_updateStatusToOwnerDied_resourcesWillBeRemoved() throws Throwable {
         cleanup();
         registerResourceType("t1", true);
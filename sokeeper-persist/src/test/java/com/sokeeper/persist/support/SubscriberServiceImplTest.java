@@ -19,6 +19,7 @@
  */
 package com.sokeeper.persist.support;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -136,6 +137,26 @@ public class SubscriberServiceImplTest extends BaseTestCase {
 
     }
 
+    public void test_getSubscribersOfServers() throws Throwable {
+        try {
+            subscriberService.getSubscribersOfServers(null);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        cleanupResourceSubscribeListTable();
+        subscriberService.addResourceChangesSubscriber("t1", "r1", "localhost:9020",
+                "localhost:9010");
+        subscriberService.addResourceChangesSubscriber("t1", "r2", "localhost:9021",
+                "localhost:9010");
+        subscriberService.addResourceChangesSubscriber("t1", "r1", "localhost:9022",
+                "localhost:9011");
+        assertEquals(subscriberService.getSubscribersOfServers(new ArrayList<String>()).size(), 0);
+        assertEquals(subscriberService.getSubscribersOfServers(Arrays.asList("localhost:9010"))
+                .size(), 2);
+        assertEquals(subscriberService.getSubscribersOfServers(
+                Arrays.asList("localhost:9010", "localhost:9011")).size(), 3);
+    }
+
     public void test_addResourceChangesSubscriber() throws Throwable {
         cleanupResourceSubscribeListTable();
         ChangesSubscriber record = null;
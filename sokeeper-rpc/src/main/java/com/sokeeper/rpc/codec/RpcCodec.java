@@ -0,0 +1,65 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.codec;
+
+import java.io.IOException;
+
+import org.apache.mina.common.ByteBuffer;
+
+/**
+ * The codec serializes one message into the body of a frame, the frame itself
+ * (length prefix and header) is handled by the protocol encoder/decoder.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public interface RpcCodec {
+    /**
+     * @return: the codec id carried in each frame header, must be in [0,15].
+     */
+    public int getId();
+
+    /**
+     * @return: the codec name used in the url parameter and handshake.
+     */
+    public String getName();
+
+    /**
+     * encode the message into the out buffer.
+     *
+     * @param message: the message, can not be null.
+     * @param out: the auto expandable buffer.
+     * @param symbols: the sending side symbol table of the session.
+     * @throws IOException: when the message can not be encoded.
+     */
+    public void encode(Object message, ByteBuffer out, RpcSymbolTable symbols) throws IOException;
+
+    /**
+     * decode one message from the in buffer, the in buffer's limit is the end
+     * of the frame body.
+     *
+     * @param in: the frame body.
+     * @param symbols: the receiving side symbol table of the session.
+     * @return: the decoded message.
+     * @throws IOException: when the body is corrupted.
+     * @throws ClassNotFoundException: when the message class is unknown.
+     */
+    public Object decode(ByteBuffer in, RpcSymbolTable symbols) throws IOException,
+            ClassNotFoundException;
+}
@@ -0,0 +1,100 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.codec;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The compression counters of one session, the bytes counted are the frames
+ * without the length field.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcCompressionStats {
+    final private AtomicLong deflatedFrames   = new AtomicLong();
+    final private AtomicLong deflatedRawBytes = new AtomicLong();
+    final private AtomicLong deflatedBytes    = new AtomicLong();
+    final private AtomicLong skippedFrames    = new AtomicLong();
+    final private AtomicLong inflatedFrames   = new AtomicLong();
+    final private AtomicLong inflatedRawBytes = new AtomicLong();
+    final private AtomicLong inflatedBytes    = new AtomicLong();
+
+    /**
+     * @param rawBytes: the bytes of the frame before deflated.
+     * @param bytes: the bytes of the compressed frame sent instead.
+     */
+    public void onDeflated(int rawBytes, int bytes) {
+        deflatedFrames.incrementAndGet();
+        deflatedRawBytes.addAndGet(rawBytes);
+        deflatedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * the frame was sent as it is since deflating did not make it smaller.
+     */
+    public void onSkipped() {
+        skippedFrames.incrementAndGet();
+    }
+
+    /**
+     * @param bytes: the bytes of the compressed frame received.
+     * @param rawBytes: the bytes of the frame inflated from it.
+     */
+    public void onInflated(int bytes, int rawBytes) {
+        inflatedFrames.incrementAndGet();
+        inflatedBytes.addAndGet(bytes);
+        inflatedRawBytes.addAndGet(rawBytes);
+    }
+
+    public long getDeflatedFrames() {
+        return deflatedFrames.get();
+    }
+
+    public long getDeflatedRawBytes() {
+        return deflatedRawBytes.get();
+    }
+
+    public long getDeflatedBytes() {
+        return deflatedBytes.get();
+    }
+
+    public long getSkippedFrames() {
+        return skippedFrames.get();
+    }
+
+    public long getInflatedFrames() {
+        return inflatedFrames.get();
+    }
+
+    public long getInflatedRawBytes() {
+        return inflatedRawBytes.get();
+    }
+
+    public long getInflatedBytes() {
+        return inflatedBytes.get();
+    }
+
+    public String toString() {
+        return "deflated:" + getDeflatedFrames() + " frames " + getDeflatedRawBytes() + "->"
+                + getDeflatedBytes() + " bytes, skipped:" + getSkippedFrames()
+                + " frames, inflated:" + getInflatedFrames() + " frames " + getInflatedBytes()
+                + "->" + getInflatedRawBytes() + " bytes";
+    }
+}
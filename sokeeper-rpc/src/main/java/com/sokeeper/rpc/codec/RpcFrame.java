@@ -0,0 +1,87 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.codec;
+
+/**
+ * The wire frame layout:
+ *
+ * <pre>
+ * +----------------+--------------------------+-------------+
+ * | length: int32  | header: 1 byte           | body        |
+ * |                | type(high 4) codec(low 4)|             |
+ * +----------------+--------------------------+-------------+
+ * </pre>
+ *
+ * the length covers the header and the body. Every frame carries its own codec
+ * id, so the receiving side always decodes whatever the sending side chose.
+ * The body of the broadcast frame is the request id(varlong) and the remaining
+ * milliseconds of its deadline + 1(varlong, 0 means no deadline) followed by
+ * the request encoded without the session's symbols, the later part is shared by
+ * all the sessions the request broadcast to. The body of the compressed frame
+ * is the length of the original frame without the length field(varint)
+ * followed by the original header and body deflated. A big frame can be split
+ * into the chunk frames whose bodies are the successive pieces of the whole
+ * original frame, the length field included, the codec bits of the chunk
+ * header tell whether it is the last piece. The codec bits of the heart beat
+ * tell the ping from the pong answering it, the round trip between them is
+ * the rtt of the connection.
+ * <p>
+ * Until the handshake told the remote peer reads the frames, the messages go
+ * in the MINA object serialization format instead: the same length field
+ * followed by a java serialization stream, whose first byte
+ * {@link #LEGACY_MAGIC} is never the header of a frame.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+final public class RpcFrame {
+    final static public int    LENGTH_FIELD_SIZE = 4;
+    final static public byte   LEGACY_MAGIC      = (byte) 0xAC;
+
+    final static public int    TYPE_MESSAGE      = 0;
+    final static public int    TYPE_SYMBOL       = 1;
+    final static public int    TYPE_HEART_BEAT   = 2;
+    final static public int    TYPE_BROADCAST    = 3;
+    final static public int    TYPE_COMPRESSED   = 4;
+    final static public int    TYPE_CHUNK        = 5;
+
+    final static public int    CHUNK_MORE        = 0;
+    final static public int    CHUNK_LAST        = 1;
+
+    final static public int    HEART_BEAT_PING   = 0;
+    final static public int    HEART_BEAT_PONG   = 1;
+
+    final static public String HEART_BEAT        = "hb";
+    final static public String HEART_BEAT_ACK    = "hb_ack";
+
+    private RpcFrame() {
+    }
+
+    public static byte header(int type, int codecId) {
+        return (byte) (((type & 0x0F) << 4) | (codecId & 0x0F));
+    }
+
+    public static int getType(byte header) {
+        return (header >> 4) & 0x0F;
+    }
+
+    public static int getCodecId(byte header) {
+        return header & 0x0F;
+    }
+}
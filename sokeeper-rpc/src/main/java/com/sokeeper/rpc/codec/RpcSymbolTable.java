@@ -0,0 +1,107 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.codec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sokeeper.util.Assert;
+
+/**
+ * Interned strings (e.g.: service names) of one direction of a session. The
+ * sending side assigns the ids and publishes each new symbol through a symbol
+ * frame before the first frame using it, the receiving side records them.
+ * <p>
+ * Not thread safe, each session direction owns one table.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcSymbolTable {
+    final static public int            MAX_SYMBOLS = 4096;
+
+    final private Map<String, Integer> ids         = new HashMap<String, Integer>();
+    final private List<String>         symbols     = new ArrayList<String>();
+    private int                        published   = 0;
+
+    /**
+     * get the id of the symbol, define it when it's new.
+     *
+     * @param symbol: can not be null.
+     * @return: the symbol id or -1 when the table is full.
+     */
+    public int define(String symbol) {
+        Assert.notNull(symbol, "symbol can not be null.");
+        Integer id = ids.get(symbol);
+        if (id == null) {
+            if (symbols.size() >= MAX_SYMBOLS) {
+                return -1;
+            }
+            id = symbols.size();
+            symbols.add(symbol);
+            ids.put(symbol, id);
+        }
+        return id;
+    }
+
+    /**
+     * record the symbol published by the remote peer.
+     */
+    public void define(int id, String symbol) {
+        Assert.notNull(symbol, "symbol can not be null.");
+        Assert.isTrue(id >= 0 && id < MAX_SYMBOLS, "illegal symbol id:" + id);
+        while (symbols.size() <= id) {
+            symbols.add(null);
+        }
+        symbols.set(id, symbol);
+        ids.put(symbol, id);
+    }
+
+    /**
+     * @return: the symbol or null when the id is unknown.
+     */
+    public String getSymbol(int id) {
+        return (id >= 0 && id < symbols.size()) ? symbols.get(id) : null;
+    }
+
+    /**
+     * @return: the symbols defined since the last call, their ids follow the
+     *          returned order starting at {@link #getPublishedCount()} before
+     *          the call.
+     */
+    public List<String> publish() {
+        if (published == symbols.size()) {
+            return Collections.emptyList();
+        }
+        List<String> defined = new ArrayList<String>(symbols.subList(published, symbols.size()));
+        published = symbols.size();
+        return defined;
+    }
+
+    public int getPublishedCount() {
+        return published;
+    }
+
+    public int size() {
+        return symbols.size();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.codec.support;
+
+import java.io.IOException;
+
+import org.apache.mina.common.ByteBuffer;
+
+import com.sokeeper.rpc.codec.RpcCodec;
+import com.sokeeper.rpc.codec.RpcSymbolTable;
+import com.sokeeper.rpc.message.RpcConfiguration;
+import com.sokeeper.util.Assert;
+
+/**
+ * The compact codec: tagged values, var-length integers, the registered types
+ * write their fields without any class descriptor, the service names are
+ * interned through the session's symbol table and everything unknown falls
+ * back to java serialization.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class BinaryCodec implements RpcCodec {
+    final private BinaryTypeRegistry registry;
+
+    public BinaryCodec() {
+        this(BinaryTypeRegistry.getDefault());
+    }
+
+    public BinaryCodec(BinaryTypeRegistry registry) {
+        Assert.notNull(registry, "registry can not be null.");
+        this.registry = registry;
+    }
+
+    public int getId() {
+        return RpcConfiguration.CODEC_BINARY;
+    }
+
+    public String getName() {
+        return RpcConfiguration.CODECS[RpcConfiguration.CODEC_BINARY];
+    }
+
+    public void encode(Object message, ByteBuffer out, RpcSymbolTable symbols) throws IOException {
+        new BinaryObjectOutput(out, registry, symbols).writeObject(message);
+    }
+
+    public Object decode(ByteBuffer in, RpcSymbolTable symbols) throws IOException,
+            ClassNotFoundException {
+        return new BinaryObjectInput(in, registry, symbols).readObject();
+    }
+}
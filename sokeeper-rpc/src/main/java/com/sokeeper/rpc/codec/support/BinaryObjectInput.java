@@ -0,0 +1,293 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.codec.support;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.mina.common.ByteBuffer;
+
+import com.sokeeper.rpc.codec.RpcSymbolTable;
+import com.sokeeper.util.Assert;
+
+/**
+ * Reads the tagged binary format written by {@link BinaryObjectOutput}.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class BinaryObjectInput {
+    final private ByteBuffer         buffer;
+    final private BinaryTypeRegistry registry;
+    final private RpcSymbolTable     symbols;
+    private List<String>             strings;
+
+    /**
+     * @param buffer: the frame body, can not be null.
+     * @param registry: the registered types, can not be null.
+     * @param symbols: the symbols published by the remote peer, could be null.
+     */
+    public BinaryObjectInput(ByteBuffer buffer, BinaryTypeRegistry registry, RpcSymbolTable symbols) {
+        Assert.notNull(buffer, "buffer can not be null.");
+        Assert.notNull(registry, "registry can not be null.");
+        this.buffer = buffer;
+        this.registry = registry;
+        this.symbols = symbols;
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public byte readByte() {
+        return buffer.get();
+    }
+
+    public boolean readBoolean() throws IOException {
+        byte tag = buffer.get();
+        if (tag != BinaryObjectOutput.TAG_TRUE && tag != BinaryObjectOutput.TAG_FALSE) {
+            throw new StreamCorruptedException("boolean expected but got tag:" + tag);
+        }
+        return tag == BinaryObjectOutput.TAG_TRUE;
+    }
+
+    public int readVarInt() throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("malformed var int.");
+    }
+
+    public long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new StreamCorruptedException("malformed var long.");
+    }
+
+    public String readRawString() throws IOException {
+        int length = readLength();
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, BinaryObjectOutput.UTF8);
+    }
+
+    public String readSymbol() throws IOException {
+        int id = readVarInt();
+        if (id == BinaryObjectOutput.SYMBOL_INLINE) {
+            return readRawString();
+        }
+        String symbol = symbols == null ? null : symbols.getSymbol(id - 1);
+        if (symbol == null) {
+            throw new StreamCorruptedException("undefined symbol:" + (id - 1));
+        }
+        return symbol;
+    }
+
+    public String readString() throws IOException, ClassNotFoundException {
+        return cast(readObject(), String.class);
+    }
+
+    public Long readLong() throws IOException, ClassNotFoundException {
+        return cast(readObject(), Long.class);
+    }
+
+    public Boolean readBooleanObject() throws IOException, ClassNotFoundException {
+        return cast(readObject(), Boolean.class);
+    }
+
+    public Timestamp readTimestamp() throws IOException, ClassNotFoundException {
+        return cast(readObject(), Timestamp.class);
+    }
+
+    public Object readObject() throws IOException, ClassNotFoundException {
+        byte tag = buffer.get();
+        switch (tag) {
+            case BinaryObjectOutput.TAG_NULL:
+                return null;
+            case BinaryObjectOutput.TAG_TRUE:
+                return Boolean.TRUE;
+            case BinaryObjectOutput.TAG_FALSE:
+                return Boolean.FALSE;
+            case BinaryObjectOutput.TAG_INT: {
+                int i = readVarInt();
+                return (i >>> 1) ^ -(i & 1);
+            }
+            case BinaryObjectOutput.TAG_LONG: {
+                long l = readVarLong();
+                return (l >>> 1) ^ -(l & 1);
+            }
+            case BinaryObjectOutput.TAG_STRING: {
+                String value = readRawString();
+                if (value.length() > 0) {
+                    if (strings == null) {
+                        strings = new ArrayList<String>();
+                    }
+                    strings.add(value);
+                }
+                return value;
+            }
+            case BinaryObjectOutput.TAG_STRING_REF: {
+                int index = readVarInt();
+                if (strings == null || index < 0 || index >= strings.size()) {
+                    throw new StreamCorruptedException("illegal string reference:" + index);
+                }
+                return strings.get(index);
+            }
+            case BinaryObjectOutput.TAG_DOUBLE:
+                return buffer.getDouble();
+            case BinaryObjectOutput.TAG_FLOAT:
+                return buffer.getFloat();
+            case BinaryObjectOutput.TAG_SHORT:
+                return buffer.getShort();
+            case BinaryObjectOutput.TAG_BYTE:
+                return buffer.get();
+            case BinaryObjectOutput.TAG_CHAR:
+                return buffer.getChar();
+            case BinaryObjectOutput.TAG_BYTES: {
+                byte[] bytes = new byte[readLength()];
+                buffer.get(bytes);
+                return bytes;
+            }
+            case BinaryObjectOutput.TAG_ARRAY: {
+                Object[] array = new Object[readLength()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readObject();
+                }
+                return array;
+            }
+            case BinaryObjectOutput.TAG_TIMESTAMP: {
+                Timestamp timestamp = new Timestamp(readVarLong());
+                timestamp.setNanos(readVarInt());
+                return timestamp;
+            }
+            case BinaryObjectOutput.TAG_DATE:
+                return new Date(readVarLong());
+            case BinaryObjectOutput.TAG_ARRAY_LIST: {
+                int size = readLength();
+                return readCollection(new ArrayList<Object>(size), size);
+            }
+            case BinaryObjectOutput.TAG_LINKED_LIST:
+                return readCollection(new LinkedList<Object>(), readLength());
+            case BinaryObjectOutput.TAG_HASH_SET: {
+                int size = readLength();
+                return readCollection(new HashSet<Object>(capacityOf(size)), size);
+            }
+            case BinaryObjectOutput.TAG_LINKED_SET: {
+                int size = readLength();
+                return readCollection(new LinkedHashSet<Object>(capacityOf(size)), size);
+            }
+            case BinaryObjectOutput.TAG_HASH_MAP: {
+                int size = readLength();
+                return readMap(new HashMap<Object, Object>(capacityOf(size)), size);
+            }
+            case BinaryObjectOutput.TAG_LINKED_MAP: {
+                int size = readLength();
+                return readMap(new LinkedHashMap<Object, Object>(capacityOf(size)), size);
+            }
+            case BinaryObjectOutput.TAG_REGISTERED: {
+                int typeId = readVarInt();
+                BinaryTypeRegistry.Registration registration = registry.getRegistration(typeId);
+                if (registration == null) {
+                    throw new ClassNotFoundException("unregistered binary type id:" + typeId);
+                }
+                return registration.read(this);
+            }
+            case BinaryObjectOutput.TAG_SERIALIZABLE:
+                return readSerializable();
+            default:
+                throw new StreamCorruptedException("unknown tag:" + tag);
+        }
+    }
+
+    private int readLength() throws IOException {
+        int length = readVarInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new StreamCorruptedException("illegal length:" + length);
+        }
+        return length;
+    }
+
+    private static int capacityOf(int size) {
+        return size < 3 ? 4 : (int) (size / 0.75f) + 1;
+    }
+
+    private Collection<Object> readCollection(Collection<Object> collection, int size)
+            throws IOException, ClassNotFoundException {
+        for (int i = 0; i < size; i++) {
+            collection.add(readObject());
+        }
+        return collection;
+    }
+
+    private Map<Object, Object> readMap(Map<Object, Object> map, int size) throws IOException,
+            ClassNotFoundException {
+        for (int i = 0; i < size; i++) {
+            Object key = readObject();
+            map.put(key, readObject());
+        }
+        return map;
+    }
+
+    private Object readSerializable() throws IOException, ClassNotFoundException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new StreamCorruptedException("illegal serializable length:" + length);
+        }
+        int limit = buffer.limit();
+        int end = buffer.position() + length;
+        buffer.limit(end);
+        try {
+            return new JavaSerializationCodec.ContextObjectInputStream(buffer.asInputStream())
+                    .readObject();
+        } finally {
+            buffer.limit(limit);
+            buffer.position(end);
+        }
+    }
+
+    private static <T> T cast(Object value, Class<T> type) throws StreamCorruptedException {
+        if (value != null && !type.isInstance(value)) {
+            throw new StreamCorruptedException(type.getName() + " expected but got "
+                    + value.getClass().getName());
+        }
+        return type.cast(value);
+    }
+}
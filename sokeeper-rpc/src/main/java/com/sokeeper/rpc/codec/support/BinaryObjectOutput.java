@@ -0,0 +1,295 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.codec.support;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.apache.mina.common.ByteBuffer;
+
+import com.sokeeper.rpc.codec.RpcSymbolTable;
+import com.sokeeper.util.Assert;
+
+/**
+ * Writes the tagged binary format of {@link BinaryCodec}. Strings repeated
+ * inside one frame are written once and then referenced by index.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class BinaryObjectOutput {
+    final static Charset                UTF8              = Charset.forName("UTF-8");
+
+    final static byte                   TAG_NULL          = 0;
+    final static byte                   TAG_TRUE          = 1;
+    final static byte                   TAG_FALSE         = 2;
+    final static byte                   TAG_INT           = 3;
+    final static byte                   TAG_LONG          = 4;
+    final static byte                   TAG_STRING        = 5;
+    final static byte                   TAG_STRING_REF    = 6;
+    final static byte                   TAG_DOUBLE        = 7;
+    final static byte                   TAG_FLOAT         = 8;
+    final static byte                   TAG_SHORT         = 9;
+    final static byte                   TAG_BYTE          = 10;
+    final static byte                   TAG_CHAR          = 11;
+    final static byte                   TAG_BYTES         = 12;
+    final static byte                   TAG_ARRAY         = 13;
+    final static byte                   TAG_DATE          = 14;
+    final static byte                   TAG_TIMESTAMP     = 15;
+    final static byte                   TAG_ARRAY_LIST    = 16;
+    final static byte                   TAG_LINKED_LIST   = 17;
+    final static byte                   TAG_HASH_SET      = 18;
+    final static byte                   TAG_LINKED_SET    = 19;
+    final static byte                   TAG_HASH_MAP      = 20;
+    final static byte                   TAG_LINKED_MAP    = 21;
+    final static byte                   TAG_REGISTERED    = 22;
+    final static byte                   TAG_SERIALIZABLE  = 23;
+
+    final static int                    SYMBOL_INLINE     = 0;
+
+    final private ByteBuffer            buffer;
+    final private BinaryTypeRegistry    registry;
+    final private RpcSymbolTable        symbols;
+    private Map<String, Integer>        strings;
+
+    /**
+     * @param buffer: the auto expandable buffer, can not be null.
+     * @param registry: the registered types, can not be null.
+     * @param symbols: could be null, then the symbols will be written inline.
+     */
+    public BinaryObjectOutput(ByteBuffer buffer, BinaryTypeRegistry registry,
+                              RpcSymbolTable symbols) {
+        Assert.notNull(buffer, "buffer can not be null.");
+        Assert.notNull(registry, "registry can not be null.");
+        this.buffer = buffer;
+        this.registry = registry;
+        this.symbols = symbols;
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    public void writeByte(int value) {
+        buffer.put((byte) value);
+    }
+
+    public void writeBoolean(boolean value) {
+        buffer.put(value ? TAG_TRUE : TAG_FALSE);
+    }
+
+    public void writeVarInt(int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    public void writeVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * write a nullable string.
+     */
+    public void writeString(String value) {
+        if (value == null) {
+            buffer.put(TAG_NULL);
+            return;
+        }
+        if (value.length() > 0) {
+            if (strings == null) {
+                strings = new HashMap<String, Integer>();
+            }
+            Integer index = strings.get(value);
+            if (index != null) {
+                buffer.put(TAG_STRING_REF);
+                writeVarInt(index);
+                return;
+            }
+            strings.put(value, strings.size());
+        }
+        buffer.put(TAG_STRING);
+        writeRawString(value);
+    }
+
+    /**
+     * write the length and the UTF-8 bytes of a not null string.
+     */
+    public void writeRawString(String value) {
+        int length = value.length();
+        boolean ascii = true;
+        for (int i = 0; i < length && ascii; i++) {
+            ascii = value.charAt(i) < 0x80;
+        }
+        if (ascii) {
+            writeVarInt(length);
+            for (int i = 0; i < length; i++) {
+                buffer.put((byte) value.charAt(i));
+            }
+        } else {
+            byte[] bytes = value.getBytes(UTF8);
+            writeVarInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    /**
+     * write a not null string through the session's symbol table, the symbol
+     * will be written inline when no symbol table or the table is full.
+     */
+    public void writeSymbol(String symbol) {
+        Assert.notNull(symbol, "symbol can not be null.");
+        int id = symbols == null ? -1 : symbols.define(symbol);
+        if (id < 0) {
+            writeVarInt(SYMBOL_INLINE);
+            writeRawString(symbol);
+        } else {
+            writeVarInt(id + 1);
+        }
+    }
+
+    public void writeObject(Object value) throws IOException {
+        if (value == null) {
+            buffer.put(TAG_NULL);
+            return;
+        }
+        Class<?> type = value.getClass();
+        if (type == String.class) {
+            writeString((String) value);
+        } else if (type == Integer.class) {
+            buffer.put(TAG_INT);
+            int i = (Integer) value;
+            writeVarInt((i << 1) ^ (i >> 31));
+        } else if (type == Long.class) {
+            buffer.put(TAG_LONG);
+            long l = (Long) value;
+            writeVarLong((l << 1) ^ (l >> 63));
+        } else if (type == Boolean.class) {
+            writeBoolean((Boolean) value);
+        } else if (type == Double.class) {
+            buffer.put(TAG_DOUBLE);
+            buffer.putDouble((Double) value);
+        } else if (type == Float.class) {
+            buffer.put(TAG_FLOAT);
+            buffer.putFloat((Float) value);
+        } else if (type == Short.class) {
+            buffer.put(TAG_SHORT);
+            buffer.putShort((Short) value);
+        } else if (type == Byte.class) {
+            buffer.put(TAG_BYTE);
+            buffer.put((Byte) value);
+        } else if (type == Character.class) {
+            buffer.put(TAG_CHAR);
+            buffer.putChar((Character) value);
+        } else if (type == byte[].class) {
+            byte[] bytes = (byte[]) value;
+            buffer.put(TAG_BYTES);
+            writeVarInt(bytes.length);
+            buffer.put(bytes);
+        } else if (type == Object[].class) {
+            Object[] array = (Object[]) value;
+            buffer.put(TAG_ARRAY);
+            writeVarInt(array.length);
+            for (Object element : array) {
+                writeObject(element);
+            }
+        } else if (type == Timestamp.class) {
+            Timestamp timestamp = (Timestamp) value;
+            buffer.put(TAG_TIMESTAMP);
+            writeVarLong(timestamp.getTime());
+            writeVarInt(timestamp.getNanos());
+        } else if (type == Date.class) {
+            buffer.put(TAG_DATE);
+            writeVarLong(((Date) value).getTime());
+        } else if (type == ArrayList.class) {
+            writeCollection(TAG_ARRAY_LIST, (Collection<?>) value);
+        } else if (type == LinkedList.class) {
+            writeCollection(TAG_LINKED_LIST, (Collection<?>) value);
+        } else if (type == HashSet.class) {
+            writeCollection(TAG_HASH_SET, (Collection<?>) value);
+        } else if (type == LinkedHashSet.class) {
+            writeCollection(TAG_LINKED_SET, (Collection<?>) value);
+        } else if (type == HashMap.class) {
+            writeMap(TAG_HASH_MAP, (Map<?, ?>) value);
+        } else if (type == LinkedHashMap.class) {
+            writeMap(TAG_LINKED_MAP, (Map<?, ?>) value);
+        } else {
+            BinaryTypeRegistry.Registration registration = registry.getRegistration(type);
+            if (registration != null) {
+                buffer.put(TAG_REGISTERED);
+                writeVarInt(registration.getTypeId());
+                registration.write(this, value);
+            } else if (value instanceof Serializable) {
+                writeSerializable(value);
+            } else {
+                throw new NotSerializableException(type.getName());
+            }
+        }
+    }
+
+    private void writeCollection(byte tag, Collection<?> collection) throws IOException {
+        buffer.put(tag);
+        writeVarInt(collection.size());
+        for (Object element : collection) {
+            writeObject(element);
+        }
+    }
+
+    private void writeMap(byte tag, Map<?, ?> map) throws IOException {
+        buffer.put(tag);
+        writeVarInt(map.size());
+        for (Entry<?, ?> entry : map.entrySet()) {
+            writeObject(entry.getKey());
+            writeObject(entry.getValue());
+        }
+    }
+
+    /**
+     * the fallback: java serialization prefixed with its length.
+     */
+    private void writeSerializable(Object value) throws IOException {
+        buffer.put(TAG_SERIALIZABLE);
+        int lengthPosition = buffer.position();
+        buffer.putInt(0);
+        ObjectOutputStream out = new ObjectOutputStream(buffer.asOutputStream());
+        out.writeObject(value);
+        out.flush();
+        buffer.putInt(lengthPosition, buffer.position() - lengthPosition - 4);
+    }
+}
@@ -0,0 +1,564 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.codec.support;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.sokeeper.domain.AssociationChangesEvent;
+import com.sokeeper.domain.ChangesEvent;
+import com.sokeeper.domain.DomainEntity;
+import com.sokeeper.domain.ResourceChangesEvent;
+import com.sokeeper.domain.ResourceType;
+import com.sokeeper.domain.resource.AssociationEntity;
+import com.sokeeper.domain.resource.AttributeEntity;
+import com.sokeeper.domain.resource.AttributedDomainEntity;
+import com.sokeeper.domain.resource.ResourceEntity;
+import com.sokeeper.domain.resource.ResourceKey;
+import com.sokeeper.rpc.codec.BinarySerializer;
+import com.sokeeper.rpc.message.HandshakeMessage;
+import com.sokeeper.rpc.message.RpcIdempotentRequest;
+import com.sokeeper.rpc.message.RpcRequest;
+import com.sokeeper.rpc.message.RpcResponse;
+import com.sokeeper.rpc.message.RpcStreamChunk;
+import com.sokeeper.rpc.message.RpcStreamCredit;
+import com.sokeeper.rpc.message.RpcStreamRequest;
+import com.sokeeper.util.Assert;
+import com.sokeeper.util.RpcAddress;
+import com.sokeeper.util.RpcSocketAddress;
+
+/**
+ * The types the binary codec writes field by field. The type ids are part of
+ * the wire format, so an id once assigned can never be reused for another
+ * type. Only the exact registered class matches, sub classes fall back to
+ * java serialization.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class BinaryTypeRegistry {
+    final static public int                        TYPE_RPC_REQUEST               = 1;
+    final static public int                        TYPE_RPC_RESPONSE              = 2;
+    final static public int                        TYPE_HANDSHAKE_MESSAGE         = 3;
+    final static public int                        TYPE_RPC_SOCKET_ADDRESS        = 4;
+    final static public int                        TYPE_RESOURCE_KEY              = 5;
+    final static public int                        TYPE_RESOURCE_ENTITY           = 6;
+    final static public int                        TYPE_ATTRIBUTE_ENTITY          = 7;
+    final static public int                        TYPE_ASSOCIATION_ENTITY        = 8;
+    final static public int                        TYPE_CHANGES_EVENT             = 9;
+    final static public int                        TYPE_RESOURCE_CHANGES_EVENT    = 10;
+    final static public int                        TYPE_ASSOCIATION_CHANGES_EVENT = 11;
+    final static public int                        TYPE_RESOURCE_TYPE             = 12;
+    final static public int                        TYPE_RPC_STREAM_REQUEST        = 13;
+    final static public int                        TYPE_RPC_STREAM_CHUNK          = 14;
+    final static public int                        TYPE_RPC_STREAM_CREDIT         = 15;
+    final static public int                        TYPE_RPC_IDEMPOTENT_REQUEST    = 16;
+
+    final static private BinaryTypeRegistry        DEFAULT                        = new BinaryTypeRegistry(
+                                                                                          true);
+
+    final private Map<Class<?>, Registration>      byType                         = new ConcurrentHashMap<Class<?>, Registration>();
+    final private Map<Integer, Registration>       byId                           = new ConcurrentHashMap<Integer, Registration>();
+
+    /**
+     * @return: the registry shared by all the binary codecs, which already
+     *          has the rpc messages and the sokeeper domain classes.
+     */
+    public static BinaryTypeRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param withDefaults: whether register the rpc messages and the sokeeper
+     *            domain classes.
+     */
+    public BinaryTypeRegistry(boolean withDefaults) {
+        if (withDefaults) {
+            registerDefaults();
+        }
+    }
+
+    /**
+     * register a type, both peers must register the same type with the same
+     * id.
+     *
+     * @param typeId: should > 0 and not registered yet.
+     * @param type: can not be null and not registered yet.
+     * @param serializer: can not be null.
+     */
+    public synchronized <T> void register(int typeId, Class<T> type, BinarySerializer<T> serializer) {
+        Assert.isTrue(typeId > 0, "typeId should > 0.");
+        Assert.notNull(type, "type can not be null.");
+        Assert.notNull(serializer, "serializer can not be null.");
+        Assert.isTrue(!byId.containsKey(typeId), "typeId already registered:" + typeId);
+        Assert.isTrue(!byType.containsKey(type), "type already registered:" + type.getName());
+        Registration registration = new Registration(typeId, type, serializer);
+        byId.put(typeId, registration);
+        byType.put(type, registration);
+    }
+
+    public Registration getRegistration(Class<?> type) {
+        return byType.get(type);
+    }
+
+    public Registration getRegistration(int typeId) {
+        return byId.get(typeId);
+    }
+
+    public static class Registration {
+        final private int                      typeId;
+        final private Class<?>                 type;
+        final private BinarySerializer<Object> serializer;
+
+        @SuppressWarnings("unchecked")
+        Registration(int typeId, Class<?> type, BinarySerializer<?> serializer) {
+            this.typeId = typeId;
+            this.type = type;
+            this.serializer = (BinarySerializer<Object>) serializer;
+        }
+
+        public int getTypeId() {
+            return typeId;
+        }
+
+        public Class<?> getType() {
+            return type;
+        }
+
+        void write(BinaryObjectOutput out, Object value) throws IOException {
+            serializer.write(out, value);
+        }
+
+        Object read(BinaryObjectInput in) throws IOException, ClassNotFoundException {
+            return serializer.read(in);
+        }
+    }
+
+    private static void writeDomainEntity(BinaryObjectOutput out, DomainEntity entity)
+            throws IOException {
+        out.writeObject(entity.getId());
+        out.writeObject(entity.getGmtCreated());
+        out.writeObject(entity.getGmtModified());
+    }
+
+    private static void readDomainEntity(BinaryObjectInput in, DomainEntity entity)
+            throws IOException, ClassNotFoundException {
+        entity.setId(in.readLong());
+        entity.setGmtCreated(in.readTimestamp());
+        entity.setGmtModified(in.readTimestamp());
+    }
+
+    private static void writeAttributes(BinaryObjectOutput out, AttributedDomainEntity entity)
+            throws IOException {
+        Collection<AttributeEntity> attributes = entity.getAttributes();
+        out.writeVarInt(attributes.size());
+        for (AttributeEntity attribute : attributes) {
+            out.writeObject(attribute);
+        }
+    }
+
+    private static void readAttributes(BinaryObjectInput in, AttributedDomainEntity entity)
+            throws IOException, ClassNotFoundException {
+        int size = in.readVarInt();
+        for (int i = 0; i < size; i++) {
+            entity.addAttribute((AttributeEntity) in.readObject());
+        }
+    }
+
+    private static void writeChangesEvent(BinaryObjectOutput out, ChangesEvent event)
+            throws IOException {
+        out.writeString(event.getChanges());
+        out.writeString(event.getSubscriber());
+        out.writeObject(event.getSequence());
+    }
+
+    private static void readChangesEvent(BinaryObjectInput in, ChangesEvent event)
+            throws IOException, ClassNotFoundException {
+        event.setChanges(in.readString());
+        event.setSubscriber(in.readString());
+        event.setSequence(in.readLong());
+    }
+
+    private static void writeResourceKey(BinaryObjectOutput out, ResourceKey key) {
+        out.writeString(key.getResourceType());
+        out.writeString(key.getResourceName());
+    }
+
+    /**
+     * the resource key setters refuse empty values, so only the written ones
+     * are restored.
+     */
+    private static void readResourceKey(BinaryObjectInput in, ResourceKey key)
+            throws IOException, ClassNotFoundException {
+        String type = in.readString();
+        String name = in.readString();
+        if (type != null && type.length() > 0) {
+            key.setResourceType(type);
+        }
+        if (name != null && name.length() > 0) {
+            key.setResourceName(name);
+        }
+    }
+
+    private static void writeRequest(BinaryObjectOutput out, RpcRequest request)
+            throws IOException {
+        out.writeVarLong(request.getId());
+        // the remaining milliseconds + 1, or 0 when no deadline
+        out.writeVarLong(request.getRemaining(System.currentTimeMillis()) + 1);
+        // the method id + 1, or 0 followed by the service name
+        out.writeVarInt(request.getMethodId() + 1);
+        if (request.getMethodId() < 0) {
+            out.writeSymbol(request.getServiceName());
+        }
+        Object[] arguments = request.getArguments();
+        out.writeVarInt(arguments.length);
+        for (Object argument : arguments) {
+            out.writeObject(argument);
+        }
+    }
+
+    /**
+     * @param window: > 0 for the stream request.
+     * @param key: not null for the idempotent request.
+     */
+    private static RpcRequest readRequest(BinaryObjectInput in, int window, String key)
+            throws IOException, ClassNotFoundException {
+        long id = in.readVarLong();
+        long remaining = in.readVarLong() - 1;
+        int methodId = in.readVarInt() - 1;
+        String serviceName = methodId < 0 ? in.readSymbol() : null;
+        Object[] arguments = new Object[in.readVarInt()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = in.readObject();
+        }
+        RpcRequest request = null;
+        if (window > 0) {
+            request = new RpcStreamRequest(id, methodId, serviceName, arguments, window);
+        } else if (key != null) {
+            request = new RpcIdempotentRequest(id, methodId, serviceName, arguments, key);
+        } else {
+            request = new RpcRequest(id, methodId, serviceName, arguments);
+        }
+        request.setRemaining(System.currentTimeMillis(), remaining);
+        return request;
+    }
+
+    private void registerDefaults() {
+        register(TYPE_RPC_REQUEST, RpcRequest.class, new BinarySerializer<RpcRequest>() {
+            public void write(BinaryObjectOutput out, RpcRequest request) throws IOException {
+                writeRequest(out, request);
+            }
+
+            public RpcRequest read(BinaryObjectInput in) throws IOException,
+                    ClassNotFoundException {
+                return readRequest(in, 0, null);
+            }
+        });
+        register(TYPE_RPC_RESPONSE, RpcResponse.class, new BinarySerializer<RpcResponse>() {
+            public void write(BinaryObjectOutput out, RpcResponse response) throws IOException {
+                out.writeVarLong(response.getId());
+                out.writeObject(response.getResult());
+            }
+
+            public RpcResponse read(BinaryObjectInput in) throws IOException,
+                    ClassNotFoundException {
+                long id = in.readVarLong();
+                return new RpcResponse(id, in.readObject());
+            }
+        });
+        register(TYPE_HANDSHAKE_MESSAGE, HandshakeMessage.class,
+                new BinarySerializer<HandshakeMessage>() {
+                    public void write(BinaryObjectOutput out, HandshakeMessage message)
+                            throws IOException {
+                        Map<String, String> parameters = message.getParameters();
+                        out.writeVarInt(parameters.size());
+                        for (Entry<String, String> parameter : parameters.entrySet()) {
+                            out.writeString(parameter.getKey());
+                            out.writeString(parameter.getValue());
+                        }
+                        out.writeObject(message.getServers());
+                    }
+
+                    @SuppressWarnings("unchecked")
+                    public HandshakeMessage read(BinaryObjectInput in) throws IOException,
+                            ClassNotFoundException {
+                        HandshakeMessage message = new HandshakeMessage();
+                        int size = in.readVarInt();
+                        for (int i = 0; i < size; i++) {
+                            String name = in.readString();
+                            message.addParameter(name, in.readString());
+                        }
+                        message.setServers((Set<RpcAddress>) in.readObject());
+                        return message;
+                    }
+                });
+        register(TYPE_RPC_SOCKET_ADDRESS, RpcSocketAddress.class,
+                new BinarySerializer<RpcSocketAddress>() {
+                    public void write(BinaryObjectOutput out, RpcSocketAddress address) {
+                        // the ip is written when it's resolved, so no DNS lookup on the
+                        // remote side.
+                        out.writeString(address.isUnresolved() ? address.getHostName() : address
+                                .getAddress().getHostAddress());
+                        out.writeVarInt(address.getPort());
+                    }
+
+                    public RpcSocketAddress read(BinaryObjectInput in) throws IOException,
+                            ClassNotFoundException {
+                        String host = in.readString();
+                        return new RpcSocketAddress(host, in.readVarInt());
+                    }
+                });
+        register(TYPE_RESOURCE_KEY, ResourceKey.class, new BinarySerializer<ResourceKey>() {
+            public void write(BinaryObjectOutput out, ResourceKey key) {
+                writeResourceKey(out, key);
+            }
+
+            public ResourceKey read(BinaryObjectInput in) throws IOException,
+                    ClassNotFoundException {
+                ResourceKey key = new ResourceKey();
+                readResourceKey(in, key);
+                return key;
+            }
+        });
+        register(TYPE_RESOURCE_ENTITY, ResourceEntity.class,
+                new BinarySerializer<ResourceEntity>() {
+                    public void write(BinaryObjectOutput out, ResourceEntity entity)
+                            throws IOException {
+                        writeDomainEntity(out, entity);
+                        writeAttributes(out, entity);
+                        writeResourceKey(out, entity.getResourceKey());
+                        out.writeString(entity.getDescription());
+                        out.writeObject(entity.getVersion());
+                    }
+
+                    public ResourceEntity read(BinaryObjectInput in) throws IOException,
+                            ClassNotFoundException {
+                        ResourceEntity entity = new ResourceEntity();
+                        readDomainEntity(in, entity);
+                        readAttributes(in, entity);
+                        readResourceKey(in, entity.getResourceKey());
+                        entity.setDescription(in.readString());
+                        Long version = in.readLong();
+                        if (version != null) {
+                            entity.setVersion(version);
+                        }
+                        return entity;
+                    }
+                });
+        register(TYPE_ATTRIBUTE_ENTITY, AttributeEntity.class,
+                new BinarySerializer<AttributeEntity>() {
+                    public void write(BinaryObjectOutput out, AttributeEntity entity)
+                            throws IOException {
+                        writeDomainEntity(out, entity);
+                        out.writeObject(entity.getOwnerId());
+                        out.writeString(entity.getKey());
+                        out.writeString(entity.getValue());
+                        out.writeString(entity.getType());
+                        out.writeString(entity.getDescription());
+                    }
+
+                    public AttributeEntity read(BinaryObjectInput in) throws IOException,
+                            ClassNotFoundException {
+                        AttributeEntity entity = new AttributeEntity();
+                        readDomainEntity(in, entity);
+                        entity.setOwnerId(in.readLong());
+                        entity.setKey(in.readString());
+                        entity.setValue(in.readString());
+                        entity.setType(in.readString());
+                        entity.setDescription(in.readString());
+                        return entity;
+                    }
+                });
+        register(TYPE_ASSOCIATION_ENTITY, AssociationEntity.class,
+                new BinarySerializer<AssociationEntity>() {
+                    public void write(BinaryObjectOutput out, AssociationEntity entity)
+                            throws IOException {
+                        writeDomainEntity(out, entity);
+                        writeAttributes(out, entity);
+                        out.writeObject(entity.getLeftId());
+                        out.writeObject(entity.getRightId());
+                        out.writeBoolean(entity.isChanged());
+                    }
+
+                    public AssociationEntity read(BinaryObjectInput in) throws IOException,
+                            ClassNotFoundException {
+                        AssociationEntity entity = new AssociationEntity();
+                        readDomainEntity(in, entity);
+                        readAttributes(in, entity);
+                        entity.setLeftId(in.readLong());
+                        entity.setRightId(in.readLong());
+                        entity.setChanged(in.readBoolean());
+                        return entity;
+                    }
+                });
+        register(TYPE_CHANGES_EVENT, ChangesEvent.class, new BinarySerializer<ChangesEvent>() {
+            public void write(BinaryObjectOutput out, ChangesEvent event) throws IOException {
+                writeChangesEvent(out, event);
+            }
+
+            public ChangesEvent read(BinaryObjectInput in) throws IOException,
+                    ClassNotFoundException {
+                ChangesEvent event = new ChangesEvent();
+                readChangesEvent(in, event);
+                return event;
+            }
+        });
+        register(TYPE_RESOURCE_CHANGES_EVENT, ResourceChangesEvent.class,
+                new BinarySerializer<ResourceChangesEvent>() {
+                    public void write(BinaryObjectOutput out, ResourceChangesEvent event)
+                            throws IOException {
+                        writeChangesEvent(out, event);
+                        writeResourceKey(out, event.getResourceKey());
+                    }
+
+                    public ResourceChangesEvent read(BinaryObjectInput in) throws IOException,
+                            ClassNotFoundException {
+                        ResourceChangesEvent event = new ResourceChangesEvent();
+                        readChangesEvent(in, event);
+                        readResourceKey(in, event.getResourceKey());
+                        return event;
+                    }
+                });
+        register(TYPE_ASSOCIATION_CHANGES_EVENT, AssociationChangesEvent.class,
+                new BinarySerializer<AssociationChangesEvent>() {
+                    public void write(BinaryObjectOutput out, AssociationChangesEvent event)
+                            throws IOException {
+                        writeChangesEvent(out, event);
+                        writeResourceKey(out, event.getLeftKey());
+                        writeResourceKey(out, event.getRightKey());
+                    }
+
+                    public AssociationChangesEvent read(BinaryObjectInput in) throws IOException,
+                            ClassNotFoundException {
+                        AssociationChangesEvent event = new AssociationChangesEvent();
+                        readChangesEvent(in, event);
+                        readResourceKey(in, event.getLeftKey());
+                        readResourceKey(in, event.getRightKey());
+                        return event;
+                    }
+                });
+        register(TYPE_RESOURCE_TYPE, ResourceType.class, new BinarySerializer<ResourceType>() {
+            public void write(BinaryObjectOutput out, ResourceType type) throws IOException {
+                writeDomainEntity(out, type);
+                out.writeString(type.getTypeName());
+                out.writeObject(type.getOnlineResource());
+                out.writeObject(type.getKeepHistoric());
+            }
+
+            public ResourceType read(BinaryObjectInput in) throws IOException,
+                    ClassNotFoundException {
+                ResourceType type = new ResourceType();
+                readDomainEntity(in, type);
+                type.setTypeName(in.readString());
+                Boolean onlineResource = in.readBooleanObject();
+                if (onlineResource != null) {
+                    type.setOnlineResource(onlineResource);
+                }
+                Boolean keepHistoric = in.readBooleanObject();
+                if (keepHistoric != null) {
+                    type.setKeepHistoric(keepHistoric);
+                }
+                return type;
+            }
+        });
+        register(TYPE_RPC_STREAM_REQUEST, RpcStreamRequest.class,
+                new BinarySerializer<RpcStreamRequest>() {
+                    public void write(BinaryObjectOutput out, RpcStreamRequest request)
+                            throws IOException {
+                        out.writeVarInt(request.getWindow());
+                        writeRequest(out, request);
+                    }
+
+                    public RpcStreamRequest read(BinaryObjectInput in) throws IOException,
+                            ClassNotFoundException {
+                        int window = in.readVarInt();
+                        if (window <= 0) {
+                            throw new StreamCorruptedException("illegal stream window:" + window);
+                        }
+                        return (RpcStreamRequest) readRequest(in, window, null);
+                    }
+                });
+        register(TYPE_RPC_STREAM_CHUNK, RpcStreamChunk.class,
+                new BinarySerializer<RpcStreamChunk>() {
+                    public void write(BinaryObjectOutput out, RpcStreamChunk chunk)
+                            throws IOException {
+                        out.writeVarLong(chunk.getId());
+                        out.writeVarInt(chunk.getSequence());
+                        out.writeBoolean(chunk.isLast());
+                        if (chunk.isLast()) {
+                            out.writeObject(chunk.getException());
+                        }
+                        Object[] items = chunk.getItems();
+                        out.writeVarInt(items.length);
+                        for (Object item : items) {
+                            out.writeObject(item);
+                        }
+                    }
+
+                    public RpcStreamChunk read(BinaryObjectInput in) throws IOException,
+                            ClassNotFoundException {
+                        long id = in.readVarLong();
+                        int sequence = in.readVarInt();
+                        boolean last = in.readBoolean();
+                        Throwable exception = last ? (Throwable) in.readObject() : null;
+                        Object[] items = new Object[in.readVarInt()];
+                        for (int i = 0; i < items.length; i++) {
+                            items[i] = in.readObject();
+                        }
+                        return new RpcStreamChunk(id, sequence, items, last, exception);
+                    }
+                });
+        register(TYPE_RPC_STREAM_CREDIT, RpcStreamCredit.class,
+                new BinarySerializer<RpcStreamCredit>() {
+                    public void write(BinaryObjectOutput out, RpcStreamCredit credit)
+                            throws IOException {
+                        out.writeVarLong(credit.getId());
+                        out.writeVarInt(credit.getCredits());
+                    }
+
+                    public RpcStreamCredit read(BinaryObjectInput in) throws IOException,
+                            ClassNotFoundException {
+                        long id = in.readVarLong();
+                        return new RpcStreamCredit(id, in.readVarInt());
+                    }
+                });
+        register(TYPE_RPC_IDEMPOTENT_REQUEST, RpcIdempotentRequest.class,
+                new BinarySerializer<RpcIdempotentRequest>() {
+                    public void write(BinaryObjectOutput out, RpcIdempotentRequest request)
+                            throws IOException {
+                        out.writeString(request.getKey());
+                        writeRequest(out, request);
+                    }
+
+                    public RpcIdempotentRequest read(BinaryObjectInput in) throws IOException,
+                            ClassNotFoundException {
+                        String key = in.readString();
+                        if (key == null || key.length() == 0) {
+                            throw new StreamCorruptedException("empty idempotency key");
+                        }
+                        return (RpcIdempotentRequest) readRequest(in, 0, key);
+                    }
+                });
+    }
+}
\ No newline at end of file
@@ -0,0 +1,84 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.codec.support;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+
+import org.apache.mina.common.ByteBuffer;
+
+import com.sokeeper.rpc.codec.RpcCodec;
+import com.sokeeper.rpc.codec.RpcSymbolTable;
+import com.sokeeper.rpc.message.RpcConfiguration;
+
+/**
+ * The fallback codec: plain java serialization, it's also the codec used
+ * before the handshake negotiated anything else.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class JavaSerializationCodec implements RpcCodec {
+
+    public int getId() {
+        return RpcConfiguration.CODEC_JAVA;
+    }
+
+    public String getName() {
+        return RpcConfiguration.CODECS[RpcConfiguration.CODEC_JAVA];
+    }
+
+    public void encode(Object message, ByteBuffer out, RpcSymbolTable symbols) throws IOException {
+        ObjectOutputStream oos = new ObjectOutputStream(out.asOutputStream());
+        oos.writeObject(message);
+        oos.flush();
+    }
+
+    public Object decode(ByteBuffer in, RpcSymbolTable symbols) throws IOException,
+            ClassNotFoundException {
+        return new ContextObjectInputStream(in.asInputStream()).readObject();
+    }
+
+    /**
+     * resolve the classes through the thread context class loader first, the
+     * same as the mina serialization codec did.
+     */
+    static class ContextObjectInputStream extends ObjectInputStream {
+
+        ContextObjectInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException,
+                ClassNotFoundException {
+            ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+            if (classLoader != null) {
+                try {
+                    return Class.forName(desc.getName(), false, classLoader);
+                } catch (ClassNotFoundException e) {
+                }
+            }
+            return super.resolveClass(desc);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.codec.support;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.mina.common.ByteBuffer;
+import org.apache.mina.common.IoSession;
+
+import com.sokeeper.rpc.codec.RpcFrame;
+import com.sokeeper.rpc.message.RpcRequest;
+import com.sokeeper.rpc.message.RpcResponse;
+import com.sokeeper.util.Assert;
+
+/**
+ * The wire format of the MINA object serialization codec the nodes before the
+ * frames talk: the length followed by a java serialization stream whose class
+ * descriptors are only the class names. The messages go in it until the
+ * handshake told the remote peer reads the frames, so the nodes not upgraded
+ * yet keep talking with the upgraded ones.
+ * <p>
+ * The requests and responses are written in their old form: the ids are
+ * strings and neither the method id nor the deadline is carried. The string
+ * ids of the old peers are mapped to the local ids of the session and back
+ * when answered.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+final class LegacySerialization {
+    final static public String      KEY_SESSION_FOREIGN_IDS = "_foreign_ids_";
+
+    // the ids given to the requests of the old peers, negative so they never
+    // clash with the ids the new peers send.
+    final static private AtomicLong FOREIGN_IDS             = new AtomicLong();
+
+    private LegacySerialization() {
+    }
+
+    /**
+     * @return: the encoded message, flipped.
+     * @throws IllegalArgumentException: when the encoded message is bigger
+     *             than maxObjectBytes.
+     */
+    static ByteBuffer encode(IoSession session, Object message, int maxObjectBytes)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(256).setAutoExpand(true);
+        buffer.putInt(0);
+        ObjectOutputStream out = new LegacyOutputStream(buffer.asOutputStream(), session);
+        out.writeObject(message);
+        out.flush();
+        int length = buffer.position() - RpcFrame.LENGTH_FIELD_SIZE;
+        if (length > maxObjectBytes) {
+            throw new IllegalArgumentException("The encoded object is too big: " + length + " (> "
+                    + maxObjectBytes + ')');
+        }
+        buffer.putInt(0, length);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * @param in: positioned at the length of the message, the whole message
+     *            should be available.
+     */
+    static Object decode(IoSession session, ByteBuffer in) throws IOException,
+            ClassNotFoundException {
+        int length = in.getInt();
+        int limit = in.limit();
+        int end = in.position() + length;
+        in.limit(end);
+        try {
+            return new LegacyInputStream(in.asInputStream(), session).readObject();
+        } finally {
+            in.limit(limit);
+            in.position(end);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Long, String> getForeignIds(IoSession session, boolean create) {
+        Map<Long, String> ids = (Map<Long, String>) session.getAttribute(KEY_SESSION_FOREIGN_IDS);
+        if (ids == null && create) {
+            // only the decoder of the session creates it
+            ids = new ConcurrentHashMap<Long, String>();
+            session.setAttribute(KEY_SESSION_FOREIGN_IDS, ids);
+        }
+        return ids;
+    }
+
+    private static Object toLegacy(IoSession session, Object message) {
+        if (message instanceof RpcRequest) {
+            RpcRequest request = (RpcRequest) message;
+            Assert.notNull(request.getServiceName(),
+                    "the request by method id can not be sent in the legacy format.");
+            return new LegacyRequest(String.valueOf(request.getId()), request.getServiceName(),
+                    request.getArguments());
+        }
+        if (message instanceof RpcResponse) {
+            RpcResponse response = (RpcResponse) message;
+            Map<Long, String> ids = getForeignIds(session, false);
+            String id = ids == null ? null : ids.remove(response.getId());
+            return new LegacyResponse(id == null ? String.valueOf(response.getId()) : id,
+                    response.getResult());
+        }
+        return message;
+    }
+
+    private static Object fromLegacy(IoSession session, Object message) throws IOException {
+        if (message instanceof LegacyRequest) {
+            LegacyRequest request = (LegacyRequest) message;
+            long id;
+            try {
+                id = Long.parseLong(request.id);
+            } catch (NumberFormatException e) {
+                id = -FOREIGN_IDS.incrementAndGet();
+                getForeignIds(session, true).put(id, request.id);
+            }
+            return new RpcRequest(id, request.serviceName, request.arguments);
+        }
+        if (message instanceof LegacyResponse) {
+            LegacyResponse response = (LegacyResponse) message;
+            try {
+                return new RpcResponse(Long.parseLong(response.id), response.result);
+            } catch (NumberFormatException e) {
+                throw new StreamCorruptedException("unknown response id:" + response.id);
+            }
+        }
+        return message;
+    }
+
+    /**
+     * @return: the class written under the given name.
+     */
+    private static Class<?> classOf(String name) throws ClassNotFoundException {
+        if (RpcRequest.class.getName().equals(name)) {
+            return LegacyRequest.class;
+        }
+        if (RpcResponse.class.getName().equals(name)) {
+            return LegacyResponse.class;
+        }
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        if (classLoader != null) {
+            try {
+                return Class.forName(name, true, classLoader);
+            } catch (ClassNotFoundException e) {
+            }
+        }
+        return Class.forName(name);
+    }
+
+    /**
+     * @return: the name the class is written under.
+     */
+    private static String nameOf(String className) {
+        if (LegacyRequest.class.getName().equals(className)) {
+            return RpcRequest.class.getName();
+        }
+        if (LegacyResponse.class.getName().equals(className)) {
+            return RpcResponse.class.getName();
+        }
+        return className;
+    }
+
+    private static class LegacyOutputStream extends ObjectOutputStream {
+        final private IoSession session;
+
+        LegacyOutputStream(OutputStream out, IoSession session) throws IOException {
+            super(out);
+            this.session = session;
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected void writeClassDescriptor(ObjectStreamClass desc) throws IOException {
+            Class<?> type = desc.forClass();
+            if (type != null && type.isPrimitive()) {
+                write(0);
+                super.writeClassDescriptor(desc);
+            } else {
+                write(1);
+                writeUTF(nameOf(desc.getName()));
+            }
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) throws IOException {
+            return toLegacy(session, obj);
+        }
+    }
+
+    private static class LegacyInputStream extends ObjectInputStream {
+        final private IoSession session;
+
+        LegacyInputStream(InputStream in, IoSession session) throws IOException {
+            super(in);
+            this.session = session;
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException,
+                ClassNotFoundException {
+            int type = read();
+            switch (type) {
+                case -1:
+                    throw new EOFException();
+                case 0:
+                    return super.readClassDescriptor();
+                case 1:
+                    return ObjectStreamClass.lookup(classOf(readUTF()));
+                default:
+                    throw new StreamCorruptedException("Unexpected class descriptor type: "
+                            + type);
+            }
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException,
+                ClassNotFoundException {
+            try {
+                return classOf(desc.getName());
+            } catch (ClassNotFoundException e) {
+                return super.resolveClass(desc);
+            }
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) throws IOException {
+            return fromLegacy(session, obj);
+        }
+    }
+
+    /**
+     * the serialized form of {@link RpcRequest} before the frames.
+     */
+    static class LegacyRequest implements Serializable {
+        private static final long serialVersionUID = 3287028427386134696L;
+
+        private String            id;
+        private String            serviceName;
+        private Object[]          arguments;
+
+        LegacyRequest(String id, String serviceName, Object[] arguments) {
+            this.id = id;
+            this.serviceName = serviceName;
+            this.arguments = arguments;
+        }
+    }
+
+    /**
+     * the serialized form of {@link RpcResponse} before the frames.
+     */
+    static class LegacyResponse implements Serializable {
+        private static final long serialVersionUID = 3693743114837586569L;
+
+        private String            id;
+        private Object            result;
+
+        LegacyResponse(String id, Object result) {
+            this.id = id;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.codec.support;
+
+import org.apache.mina.common.IoSession;
+import org.apache.mina.common.IoFilter.WriteRequest;
+import org.apache.mina.filter.codec.ProtocolCodecFactory;
+import org.apache.mina.filter.codec.ProtocolCodecFilter;
+
+import com.sokeeper.rpc.codec.RpcCodec;
+import com.sokeeper.rpc.codec.RpcCompressionStats;
+import com.sokeeper.rpc.message.RpcConfiguration;
+import com.sokeeper.util.Assert;
+
+/**
+ * The codec filter of the rpc sessions. The messages of each session are
+ * written in the MINA object serialization format until the handshake told
+ * the remote peer reads the frames, see {@link #setFramed(IoSession)}. The
+ * outgoing codec of each session is kept in the session attribute
+ * {@link #KEY_SESSION_CODEC} and defaults to the java serialization until the
+ * handshake negotiated another one. Likewise the frames are compressed only
+ * after the handshake told the remote peer can inflate them.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcCodecFilter extends ProtocolCodecFilter {
+    final static public String    KEY_SESSION_FRAMED            = "_framed_";
+    final static public String    KEY_SESSION_CODEC             = "_codec_";
+    final static public String    KEY_SESSION_COMPRESS_BYTES    = "_compress_bytes_";
+    final static public String    KEY_SESSION_COMPRESSION_STATS = "_compression_stats_";
+
+    final static private RpcCodec DEFAULT_CODEC                 = RpcProtocolCodecFactory
+                                                                        .getCodec(RpcConfiguration.CODEC_JAVA);
+
+    public RpcCodecFilter() {
+        this(new RpcProtocolCodecFactory());
+    }
+
+    public RpcCodecFilter(ProtocolCodecFactory factory) {
+        super(factory);
+    }
+
+    /**
+     * mina encodes in the writer's thread and only then enqueues the frames,
+     * the encoder keeps per session state (the symbols), so encoding and
+     * enqueueing of one session must happen atomically to keep the wire order
+     * same as the encoding order.
+     */
+    @Override
+    public void filterWrite(NextFilter nextFilter, IoSession session, WriteRequest writeRequest)
+            throws Exception {
+        synchronized (session) {
+            super.filterWrite(nextFilter, session, writeRequest);
+        }
+    }
+
+    /**
+     * @return: whether the remote peer told it reads the frames.
+     */
+    public static boolean isFramed(IoSession session) {
+        return Boolean.TRUE.equals(session.getAttribute(KEY_SESSION_FRAMED));
+    }
+
+    public static void setFramed(IoSession session) {
+        Assert.notNull(session, "session can not be null.");
+        session.setAttribute(KEY_SESSION_FRAMED, Boolean.TRUE);
+    }
+
+    public static RpcCodec getCodec(IoSession session) {
+        RpcCodec codec = (RpcCodec) session.getAttribute(KEY_SESSION_CODEC);
+        return codec == null ? DEFAULT_CODEC : codec;
+    }
+
+    public static void setCodec(IoSession session, RpcCodec codec) {
+        Assert.notNull(session, "session can not be null.");
+        Assert.notNull(codec, "codec can not be null.");
+        session.setAttribute(KEY_SESSION_CODEC, codec);
+    }
+
+    /**
+     * @return: the frames bigger than it are compressed, 0 means never.
+     */
+    public static int getCompressBytes(IoSession session) {
+        Integer compressBytes = (Integer) session.getAttribute(KEY_SESSION_COMPRESS_BYTES);
+        return compressBytes == null ? 0 : compressBytes;
+    }
+
+    /**
+     * @param compressBytes: should >= 0, 0 means never compressed.
+     */
+    public static void setCompressBytes(IoSession session, int compressBytes) {
+        Assert.notNull(session, "session can not be null.");
+        Assert.isTrue(compressBytes >= 0, "compressBytes should >= 0.");
+        session.setAttribute(KEY_SESSION_COMPRESS_BYTES, compressBytes);
+    }
+
+    /**
+     * @return: the compression counters of the session, created on demand.
+     */
+    public static RpcCompressionStats getCompressionStats(IoSession session) {
+        Assert.notNull(session, "session can not be null.");
+        RpcCompressionStats stats = (RpcCompressionStats) session
+                .getAttribute(KEY_SESSION_COMPRESSION_STATS);
+        if (stats == null) {
+            synchronized (session) {
+                stats = (RpcCompressionStats) session.getAttribute(KEY_SESSION_COMPRESSION_STATS);
+                if (stats == null) {
+                    stats = new RpcCompressionStats();
+                    session.setAttribute(KEY_SESSION_COMPRESSION_STATS, stats);
+                }
+            }
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.codec.support;
+
+import org.apache.mina.filter.codec.ProtocolCodecFactory;
+import org.apache.mina.filter.codec.ProtocolDecoder;
+import org.apache.mina.filter.codec.ProtocolEncoder;
+
+import com.sokeeper.rpc.codec.RpcCodec;
+import com.sokeeper.util.Assert;
+
+/**
+ * Creates the per session frame encoder and decoder. They talk the MINA
+ * object serialization format until the handshake told the remote peer reads
+ * the frames, so the nodes still running that codec keep working.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcProtocolCodecFactory implements ProtocolCodecFactory {
+    final static public int         DEFAULT_MAX_FRAME_BYTES = 1048576;
+
+    // indexed by the codec id
+    final static private RpcCodec[] CODECS                  = new RpcCodec[] {
+            new JavaSerializationCodec(), new BinaryCodec() };
+
+    final private int               maxFrameBytes;
+
+    public RpcProtocolCodecFactory() {
+        this(DEFAULT_MAX_FRAME_BYTES);
+    }
+
+    public RpcProtocolCodecFactory(int maxFrameBytes) {
+        Assert.isTrue(maxFrameBytes > 0, "maxFrameBytes should > 0.");
+        this.maxFrameBytes = maxFrameBytes;
+    }
+
+    /**
+     * @return: the codec or null when the id is unknown.
+     */
+    public static RpcCodec getCodec(int codecId) {
+        return (codecId >= 0 && codecId < CODECS.length) ? CODECS[codecId] : null;
+    }
+
+    public ProtocolEncoder getEncoder() throws Exception {
+        return new RpcProtocolEncoder(maxFrameBytes);
+    }
+
+    public ProtocolDecoder getDecoder() throws Exception {
+        return new RpcProtocolDecoder(maxFrameBytes);
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.codec.support;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.apache.mina.common.ByteBuffer;
+import org.apache.mina.common.IoSession;
+import org.apache.mina.filter.codec.CumulativeProtocolDecoder;
+import org.apache.mina.filter.codec.ProtocolDecoderException;
+import org.apache.mina.filter.codec.ProtocolDecoderOutput;
+
+import com.sokeeper.rpc.codec.RpcCodec;
+import com.sokeeper.rpc.codec.RpcFrame;
+import com.sokeeper.rpc.codec.RpcSymbolTable;
+import com.sokeeper.rpc.message.RpcRequest;
+import com.sokeeper.util.Assert;
+
+/**
+ * One decoder per session, it owns the receiving side symbol table, inflates
+ * the compressed frames and reassembles the chunked ones. The legacy messages
+ * are told from the frames by their first byte, so the remote peer may switch
+ * to the frames at any time.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcProtocolDecoder extends CumulativeProtocolDecoder {
+    final static private int     NO_OUTER_FRAME = -1;
+
+    final private RpcSymbolTable symbols        = new RpcSymbolTable();
+    final private int            maxFrameBytes;
+    private Inflater             inflater;
+    // the pieces of the chunked frame received so far
+    private ByteBuffer           chunks;
+
+    public RpcProtocolDecoder(int maxFrameBytes) {
+        Assert.isTrue(maxFrameBytes > 0, "maxFrameBytes should > 0.");
+        this.maxFrameBytes = maxFrameBytes;
+    }
+
+    @Override
+    protected boolean doDecode(IoSession session, ByteBuffer in, ProtocolDecoderOutput out)
+            throws Exception {
+        if (!in.prefixedDataAvailable(RpcFrame.LENGTH_FIELD_SIZE, maxFrameBytes)) {
+            return false;
+        }
+        if (in.getInt(in.position()) < 1) {
+            throw new ProtocolDecoderException("illegal frame length:" + in.getInt());
+        }
+        // the peers not reading the frames yet send the legacy messages
+        if (in.get(in.position() + RpcFrame.LENGTH_FIELD_SIZE) == RpcFrame.LEGACY_MAGIC) {
+            out.write(LegacySerialization.decode(session, in));
+            return true;
+        }
+        int length = in.getInt();
+        int limit = in.limit();
+        int end = in.position() + length;
+        in.limit(end);
+        try {
+            decodeFrame(session, in, out, NO_OUTER_FRAME);
+        } finally {
+            in.limit(limit);
+            in.position(end);
+        }
+        return true;
+    }
+
+    /**
+     * @param in: the header and the body of one frame.
+     * @param outerType: the type of the frame this one was carried in,
+     *            {@link #NO_OUTER_FRAME} when read from the wire directly.
+     */
+    private void decodeFrame(IoSession session, ByteBuffer in, ProtocolDecoderOutput out,
+                             int outerType) throws Exception {
+        byte header = in.get();
+        switch (RpcFrame.getType(header)) {
+            case RpcFrame.TYPE_MESSAGE:
+                out.write(getCodec(header).decode(in, symbols));
+                break;
+            case RpcFrame.TYPE_SYMBOL: {
+                BinaryObjectInput body = new BinaryObjectInput(in, BinaryTypeRegistry
+                        .getDefault(), null);
+                int id = body.readVarInt();
+                symbols.define(id, body.readRawString());
+                break;
+            }
+            case RpcFrame.TYPE_HEART_BEAT:
+                out.write(RpcFrame.getCodecId(header) == RpcFrame.HEART_BEAT_PONG
+                        ? RpcFrame.HEART_BEAT_ACK : RpcFrame.HEART_BEAT);
+                break;
+            case RpcFrame.TYPE_BROADCAST: {
+                BinaryObjectInput body = new BinaryObjectInput(in, BinaryTypeRegistry
+                        .getDefault(), null);
+                long id = body.readVarLong();
+                long remaining = body.readVarLong() - 1;
+                Object request = getCodec(header).decode(in, symbols);
+                if (!(request instanceof RpcRequest)) {
+                    throw new ProtocolDecoderException("illegal broadcast request:" + request);
+                }
+                RpcRequest received = new RpcRequest(id, ((RpcRequest) request).getServiceName(),
+                        ((RpcRequest) request).getArguments());
+                received.setRemaining(System.currentTimeMillis(), remaining);
+                out.write(received);
+                break;
+            }
+            case RpcFrame.TYPE_COMPRESSED:
+                if (outerType == RpcFrame.TYPE_COMPRESSED) {
+                    throw new ProtocolDecoderException("nested compressed frame.");
+                }
+                decodeFrame(session, inflate(session, in), out, RpcFrame.TYPE_COMPRESSED);
+                break;
+            case RpcFrame.TYPE_CHUNK: {
+                if (outerType != NO_OUTER_FRAME) {
+                    throw new ProtocolDecoderException("nested chunk frame.");
+                }
+                ByteBuffer frame = reassemble(in,
+                        RpcFrame.getCodecId(header) == RpcFrame.CHUNK_LAST);
+                if (frame != null) {
+                    decodeFrame(session, frame, out, RpcFrame.TYPE_CHUNK);
+                }
+                break;
+            }
+            default:
+                throw new ProtocolDecoderException("unknown frame type:"
+                        + RpcFrame.getType(header));
+        }
+    }
+
+    /**
+     * @return: the header and the body of the reassembled frame, null when
+     *          more chunks to come.
+     */
+    private ByteBuffer reassemble(ByteBuffer in, boolean last) throws Exception {
+        if (chunks == null) {
+            chunks = ByteBuffer.allocate(1024).setAutoExpand(true);
+        }
+        if (chunks.position() + in.remaining() > RpcFrame.LENGTH_FIELD_SIZE + maxFrameBytes) {
+            throw new ProtocolDecoderException("the chunked frame is too big.");
+        }
+        chunks.put(in);
+        if (!last) {
+            return null;
+        }
+        ByteBuffer frame = chunks;
+        chunks = null;
+        frame.flip();
+        int length = frame.remaining() < RpcFrame.LENGTH_FIELD_SIZE ? -1 : frame.getInt();
+        if (length < 1 || length != frame.remaining()) {
+            throw new ProtocolDecoderException("illegal chunked frame length:" + length);
+        }
+        return frame;
+    }
+
+    private ByteBuffer inflate(IoSession session, ByteBuffer in) throws Exception {
+        int bytes = in.remaining() + 1;
+        int length = new BinaryObjectInput(in, BinaryTypeRegistry.getDefault(), null)
+                .readVarInt();
+        if (length < 1 || length > maxFrameBytes) {
+            throw new ProtocolDecoderException("illegal inflated frame length:" + length);
+        }
+        byte[] deflated = new byte[in.remaining()];
+        in.get(deflated);
+        if (inflater == null) {
+            inflater = new Inflater();
+        } else {
+            inflater.reset();
+        }
+        inflater.setInput(deflated);
+        byte[] raw = new byte[length];
+        int size = 0;
+        try {
+            while (size < length && !inflater.finished()) {
+                int inflatedBytes = inflater.inflate(raw, size, length - size);
+                if (inflatedBytes == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                size += inflatedBytes;
+            }
+        } catch (DataFormatException e) {
+            throw new ProtocolDecoderException(e);
+        }
+        if (size != length || !inflater.finished()) {
+            throw new ProtocolDecoderException("the inflated frame length mismatched:" + length);
+        }
+        RpcCodecFilter.getCompressionStats(session).onInflated(bytes, length);
+        return ByteBuffer.wrap(raw);
+    }
+
+    @Override
+    public void dispose(IoSession session) throws Exception {
+        super.dispose(session);
+        if (inflater != null) {
+            inflater.end();
+        }
+    }
+
+    private RpcCodec getCodec(byte header) throws ProtocolDecoderException {
+        RpcCodec codec = RpcProtocolCodecFactory.getCodec(RpcFrame.getCodecId(header));
+        if (codec == null) {
+            throw new ProtocolDecoderException("unknown codec:" + RpcFrame.getCodecId(header));
+        }
+        return codec;
+    }
+}
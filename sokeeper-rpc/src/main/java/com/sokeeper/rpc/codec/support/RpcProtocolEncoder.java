@@ -0,0 +1,209 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.codec.support;
+
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.apache.mina.common.ByteBuffer;
+import org.apache.mina.common.IoSession;
+import org.apache.mina.filter.codec.ProtocolEncoder;
+import org.apache.mina.filter.codec.ProtocolEncoderOutput;
+
+import com.sokeeper.rpc.codec.RpcCodec;
+import com.sokeeper.rpc.codec.RpcCompressionStats;
+import com.sokeeper.rpc.codec.RpcFrame;
+import com.sokeeper.rpc.codec.RpcSymbolTable;
+import com.sokeeper.rpc.message.RpcBroadcastPayload;
+import com.sokeeper.rpc.message.RpcBroadcastRequest;
+import com.sokeeper.rpc.message.RpcRequest;
+import com.sokeeper.util.Assert;
+
+/**
+ * One encoder per session, it owns the sending side symbol table so the
+ * {@link RpcCodecFilter} serializes the encoding of the session. The message
+ * frames bigger than the negotiated threshold are deflated, the symbol,
+ * heart beat and broadcast frames are always sent as they are. Until the
+ * session is framed the messages are written in the legacy format.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcProtocolEncoder implements ProtocolEncoder {
+    final private RpcSymbolTable symbols = new RpcSymbolTable();
+    final private int            maxFrameBytes;
+    private Deflater             deflater;
+
+    public RpcProtocolEncoder(int maxFrameBytes) {
+        Assert.isTrue(maxFrameBytes > 0, "maxFrameBytes should > 0.");
+        this.maxFrameBytes = maxFrameBytes;
+    }
+
+    public void encode(IoSession session, Object message, ProtocolEncoderOutput out)
+            throws Exception {
+        if (!RpcCodecFilter.isFramed(session)) {
+            out.write(LegacySerialization.encode(session, message, maxFrameBytes));
+            return;
+        }
+        if (RpcFrame.HEART_BEAT.equals(message) || RpcFrame.HEART_BEAT_ACK.equals(message)) {
+            ByteBuffer frame = ByteBuffer.allocate(RpcFrame.LENGTH_FIELD_SIZE + 1);
+            frame.putInt(1);
+            frame.put(RpcFrame.header(RpcFrame.TYPE_HEART_BEAT, RpcFrame.HEART_BEAT
+                    .equals(message) ? RpcFrame.HEART_BEAT_PING : RpcFrame.HEART_BEAT_PONG));
+            frame.flip();
+            out.write(frame);
+            return;
+        }
+        RpcCodec codec = RpcCodecFilter.getCodec(session);
+        if (message instanceof RpcBroadcastRequest
+                && ((RpcBroadcastRequest) message).getPayload() != null) {
+            encodeBroadcast(codec, (RpcBroadcastRequest) message, out);
+            return;
+        }
+        ByteBuffer frame = ByteBuffer.allocate(256).setAutoExpand(true);
+        frame.putInt(0);
+        frame.put(RpcFrame.header(RpcFrame.TYPE_MESSAGE, codec.getId()));
+        codec.encode(message, frame, symbols);
+        int length = frame.position() - RpcFrame.LENGTH_FIELD_SIZE;
+        if (length > maxFrameBytes) {
+            throw new IllegalArgumentException("The encoded object is too big: " + length + " (> "
+                    + maxFrameBytes + ')');
+        }
+        frame.putInt(0, length);
+        writeSymbols(out);
+        frame.flip();
+        int compressBytes = RpcCodecFilter.getCompressBytes(session);
+        if (compressBytes > 0 && length > compressBytes) {
+            frame = compress(session, frame, length);
+        }
+        out.write(frame);
+    }
+
+    /**
+     * @return: the compressed frame, or the given one when deflating did not
+     *          make it smaller.
+     */
+    private ByteBuffer compress(IoSession session, ByteBuffer frame, int length) {
+        byte[] raw = new byte[length];
+        frame.position(RpcFrame.LENGTH_FIELD_SIZE);
+        frame.get(raw);
+        frame.rewind();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.BEST_SPEED);
+        } else {
+            deflater.reset();
+        }
+        deflater.setInput(raw);
+        deflater.finish();
+        byte[] deflated = new byte[length];
+        int size = 0;
+        while (!deflater.finished() && size < deflated.length) {
+            size += deflater.deflate(deflated, size, deflated.length - size);
+        }
+        RpcCompressionStats stats = RpcCodecFilter.getCompressionStats(session);
+        // the header and the length of the original frame take 6 bytes at most
+        if (!deflater.finished() || size + 6 >= length) {
+            stats.onSkipped();
+            return frame;
+        }
+        ByteBuffer compressed = ByteBuffer.allocate(RpcFrame.LENGTH_FIELD_SIZE + 6 + size);
+        compressed.putInt(0);
+        compressed.put(RpcFrame.header(RpcFrame.TYPE_COMPRESSED, 0));
+        new BinaryObjectOutput(compressed, BinaryTypeRegistry.getDefault(), null)
+                .writeVarInt(length);
+        compressed.put(deflated, 0, size);
+        int compressedLength = compressed.position() - RpcFrame.LENGTH_FIELD_SIZE;
+        compressed.putInt(0, compressedLength);
+        compressed.flip();
+        frame.release();
+        stats.onDeflated(length, compressedLength);
+        return compressed;
+    }
+
+    /**
+     * only the request id and the deadline are encoded for the session, the
+     * shared body is written as another buffer wrapping the same bytes.
+     */
+    private void encodeBroadcast(RpcCodec codec, RpcBroadcastRequest request,
+                                 ProtocolEncoderOutput out) throws Exception {
+        byte[] body = getSharedBody(codec, request.getPayload());
+        ByteBuffer frame = ByteBuffer.allocate(RpcFrame.LENGTH_FIELD_SIZE + 21);
+        frame.putInt(0);
+        frame.put(RpcFrame.header(RpcFrame.TYPE_BROADCAST, codec.getId()));
+        BinaryObjectOutput header = new BinaryObjectOutput(frame, BinaryTypeRegistry.getDefault(),
+                null);
+        header.writeVarLong(request.getId());
+        header.writeVarLong(request.getRemaining(System.currentTimeMillis()) + 1);
+        int length = frame.position() - RpcFrame.LENGTH_FIELD_SIZE + body.length;
+        if (length > maxFrameBytes) {
+            throw new IllegalArgumentException("The encoded object is too big: " + length + " (> "
+                    + maxFrameBytes + ')');
+        }
+        frame.putInt(0, length);
+        frame.flip();
+        out.write(frame);
+        out.write(ByteBuffer.wrap(body));
+    }
+
+    private byte[] getSharedBody(RpcCodec codec, RpcBroadcastPayload payload) throws Exception {
+        synchronized (payload) {
+            byte[] body = payload.getEncoded(codec.getId());
+            if (body == null) {
+                ByteBuffer buffer = ByteBuffer.allocate(256).setAutoExpand(true);
+                // the symbol tables differ from session to session, so the
+                // symbols are written inline.
+                codec.encode(new RpcRequest(0, payload.getServiceName(), payload.getArguments()),
+                        buffer, null);
+                buffer.flip();
+                body = new byte[buffer.remaining()];
+                buffer.get(body);
+                buffer.release();
+                payload.setEncoded(codec.getId(), body);
+            }
+            return body;
+        }
+    }
+
+    /**
+     * publish the symbols defined by the message being encoded, they must
+     * reach the remote peer before the message.
+     */
+    private void writeSymbols(ProtocolEncoderOutput out) {
+        int id = symbols.getPublishedCount();
+        List<String> defined = symbols.publish();
+        for (String symbol : defined) {
+            ByteBuffer frame = ByteBuffer.allocate(16 + symbol.length() * 3).setAutoExpand(true);
+            frame.putInt(0);
+            frame.put(RpcFrame.header(RpcFrame.TYPE_SYMBOL, 0));
+            BinaryObjectOutput body = new BinaryObjectOutput(frame, BinaryTypeRegistry
+                    .getDefault(), null);
+            body.writeVarInt(id++);
+            body.writeRawString(symbol);
+            frame.putInt(0, frame.position() - RpcFrame.LENGTH_FIELD_SIZE);
+            frame.flip();
+            out.write(frame);
+        }
+    }
+
+    public void dispose(IoSession session) throws Exception {
+        if (deflater != null) {
+            deflater.end();
+        }
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.codec.support;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.mina.common.ByteBuffer;
+import org.apache.mina.common.ByteBufferProxy;
+import org.apache.mina.common.IoFilterAdapter;
+import org.apache.mina.common.IoFuture;
+import org.apache.mina.common.IoFutureListener;
+import org.apache.mina.common.IoSession;
+import org.apache.mina.common.WriteFuture;
+import org.apache.mina.common.support.DefaultWriteFuture;
+
+import com.sokeeper.util.Assert;
+
+/**
+ * Coalesces the frames written to one session into one write, it sits in
+ * front of the {@link RpcCodecFilter} so it only sees the encoded frames.
+ * <p>
+ * The frame written to an idle session goes out at once, so the single call
+ * pays nothing. The frames written while the former writes are still queued
+ * wait for the linger to pass, or for their bytes to reach the budget, and
+ * then are copied into one buffer back to back. The length prefixed frames
+ * stay intact, the decoder of the remote peer unpacks them from the stream as
+ * usual.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcWriteBatchFilter extends IoFilterAdapter {
+    final static public String             KEY_SESSION_BATCH = "_batch_";
+
+    final private long                     lingerInUs;
+    final private int                      batchBytes;
+    final private ScheduledExecutorService scheduler;
+
+    /**
+     * @param lingerInUs: the microseconds the frames wait to be coalesced,
+     *            should > 0.
+     * @param batchBytes: the coalesced frames are written at once when their
+     *            bytes reach it, should > 0.
+     * @param scheduler: can not be null, it writes the coalesced frames when
+     *            the linger passed.
+     */
+    public RpcWriteBatchFilter(long lingerInUs, int batchBytes, ScheduledExecutorService scheduler) {
+        Assert.isTrue(lingerInUs > 0, "lingerInUs should > 0.");
+        Assert.isTrue(batchBytes > 0, "batchBytes should > 0.");
+        Assert.notNull(scheduler, "scheduler can not be null.");
+        this.lingerInUs = lingerInUs;
+        this.batchBytes = batchBytes;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public void filterWrite(NextFilter nextFilter, IoSession session, WriteRequest writeRequest)
+            throws Exception {
+        getBatch(nextFilter, session).write(writeRequest);
+    }
+
+    /**
+     * the coalesced frames are written before the session closed.
+     */
+    @Override
+    public void filterClose(NextFilter nextFilter, IoSession session) throws Exception {
+        Batch batch = (Batch) session.getAttribute(KEY_SESSION_BATCH);
+        if (batch != null) {
+            batch.flush();
+        }
+        nextFilter.filterClose(session);
+    }
+
+    @Override
+    public void sessionClosed(NextFilter nextFilter, IoSession session) throws Exception {
+        Batch batch = (Batch) session.removeAttribute(KEY_SESSION_BATCH);
+        if (batch != null) {
+            batch.discard();
+        }
+        nextFilter.sessionClosed(session);
+    }
+
+    /**
+     * the coalesced write is reported as the writes it is made of, in the
+     * order they were written.
+     */
+    @Override
+    public void messageSent(NextFilter nextFilter, IoSession session, Object message)
+            throws Exception {
+        if (message instanceof BatchBuffer) {
+            for (WriteRequest request : ((BatchBuffer) message).requests) {
+                request.getFuture().setWritten(true);
+                nextFilter.messageSent(session, request.getMessage());
+            }
+        } else {
+            nextFilter.messageSent(session, message);
+        }
+    }
+
+    private Batch getBatch(NextFilter nextFilter, IoSession session) {
+        Batch batch = (Batch) session.getAttribute(KEY_SESSION_BATCH);
+        if (batch == null) {
+            synchronized (session) {
+                batch = (Batch) session.getAttribute(KEY_SESSION_BATCH);
+                if (batch == null) {
+                    batch = new Batch(nextFilter, session);
+                    session.setAttribute(KEY_SESSION_BATCH, batch);
+                }
+            }
+        }
+        return batch;
+    }
+
+    private class Batch implements Runnable {
+        final private NextFilter   nextFilter;
+        final private IoSession    session;
+        private List<WriteRequest> requests = new ArrayList<WriteRequest>();
+        private int                bytes;
+        private boolean            scheduled;
+
+        Batch(NextFilter nextFilter, IoSession session) {
+            this.nextFilter = nextFilter;
+            this.session = session;
+        }
+
+        synchronized void write(WriteRequest request) {
+            ByteBuffer buffer = (ByteBuffer) request.getMessage();
+            // nothing to wait for, or nothing to carry but the future.
+            if (requests.isEmpty()
+                    && (session.getScheduledWriteRequests() == 0 || !buffer.hasRemaining())) {
+                nextFilter.filterWrite(session, request);
+                return;
+            }
+            requests.add(request);
+            bytes += buffer.remaining();
+            if (bytes >= batchBytes) {
+                flush();
+            } else if (!scheduled) {
+                try {
+                    scheduler.schedule(this, lingerInUs, TimeUnit.MICROSECONDS);
+                    scheduled = true;
+                } catch (RejectedExecutionException e) {
+                    flush();
+                }
+            }
+        }
+
+        public void run() {
+            synchronized (this) {
+                scheduled = false;
+                flush();
+            }
+        }
+
+        synchronized void flush() {
+            if (requests.isEmpty()) {
+                return;
+            }
+            final List<WriteRequest> flushing = requests;
+            requests = new ArrayList<WriteRequest>();
+            if (flushing.size() == 1) {
+                nextFilter.filterWrite(session, flushing.get(0));
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocate(bytes);
+                for (WriteRequest request : flushing) {
+                    buffer.put(((ByteBuffer) request.getMessage()).buf().duplicate());
+                }
+                buffer.flip();
+                WriteFuture future = new DefaultWriteFuture(session);
+                future.addListener(new IoFutureListener() {
+                    public void operationComplete(IoFuture future) {
+                        if (!((WriteFuture) future).isWritten()) {
+                            for (WriteRequest request : flushing) {
+                                request.getFuture().setWritten(false);
+                            }
+                        }
+                    }
+                });
+                nextFilter.filterWrite(session, new WriteRequest(new BatchBuffer(buffer,
+                        flushing), future));
+            }
+            bytes = 0;
+        }
+
+        synchronized void discard() {
+            for (WriteRequest request : requests) {
+                request.getFuture().setWritten(false);
+            }
+            requests.clear();
+            bytes = 0;
+        }
+    }
+
+    private static class BatchBuffer extends ByteBufferProxy {
+        final private List<WriteRequest> requests;
+
+        BatchBuffer(ByteBuffer buffer, List<WriteRequest> requests) {
+            super(buffer);
+            this.requests = requests;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.codec.support;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.mina.common.ByteBuffer;
+import org.apache.mina.common.ByteBufferProxy;
+import org.apache.mina.common.IoFilterAdapter;
+import org.apache.mina.common.IoFuture;
+import org.apache.mina.common.IoFutureListener;
+import org.apache.mina.common.IoSession;
+import org.apache.mina.common.WriteFuture;
+import org.apache.mina.common.support.DefaultWriteFuture;
+
+import com.sokeeper.rpc.codec.RpcFrame;
+import com.sokeeper.util.Assert;
+
+/**
+ * Splits the outgoing frames of one session into two lanes, it sits in front
+ * of the {@link RpcCodecFilter} so it only sees the encoded frames.
+ * <p>
+ * The express lane takes the symbol and heart beat frames and all the frames
+ * no bigger than the chunk size, they go to the socket at once. The bulk lane
+ * takes the bigger frames, they are fed to the socket a few at a time, so the
+ * express frames written meanwhile wait behind a few of them at most instead
+ * of the whole backlog. When the remote peer can reassemble them the bulk
+ * frames are split into the chunk frames, the express frames are then
+ * interleaved even within one big frame. The frames of the same lane keep
+ * their order.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcWriteLaneFilter extends IoFilterAdapter {
+    final static public String KEY_SESSION_LANES   = "_lanes_";
+    final static public String KEY_SESSION_CHUNKED = "_chunked_";
+    // the most bulk frames queued to the socket at a time
+    final static public int    BULK_WINDOW         = 2;
+
+    final private int          chunkBytes;
+
+    /**
+     * @param chunkBytes: the frames bigger than it go to the bulk lane, should
+     *            > 0.
+     */
+    public RpcWriteLaneFilter(int chunkBytes) {
+        Assert.isTrue(chunkBytes > 0, "chunkBytes should > 0.");
+        this.chunkBytes = chunkBytes;
+    }
+
+    /**
+     * @return: whether the remote peer told it can reassemble the chunks.
+     */
+    public static boolean isChunked(IoSession session) {
+        return Boolean.TRUE.equals(session.getAttribute(KEY_SESSION_CHUNKED));
+    }
+
+    public static void setChunked(IoSession session) {
+        Assert.notNull(session, "session can not be null.");
+        session.setAttribute(KEY_SESSION_CHUNKED, Boolean.TRUE);
+    }
+
+    @Override
+    public void filterWrite(NextFilter nextFilter, IoSession session, WriteRequest writeRequest)
+            throws Exception {
+        getLanes(nextFilter, session).write(writeRequest);
+    }
+
+    @Override
+    public void sessionClosed(NextFilter nextFilter, IoSession session) throws Exception {
+        Lanes lanes = (Lanes) session.removeAttribute(KEY_SESSION_LANES);
+        if (lanes != null) {
+            lanes.discard();
+        }
+        nextFilter.sessionClosed(session);
+    }
+
+    /**
+     * the bulk frame sent is reported as the writes it completed, and the
+     * next bulk frames take its place.
+     */
+    @Override
+    public void messageSent(NextFilter nextFilter, IoSession session, Object message)
+            throws Exception {
+        if (message instanceof LaneBuffer) {
+            Lanes lanes = (Lanes) session.getAttribute(KEY_SESSION_LANES);
+            if (lanes != null) {
+                lanes.onSent();
+            }
+            for (WriteRequest request : ((LaneBuffer) message).completes) {
+                request.getFuture().setWritten(true);
+                nextFilter.messageSent(session, request.getMessage());
+            }
+        } else {
+            nextFilter.messageSent(session, message);
+        }
+    }
+
+    private Lanes getLanes(NextFilter nextFilter, IoSession session) {
+        Lanes lanes = (Lanes) session.getAttribute(KEY_SESSION_LANES);
+        if (lanes == null) {
+            synchronized (session) {
+                lanes = (Lanes) session.getAttribute(KEY_SESSION_LANES);
+                if (lanes == null) {
+                    lanes = new Lanes(nextFilter, session);
+                    session.setAttribute(KEY_SESSION_LANES, lanes);
+                }
+            }
+        }
+        return lanes;
+    }
+
+    private class Lanes {
+        final private NextFilter         nextFilter;
+        final private IoSession          session;
+        final private List<WriteRequest> bulk     = new LinkedList<WriteRequest>();
+        private int                      bulkInFlight;
+        // the bytes of the current frame not written yet, a frame may be
+        // written in several buffers.
+        private int                      frameRemaining;
+        private boolean                  frameInBulk;
+        // the current bulk frame being collected to be chunked
+        private byte[]                   frame;
+        private int                      frameCollected;
+        private List<WriteRequest>       frameRequests;
+
+        Lanes(NextFilter nextFilter, IoSession session) {
+            this.nextFilter = nextFilter;
+            this.session = session;
+        }
+
+        synchronized void write(WriteRequest request) {
+            ByteBuffer buffer = (ByteBuffer) request.getMessage();
+            int bytes = buffer.remaining();
+            if (frameRemaining == 0) {
+                if (bytes <= RpcFrame.LENGTH_FIELD_SIZE) {
+                    // nothing to carry but the future of the message written,
+                    // it follows the last frame of the message.
+                    if (bytes == 0 && frameInBulk && !bulk.isEmpty()) {
+                        ((LaneBuffer) bulk.get(bulk.size() - 1).getMessage()).completes
+                                .add(request);
+                    } else {
+                        nextFilter.filterWrite(session, request);
+                    }
+                    return;
+                }
+                int start = buffer.position();
+                int length = RpcFrame.LENGTH_FIELD_SIZE + buffer.getInt(start);
+                byte header = buffer.get(start + RpcFrame.LENGTH_FIELD_SIZE);
+                int type = RpcFrame.getType(header);
+                frameInBulk = length > chunkBytes && type != RpcFrame.TYPE_SYMBOL
+                        && type != RpcFrame.TYPE_HEART_BEAT;
+                frameRemaining = length;
+                // the legacy messages encoded before the handshake are never chunked
+                if (frameInBulk && isChunked(session) && header != RpcFrame.LEGACY_MAGIC) {
+                    frame = new byte[length];
+                    frameCollected = 0;
+                    frameRequests = new ArrayList<WriteRequest>();
+                }
+            }
+            frameRemaining = Math.max(0, frameRemaining - bytes);
+            if (!frameInBulk) {
+                nextFilter.filterWrite(session, request);
+                return;
+            }
+            if (frame == null) {
+                List<WriteRequest> completes = new ArrayList<WriteRequest>(1);
+                completes.add(request);
+                enqueue(buffer, completes);
+            } else {
+                buffer.buf().duplicate().get(frame, frameCollected, bytes);
+                frameCollected += bytes;
+                frameRequests.add(request);
+                if (frameRemaining == 0) {
+                    chunk();
+                }
+            }
+            pump();
+        }
+
+        /**
+         * split the collected frame into the chunks, the writes of the frame
+         * complete with the last chunk.
+         */
+        private void chunk() {
+            for (int offset = 0; offset < frame.length; offset += chunkBytes) {
+                int size = Math.min(chunkBytes, frame.length - offset);
+                boolean last = offset + size == frame.length;
+                ByteBuffer chunk = ByteBuffer.allocate(RpcFrame.LENGTH_FIELD_SIZE + 1 + size);
+                chunk.putInt(1 + size);
+                chunk.put(RpcFrame.header(RpcFrame.TYPE_CHUNK, last ? RpcFrame.CHUNK_LAST
+                        : RpcFrame.CHUNK_MORE));
+                chunk.put(frame, offset, size);
+                chunk.flip();
+                List<WriteRequest> completes = Collections.emptyList();
+                enqueue(chunk, last ? frameRequests : completes);
+            }
+            frame = null;
+            frameRequests = null;
+        }
+
+        private void enqueue(ByteBuffer buffer, final List<WriteRequest> completes) {
+            WriteFuture future = new DefaultWriteFuture(session);
+            future.addListener(new IoFutureListener() {
+                public void operationComplete(IoFuture future) {
+                    if (!((WriteFuture) future).isWritten()) {
+                        for (WriteRequest request : completes) {
+                            request.getFuture().setWritten(false);
+                        }
+                    }
+                }
+            });
+            bulk.add(new WriteRequest(new LaneBuffer(buffer, completes), future));
+        }
+
+        private void pump() {
+            while (!bulk.isEmpty() && bulkInFlight < BULK_WINDOW) {
+                bulkInFlight++;
+                nextFilter.filterWrite(session, bulk.remove(0));
+            }
+        }
+
+        synchronized void onSent() {
+            bulkInFlight--;
+            pump();
+        }
+
+        synchronized void discard() {
+            for (WriteRequest queued : bulk) {
+                for (WriteRequest request : ((LaneBuffer) queued.getMessage()).completes) {
+                    request.getFuture().setWritten(false);
+                }
+            }
+            bulk.clear();
+            if (frameRequests != null) {
+                for (WriteRequest request : frameRequests) {
+                    request.getFuture().setWritten(false);
+                }
+            }
+            frame = null;
+            frameRequests = null;
+        }
+    }
+
+    private static class LaneBuffer extends ByteBufferProxy {
+        final private List<WriteRequest> completes;
+
+        LaneBuffer(ByteBuffer buffer, List<WriteRequest> completes) {
+            super(buffer);
+            this.completes = completes;
+        }
+    }
+}
@@ -31,6 +31,20 @@ import com.sokeeper.util.RpcAddress;
 public class HandshakeMessage extends MapParameters {
     private static final long serialVersionUID = -4438089849037065351L;
 
+    // whether the peer reads the frames, the old peers only read the mina
+    // object serialization format
+    final static public String KEY_FRAMES       = "frames";
+    // the service names the peer can serve, in the order of their method ids
+    final static public String KEY_METHODS      = "methods";
+    final static public String METHODS_SEP      = ";";
+    // the compression the peer can inflate
+    final static public String KEY_COMPRESSION  = "compression";
+    final static public String DEFLATE          = "deflate";
+    // whether the peer can reassemble the chunk frames
+    final static public String KEY_CHUNKED      = "chunked";
+    // the id of the peer's rpc handler, its idempotency keys are scoped by it
+    final static public String KEY_PEER_ID      = "peer_id";
+
     private Set<RpcAddress>   servers          = new HashSet<RpcAddress>();
 
     public Set<RpcAddress> getServers() {
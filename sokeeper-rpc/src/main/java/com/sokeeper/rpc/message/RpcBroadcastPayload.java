@@ -0,0 +1,63 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.message;
+
+import com.sokeeper.util.Assert;
+
+/**
+ * The service call shared by all the {@link RpcBroadcastRequest}s of one
+ * broadcast, it caches the call encoded by each codec so every codec encodes
+ * it only once. The cache is guarded by the payload itself.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcBroadcastPayload {
+    final private String   serviceName;
+    final private Object[] arguments;
+    final private byte[][] encoded = new byte[16][];
+
+    public RpcBroadcastPayload(String serviceName, Object[] arguments) {
+        Assert.notNull(serviceName, "serviceName can not be null.");
+        Assert.notNull(arguments, "arguments can not be null.");
+        this.serviceName = serviceName;
+        this.arguments = arguments;
+    }
+
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    public Object[] getArguments() {
+        return arguments;
+    }
+
+    /**
+     * @return: the call encoded by the given codec, null when not encoded yet.
+     *          The caller should not modify it.
+     */
+    public byte[] getEncoded(int codecId) {
+        return encoded[codecId];
+    }
+
+    public void setEncoded(int codecId, byte[] body) {
+        Assert.notNull(body, "body can not be null.");
+        encoded[codecId] = body;
+    }
+}
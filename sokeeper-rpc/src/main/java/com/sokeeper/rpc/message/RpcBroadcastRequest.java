@@ -0,0 +1,52 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.message;
+
+import com.sokeeper.util.Assert;
+
+/**
+ * The request sent to one of the sessions a call broadcast to, the sessions
+ * only differ in the request id, so the payload is encoded once and shared.
+ * The remote peer receives it as a plain {@link RpcRequest}.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcBroadcastRequest extends RpcRequest {
+    private static final long                   serialVersionUID = -3472981250470731876L;
+
+    final private transient RpcBroadcastPayload payload;
+
+    public RpcBroadcastRequest(RpcBroadcastPayload payload) {
+        super(checkNotNull(payload).getServiceName(), payload.getArguments());
+        this.payload = payload;
+    }
+
+    private static RpcBroadcastPayload checkNotNull(RpcBroadcastPayload payload) {
+        Assert.notNull(payload, "payload can not be null.");
+        return payload;
+    }
+
+    /**
+     * @return: the shared payload, null when the request was deserialized.
+     */
+    public RpcBroadcastPayload getPayload() {
+        return payload;
+    }
+}
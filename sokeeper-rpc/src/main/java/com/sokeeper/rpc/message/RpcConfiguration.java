@@ -30,6 +30,7 @@ import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.sokeeper.rpc.codec.support.RpcProtocolCodecFactory;
 import com.sokeeper.util.Assert;
 import com.sokeeper.util.MapParameters;
 import com.sokeeper.util.RpcAddress;
@@ -50,6 +51,25 @@ public class RpcConfiguration implements Serializable {
     final static public String                  KEY_RPC_URL_PARAM_HEART_BEAT_SEC      = "hb_sec";
     final static public String                  KEY_RPC_URL_PARAM_SERVERS             = "servers";
     final static public String                  KEY_RPC_URL_PARAM_STARTUP_RETRY_TIMES = "startup_retry_times";
+    final static public String                  KEY_RPC_URL_PARAM_CORE_THREADS        = "core_threads";
+    final static public String                  KEY_RPC_URL_PARAM_MAX_THREADS         = "max_threads";
+    final static public String                  KEY_RPC_URL_PARAM_QUEUE_SIZE          = "queue_size";
+    final static public String                  KEY_RPC_URL_PARAM_MAX_METHOD_CALLS    = "max_method_calls";
+    final static public String                  KEY_RPC_URL_PARAM_WRITE_LINGER_US     = "write_linger_us";
+    final static public String                  KEY_RPC_URL_PARAM_WRITE_BATCH_BYTES   = "write_batch_bytes";
+    final static public String                  KEY_RPC_URL_PARAM_COMPRESS_BYTES      = "compress_bytes";
+    final static public String                  KEY_RPC_URL_PARAM_CHUNK_BYTES         = "chunk_bytes";
+    final static public String                  KEY_RPC_URL_PARAM_CONNECT_TIMEOUT_MS  = "connect_timeout_ms";
+    final static public String                  KEY_RPC_URL_PARAM_RECONNECT_MAX_MS    = "reconnect_max_ms";
+    final static public String                  KEY_RPC_URL_PARAM_RECONNECT_JITTER    = "reconnect_jitter";
+    final static public String                  KEY_RPC_URL_PARAM_EXECUTION           = "execution";
+    final static public String                  KEY_RPC_URL_PARAM_MAX_FRAME_BYTES     = "max_frame_bytes";
+    final static public String                  KEY_RPC_URL_PARAM_STREAM_WINDOW       = "stream_window";
+    final static public String                  KEY_RPC_URL_PARAM_STREAM_CHUNK_ITEMS  = "stream_chunk_items";
+    final static public String                  KEY_RPC_URL_PARAM_RETRIES             = "retries";
+    final static public String                  KEY_RPC_URL_PARAM_TRY_TIMEOUT_MS      = "try_timeout_ms";
+    final static public String                  KEY_RPC_URL_PARAM_RESPONSE_CACHE_SIZE = "response_cache_size";
+    final static public String                  KEY_RPC_URL_PARAM_RESPONSE_CACHE_MS   = "response_cache_ms";
 
     final static public String                  KEY_RPC_URL_PARAM_GROUPS              = "groups";
     final static public String                  KEY_RPC_URL_PARAM_SEP_TOKEN           = ",";
@@ -59,17 +79,51 @@ public class RpcConfiguration implements Serializable {
     final static public int                     CONNECT_POLICY_ALL                    = 0;
     final static public int                     CONNECT_POLICY_MAIN                   = 1;
     final static public int                     CONNECT_POLICY_ANYONE                 = 2;
+    final static public int                     CONNECT_POLICY_LEAST_LOADED           = 3;
     final static public String[]                CONNECT_POLICIES                      = new String[] {
-            "all", "main", "anyone"                                                  };
+            "all", "main", "anyone", "least_loaded"                                  };
+
+    final static public String                  KEY_RPC_URL_PARAM_CODEC               = "codec";
+
+    final static public int                     CODEC_JAVA                            = 0;
+    final static public int                     CODEC_BINARY                          = 1;
+    final static public String[]                CODECS                                = new String[] {
+            "java", "binary"                                                         };
+
+    final static public int                     EXECUTION_CONCURRENT                  = 0;
+    final static public int                     EXECUTION_ORDERED                     = 1;
+    final static public String[]                EXECUTIONS                            = new String[] {
+            "concurrent", "ordered"                                                  };
+
     final private int                           timeout;
     final private int                           startupRetryTimes;
     final private int                           maxConnections;
     final private int                           autoReconnectInMs;
+    final private int                           coreThreads;
+    final private int                           maxThreads;
+    final private int                           queueSize;
+    final private int                           maxMethodCalls;
+    final private int                           writeLingerInUs;
+    final private int                           writeBatchBytes;
+    final private int                           compressBytes;
+    final private int                           chunkBytes;
+    final private int                           connectTimeout;
+    final private int                           reconnectMaxInMs;
+    final private int                           reconnectJitter;
+    final private int                           maxFrameBytes;
+    final private int                           streamWindow;
+    final private int                           streamChunkItems;
+    final private int                           retries;
+    final private int                           tryTimeout;
+    final private int                           responseCacheSize;
+    final private int                           responseCacheInMs;
     private ConcurrentHashMap<RpcAddress, Long> serversWithAccessedTime;
     private RpcAddress                          mainServerAddress;
     private boolean                             acceptServersThroughHandshake         = true;
     final private int                           secondsOfHb;
     private int                                 connectPolicy;
+    private int                                 codec;
+    private int                                 execution;
     private MapParameters                       parameters;
     private Collection<String>                  whiteIpList                           = new HashSet<String>();
 
@@ -89,6 +143,14 @@ public class RpcConfiguration implements Serializable {
      *            tcp://server_ip_address:port/client?timeout_ms=5000&auto_reconnect_ms
      *            =5000&servers=server1:port,server2:port,server3:port&
      *            connect_policy=anyone&groups=group1,group2
+     *            <li>
+     *            tcp://server_ip_address:port/client?servers=server1:port,
+     *            server2:port&connect_policy=least_loaded
+     *            <li>
+     *            tcp://server_ip_address:port/client?codec=java
+     *            <li>
+     *            tcp://server_ip_address:port/client?auto_reconnect_ms=1000&
+     *            reconnect_max_ms=60000&reconnect_jitter=50&connect_timeout_ms=3000
      *            </ul>
      *            <ul>
      *            server:
@@ -96,6 +158,24 @@ public class RpcConfiguration implements Serializable {
      *            tcp://server_ip_address:port/client?timeout_ms=5000&max_connections
      *            =500&hb_sec=10&servers=sibling_server1:port,silbling_server2:
      *            port
+     *            <li>
+     *            tcp://server_ip_address:port/server?core_threads=16&max_threads
+     *            =256&queue_size=1024&max_method_calls=100
+     *            <li>
+     *            tcp://server_ip_address:port/server?write_linger_us=200&
+     *            write_batch_bytes=65536
+     *            <li>
+     *            tcp://server_ip_address:port/server?compress_bytes=4096&
+     *            chunk_bytes=16384
+     *            <li>
+     *            tcp://server_ip_address:port/server?execution=ordered
+     *            <li>
+     *            tcp://server_ip_address:port/server?max_frame_bytes=1048576&
+     *            stream_window=8&stream_chunk_items=128
+     *            <li>
+     *            tcp://server_ip_address:port/server?retries=2&
+     *            try_timeout_ms=1000&response_cache_size=10000&
+     *            response_cache_ms=60000
      *            </ul>
      */
     public RpcConfiguration(String url) {
@@ -112,12 +192,56 @@ public class RpcConfiguration implements Serializable {
         addServers(parameters.getParameter(KEY_RPC_URL_PARAM_SERVERS, ""));
         connectPolicy = parameters.getIndexedParameter(KEY_RPC_URL_PARAM_CONNECT_POLICY,
                 CONNECT_POLICIES, CONNECT_POLICY_ALL, true);
+        codec = parameters.getIndexedParameter(KEY_RPC_URL_PARAM_CODEC, CODECS, CODEC_BINARY, true);
+        execution = parameters.getIndexedParameter(KEY_RPC_URL_PARAM_EXECUTION, EXECUTIONS,
+                EXECUTION_CONCURRENT, true);
         secondsOfHb = parameters
                 .getParameter(RpcConfiguration.KEY_RPC_URL_PARAM_HEART_BEAT_SEC, -1);
         Assert.isTrue(timeout > 0, "timeout should > 0.");
         startupRetryTimes = parameters.getParameter(
                 RpcConfiguration.KEY_RPC_URL_PARAM_STARTUP_RETRY_TIMES, 1);
         Assert.isTrue(startupRetryTimes > 0, "startupRetryTimes should > 0.");
+        coreThreads = parameters.getParameter(KEY_RPC_URL_PARAM_CORE_THREADS, 16);
+        maxThreads = parameters.getParameter(KEY_RPC_URL_PARAM_MAX_THREADS, 256);
+        queueSize = parameters.getParameter(KEY_RPC_URL_PARAM_QUEUE_SIZE, 1024);
+        maxMethodCalls = parameters.getParameter(KEY_RPC_URL_PARAM_MAX_METHOD_CALLS, 0);
+        Assert.isTrue(coreThreads > 0, "coreThreads should > 0.");
+        Assert.isTrue(maxThreads >= coreThreads, "maxThreads should >= coreThreads.");
+        Assert.isTrue(queueSize >= 0, "queueSize should >= 0.");
+        Assert.isTrue(maxMethodCalls >= 0, "maxMethodCalls should >= 0.");
+        writeLingerInUs = parameters.getParameter(KEY_RPC_URL_PARAM_WRITE_LINGER_US, 0);
+        writeBatchBytes = parameters.getParameter(KEY_RPC_URL_PARAM_WRITE_BATCH_BYTES, 65536);
+        Assert.isTrue(writeLingerInUs >= 0, "writeLingerInUs should >= 0.");
+        Assert.isTrue(writeBatchBytes > 0, "writeBatchBytes should > 0.");
+        compressBytes = parameters.getParameter(KEY_RPC_URL_PARAM_COMPRESS_BYTES, 0);
+        Assert.isTrue(compressBytes >= 0, "compressBytes should >= 0.");
+        chunkBytes = parameters.getParameter(KEY_RPC_URL_PARAM_CHUNK_BYTES, 0);
+        Assert.isTrue(chunkBytes >= 0, "chunkBytes should >= 0.");
+        connectTimeout = parameters.getParameter(KEY_RPC_URL_PARAM_CONNECT_TIMEOUT_MS, timeout);
+        reconnectMaxInMs = parameters.getParameter(KEY_RPC_URL_PARAM_RECONNECT_MAX_MS, Math.max(
+                60000, autoReconnectInMs));
+        reconnectJitter = parameters.getParameter(KEY_RPC_URL_PARAM_RECONNECT_JITTER, 50);
+        Assert.isTrue(connectTimeout > 0, "connectTimeout should > 0.");
+        Assert.isTrue(reconnectMaxInMs >= autoReconnectInMs,
+                "reconnectMaxInMs should >= autoReconnectInMs.");
+        Assert.isTrue(reconnectJitter >= 0 && reconnectJitter <= 100,
+                "reconnectJitter should between 0 and 100.");
+        maxFrameBytes = parameters.getParameter(KEY_RPC_URL_PARAM_MAX_FRAME_BYTES,
+                RpcProtocolCodecFactory.DEFAULT_MAX_FRAME_BYTES);
+        streamWindow = parameters.getParameter(KEY_RPC_URL_PARAM_STREAM_WINDOW, 8);
+        streamChunkItems = parameters.getParameter(KEY_RPC_URL_PARAM_STREAM_CHUNK_ITEMS, 128);
+        Assert.isTrue(maxFrameBytes > 0, "maxFrameBytes should > 0.");
+        Assert.isTrue(streamWindow > 0, "streamWindow should > 0.");
+        Assert.isTrue(streamChunkItems > 0, "streamChunkItems should > 0.");
+        retries = parameters.getParameter(KEY_RPC_URL_PARAM_RETRIES, 2);
+        tryTimeout = parameters.getParameter(KEY_RPC_URL_PARAM_TRY_TIMEOUT_MS, timeout);
+        responseCacheSize = parameters.getParameter(KEY_RPC_URL_PARAM_RESPONSE_CACHE_SIZE, 10000);
+        responseCacheInMs = parameters.getParameter(KEY_RPC_URL_PARAM_RESPONSE_CACHE_MS, Math.max(
+                60000, timeout));
+        Assert.isTrue(retries >= 0, "retries should >= 0.");
+        Assert.isTrue(tryTimeout > 0, "tryTimeout should > 0.");
+        Assert.isTrue(responseCacheSize >= 0, "responseCacheSize should >= 0.");
+        Assert.isTrue(responseCacheInMs > 0, "responseCacheInMs should > 0.");
     }
 
     /**
@@ -180,6 +304,151 @@ public class RpcConfiguration implements Serializable {
         return maxConnections;
     }
 
+    /**
+     * @return: the threads kept to process the incoming requests.
+     */
+    public int getCoreThreads() {
+        return coreThreads;
+    }
+
+    /**
+     * @return: the most threads to process the incoming requests, the threads
+     *          more than the core ones are started only when the queue is full.
+     */
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /**
+     * @return: the most requests waiting for a thread, 0 means handed off to
+     *          the threads directly.
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * @return: the most concurrent calls of one service method, 0 means no
+     *          limit.
+     */
+    public int getMaxMethodCalls() {
+        return maxMethodCalls;
+    }
+
+    /**
+     * @return: the microseconds the outgoing messages of one session wait to
+     *          be coalesced into one write, 0 means every message is written
+     *          at once.
+     */
+    public int getWriteLingerInUs() {
+        return writeLingerInUs;
+    }
+
+    /**
+     * @return: the coalesced messages are written before the linger passed
+     *          once their bytes reach this budget.
+     */
+    public int getWriteBatchBytes() {
+        return writeBatchBytes;
+    }
+
+    /**
+     * @return: the frames bigger than it are deflated when the remote peer
+     *          can inflate them, 0 means never compressed.
+     */
+    public int getCompressBytes() {
+        return compressBytes;
+    }
+
+    /**
+     * @return: the frames bigger than it go to the bulk lane and are split
+     *          into the chunks of this size, the smaller ones jump ahead of
+     *          them. 0 means all the frames share one lane.
+     */
+    public int getChunkBytes() {
+        return chunkBytes;
+    }
+
+    /**
+     * @return: the milliseconds to wait the servers connected in parallel.
+     */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * @return: the longest delay between the attempts to connect a server,
+     *          the delay starts from the auto reconnect one and doubles with
+     *          every failure.
+     */
+    public int getReconnectMaxInMs() {
+        return reconnectMaxInMs;
+    }
+
+    /**
+     * @return: the most percent of the reconnect delay cut off randomly.
+     */
+    public int getReconnectJitter() {
+        return reconnectJitter;
+    }
+
+    /**
+     * @return: the biggest frame written or read, the peer sending a bigger
+     *          one is disconnected before its body allocated.
+     */
+    public int getMaxFrameBytes() {
+        return maxFrameBytes;
+    }
+
+    /**
+     * @return: the chunks of a stream the remote peer may send before the
+     *          consumed ones granted again.
+     */
+    public int getStreamWindow() {
+        return streamWindow;
+    }
+
+    /**
+     * @return: the most items sent in one chunk of a stream, the chunk should
+     *          still fit the max frame bytes.
+     */
+    public int getStreamChunkItems() {
+        return streamChunkItems;
+    }
+
+    /**
+     * @return: how many times the call of an idempotent method, or the call
+     *          with an idempotency key, is sent again within the timeout of
+     *          the call, when it could not be written or its try timed out.
+     */
+    public int getRetries() {
+        return retries;
+    }
+
+    /**
+     * @return: how long one try of a retried call waits, the timeout of the
+     *          call by default: then only the tries failed to be written are
+     *          retried.
+     */
+    public int getTryTimeout() {
+        return tryTimeout;
+    }
+
+    /**
+     * @return: the most responses kept for the retried calls, 0 means the
+     *          retries are executed again.
+     */
+    public int getResponseCacheSize() {
+        return responseCacheSize;
+    }
+
+    /**
+     * @return: how long the response is kept for the retries of its call.
+     */
+    public int getResponseCacheInMs() {
+        return responseCacheInMs;
+    }
+
     public int getAutoReconnectInMs() {
         return autoReconnectInMs;
     }
@@ -226,10 +495,55 @@ public class RpcConfiguration implements Serializable {
         this.connectPolicy = connectPolicy;
     }
 
+    /**
+     * @return: {@link #CONNECT_POLICY_ALL} connects and calls all the servers,
+     *          {@link #CONNECT_POLICY_MAIN} the main server only,
+     *          {@link #CONNECT_POLICY_ANYONE} keeps the nearest server
+     *          connected, {@link #CONNECT_POLICY_LEAST_LOADED} connects all
+     *          the servers but calls the least loaded one.
+     */
     public int getConnectPolicy() {
         return connectPolicy;
     }
 
+    /**
+     * the preferred wire codec, the codec really used by a connection is
+     * negotiated through the handshake: binary only when both peers prefer it.
+     * The java codec talks the MINA object serialization format of the older
+     * nodes until the handshake told the remote peer reads the frames, only
+     * then the frames are used, so the nodes of a cluster can be upgraded one
+     * by one.
+     *
+     * @return: {@link #CODEC_JAVA} or {@link #CODEC_BINARY}.
+     */
+    public int getCodec() {
+        return codec;
+    }
+
+    public String getCodecName() {
+        return CODECS[codec];
+    }
+
+    /**
+     * @return: {@link #EXECUTION_CONCURRENT} runs the requests and events of
+     *          one connection in any order, {@link #EXECUTION_ORDERED} runs
+     *          them one after another in the order they arrived.
+     */
+    public int getExecution() {
+        return execution;
+    }
+
+    public void setExecution(int execution) {
+        Assert.isTrue(execution >= 0 && execution < EXECUTIONS.length, "illegal execution:"
+                + execution);
+        this.execution = execution;
+    }
+
+    public void setCodec(int codec) {
+        Assert.isTrue(codec >= 0 && codec < CODECS.length, "illegal codec:" + codec);
+        this.codec = codec;
+    }
+
     public void recordAccessedTime(RpcAddress serverAddress) {
         if (serverAddress != null && serversWithAccessedTime.containsKey(serverAddress)) {
             serversWithAccessedTime.put(serverAddress, System.nanoTime());
@@ -0,0 +1,85 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.message;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sokeeper.util.Assert;
+
+/**
+ * The request which could be sent again, all the retries of one call carry
+ * the same key, so the remote peer executes the call once and answers the
+ * retries from its response cache.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcIdempotentRequest extends RpcRequest {
+    private static final long       serialVersionUID = -2871094325661523094L;
+
+    // the keys generated by different vms never clash
+    final private static String     KEY_PREFIX       = UUID.randomUUID().toString() + "#";
+    final private static AtomicLong KEY_SEQUENCE     = new AtomicLong();
+
+    private String                  key;
+
+    /**
+     * @param key: can not be empty.
+     */
+    public RpcIdempotentRequest(String serviceName, Object[] arguments, String key) {
+        super(serviceName, arguments);
+        setKey(key);
+    }
+
+    /**
+     * @param key: can not be empty.
+     */
+    public RpcIdempotentRequest(int methodId, Object[] arguments, String key) {
+        super(methodId, arguments);
+        setKey(key);
+    }
+
+    /**
+     * restore a request which already has an id, e.g.: decoded from the wire.
+     *
+     * @param key: can not be empty.
+     */
+    public RpcIdempotentRequest(long id, int methodId, String serviceName, Object[] arguments,
+                                String key) {
+        super(id, methodId, serviceName, arguments);
+        setKey(key);
+    }
+
+    private void setKey(String key) {
+        Assert.hasText(key, "key can not be empty.");
+        this.key = key;
+    }
+
+    /**
+     * @return: a key unique in all the vms.
+     */
+    public static String newKey() {
+        return KEY_PREFIX + KEY_SEQUENCE.incrementAndGet();
+    }
+
+    public String getKey() {
+        return key;
+    }
+}
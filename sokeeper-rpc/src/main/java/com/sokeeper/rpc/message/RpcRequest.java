@@ -19,8 +19,11 @@
  */
 package com.sokeeper.rpc.message;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.sokeeper.util.Assert;
 
@@ -29,24 +32,82 @@ import com.sokeeper.util.Assert;
  * @author James Fu (fuyinhai@gmail.com)
  */
 public class RpcRequest implements Serializable {
-    private static final long serialVersionUID = 3287028427386134696L;
+    private static final long       serialVersionUID = 3287028427386134696L;
 
-    private String            id;
-    private String            serviceName;
-    private Object[]          arguments;
+    // monotonically increasing, so the ids sent over every connection are
+    // unique in this vm and cheap to generate.
+    final private static AtomicLong SEQUENCE         = new AtomicLong();
+
+    final static public int         NO_METHOD_ID     = -1;
+    final static public long        NO_DEADLINE      = 0;
+
+    private long                    id;
+    private int                     methodId         = NO_METHOD_ID;
+    private String                  serviceName;
+    private Object[]                arguments;
+    // in the form of System.currentTimeMillis() of this vm, the remaining
+    // milliseconds are sent instead since the clocks of the peers differ.
+    private transient long          deadline         = NO_DEADLINE;
 
     public RpcRequest(String serviceName, Object[] arguments) {
         Assert.notNull(serviceName, "serviceName can not be null.");
         Assert.notNull(arguments, "arguments can not be null.");
-        this.id = UUID.randomUUID().toString();
+        this.id = SEQUENCE.incrementAndGet();
         this.serviceName = serviceName;
         this.arguments = arguments;
     }
 
-    public String getId() {
+    /**
+     * the request dispatched through the method id the remote peer published
+     * in its handshake message, the service name is not sent.
+     *
+     * @param methodId: should >= 0.
+     */
+    public RpcRequest(int methodId, Object[] arguments) {
+        Assert.isTrue(methodId >= 0, "methodId should >= 0.");
+        Assert.notNull(arguments, "arguments can not be null.");
+        this.id = SEQUENCE.incrementAndGet();
+        this.methodId = methodId;
+        this.arguments = arguments;
+    }
+
+    /**
+     * restore a request which already has an id, e.g.: decoded from the wire.
+     */
+    public RpcRequest(long id, String serviceName, Object[] arguments) {
+        this(id, NO_METHOD_ID, serviceName, arguments);
+    }
+
+    /**
+     * restore a request which already has an id, e.g.: decoded from the wire.
+     *
+     * @param serviceName: could be null only when the methodId >= 0.
+     */
+    public RpcRequest(long id, int methodId, String serviceName, Object[] arguments) {
+        Assert.isTrue(methodId >= 0 || serviceName != null, "serviceName can not be null.");
+        Assert.notNull(arguments, "arguments can not be null.");
+        this.id = id;
+        this.methodId = methodId < 0 ? NO_METHOD_ID : methodId;
+        this.serviceName = serviceName;
+        this.arguments = arguments;
+    }
+
+    public long getId() {
         return id;
     }
 
+    /**
+     * @return: the method id, {@link #NO_METHOD_ID} when the request is
+     *          dispatched by the service name.
+     */
+    public int getMethodId() {
+        return methodId;
+    }
+
+    /**
+     * @return: the service name, could be null when dispatched by the method
+     *          id.
+     */
     public String getServiceName() {
         return serviceName;
     }
@@ -55,4 +116,48 @@ public class RpcRequest implements Serializable {
         return arguments;
     }
 
+    /**
+     * @return: the time the caller gives up waiting the response, in the form
+     *          of System.currentTimeMillis(), {@link #NO_DEADLINE} when the
+     *          caller did not tell.
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    public boolean isExpired(long now) {
+        return deadline != NO_DEADLINE && now >= deadline;
+    }
+
+    /**
+     * @param now: the current time in the form of System.currentTimeMillis().
+     * @return: the milliseconds left before the deadline, 0 when already
+     *          passed and -1 when there's no deadline.
+     */
+    public long getRemaining(long now) {
+        return deadline == NO_DEADLINE ? -1 : Math.max(0, deadline - now);
+    }
+
+    /**
+     * @param remaining: the milliseconds left before the deadline, < 0 means
+     *            no deadline.
+     */
+    public void setRemaining(long now, long remaining) {
+        deadline = remaining < 0 ? NO_DEADLINE : now + remaining;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeLong(getRemaining(System.currentTimeMillis()));
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        setRemaining(System.currentTimeMillis(), in.readLong());
+    }
+
 }
@@ -21,8 +21,6 @@ package com.sokeeper.rpc.message;
 
 import java.io.Serializable;
 
-import com.sokeeper.util.Assert;
-
 
 /**
  * @author James Fu (fuyinhai@gmail.com)
@@ -31,16 +29,15 @@ public class RpcResponse implements Serializable {
 
     private static final long serialVersionUID = 3693743114837586569L;
 
-    private String            id;
+    private long              id;
     private Object            result;
 
-    public RpcResponse(String id, Object result) {
-        Assert.notNull(id, "id can not be null");
+    public RpcResponse(long id, Object result) {
         this.id = id;
         this.result = result;
     }
 
-    public String getId() {
+    public long getId() {
         return id;
     }
 
@@ -0,0 +1,83 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.message;
+
+import java.io.Serializable;
+
+import com.sokeeper.util.Assert;
+
+/**
+ * The successive items of a stream, the chunks carry their sequence since the
+ * small ones could overtake the big ones on the wire. The last chunk ends the
+ * stream, with the exception when the service failed half way.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcStreamChunk implements Serializable {
+    private static final long serialVersionUID = 5170398128633384506L;
+
+    private long              id;
+    private int               sequence;
+    private Object[]          items;
+    private boolean           last;
+    private Throwable         exception;
+
+    /**
+     * @param id: the stream request's id.
+     * @param sequence: starts from 0.
+     * @param items: can not be null.
+     * @param last: whether the stream ends with this chunk.
+     * @param exception: why the stream ended early, only for the last chunk.
+     */
+    public RpcStreamChunk(long id, int sequence, Object[] items, boolean last,
+                          Throwable exception) {
+        Assert.isTrue(sequence >= 0, "sequence should >= 0.");
+        Assert.notNull(items, "items can not be null.");
+        Assert.isTrue(last || exception == null, "only the last chunk has the exception.");
+        this.id = id;
+        this.sequence = sequence;
+        this.items = items;
+        this.last = last;
+        this.exception = exception;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    public Object[] getItems() {
+        return items;
+    }
+
+    public boolean isLast() {
+        return last;
+    }
+
+    /**
+     * @return: null when the stream ended normally or not ended yet.
+     */
+    public Throwable getException() {
+        return exception;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.message;
+
+import java.io.Serializable;
+
+import com.sokeeper.util.Assert;
+
+/**
+ * Grants the remote peer to send more chunks of a stream, or cancels the
+ * stream when the consumer closed it before the end.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcStreamCredit implements Serializable {
+    private static final long serialVersionUID = -4139306925512617003L;
+
+    final static public int   CANCEL           = 0;
+
+    private long              id;
+    private int               credits;
+
+    /**
+     * @param id: the stream request's id.
+     * @param credits: the chunks granted, {@link #CANCEL} stops the stream.
+     */
+    public RpcStreamCredit(long id, int credits) {
+        Assert.isTrue(credits >= 0, "credits should >= 0.");
+        this.id = id;
+        this.credits = credits;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public int getCredits() {
+        return credits;
+    }
+
+    public boolean isCancel() {
+        return credits == CANCEL;
+    }
+}
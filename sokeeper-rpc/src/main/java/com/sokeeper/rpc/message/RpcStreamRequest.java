@@ -0,0 +1,67 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.message;
+
+import com.sokeeper.util.Assert;
+
+/**
+ * The request whose result is sent back in the chunks of
+ * {@link RpcStreamChunk} instead of one {@link RpcResponse}, the remote peer
+ * sends the first window of chunks at once and the rest as the
+ * {@link RpcStreamCredit} granted them.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcStreamRequest extends RpcRequest {
+    private static final long serialVersionUID = -2650741838212384120L;
+
+    private int               window;
+
+    /**
+     * @param window: the chunks granted at first, should > 0.
+     */
+    public RpcStreamRequest(String serviceName, Object[] arguments, int window) {
+        super(serviceName, arguments);
+        setWindow(window);
+    }
+
+    public RpcStreamRequest(int methodId, Object[] arguments, int window) {
+        super(methodId, arguments);
+        setWindow(window);
+    }
+
+    /**
+     * restore a request which already has an id, e.g.: decoded from the wire.
+     */
+    public RpcStreamRequest(long id, int methodId, String serviceName, Object[] arguments,
+                            int window) {
+        super(id, methodId, serviceName, arguments);
+        setWindow(window);
+    }
+
+    private void setWindow(int window) {
+        Assert.isTrue(window > 0, "window should > 0.");
+        this.window = window;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+}
@@ -49,4 +49,36 @@ public interface RpcServiceBuilder {
                                                   RpcIoHandler rpcIoHandler,
                                                   boolean argsFilterEnabled)
             throws IllegalArgumentException;
+
+    /**
+     * This method is used to build the asynchronous wrapper instance of the
+     * remote service. Each method of the proxyInterface is mapped to the
+     * serviceInterface's method with the same name and parameter types, when
+     * the proxyInterface's method returns {@link com.sokeeper.rpc.transport.RpcFuture}
+     * but the mapped method doesn't, the method will be invoked through
+     * {@link RpcIoHandler#invokeAsync(java.lang.reflect.Method, Object[], Set, String, boolean)}
+     * and return immediately. Likewise when the proxyInterface's method returns
+     * {@link com.sokeeper.rpc.transport.RpcStream} the method will be invoked
+     * through
+     * {@link RpcIoHandler#invokeStream(java.lang.reflect.Method, Object[], RpcAddress)}
+     * on the first of the targets, otherwise it will be invoked synchronously.
+     * e.g.:
+     * <code><pre>
+     *     interface HelloService { String sayHello(String name); List&lt;String&gt; names(); }
+     *     interface HelloServiceAsync { RpcFuture&lt;String&gt; sayHello(String name); RpcStream&lt;String&gt; names(); }
+     * </pre></code>
+     *
+     * @param proxyInterface: could not be null and must be an interface.
+     * @param serviceInterface: the interface registered by the remote peers,
+     *            could not be null and must be an interface.
+     * @see #buildRemoteServiceProxy(Class, Set, String, RpcIoHandler, boolean)
+     * @throws IllegalArgumentException: also thrown when any method of the
+     *             proxyInterface can not be mapped.
+     */
+    public abstract <T> T buildRemoteServiceProxy(Class<? extends T> proxyInterface,
+                                                  Class<?> serviceInterface,
+                                                  Set<RpcAddress> targets, String targetGroup,
+                                                  RpcIoHandler rpcIoHandler,
+                                                  boolean argsFilterEnabled)
+            throws IllegalArgumentException;
 }
@@ -21,10 +21,13 @@ package com.sokeeper.rpc.service.support;
 
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
+import java.util.Map;
 import java.util.Set;
 
 import com.sokeeper.exception.RpcException;
+import com.sokeeper.rpc.transport.RpcFuture;
 import com.sokeeper.rpc.transport.RpcIoHandler;
+import com.sokeeper.rpc.transport.RpcStream;
 import com.sokeeper.util.Assert;
 import com.sokeeper.util.RpcAddress;
 
@@ -33,24 +36,53 @@ import com.sokeeper.util.RpcAddress;
  */
 public class RpcInvocationHandler implements InvocationHandler {
 
-    final private String          targetGroup;
-    final private Set<RpcAddress> targets;
-    final private RpcIoHandler    rpcIoHandler;
-    final private boolean         argsFilterEnabled;
+    final private String              targetGroup;
+    final private Set<RpcAddress>     targets;
+    final private RpcIoHandler        rpcIoHandler;
+    final private boolean             argsFilterEnabled;
+    final private Map<Method, Method> serviceMethods;
 
     public RpcInvocationHandler(Set<RpcAddress> targets, String targetGroup,
                                 RpcIoHandler rpcIoHandler, boolean argsFilterEnabled) {
+        this(targets, targetGroup, rpcIoHandler, argsFilterEnabled, null);
+    }
+
+    /**
+     * @param serviceMethods: the proxy's methods mapped to the remote
+     *            service's methods, could be null when the proxy implements
+     *            the remote service's interface.
+     */
+    public RpcInvocationHandler(Set<RpcAddress> targets, String targetGroup,
+                                RpcIoHandler rpcIoHandler, boolean argsFilterEnabled,
+                                Map<Method, Method> serviceMethods) {
         Assert.notNull(rpcIoHandler, "rpcIoHandler can not be null.");
         this.targets = targets;
         this.targetGroup = targetGroup;
         this.rpcIoHandler = rpcIoHandler;
         this.argsFilterEnabled = argsFilterEnabled;
+        this.serviceMethods = serviceMethods;
     }
 
     public Object invoke(Object proxy, Method method, Object[] args) throws RpcException, Throwable {
         if (method.getDeclaringClass() == Object.class) {
             return null;
         }
+        if (serviceMethods != null) {
+            Method serviceMethod = serviceMethods.get(method);
+            if (method.getReturnType() == RpcFuture.class
+                    && serviceMethod.getReturnType() != RpcFuture.class) {
+                return rpcIoHandler.invokeAsync(serviceMethod, args, targets, targetGroup,
+                        argsFilterEnabled);
+            }
+            if (method.getReturnType() == RpcStream.class
+                    && serviceMethod.getReturnType() != RpcStream.class) {
+                // only one peer streams the result back
+                RpcAddress target = targets == null || targets.isEmpty() ? null : targets
+                        .iterator().next();
+                return rpcIoHandler.invokeStream(serviceMethod, args, target);
+            }
+            method = serviceMethod;
+        }
         return rpcIoHandler.invoke(method, args, targets, targetGroup, argsFilterEnabled);
     }
 }
@@ -21,6 +21,7 @@ package com.sokeeper.rpc.service.support;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.HashMap;
 import java.util.Map;
@@ -44,30 +45,69 @@ public class RpcServiceBuilderImpl implements RpcServiceBuilder {
                                          RpcIoHandler rpcIoHandler,
                                          boolean argsFilterEnabled)
             throws IllegalArgumentException {
+        return buildRemoteServiceProxy(serviceInterface, serviceInterface, targets, targetGroup,
+                rpcIoHandler, argsFilterEnabled);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T buildRemoteServiceProxy(Class<? extends T> proxyInterface,
+                                         Class<?> serviceInterface, Set<RpcAddress> targets,
+                                         String targetGroup, RpcIoHandler rpcIoHandler,
+                                         boolean argsFilterEnabled)
+            throws IllegalArgumentException {
+        Assert.notNull(proxyInterface, "serviceInterface can not be null.");
+        Assert.isTrue(proxyInterface.isInterface(), "only interface can be registered as service");
         Assert.notNull(serviceInterface, "serviceInterface can not be null.");
-        Assert
-                .isTrue(serviceInterface.isInterface(),
-                        "only interface can be registered as service");
+        Assert.isTrue(serviceInterface.isInterface(),
+                "only interface can be registered as service");
         Assert.notNull(rpcIoHandler, "rpcIoHandler can not be null.");
 
-        Constructor constructorOfProxiedClazz = constructorOfProxiedClazzes.get(serviceInterface
+        Map<Method, Method> serviceMethods = null;
+        if (proxyInterface != serviceInterface) {
+            serviceMethods = new HashMap<Method, Method>();
+            for (Method method : proxyInterface.getMethods()) {
+                if (isObjectMethod(method)) {
+                    continue;
+                }
+                try {
+                    serviceMethods.put(method, serviceInterface.getMethod(method.getName(), method
+                            .getParameterTypes()));
+                } catch (NoSuchMethodException e) {
+                    throw new IllegalArgumentException("method " + method.getName()
+                            + " not found in " + serviceInterface.getName());
+                }
+            }
+        }
+        Constructor constructorOfProxiedClazz = constructorOfProxiedClazzes.get(proxyInterface
                 .getName());
         if (constructorOfProxiedClazz == null) {
-            Class<?> proxiedClazz = Proxy.getProxyClass(serviceInterface.getClassLoader(),
-                    new Class<?>[] { serviceInterface });
+            Class<?> proxiedClazz = Proxy.getProxyClass(proxyInterface.getClassLoader(),
+                    new Class<?>[] { proxyInterface });
             try {
                 constructorOfProxiedClazz = proxiedClazz.getConstructor(constructorParams);
             } catch (NoSuchMethodException e) {
                 throw new InternalError(e.toString());
             }
-            constructorOfProxiedClazzes.put(serviceInterface.getName(), constructorOfProxiedClazz);
+            constructorOfProxiedClazzes.put(proxyInterface.getName(), constructorOfProxiedClazz);
         }
         try {
             return (T) constructorOfProxiedClazz
                     .newInstance(new Object[] { new RpcInvocationHandler(targets, targetGroup,
-                            rpcIoHandler, argsFilterEnabled) });
+                            rpcIoHandler, argsFilterEnabled, serviceMethods) });
         } catch (Throwable e) {
             throw new InternalError(e.toString());
         }
     }
+
+    /**
+     * the proxy dispatches the methods declared by Object to Object itself.
+     */
+    private boolean isObjectMethod(Method method) {
+        try {
+            Object.class.getMethod(method.getName(), method.getParameterTypes());
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
 }
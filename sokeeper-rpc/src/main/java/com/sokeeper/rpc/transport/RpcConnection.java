@@ -34,6 +34,8 @@ public class RpcConnection implements Serializable {
     private RpcAddress                              localAddress;
     private RpcAddress                              remoteAddress;
     private static final ThreadLocal<RpcConnection> CURRENT          = new ThreadLocal<RpcConnection>();
+    private static final ThreadLocal<Long>          DEADLINE         = new ThreadLocal<Long>();
+    private static final ThreadLocal<String>        IDEMPOTENCY_KEY  = new ThreadLocal<String>();
 
     public RpcConnection(RpcAddress localAddress, RpcAddress remoteAddress) {
         Assert.notNull(localAddress, "localAddress can not be null");
@@ -51,6 +53,54 @@ public class RpcConnection implements Serializable {
         CURRENT.set(connection);
     }
 
+    /**
+     * @return: the deadline of the request being processed by the current
+     *          thread in the form of System.currentTimeMillis(), 0 when the
+     *          caller did not tell.
+     */
+    public static long getCurrentDeadline() {
+        Long deadline = DEADLINE.get();
+        return deadline == null ? 0 : deadline;
+    }
+
+    public static void setCurrentDeadline(long deadline) {
+        DEADLINE.set(deadline);
+    }
+
+    /**
+     * the service could give up the work the caller would not wait for.
+     *
+     * @return: the milliseconds left for the request being processed by the
+     *          current thread, 0 when its deadline passed and
+     *          Long.MAX_VALUE when there's no deadline.
+     */
+    public static long getCurrentRemaining() {
+        long deadline = getCurrentDeadline();
+        return deadline == 0 ? Long.MAX_VALUE : Math.max(0, deadline
+                - System.currentTimeMillis());
+    }
+
+    /**
+     * @return: the idempotency key of the calls made by the current thread,
+     *          null when not given.
+     */
+    public static String getCurrentIdempotencyKey() {
+        return IDEMPOTENCY_KEY.get();
+    }
+
+    /**
+     * the calls made by the current thread carry the key until it's reset to
+     * null, they are retried when timed out, and the remote peer executes the
+     * calls with the same key only once, e.g.: the application retries its
+     * write with the key of the first try. The key should be unique in all
+     * the callers.
+     *
+     * @param key: could be null.
+     */
+    public static void setCurrentIdempotencyKey(String key) {
+        IDEMPOTENCY_KEY.set(key);
+    }
+
     public RpcAddress getLocalAddress() {
         return localAddress;
     }
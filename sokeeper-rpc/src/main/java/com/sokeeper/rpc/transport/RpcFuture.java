@@ -0,0 +1,82 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.transport;
+
+import java.util.Map;
+
+import com.sokeeper.exception.RpcException;
+import com.sokeeper.util.RpcAddress;
+
+/**
+ * The result of an asynchronous invocation, see
+ * {@link RpcIoHandler#invokeAsync(java.lang.reflect.Method, Object[], java.util.Set, String, boolean)}
+ * .
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public interface RpcFuture<V> {
+
+    /**
+     * @return: true when all the targets responded, failed or timed out.
+     */
+    public boolean isDone();
+
+    /**
+     * wait until the invocation is done.
+     *
+     * @return: the same result as the synchronous invocation returned.
+     * @throws RpcException: the same exception as the synchronous invocation
+     *             thrown.
+     * @throws Throwable: the business exception thrown by the remote peer.
+     */
+    public V get() throws RpcException, Throwable;
+
+    /**
+     * wait at most the given milliseconds.
+     *
+     * @throws com.sokeeper.rpc.exception.RpcLocalExceptionTimeout: when the
+     *             invocation is not done in time, the invocation continues.
+     * @see #get()
+     */
+    public V get(long timeout) throws RpcException, Throwable;
+
+    /**
+     * @return: the targets finished so far, mapped to their returned values
+     *          or the exceptions.
+     */
+    public Map<RpcAddress, Object> getResults();
+
+    /**
+     * @return: the responded targets, mapped to the nanoseconds between
+     *          sending the request and getting the response.
+     */
+    public Map<RpcAddress, Long> getLatencies();
+
+    /**
+     * the listener will be notified when the invocation is done, it's notified
+     * immediately when the invocation was already done. The listener is
+     * notified by the io thread which got the last response, so it should not
+     * block.
+     *
+     * @param listener: can not be null otherwise throw
+     *            {@link IllegalArgumentException}.
+     */
+    public void addListener(RpcFutureListener listener);
+}
@@ -0,0 +1,113 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.transport;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The latency histogram with the power of 2 buckets of microseconds: the
+ * bucket i counts the latencies less than 2^i us but not less than 2^(i-1)
+ * us. Recording is lock free and allocates nothing, the percentiles are
+ * answered with the upper bound of the bucket they fall in.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcHistogram {
+    final static public int      BUCKETS = 40;
+
+    final private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    final private AtomicLong      count  = new AtomicLong();
+    final private AtomicLong      nanos  = new AtomicLong();
+    final private AtomicLong      max    = new AtomicLong();
+
+    /**
+     * @param latency: the nanoseconds, the negative one is ignored.
+     */
+    public void record(long latency) {
+        if (latency < 0) {
+            return;
+        }
+        counts.incrementAndGet(bucketOf(latency / 1000));
+        count.incrementAndGet();
+        nanos.addAndGet(latency);
+        for (;;) {
+            long current = max.get();
+            if (latency <= current || max.compareAndSet(current, latency)) {
+                break;
+            }
+        }
+    }
+
+    private static int bucketOf(long micros) {
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * @return: the exclusive upper bound of the bucket in microseconds.
+     */
+    public static long getUpperMicros(int bucket) {
+        return 1L << bucket;
+    }
+
+    public long getCount(int bucket) {
+        return counts.get(bucket);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMeanMicros() {
+        long samples = count.get();
+        return samples == 0 ? 0 : nanos.get() / samples / 1000;
+    }
+
+    public long getMaxMicros() {
+        return max.get() / 1000;
+    }
+
+    /**
+     * @param percent: between 0 and 100.
+     * @return: the upper bound in microseconds of the bucket the percentile
+     *          falls in, 0 when nothing recorded.
+     */
+    public long getPercentileMicros(double percent) {
+        long samples = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            samples += counts.get(i);
+        }
+        long rank = (long) Math.ceil(samples * percent / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen > 0 && seen >= rank) {
+                return getUpperMicros(i);
+            }
+        }
+        return 0;
+    }
+
+    public String toString() {
+        return "count:" + getCount() + " mean:" + getMeanMicros() + "us p50:<"
+                + getPercentileMicros(50) + "us p99:<" + getPercentileMicros(99) + "us max:"
+                + getMaxMicros() + "us";
+    }
+}
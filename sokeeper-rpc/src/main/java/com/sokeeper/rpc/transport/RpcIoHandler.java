@@ -21,6 +21,7 @@ package com.sokeeper.rpc.transport;
 
 import java.lang.reflect.Method;
 import java.util.Collection;
+import java.util.Map;
 import java.util.Set;
 
 import com.sokeeper.exception.RpcException;
@@ -114,6 +115,14 @@ public interface RpcIoHandler {
      */
     public Collection<RpcConnection> getConnections();
 
+    /**
+     * Get the call counts, latencies, queue depths and traffic of the
+     * handler, they are also exposed through JMX once started.
+     *
+     * @return: the metrics, impossible be null.
+     */
+    public RpcMetrics getMetrics();
+
     /**
      * Let the remote peer know new servers added into the service network.
      *
@@ -208,4 +217,59 @@ public interface RpcIoHandler {
      */
     public Object invoke(Method method, Object[] args, Set<RpcAddress> targets, String targetGroup,
                          boolean argsFilterEnabled) throws RpcException, Throwable;
+
+    /**
+     * The asynchronous version of
+     * {@link #invoke(Method, Object[], Set, String, boolean)}, the requests are
+     * sent before return and the caller is never blocked.
+     *
+     * @return: the future completed when all the targets responded, failed or
+     *          timed out, its result or exception is the same as the
+     *          synchronous invocation's.
+     * @throws IllegalArgumentException: when the parameters are illegal.
+     */
+    public RpcFuture<Object> invokeAsync(Method method, Object[] args, Set<RpcAddress> targets,
+                                         String targetGroup, boolean argsFilterEnabled)
+            throws IllegalArgumentException;
+
+    /**
+     * Call one remote peer and get the result back in chunks. The remote
+     * service returns a collection, an iterable, an iterator or an array, its
+     * items are sent as the stream consumed, the other result is one item.
+     * The service returns an iterator to produce the items on demand.
+     *
+     * @param method: the remote call method information,can not be null
+     *            otherwise throw {@link IllegalArgumentException}.
+     * @param args: the arguments for the method, could be null.
+     * @param target: the remote peer, null means one of the peers the call
+     *            without targets goes to.
+     * @return: the stream, the request is sent before return.
+     * @throws RpcException: the
+     *             {@link com.sokeeper.rpc.exception.RpcLocalExceptionIoTargetIsNotConnected}
+     *             or the
+     *             {@link com.sokeeper.rpc.exception.RpcLocalExceptionIoWriteToTargetFailed}
+     *             .
+     */
+    public RpcStream<Object> invokeStream(Method method, Object[] args, RpcAddress target)
+            throws RpcException;
+
+    /**
+     * Scatter the call to the targets like
+     * {@link #invokeAsync(Method, Object[], Set, String, boolean)} did, and
+     * gather the responses concurrently against one deadline, so the
+     * broadcast finishes in the slowest target's round trip.
+     *
+     * @param quorum: the future is done once the given number of targets
+     *            succeeded, <= 0 means waiting for all the targets.
+     * @return: the future never fails, its result is the targets finished
+     *          before it was done, mapped to their returned values or the
+     *          exceptions, the targets still running when the quorum reached
+     *          are absent.
+     * @throws IllegalArgumentException: when the parameters are illegal.
+     */
+    public RpcFuture<Map<RpcAddress, Object>> scatterGather(Method method, Object[] args,
+                                                            Set<RpcAddress> targets,
+                                                            String targetGroup,
+                                                            boolean argsFilterEnabled, int quorum)
+            throws IllegalArgumentException;
 }
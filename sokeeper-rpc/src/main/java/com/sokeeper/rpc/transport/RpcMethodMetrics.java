@@ -0,0 +1,98 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.transport;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The counters of one service method: the calls this peer sent with their
+ * round trip as the caller saw it, and the calls this peer served with their
+ * execution time, the difference is the time spent on the wire and in the
+ * queues.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcMethodMetrics {
+    final private AtomicLong   calls            = new AtomicLong();
+    final private AtomicLong   callErrors       = new AtomicLong();
+    final private RpcHistogram callRtt          = new RpcHistogram();
+    final private AtomicLong   invocations      = new AtomicLong();
+    final private AtomicLong   invocationErrors = new AtomicLong();
+    final private RpcHistogram executionTime    = new RpcHistogram();
+
+    /**
+     * one call to one target finished.
+     *
+     * @param rtt: the nanoseconds from sent to responded, negative when no
+     *            response, e.g.: timed out or not sent at all.
+     * @param failed: whether the call failed or answered an exception.
+     */
+    public void onCalled(long rtt, boolean failed) {
+        calls.incrementAndGet();
+        if (failed) {
+            callErrors.incrementAndGet();
+        }
+        callRtt.record(rtt);
+    }
+
+    /**
+     * one incoming request was executed.
+     *
+     * @param nanos: the execution time.
+     * @param failed: whether the service threw an exception.
+     */
+    public void onInvoked(long nanos, boolean failed) {
+        invocations.incrementAndGet();
+        if (failed) {
+            invocationErrors.incrementAndGet();
+        }
+        executionTime.record(nanos);
+    }
+
+    public long getCalls() {
+        return calls.get();
+    }
+
+    public long getCallErrors() {
+        return callErrors.get();
+    }
+
+    public RpcHistogram getCallRtt() {
+        return callRtt;
+    }
+
+    public long getInvocations() {
+        return invocations.get();
+    }
+
+    public long getInvocationErrors() {
+        return invocationErrors.get();
+    }
+
+    public RpcHistogram getExecutionTime() {
+        return executionTime;
+    }
+
+    public String toString() {
+        return "calls:" + getCalls() + " errors:" + getCallErrors() + " rtt[" + callRtt
+                + "], invocations:" + getInvocations() + " errors:" + getInvocationErrors()
+                + " execution[" + executionTime + "]";
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.transport;
+
+/**
+ * The instrumentation of one {@link RpcIoHandler}, it is also registered to
+ * the platform MBean server once the handler started. The counters are
+ * recorded without allocation, the summaries are built only when asked.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public interface RpcMetrics {
+    /**
+     * @return: the opened sessions.
+     */
+    public int getSessions();
+
+    /**
+     * @return: the outgoing calls waiting for their responses.
+     */
+    public int getPendingResponses();
+
+    /**
+     * @return: the streams invoked by this side and not ended yet.
+     */
+    public int getOpenStreams();
+
+    /**
+     * @return: the incoming requests waiting for a thread.
+     */
+    public int getQueuedRequests();
+
+    /**
+     * @return: the io events and handshake callbacks waiting for a thread.
+     */
+    public int getQueuedEvents();
+
+    /**
+     * @return: the threads processing requests right now.
+     */
+    public int getActiveThreads();
+
+    /**
+     * @return: the requests rejected as server busy.
+     */
+    public long getRejectedRequests();
+
+    /**
+     * @return: the requests dropped since their callers gave up already.
+     */
+    public long getExpiredRequests();
+
+    /**
+     * @return: the requests finished after their callers gave up.
+     */
+    public long getLateRequests();
+
+    /**
+     * @return: the retried requests answered by the cached responses instead
+     *          of being executed again.
+     */
+    public long getDuplicateRequests();
+
+    /**
+     * @return: the responses kept for the retries of their requests.
+     */
+    public int getCachedResponses();
+
+    /**
+     * @return: the sessions closed since the remote peer's heart beat
+     *          stopped.
+     */
+    public long getHeartbeatCloses();
+
+    /**
+     * @return: the bytes read by all the sessions, the closed ones included.
+     */
+    public long getReadBytes();
+
+    public long getWrittenBytes();
+
+    /**
+     * @return: the frames decoded by all the sessions, the closed ones
+     *          included.
+     */
+    public long getReadFrames();
+
+    public long getWrittenFrames();
+
+    /**
+     * @return: one line for each service method registered or called.
+     */
+    public String[] getMethodStats();
+
+    /**
+     * @return: one line for each opened session with its bytes and frames.
+     */
+    public String[] getSessionStats();
+
+    /**
+     * @return: the counters of the method, null when it was never registered
+     *          nor called.
+     */
+    public RpcMethodMetrics getMethodMetrics(String serviceName);
+}
@@ -0,0 +1,62 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.transport;
+
+import java.util.NoSuchElementException;
+
+import com.sokeeper.exception.RpcException;
+
+/**
+ * The result of a stream invocation, see
+ * {@link RpcIoHandler#invokeStream(java.lang.reflect.Method, Object[], com.sokeeper.util.RpcAddress)}
+ * . The items arrive chunk by chunk, the remote peer sends a few chunks ahead
+ * and the next ones only after the former consumed, so the slow consumer slows
+ * the producer down instead of buffering the whole result.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public interface RpcStream<E> {
+
+    /**
+     * wait until the next item arrived or the stream ended.
+     *
+     * @return: false when all the items consumed.
+     * @throws RpcException: the
+     *             {@link com.sokeeper.rpc.exception.RpcLocalExceptionTimeout}
+     *             when no chunk arrived in time, the
+     *             {@link com.sokeeper.rpc.exception.RpcLocalExceptionIo}
+     *             when the connection closed before the stream ended.
+     * @throws Throwable: the business exception thrown by the remote peer,
+     *             after the items sent before it consumed.
+     */
+    public boolean hasNext() throws RpcException, Throwable;
+
+    /**
+     * @throws NoSuchElementException: when all the items consumed.
+     * @see #hasNext()
+     */
+    public E next() throws RpcException, Throwable;
+
+    /**
+     * stop the remote peer sending the rest, the items not consumed yet are
+     * dropped. It's not necessary to close the stream consumed to the end.
+     */
+    public void close();
+}
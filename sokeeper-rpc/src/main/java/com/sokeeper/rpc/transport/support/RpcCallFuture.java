@@ -0,0 +1,195 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.transport.support;
+
+import com.sokeeper.rpc.message.RpcResponse;
+import com.sokeeper.util.Assert;
+import com.sokeeper.util.RpcAddress;
+
+/**
+ * The single shot future of one outgoing request: it is completed once,
+ * either by the response or by the expiration, whichever comes first. The
+ * invocation it belongs to is notified by the thread which completed it.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcCallFuture {
+    final private long                id;
+    final private long                deadline;
+    final private long                sentNanos;
+    final private RpcAddress          target;
+    final private RpcInvocationFuture invocation;
+    final private RpcPeerLoad         load;
+    private RpcResponse               response;
+    private boolean                   done;
+    // the next future in the same bucket of the pending calls.
+    RpcCallFuture                     next;
+
+    /**
+     * @param id: the request id.
+     * @param timeout: the milliseconds to wait the response, should >= 0.
+     */
+    public RpcCallFuture(long id, long timeout) {
+        Assert.isTrue(timeout >= 0, "timeout should >= 0.");
+        this.id = id;
+        this.deadline = System.currentTimeMillis() + timeout;
+        this.sentNanos = System.nanoTime();
+        this.target = null;
+        this.invocation = null;
+        this.load = null;
+    }
+
+    /**
+     * the call shares the deadline of the invocation it belongs to.
+     *
+     * @param target: the remote peer the request sent to.
+     * @param invocation: the invocation to notify when done.
+     * @param load: the load of the target counting the call in flight till
+     *            done, could be null.
+     */
+    RpcCallFuture(long id, RpcAddress target, RpcInvocationFuture invocation, RpcPeerLoad load) {
+        this.id = id;
+        this.deadline = invocation.getDeadline();
+        this.sentNanos = System.nanoTime();
+        this.target = target;
+        this.invocation = invocation;
+        this.load = load;
+        if (load != null) {
+            load.onSent();
+        }
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public RpcAddress getTarget() {
+        return target;
+    }
+
+    /**
+     * @return: the System.nanoTime() when the call was created, right before
+     *          the request sent.
+     */
+    public long getSentNanos() {
+        return sentNanos;
+    }
+
+    /**
+     * @return: the response, null when not done yet or expired.
+     */
+    public synchronized RpcResponse getResponse() {
+        return response;
+    }
+
+    /**
+     * @return: the deadline in the form of System.currentTimeMillis().
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public boolean isExpired(long now) {
+        return now >= deadline;
+    }
+
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * @return: false when the future was already completed or expired.
+     */
+    public boolean complete(RpcResponse response) {
+        Assert.notNull(response, "response can not be null.");
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.response = response;
+            done = true;
+            notifyAll();
+        }
+        if (load != null) {
+            load.onDone();
+        }
+        if (invocation != null) {
+            invocation.onCallDone(this);
+        }
+        return true;
+    }
+
+    /**
+     * complete the future without response, the waiters will get null.
+     *
+     * @return: false when the future was already completed or expired.
+     */
+    public boolean expire() {
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            done = true;
+            notifyAll();
+        }
+        if (load != null) {
+            load.onDone();
+        }
+        if (invocation != null) {
+            invocation.onCallDone(this);
+        }
+        return true;
+    }
+
+    /**
+     * complete the future which was never sent, the invocation is not
+     * notified.
+     *
+     * @return: false when the future was already completed or expired.
+     */
+    boolean abandon() {
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            done = true;
+            notifyAll();
+        }
+        if (load != null) {
+            load.onDone();
+        }
+        return true;
+    }
+
+    /**
+     * @param timeout: the milliseconds to wait.
+     * @return: the response or null when it was expired or not arrived in
+     *          time.
+     */
+    public synchronized RpcResponse get(long timeout) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+        long remaining = timeout;
+        while (!done && remaining > 0) {
+            wait(remaining);
+            remaining = end - System.currentTimeMillis();
+        }
+        return response;
+    }
+}
@@ -19,13 +19,21 @@
  */
 package com.sokeeper.rpc.transport.support;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.Map.Entry;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import org.apache.mina.common.ConnectFuture;
+import org.apache.mina.common.IoFilter;
 import org.apache.mina.common.IoService;
 import org.apache.mina.common.IoSession;
 import org.apache.mina.transport.socket.nio.SocketConnector;
@@ -43,9 +51,13 @@ import com.sokeeper.util.RpcSocketAddress;
  * @author James Fu (fuyinhai@gmail.com)
  */
 public class RpcClientIoHandlerImpl extends RpcIoHandlerImpl implements Runnable {
-    private SocketConnector connector       = null;
-    private volatile Thread reconnectThread = null;
-    private ExecutorService connectorThreadPool;
+    final static public String  KEY_SESSION_DROPPED = "_dropped_";
+    final static public long    ANYONE_STAGGER_MS   = 250;
+    private SocketConnector     connector           = null;
+    private volatile Thread     reconnectThread     = null;
+    private ExecutorService     connectorThreadPool;
+    private RpcReconnectBackoff backoff;
+    private IoSession           anyone;
 
     public RpcClientIoHandlerImpl(RpcConfiguration configuration) {
         super(configuration);
@@ -54,20 +66,35 @@ public class RpcClientIoHandlerImpl extends RpcIoHandlerImpl implements Runnable
     public boolean startup() {
         boolean succeed = true;
         if (connector == null) {
+            registerMetrics();
             connectorThreadPool = Executors.newCachedThreadPool(new NamedThreadFactory(
                     getThreadPoolName() + "-connector-", true));
             connector = new SocketConnector(Runtime.getRuntime().availableProcessors() + 1,
                     connectorThreadPool);
             connector.getDefaultConfig().getSessionConfig().setTcpNoDelay(true);
             connector.getDefaultConfig().getSessionConfig().setReuseAddress(true);
+            connector.getDefaultConfig().setConnectTimeout(
+                    (configuration.getConnectTimeout() + 999) / 1000);
+            int baseMs = configuration.getAutoReconnectInMs() > 0 ? configuration
+                    .getAutoReconnectInMs() : 1000;
+            backoff = new RpcReconnectBackoff(baseMs, Math.max(baseMs, configuration
+                    .getReconnectMaxInMs()), configuration.getReconnectJitter());
             connector.getDefaultConfig().setThreadModel(
                     ExecutorThreadModel.getInstance(getThreadPoolName() + "-connector", true));
+            IoFilter batchFilter = getWriteBatchFilter();
+            if (batchFilter != null) {
+                connector.getFilterChain().addLast("batch", batchFilter);
+            }
+            IoFilter laneFilter = getWriteLaneFilter();
+            if (laneFilter != null) {
+                connector.getFilterChain().addLast("lane", laneFilter);
+            }
             connector.getFilterChain().addLast("codec", getCodecFactory());
             for (int triedTimes = 0; triedTimes < configuration.getStartupRetryTimes(); triedTimes++) {
-                succeed = connectServers();
+                succeed = connectServers(true);
                 if (!succeed && (configuration.getStartupRetryTimes() > 1)) {
                     try {
-                        Thread.sleep(1000);
+                        Thread.sleep(backoff.delayOf(triedTimes + 1));
                     } catch (Throwable e) {
                     }
                 } else {
@@ -108,44 +135,59 @@ public class RpcClientIoHandlerImpl extends RpcIoHandlerImpl implements Runnable
     public void run() {
         while (Thread.currentThread() == reconnectThread) {
             try {
-                connectServers();
-                Thread.sleep(configuration.getAutoReconnectInMs());
+                connectServers(false);
+                // wake up earlier when a server's backoff ends before the tick
+                Thread.sleep(Math.max(1, backoff.getNextDelay(System.currentTimeMillis(),
+                        configuration.getAutoReconnectInMs())));
             } catch (InterruptedException e) {
                 break;
             }
         }
     }
 
-    private boolean connectServers() {
-        boolean connected = true;
+    /**
+     * @param force: connect the servers whose backoff not ended yet too.
+     */
+    private boolean connectServers(boolean force) {
+        List<RpcSocketAddress> candidates = new ArrayList<RpcSocketAddress>();
         switch (configuration.getConnectPolicy()) {
-            case RpcConfiguration.CONNECT_POLICY_ALL: {
+            case RpcConfiguration.CONNECT_POLICY_ALL:
+            case RpcConfiguration.CONNECT_POLICY_LEAST_LOADED: {
                 for (RpcAddress address : configuration.getServers()) {
-                    if (!connect((RpcSocketAddress) address)) {
-                        connected = false;
-                    }
+                    candidates.add((RpcSocketAddress) address);
                 }
             }
                 break;
             case RpcConfiguration.CONNECT_POLICY_MAIN: {
-                connected = connect((RpcSocketAddress) configuration.getMainAddress());
+                candidates.add((RpcSocketAddress) configuration.getMainAddress());
             }
                 break;
             case RpcConfiguration.CONNECT_POLICY_ANYONE: {
-                if (getSessions().size() == 0) {
-                    connected = false;
-                    RpcAddress[] sroted = configuration.getOrderedServers();
-                    for (RpcAddress address : sroted) {
-                        if (connect((RpcSocketAddress) address)) {
-                            connected = true;
-                            configuration.recordAccessedTime(address);
-                            break;
-                        }
-                    }
+                if (getSessions().size() > 0) {
+                    return true;
                 }
+                for (RpcAddress address : configuration.getOrderedServers()) {
+                    candidates.add((RpcSocketAddress) address);
+                }
+            }
+        }
+        long now = System.currentTimeMillis();
+        List<RpcSocketAddress> targets = new ArrayList<RpcSocketAddress>();
+        for (RpcSocketAddress address : candidates) {
+            if (!isConnected(address) && (force || backoff.isDue(address, now))) {
+                targets.add(address);
+            }
+        }
+        if (configuration.getConnectPolicy() == RpcConfiguration.CONNECT_POLICY_ANYONE) {
+            return connectAnyone(targets);
+        }
+        Map<RpcSocketAddress, IoSession> sessions = connect(targets);
+        for (RpcSocketAddress address : candidates) {
+            if (!sessions.containsKey(address) && !isConnected(address)) {
+                return false;
             }
         }
-        return connected;
+        return true;
     }
 
     private void startConnectThread() {
@@ -170,24 +212,187 @@ public class RpcClientIoHandlerImpl extends RpcIoHandlerImpl implements Runnable
         }
     }
 
-    private boolean connect(RpcSocketAddress address) {
-        boolean connected = true;
-        if (!isConnected(address)) {
-            connected = false;
+    /**
+     * connect the servers in parallel, so the unreachable ones cost one
+     * connect timeout in total instead of one each.
+     *
+     * @return: the sessions of the servers connected, in the given order.
+     */
+    private Map<RpcSocketAddress, IoSession> connect(List<RpcSocketAddress> targets) {
+        Map<RpcSocketAddress, ConnectFuture> futures = new LinkedHashMap<RpcSocketAddress, ConnectFuture>();
+        for (RpcSocketAddress address : targets) {
             try {
                 Assert.state(connector != null, "the connector has been terminated.");
-                ConnectFuture future = connector.connect(address, this);
-                future.join();
-                IoSession session = future.getSession();
-                if (session != null && logger.isInfoEnabled()) {
-                    logger.info("connect:" + address + " succeed.");
-                    connected = true;
-                }
+                futures.put(address, connector.connect(address, this));
             } catch (Throwable e) {
-                logger.error("connect:" + address + " failed.");
+                onConnectFailed(address);
+            }
+        }
+        Map<RpcSocketAddress, IoSession> sessions = new LinkedHashMap<RpcSocketAddress, IoSession>();
+        long end = System.currentTimeMillis() + configuration.getConnectTimeout();
+        for (Entry<RpcSocketAddress, ConnectFuture> pair : futures.entrySet()) {
+            ConnectFuture future = pair.getValue();
+            future.join(Math.max(1, end - System.currentTimeMillis()));
+            if (future.isConnected()) {
+                sessions.put(pair.getKey(), future.getSession());
+                backoff.onSuccess(pair.getKey());
+            } else {
+                onConnectFailed(pair.getKey());
             }
         }
-        return connected;
+        // the server knows the session only after its handshake arrived
+        end = System.currentTimeMillis() + configuration.getTimeout();
+        for (Entry<RpcSocketAddress, IoSession> pair : sessions.entrySet()) {
+            try {
+                if (!awaitHandshake(pair.getValue(), end - System.currentTimeMillis())) {
+                    logger.warn("handshake:" + pair.getKey() + " not arrived in "
+                            + configuration.getTimeout() + " ms.");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (logger.isInfoEnabled()) {
+                logger.info("connect:" + pair.getKey() + " succeed.");
+            }
+        }
+        return sessions;
+    }
+
+    /**
+     * try the servers in the order of preference, the next one is tried only
+     * when the earlier ones neither connected nor failed within the stagger.
+     * The first session opened wins, the later ones are closed before their
+     * handshakes, so neither peer indexes them nor tells its io listeners.
+     *
+     * @return: true when one server connected.
+     */
+    private boolean connectAnyone(List<RpcSocketAddress> targets) {
+        Map<RpcSocketAddress, ConnectFuture> futures = new LinkedHashMap<RpcSocketAddress, ConnectFuture>();
+        long end = System.currentTimeMillis() + configuration.getConnectTimeout();
+        long stagger = Math.min(ANYONE_STAGGER_MS, configuration.getConnectTimeout());
+        int next = 0;
+        Entry<RpcSocketAddress, ConnectFuture> connected = null;
+        while (connected == null) {
+            if (next < targets.size()) {
+                RpcSocketAddress address = targets.get(next++);
+                try {
+                    Assert.state(connector != null, "the connector has been terminated.");
+                    futures.put(address, connector.connect(address, this));
+                } catch (Throwable e) {
+                    onConnectFailed(address);
+                }
+            } else if (futures.isEmpty() || System.currentTimeMillis() >= end) {
+                break;
+            }
+            long wait = Math.min(next < targets.size() ? stagger : Long.MAX_VALUE, end
+                    - System.currentTimeMillis());
+            connected = awaitConnected(futures, System.currentTimeMillis() + Math.max(1, wait));
+        }
+        for (RpcSocketAddress address : futures.keySet()) {
+            // the ones still connecting are dropped once opened
+            logger.warn("connect:" + address + " given up, another server connected first.");
+        }
+        if (connected == null) {
+            return false;
+        }
+        RpcSocketAddress address = connected.getKey();
+        IoSession session = connected.getValue().getSession();
+        try {
+            if (!awaitHandshake(session, configuration.getTimeout())) {
+                synchronized (this) {
+                    // opened after a later connected one, which won the race
+                    if (session.containsAttribute(KEY_SESSION_DROPPED) && anyone != null) {
+                        session = anyone;
+                        address = RpcSocketAddress.fromFullAddress(getConnection(session)
+                                .getRemoteAddress().getFullAddress());
+                    }
+                }
+                if (!awaitHandshake(session, configuration.getTimeout())) {
+                    logger.warn("handshake:" + address + " not arrived in "
+                            + configuration.getTimeout() + " ms.");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        configuration.recordAccessedTime(address);
+        if (logger.isInfoEnabled()) {
+            logger.info("connect:" + address + " succeed.");
+        }
+        return true;
+    }
+
+    /**
+     * wait until one of the futures connected or the deadline reached, the
+     * failed ones are removed.
+     *
+     * @return: the server connected first in the order of preference, null
+     *          when none connected.
+     */
+    private Entry<RpcSocketAddress, ConnectFuture> awaitConnected(Map<RpcSocketAddress, ConnectFuture> futures,
+                                                                  long end) {
+        while (true) {
+            for (Iterator<Entry<RpcSocketAddress, ConnectFuture>> it = futures.entrySet()
+                    .iterator(); it.hasNext();) {
+                Entry<RpcSocketAddress, ConnectFuture> pair = it.next();
+                if (pair.getValue().isConnected()) {
+                    it.remove();
+                    backoff.onSuccess(pair.getKey());
+                    return pair;
+                } else if (pair.getValue().isReady()) {
+                    it.remove();
+                    onConnectFailed(pair.getKey());
+                }
+            }
+            long remaining = end - System.currentTimeMillis();
+            if (futures.isEmpty() || remaining <= 0) {
+                return null;
+            }
+            futures.values().iterator().next().join(Math.min(remaining, 10));
+        }
+    }
+
+    /**
+     * under the anyone policy the session opened after the kept one is a loser
+     * of the connect race, it's closed before the handshake and the io events.
+     */
+    @Override
+    public void sessionOpened(IoSession session) throws Exception {
+        if (configuration.getConnectPolicy() == RpcConfiguration.CONNECT_POLICY_ANYONE
+                && !claim(session)) {
+            session.setAttribute(KEY_SESSION_DROPPED, Boolean.TRUE);
+            session.close();
+            return;
+        }
+        super.sessionOpened(session);
+    }
+
+    private synchronized boolean claim(IoSession session) {
+        if (anyone != null && anyone.isConnected() && !anyone.isClosing()) {
+            return false;
+        }
+        anyone = session;
+        return true;
+    }
+
+    @Override
+    public void sessionClosed(IoSession session) throws Exception {
+        if (!session.containsAttribute(KEY_SESSION_DROPPED)) {
+            super.sessionClosed(session);
+        }
+    }
+
+    @Override
+    public void messageReceived(IoSession session, Object message) throws Exception {
+        if (!session.containsAttribute(KEY_SESSION_DROPPED)) {
+            super.messageReceived(session, message);
+        }
+    }
+
+    private void onConnectFailed(RpcSocketAddress address) {
+        long delay = backoff.onFailure(address, System.currentTimeMillis());
+        logger.error("connect:" + address + " failed, retry in " + delay + " ms.");
     }
 
     protected void invokeFinished(Map<RpcAddress, Object> results) throws Throwable {
@@ -202,10 +407,41 @@ public class RpcClientIoHandlerImpl extends RpcIoHandlerImpl implements Runnable
         return connector;
     }
 
+    /**
+     * the call without targets goes to the least loaded server only under the
+     * least loaded policy, so the calls are balanced call by call.
+     */
+    @Override
+    protected Collection<IoSession> getDefaultSessions() {
+        Collection<IoSession> sessions = getSessions();
+        if (configuration.getConnectPolicy() == RpcConfiguration.CONNECT_POLICY_LEAST_LOADED
+                && sessions.size() > 1) {
+            sessions = Collections.singleton(leastLoaded(sessions));
+        }
+        return sessions;
+    }
+
+    /**
+     * @return: the session whose peer scores the lowest, the first one on a
+     *          tie, null when no session given.
+     */
+    private IoSession leastLoaded(Collection<IoSession> sessions) {
+        IoSession least = null;
+        long leastScore = Long.MAX_VALUE;
+        for (IoSession session : sessions) {
+            long score = getPeerLoad(session).getScore();
+            if (least == null || score < leastScore) {
+                least = session;
+                leastScore = score;
+            }
+        }
+        return least;
+    }
+
     @Override
     protected void sendHandshakeMessage(IoSession session) {
         Assert.notNull(session, "session can not be null.");
-        HandshakeMessage message = new HandshakeMessage();
+        HandshakeMessage message = newHandshakeMessage();
         MapParameters parameters = configuration.getParameters();
         // 1, client tell the server the groups the client want to join in
         if (parameters.hasParameter(RpcConfiguration.KEY_RPC_URL_PARAM_GROUPS)) {
@@ -30,6 +30,10 @@ import com.sokeeper.rpc.transport.RpcConnection;
 import com.sokeeper.util.Assert;
 
 /**
+ * Executes one request with the call slot the invoker acquired for it, the
+ * slot is released once the invocation finished. The deadline of the request
+ * is exposed to the service through {@link RpcConnection}.
+ *
  * @author James Fu (fuyinhai@gmail.com)
  */
 public class RpcExecutor implements Runnable {
@@ -51,17 +55,55 @@ public class RpcExecutor implements Runnable {
         this.connection = connection;
     }
 
+    /**
+     * the request expired while queued is dropped, and the response finished
+     * after the deadline is not sent, no one is waiting for it.
+     */
     public void run() {
         Object result = null;
+        long started = System.nanoTime();
         try {
+            if (request.isExpired(System.currentTimeMillis())) {
+                invoker.onExpired();
+                dropped();
+                return;
+            }
             RpcConnection.setCurrentRpcConnection(connection);
+            RpcConnection.setCurrentDeadline(request.getDeadline());
             result = invoker.invoke(request.getArguments());
         } catch (InvocationTargetException e) {
             result = e.getTargetException();
         } catch (Throwable e) {
             result = e;
+        } finally {
+            invoker.release();
+        }
+        invoker.onInvoked(System.nanoTime() - started, result instanceof Throwable);
+        executed(result);
+        if (request.isExpired(System.currentTimeMillis())) {
+            invoker.onLate();
+            return;
         }
-        RpcResponse response = new RpcResponse(request.getId(), result);
-        session.write(response);
+        respond(result);
+    }
+
+    /**
+     * called once the request executed, even if its caller gave up already.
+     */
+    protected void executed(Object result) {
+    }
+
+    /**
+     * called when the request expired while queued, it's not executed.
+     */
+    protected void dropped() {
+    }
+
+    /**
+     * write the result back in one response, the stream request overrides it
+     * to send the result in chunks.
+     */
+    protected void respond(Object result) {
+        session.write(new RpcResponse(request.getId(), result));
     }
 }
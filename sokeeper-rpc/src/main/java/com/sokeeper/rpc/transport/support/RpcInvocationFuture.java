@@ -0,0 +1,351 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.transport.support;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sokeeper.exception.RpcException;
+import com.sokeeper.rpc.exception.RpcLocalException;
+import com.sokeeper.rpc.exception.RpcLocalExceptionMultipleTargets;
+import com.sokeeper.rpc.exception.RpcLocalExceptionTimeout;
+import com.sokeeper.rpc.exception.RpcRemoteException;
+import com.sokeeper.rpc.message.RpcResponse;
+import com.sokeeper.rpc.transport.RpcFuture;
+import com.sokeeper.rpc.transport.RpcFutureListener;
+import com.sokeeper.rpc.transport.RpcMethodMetrics;
+import com.sokeeper.util.Assert;
+import com.sokeeper.util.RpcAddress;
+
+/**
+ * The invocation sent to one or more targets, all the calls share one
+ * deadline. It is done when every target responded, failed or timed out, and
+ * the result is merged the same way as the synchronous invocation did. In the
+ * gather mode it is also done once the quorum of the targets succeeded, and
+ * the result is the results of the targets finished so far.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcInvocationFuture implements RpcFuture<Object> {
+    final private static Logger           logger    = LoggerFactory
+                                                            .getLogger(RpcInvocationFuture.class);
+
+    final private RpcIoHandlerImpl        handler;
+    final private RpcPendingCalls         pendingCalls;
+    final private String                  serviceName;
+    final private RpcMethodMetrics        metrics;
+    final private int                     timeout;
+    final private long                    deadline;
+    final private boolean                 gather;
+    final private int                     quorum;
+    final private Map<RpcAddress, Object> results   = new HashMap<RpcAddress, Object>();
+    final private Map<RpcAddress, Long>   latencies = new HashMap<RpcAddress, Long>();
+    final private List<RpcCallFuture>     calls     = new ArrayList<RpcCallFuture>();
+    // one more than the calls in flight until all the requests were sent.
+    private int                           pending   = 1;
+    private boolean                       sending   = true;
+    private int                           succeeded;
+    private boolean                       finishing;
+    private boolean                       done;
+    private Object                        result;
+    private Throwable                     cause;
+    private List<RpcFutureListener>       listeners;
+
+    RpcInvocationFuture(RpcIoHandlerImpl handler, RpcPendingCalls pendingCalls,
+                        String serviceName, int timeout) {
+        this(handler, pendingCalls, serviceName, timeout, false, 0);
+    }
+
+    /**
+     * @param gather: whether to gather the results of all the targets instead
+     *            of merging them.
+     * @param quorum: in the gather mode, the number of the succeeded targets
+     *            to finish the invocation early, <= 0 means all the targets.
+     */
+    RpcInvocationFuture(RpcIoHandlerImpl handler, RpcPendingCalls pendingCalls,
+                        String serviceName, int timeout, boolean gather, int quorum) {
+        this.handler = handler;
+        this.pendingCalls = pendingCalls;
+        this.serviceName = serviceName;
+        this.metrics = handler == null ? null : handler.getMethodMetrics(serviceName);
+        this.timeout = timeout;
+        this.deadline = System.currentTimeMillis() + timeout;
+        this.gather = gather;
+        this.quorum = quorum;
+    }
+
+    /**
+     * @return: the deadline shared by all the calls, in the form of
+     *          System.currentTimeMillis().
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @return: the call to the target, the caller should put it to the
+     *          pending calls before send the request.
+     */
+    synchronized RpcCallFuture newCall(long requestId, RpcAddress target, RpcPeerLoad load) {
+        RpcCallFuture call = new RpcCallFuture(requestId, target, this, load);
+        calls.add(call);
+        pending++;
+        return call;
+    }
+
+    /**
+     * record the target which can not be called at all, e.g.: not connected.
+     */
+    synchronized void setFailure(RpcAddress target, Throwable failure) {
+        results.put(target, failure);
+    }
+
+    /**
+     * the call removed from the pending calls failed before it was sent.
+     */
+    void onCallFailed(RpcCallFuture call, Throwable failure) {
+        if (metrics != null) {
+            metrics.onCalled(-1, true);
+        }
+        done(call.getTarget(), failure, -1);
+    }
+
+    /**
+     * all the requests were sent.
+     */
+    void sent() {
+        boolean finished;
+        synchronized (this) {
+            sending = false;
+            finished = --pending == 0 || isQuorumReached();
+            finishing = finished;
+        }
+        if (finished) {
+            finish();
+        }
+    }
+
+    private boolean isQuorumReached() {
+        return gather && quorum > 0 && !sending && succeeded >= quorum;
+    }
+
+    void onCallDone(RpcCallFuture call) {
+        RpcResponse response = call.getResponse();
+        Object value = null;
+        long latency = -1;
+        if (response == null) {
+            value = new RpcLocalExceptionTimeout("call_target_timeout[" + call.getTarget()
+                    + "]in[" + timeout + "ms] call " + serviceName);
+        } else {
+            latency = System.nanoTime() - call.getSentNanos();
+            value = response.getResult();
+            // the remote peer return their own RpcLocalException to me,
+            // but this is meaningless for me so I need wrapper it to RpcRemoteException
+            if ((value != null) && (value instanceof RpcLocalException)) {
+                value = new RpcRemoteException(((RpcLocalException) value).getMessage());
+            }
+        }
+        if (metrics != null) {
+            metrics.onCalled(latency, value instanceof Throwable);
+        }
+        done(call.getTarget(), value, latency);
+    }
+
+    private void done(RpcAddress target, Object value, long latency) {
+        boolean finished;
+        synchronized (this) {
+            // the calls finished after the quorum reached are ignored
+            if (finishing) {
+                return;
+            }
+            results.put(target, value);
+            if (latency >= 0) {
+                latencies.put(target, latency);
+            }
+            if (!(value instanceof Throwable)) {
+                succeeded++;
+            }
+            finished = --pending == 0 || isQuorumReached();
+            finishing = finished;
+        }
+        if (finished) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        if (gather) {
+            // the unfinished targets are not waited any more, their late
+            // responses are dropped so the calls leave their peers' load here
+            for (RpcCallFuture call : calls) {
+                if (!call.isDone() && pendingCalls.remove(call.getId()) != null) {
+                    call.abandon();
+                }
+            }
+            complete(Collections.unmodifiableMap(new HashMap<RpcAddress, Object>(results)), null);
+        } else {
+            merge();
+        }
+    }
+
+    private void merge() {
+        Object result = null;
+        Throwable cause = null;
+        RpcLocalExceptionMultipleTargets failures = null;
+        for (Entry<RpcAddress, Object> pair : results.entrySet()) {
+            result = pair.getValue();
+            if ((result != null) && (result instanceof Throwable)) {
+                if (failures == null) {
+                    failures = new RpcLocalExceptionMultipleTargets(serviceName);
+                }
+                failures.addFailedTarget(pair.getKey(), ((Throwable) result).getMessage());
+            }
+        }
+        if (failures != null && failures.hasFailedTargets()) {
+            if (results.size() == 1) {
+                cause = (Throwable) result;
+            } else {
+                logger.error(failures.getMessage());
+                cause = failures;
+            }
+            result = null;
+        } else {
+            try {
+                handler.invokeFinished(results);
+            } catch (Throwable e) {
+                cause = e;
+                result = null;
+            }
+        }
+        complete(result, cause);
+    }
+
+    private void complete(Object result, Throwable cause) {
+        List<RpcFutureListener> notified;
+        synchronized (this) {
+            this.result = result;
+            this.cause = cause;
+            done = true;
+            notifyAll();
+            notified = listeners;
+            listeners = null;
+        }
+        if (notified != null) {
+            for (RpcFutureListener listener : notified) {
+                notifyListener(listener);
+            }
+        }
+    }
+
+    private void notifyListener(RpcFutureListener listener) {
+        try {
+            listener.operationComplete(this);
+        } catch (Throwable e) {
+            logger.error("rpc_future_listener_failed:" + serviceName, e);
+        }
+    }
+
+    /**
+     * @return: the calls sent or tried to send, the targets not connected
+     *          excluded.
+     */
+    public synchronized int getCalls() {
+        return calls.size();
+    }
+
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    public synchronized Map<RpcAddress, Object> getResults() {
+        return new HashMap<RpcAddress, Object>(results);
+    }
+
+    public synchronized Map<RpcAddress, Long> getLatencies() {
+        return new HashMap<RpcAddress, Long>(latencies);
+    }
+
+    public Object get() throws RpcException, Throwable {
+        if (!await(deadline - System.currentTimeMillis())) {
+            // don't wait for the sweeper, expire the calls still pending by myself.
+            List<RpcCallFuture> expiring;
+            synchronized (this) {
+                expiring = new ArrayList<RpcCallFuture>(calls);
+            }
+            for (RpcCallFuture call : expiring) {
+                if (pendingCalls.remove(call.getId()) != null) {
+                    call.expire();
+                }
+            }
+            synchronized (this) {
+                while (!done) {
+                    wait();
+                }
+            }
+        }
+        return getResult();
+    }
+
+    public Object get(long timeout) throws RpcException, Throwable {
+        if (!await(timeout)) {
+            throw new RpcLocalExceptionTimeout("call_timeout in[" + timeout + "ms] call "
+                    + serviceName);
+        }
+        return getResult();
+    }
+
+    private synchronized boolean await(long timeout) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+        long remaining = timeout;
+        while (!done && remaining > 0) {
+            wait(remaining);
+            remaining = end - System.currentTimeMillis();
+        }
+        return done;
+    }
+
+    private synchronized Object getResult() throws Throwable {
+        if (cause != null) {
+            throw cause;
+        }
+        return result;
+    }
+
+    public void addListener(RpcFutureListener listener) {
+        Assert.notNull(listener, "listener can not be null.");
+        synchronized (this) {
+            if (!done) {
+                if (listeners == null) {
+                    listeners = new ArrayList<RpcFutureListener>(1);
+                }
+                listeners.add(listener);
+                return;
+            }
+        }
+        notifyListener(listener);
+    }
+}
@@ -21,7 +21,10 @@ package com.sokeeper.rpc.transport.support;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.sokeeper.rpc.transport.RpcMethodMetrics;
 import com.sokeeper.util.Assert;
 
 
@@ -30,14 +33,121 @@ import com.sokeeper.util.Assert;
  */
 public class RpcInvoker {
 
-    final private Method method;
-    final private Object service;
+    final private Method              method;
+    final private Object              service;
+    final private AtomicInteger       activeCalls  = new AtomicInteger();
+    final private AtomicLong          expiredCalls = new AtomicLong();
+    final private AtomicLong          lateCalls    = new AtomicLong();
+    private volatile int              maxCalls;
+    private volatile RpcMethodMetrics metrics;
 
     public RpcInvoker(Method method, Object service) {
+        this(method, service, 0);
+    }
+
+    /**
+     * @param maxCalls: the most concurrent calls, 0 means no limit.
+     */
+    public RpcInvoker(Method method, Object service, int maxCalls) {
         Assert.notNull(method, "method can not be null.");
         Assert.notNull(service, "instance can not be null.");
         this.method = method;
         this.service = service;
+        setMaxCalls(maxCalls);
+    }
+
+    /**
+     * @param maxCalls: the most concurrent calls, 0 means no limit.
+     */
+    public void setMaxCalls(int maxCalls) {
+        Assert.isTrue(maxCalls >= 0, "maxCalls should >= 0.");
+        this.maxCalls = maxCalls;
+    }
+
+    public int getMaxCalls() {
+        return maxCalls;
+    }
+
+    /**
+     * @return: the calls acquired but not released yet.
+     */
+    public int getActiveCalls() {
+        return activeCalls.get();
+    }
+
+    /**
+     * take one call slot, the caller should {@link #release()} it when the
+     * call finished.
+     *
+     * @return: false when the limit reached.
+     */
+    public boolean tryAcquire() {
+        int limit = maxCalls;
+        if (limit == 0) {
+            activeCalls.incrementAndGet();
+            return true;
+        }
+        for (;;) {
+            int active = activeCalls.get();
+            if (active >= limit) {
+                return false;
+            }
+            if (activeCalls.compareAndSet(active, active + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release() {
+        activeCalls.decrementAndGet();
+    }
+
+    /**
+     * the call was dropped without invoked since its caller gave up already.
+     */
+    public void onExpired() {
+        expiredCalls.incrementAndGet();
+    }
+
+    /**
+     * the call was invoked but finished after its caller gave up, the work
+     * was wasted.
+     */
+    public void onLate() {
+        lateCalls.incrementAndGet();
+    }
+
+    /**
+     * the call was invoked.
+     *
+     * @param nanos: the execution time.
+     * @param failed: whether the service threw an exception.
+     */
+    public void onInvoked(long nanos, boolean failed) {
+        RpcMethodMetrics metrics = this.metrics;
+        if (metrics != null) {
+            metrics.onInvoked(nanos, failed);
+        }
+    }
+
+    /**
+     * @param metrics: the counters the invocations recorded to, could be
+     *            null.
+     */
+    public void setMetrics(RpcMethodMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public RpcMethodMetrics getMetrics() {
+        return metrics;
+    }
+
+    public long getExpiredCalls() {
+        return expiredCalls.get();
+    }
+
+    public long getLateCalls() {
+        return lateCalls.get();
     }
 
     public Object invoke(Object[] arguments) throws IllegalArgumentException,
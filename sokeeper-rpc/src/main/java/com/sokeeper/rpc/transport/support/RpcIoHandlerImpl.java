@@ -24,42 +24,69 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.mina.common.IdleStatus;
+import org.apache.mina.common.IoFilter;
+import org.apache.mina.common.IoConnector;
 import org.apache.mina.common.IoHandlerAdapter;
 import org.apache.mina.common.IoService;
 import org.apache.mina.common.IoSession;
 import org.apache.mina.common.WriteFuture;
 import org.apache.mina.filter.codec.ProtocolCodecFilter;
-import org.apache.mina.filter.codec.serialization.ObjectSerializationCodecFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.sokeeper.exception.RpcException;
-import com.sokeeper.rpc.exception.RpcLocalException;
+import com.sokeeper.handler.Idempotent;
+import com.sokeeper.rpc.codec.RpcCompressionStats;
+import com.sokeeper.rpc.codec.RpcFrame;
+import com.sokeeper.rpc.codec.support.RpcCodecFilter;
+import com.sokeeper.rpc.codec.support.RpcProtocolCodecFactory;
+import com.sokeeper.rpc.codec.support.RpcWriteBatchFilter;
+import com.sokeeper.rpc.codec.support.RpcWriteLaneFilter;
 import com.sokeeper.rpc.exception.RpcLocalExceptionIoTargetIsNotConnected;
 import com.sokeeper.rpc.exception.RpcLocalExceptionIoWriteToTargetFailed;
-import com.sokeeper.rpc.exception.RpcLocalExceptionMultipleTargets;
 import com.sokeeper.rpc.exception.RpcLocalExceptionTimeout;
 import com.sokeeper.rpc.exception.RpcRemoteException;
+import com.sokeeper.rpc.exception.RpcRemoteExceptionServerBusy;
 import com.sokeeper.rpc.message.HandshakeMessage;
+import com.sokeeper.rpc.message.RpcBroadcastPayload;
+import com.sokeeper.rpc.message.RpcBroadcastRequest;
 import com.sokeeper.rpc.message.RpcConfiguration;
+import com.sokeeper.rpc.message.RpcIdempotentRequest;
 import com.sokeeper.rpc.message.RpcRequest;
 import com.sokeeper.rpc.message.RpcResponse;
+import com.sokeeper.rpc.message.RpcStreamChunk;
+import com.sokeeper.rpc.message.RpcStreamCredit;
+import com.sokeeper.rpc.message.RpcStreamRequest;
 import com.sokeeper.rpc.transport.RpcConnection;
+import com.sokeeper.rpc.transport.RpcFuture;
 import com.sokeeper.rpc.transport.RpcIoHandler;
 import com.sokeeper.rpc.transport.RpcIoListener;
+import com.sokeeper.rpc.transport.RpcMethodMetrics;
+import com.sokeeper.rpc.transport.RpcMetrics;
+import com.sokeeper.rpc.transport.RpcStream;
 import com.sokeeper.util.Assert;
 import com.sokeeper.util.NamedThreadFactory;
 import com.sokeeper.util.RpcAddress;
@@ -69,48 +96,114 @@ import com.sokeeper.util.RpcSocketAddress;
  * @author James Fu (fuyinhai@gmail.com)
  */
 abstract public class RpcIoHandlerImpl extends IoHandlerAdapter implements RpcIoHandler {
-    final static public String                            HEART_BEAT_MSG         = "hb";
+    final static public String                            HEART_BEAT_MSG         = RpcFrame.HEART_BEAT;
     final static public String                            KEY_SESSION_CONNECTION = "_connection_";
+    final static public String                            KEY_SESSION_ACCEPTED   = "_accepted_";
+    final static public String                            KEY_SESSION_METHODS    = "_methods_";
+    final static public String                            KEY_SESSION_HANDSHAKED = "_handshaked_";
+    final static public String                            KEY_SESSION_PING_NANOS = "_ping_nanos_";
+    final static public String                            KEY_SESSION_SERIAL     = "_serial_";
+    final static public String                            KEY_SESSION_STREAMS    = "_streams_";
+    final static public String                            KEY_SESSION_PEER_ID    = "_peer_id_";
+    final static public int                               SWEEP_INTERVAL_MS      = 100;
 
     final protected Logger                                logger                 = LoggerFactory
                                                                                          .getLogger(getClass());
-    final private Map<String, BlockingQueue<RpcResponse>> responses              = new HashMap<String, BlockingQueue<RpcResponse>>();
-    private ExecutorService                               threadPool;
-    final private Map<String, RpcInvoker>                 rpcInvokers            = new HashMap<String, RpcInvoker>();
-    final private Map<Method, String>                     serviceNames           = new HashMap<Method, String>();
+    final private RpcPendingCalls                         pendingCalls           = new RpcPendingCalls();
+    final private RpcSessionRegistry                      sessionRegistry        = new RpcSessionRegistry();
+    private volatile ThreadPoolExecutor                   threadPool;
+    private volatile ThreadPoolExecutor                   eventPool;
+    final private Executor                                eventExecutor;
+    final private AtomicLong                              rejectedRequests       = new AtomicLong();
+    private volatile ScheduledExecutorService             sweeper;
+    final private Map<String, RpcInvoker>                 rpcInvokers            = new ConcurrentHashMap<String, RpcInvoker>();
+    final private Map<Method, String>                     serviceNames           = new ConcurrentHashMap<Method, String>();
+    // the method ids are the indexes of the registered service names
+    final private Map<String, Integer>                    methodIds              = new HashMap<String, Integer>();
+    private volatile RpcInvoker[]                         invokersById           = new RpcInvoker[0];
+    private volatile String[]                             namesById              = new String[0];
     final private Set<RpcIoListener>                      ioListeners            = new HashSet<RpcIoListener>();
+    final private AtomicInteger                           acceptedSessions       = new AtomicInteger();
+    // kept after the sessions closed, so the peers reconnected are ranked too
+    final private ConcurrentMap<RpcAddress, RpcPeerLoad>  peerLoads              = new ConcurrentHashMap<RpcAddress, RpcPeerLoad>();
+    final private RpcMetricsImpl                          metrics;
+    // the streams this side invoked, the request ids are unique in the vm
+    final private ConcurrentMap<Long, RpcStreamReceiver>  streamReceivers        = new ConcurrentHashMap<Long, RpcStreamReceiver>();
+    final private Map<Method, Boolean>                    idempotentMethods      = new ConcurrentHashMap<Method, Boolean>();
+    final private RpcResponseCache                        responseCache;
+    // tells this handler's idempotency keys from the other callers' ones
+    final private String                                  peerId                 = UUID
+                                                                                         .randomUUID()
+                                                                                         .toString();
 
     final protected RpcConfiguration                      configuration;
 
     public RpcIoHandlerImpl(RpcConfiguration cfg) {
         Assert.notNull(cfg, "configuration can not be null.");
         configuration = cfg;
-        threadPool = Executors.newCachedThreadPool(new NamedThreadFactory(getThreadPoolName()
-                + "-reqProcessor-", false));
+        metrics = new RpcMetricsImpl(this);
+        responseCache = new RpcResponseCache(configuration.getResponseCacheSize(), configuration
+                .getResponseCacheInMs());
+        threadPool = newThreadPool();
+        eventPool = newEventPool();
+        sweeper = newSweeper();
+        eventExecutor = new Executor() {
+            public void execute(Runnable event) {
+                executeEvent(event);
+            }
+        };
     }
 
-    protected String getThreadPoolName() {
-        return getClass().getSimpleName();
+    /**
+     * the bounded pool processing the incoming requests, the request is
+     * rejected at once when both the threads and the queue are full.
+     */
+    private ThreadPoolExecutor newThreadPool() {
+        BlockingQueue<Runnable> queue = null;
+        if (configuration.getQueueSize() > 0) {
+            queue = new ArrayBlockingQueue<Runnable>(configuration.getQueueSize());
+        } else {
+            queue = new SynchronousQueue<Runnable>();
+        }
+        return new ThreadPoolExecutor(configuration.getCoreThreads(), configuration
+                .getMaxThreads(), 60, TimeUnit.SECONDS, queue, new NamedThreadFactory(
+                getThreadPoolName() + "-reqProcessor-", false));
     }
 
-    private RpcRequest prepare(Method method, Object[] arguments) {
-        RpcRequest request = new RpcRequest(getServiceName(method), arguments);
-        BlockingQueue<RpcResponse> queue = new LinkedBlockingQueue<RpcResponse>();
-        responses.put(request.getId(), queue);
-        return request;
+    /**
+     * the handshake and io events are never rejected, they are few and queued
+     * for the limited threads instead.
+     */
+    private ThreadPoolExecutor newEventPool() {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(configuration.getCoreThreads(),
+                configuration.getCoreThreads(), 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamedThreadFactory(getThreadPoolName()
+                        + "-eventProcessor-", false));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
     }
 
-    private RpcResponse get(RpcRequest request, int timeout) {
-        String requestId = request.getId();
-        BlockingQueue<RpcResponse> queue = responses.get(requestId);
-        RpcResponse response = null;
-        if (queue != null) {
-            try {
-                response = queue.poll(timeout, TimeUnit.MILLISECONDS);
-            } catch (InterruptedException e) {
+    /**
+     * expire the pending calls whose responses never arrived, e.g.: the
+     * remote peer crashed while processing the request, and drop the cached
+     * responses kept long enough.
+     */
+    private ScheduledExecutorService newSweeper() {
+        ScheduledExecutorService sweeper = Executors
+                .newSingleThreadScheduledExecutor(new NamedThreadFactory(getThreadPoolName()
+                        + "-timeoutSweeper-", true));
+        sweeper.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                long now = System.currentTimeMillis();
+                pendingCalls.sweep(now);
+                responseCache.sweep(now);
             }
-        }
-        return response;
+        }, SWEEP_INTERVAL_MS, SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        return sweeper;
+    }
+
+    protected String getThreadPoolName() {
+        return getClass().getSimpleName();
     }
 
     public RpcConfiguration getConfiguration() {
@@ -118,7 +211,111 @@ abstract public class RpcIoHandlerImpl extends IoHandlerAdapter implements RpcIo
     }
 
     public ProtocolCodecFilter getCodecFactory() {
-        return new ProtocolCodecFilter(new ObjectSerializationCodecFactory());
+        return new RpcCodecFilter(new RpcProtocolCodecFactory(configuration.getMaxFrameBytes()));
+    }
+
+    /**
+     * @return: the filter coalescing the outgoing frames of each session, null
+     *          when the write linger is not configured.
+     */
+    public IoFilter getWriteBatchFilter() {
+        if (configuration.getWriteLingerInUs() <= 0) {
+            return null;
+        }
+        return new RpcWriteBatchFilter(configuration.getWriteLingerInUs(), configuration
+                .getWriteBatchBytes(), sweeper);
+    }
+
+    /**
+     * @return: the filter letting the small frames jump ahead of the big ones,
+     *          null when the chunk size is not configured.
+     */
+    public IoFilter getWriteLaneFilter() {
+        if (configuration.getChunkBytes() <= 0) {
+            return null;
+        }
+        return new RpcWriteLaneFilter(configuration.getChunkBytes());
+    }
+
+    /**
+     * @return: the handshake message carrying the settings shared by client
+     *          and server, e.g.: the preferred codec and the method ids of the
+     *          registered services.
+     */
+    protected HandshakeMessage newHandshakeMessage() {
+        HandshakeMessage message = new HandshakeMessage();
+        message.addParameter(RpcConfiguration.KEY_RPC_URL_PARAM_CODEC, configuration
+                .getCodecName());
+        message.addParameter(HandshakeMessage.KEY_FRAMES, Boolean.TRUE.toString());
+        message.addParameter(HandshakeMessage.KEY_COMPRESSION, HandshakeMessage.DEFLATE);
+        message.addParameter(HandshakeMessage.KEY_CHUNKED, Boolean.TRUE.toString());
+        message.addParameter(HandshakeMessage.KEY_PEER_ID, peerId);
+        String[] names = namesById;
+        if (names.length > 0) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < names.length; i++) {
+                if (i > 0) {
+                    sb.append(HandshakeMessage.METHODS_SEP);
+                }
+                sb.append(names[i]);
+            }
+            message.addParameter(HandshakeMessage.KEY_METHODS, sb.toString());
+        }
+        return message;
+    }
+
+    /**
+     * remember the method ids the remote peer published, the later requests
+     * to the peer carry the id instead of the service name. Only the frames
+     * carry the method ids.
+     */
+    protected void acceptMethodIds(IoSession session, HandshakeMessage message) {
+        String methods = message.getParameter(HandshakeMessage.KEY_METHODS, "");
+        if (methods.length() > 0 && RpcCodecFilter.isFramed(session)) {
+            Map<String, Integer> ids = new HashMap<String, Integer>();
+            String[] names = methods.split(HandshakeMessage.METHODS_SEP);
+            for (int i = 0; i < names.length; i++) {
+                ids.put(names[i], i);
+            }
+            session.setAttribute(KEY_SESSION_METHODS, ids);
+        }
+    }
+
+    /**
+     * @return: the method id the remote peer published for the service,
+     *          {@link RpcRequest#NO_METHOD_ID} when unknown.
+     */
+    @SuppressWarnings("unchecked")
+    protected int getRemoteMethodId(IoSession session, String serviceName) {
+        Map<String, Integer> ids = (Map<String, Integer>) session
+                .getAttribute(KEY_SESSION_METHODS);
+        Integer id = ids == null ? null : ids.get(serviceName);
+        return id == null ? RpcRequest.NO_METHOD_ID : id;
+    }
+
+    /**
+     * switch the session's outgoing codec to the binary one only when both
+     * peers prefer it and the remote one reads the frames, the peers without
+     * the codec parameter only understand the java serialization.
+     */
+    protected void negotiateCodec(IoSession session, HandshakeMessage message) {
+        int remoteCodec = message.getIndexedParameter(RpcConfiguration.KEY_RPC_URL_PARAM_CODEC,
+                RpcConfiguration.CODECS, RpcConfiguration.CODEC_JAVA, true);
+        int codec = remoteCodec == configuration.getCodec() && RpcCodecFilter.isFramed(session)
+                ? remoteCodec : RpcConfiguration.CODEC_JAVA;
+        RpcCodecFilter.setCodec(session, RpcProtocolCodecFactory.getCodec(codec));
+    }
+
+    /**
+     * the frames are compressed only when configured locally and the remote
+     * peer told it can inflate them.
+     */
+    protected void negotiateCompression(IoSession session, HandshakeMessage message) {
+        if (configuration.getCompressBytes() > 0 && RpcCodecFilter.isFramed(session)
+                && HandshakeMessage.DEFLATE.equals(message.getParameter(
+                        HandshakeMessage.KEY_COMPRESSION, ""))) {
+            RpcCodecFilter.setCompressBytes(session, configuration.getCompressBytes());
+        }
     }
 
     public Object publicToClients(final Method method, Map<RpcAddress, Object> messages)
@@ -126,10 +323,92 @@ abstract public class RpcIoHandlerImpl extends IoHandlerAdapter implements RpcIo
         return null;
     }
 
-    @SuppressWarnings("unchecked")
-    public Object invoke(final Method method,  Object[] args, Set<RpcAddress> targets,
+    /**
+     * the call with an idempotency key is sent again with the same key when
+     * it could not be written or its try timed out, the remote peer executes
+     * it once. All the tries share the timeout of the call, each of them waits
+     * at most try_timeout_ms, the timeout of the call by default. The call to
+     * multiple targets is not retried, some of them may have succeeded.
+     */
+    public Object invoke(final Method method, Object[] args, Set<RpcAddress> targets,
                          String groupName, boolean argsFilterEnabled) throws RpcException,
             Throwable {
+        String key = getIdempotencyKey(method);
+        int retries = key == null ? 0 : configuration.getRetries();
+        long deadline = System.currentTimeMillis() + configuration.getTimeout();
+        for (int retried = 0;; retried++) {
+            long remaining = deadline - System.currentTimeMillis();
+            RpcInvocationFuture invocation = scatter(method, args, targets, groupName,
+                    argsFilterEnabled, false, 0, key, (int) Math.max(1, Math.min(remaining,
+                            configuration.getTryTimeout())));
+            try {
+                return invocation.get();
+            } catch (RpcLocalExceptionTimeout e) {
+                if (retried >= retries || invocation.getCalls() > 1
+                        || deadline <= System.currentTimeMillis()) {
+                    throw e;
+                }
+                logger.warn("retry[" + (retried + 1) + "] " + e.getMessage());
+            } catch (RpcLocalExceptionIoWriteToTargetFailed e) {
+                if (retried >= retries || invocation.getCalls() > 1
+                        || deadline <= System.currentTimeMillis()) {
+                    throw e;
+                }
+                logger.warn("retry[" + (retried + 1) + "] " + e.getMessage());
+            }
+        }
+    }
+
+    public RpcFuture<Object> invokeAsync(final Method method, Object[] args,
+                                         Set<RpcAddress> targets, String groupName,
+                                         boolean argsFilterEnabled)
+            throws IllegalArgumentException {
+        return scatter(method, args, targets, groupName, argsFilterEnabled, false, 0,
+                getIdempotencyKey(method), configuration.getTimeout());
+    }
+
+    /**
+     * @return: the key given by the current thread, or a new key when the
+     *          method is {@link Idempotent}, otherwise null.
+     */
+    private String getIdempotencyKey(Method method) {
+        Assert.notNull(method, "method can not be null.");
+        String key = RpcConnection.getCurrentIdempotencyKey();
+        if (key == null) {
+            Boolean idempotent = idempotentMethods.get(method);
+            if (idempotent == null) {
+                idempotent = method.isAnnotationPresent(Idempotent.class);
+                idempotentMethods.put(method, idempotent);
+            }
+            if (idempotent) {
+                key = RpcIdempotentRequest.newKey();
+            }
+        }
+        return key;
+    }
+
+    @SuppressWarnings("unchecked")
+    public RpcFuture<Map<RpcAddress, Object>> scatterGather(final Method method, Object[] args,
+                                                            Set<RpcAddress> targets,
+                                                            String groupName,
+                                                            boolean argsFilterEnabled, int quorum)
+            throws IllegalArgumentException {
+        return (RpcFuture) scatter(method, args, targets, groupName, argsFilterEnabled, true,
+                quorum, getIdempotencyKey(method), configuration.getTimeout());
+    }
+
+    /**
+     * write the requests to all the targets before wait any response, all
+     * the calls share the deadline of the invocation.
+     *
+     * @param key: the idempotency key, could be null.
+     * @param timeout: the milliseconds the invocation waits for.
+     */
+    @SuppressWarnings("unchecked")
+    private RpcInvocationFuture scatter(final Method method, Object[] args,
+                                        Set<RpcAddress> targets, String groupName,
+                                        boolean argsFilterEnabled, boolean gather, int quorum,
+                                        String key, int timeout) {
         Assert.notNull(method, "method can not be null.");
         if(args==null){
             args=new Object[0];
@@ -145,27 +424,37 @@ abstract public class RpcIoHandlerImpl extends IoHandlerAdapter implements RpcIo
             targets = new HashSet<RpcAddress>();
         }
         String serviceName = getServiceName(method);
-        Map<RpcAddress, Object> results = new HashMap<RpcAddress, Object>();
+        RpcInvocationFuture invocation = new RpcInvocationFuture(this, pendingCalls, serviceName,
+                timeout, gather, quorum);
         Map<SocketAddress, IoSession> undelivered = new HashMap<SocketAddress, IoSession>();
-        Set<IoSession> sessions = getSessions();
-        boolean toAllEnabled = (targets.size() == 0) && (groupName == null);
-        for (IoSession session : sessions) {
-            if (toAllEnabled) {
+        if ((targets.size() == 0) && (groupName == null)) {
+            for (IoSession session : getDefaultSessions()) {
                 undelivered.put(session.getRemoteAddress(), session);
-            } else if (targets.contains(session.getRemoteAddress())) {
-                undelivered.put(session.getRemoteAddress(), session);
-            } else if (groupName != null) {
-                if (isClientInGroup(session, groupName)) {
+            }
+        } else {
+            for (RpcAddress target : targets) {
+                IoSession session = getSession(target);
+                if (session != null) {
+                    undelivered.put(session.getRemoteAddress(), session);
+                }
+            }
+            if (groupName != null) {
+                for (IoSession session : sessionRegistry.getGroup(groupName)) {
                     undelivered.put(session.getRemoteAddress(), session);
                 }
             }
         }
         for (RpcAddress target : targets) {
             if (!undelivered.containsKey(target)) {
-                results.put(target, new RpcLocalExceptionIoTargetIsNotConnected(
+                invocation.setFailure(target, new RpcLocalExceptionIoTargetIsNotConnected(
                         "target_not_connected[" + target + "] call " + serviceName));
             }
         }
+        // the same call to many sessions is encoded only once
+        RpcBroadcastPayload payload = null;
+        if (!argsFilterEnabled && key == null && undelivered.size() > 1) {
+            payload = new RpcBroadcastPayload(serviceName, args);
+        }
         for (Entry<SocketAddress, IoSession> pair : undelivered.entrySet()) {
             RpcAddress addr = new RpcSocketAddress((InetSocketAddress) pair.getKey());
             Object[] rargs = null;
@@ -176,95 +465,185 @@ abstract public class RpcIoHandlerImpl extends IoHandlerAdapter implements RpcIo
             } else {
                 rargs = args;
             }
-            RpcRequest request = prepare(method, rargs);
+            RpcRequest request = null;
+            if (payload != null) {
+                request = new RpcBroadcastRequest(payload);
+            } else {
+                int methodId = getRemoteMethodId(pair.getValue(), serviceName);
+                if (key != null) {
+                    request = methodId < 0 ? new RpcIdempotentRequest(serviceName, rargs, key)
+                            : new RpcIdempotentRequest(methodId, rargs, key);
+                } else {
+                    request = methodId < 0 ? new RpcRequest(serviceName, rargs)
+                            : new RpcRequest(methodId, rargs);
+                }
+            }
+            request.setDeadline(invocation.getDeadline());
+            RpcCallFuture call = invocation.newCall(request.getId(), addr, getPeerLoad(pair
+                    .getValue()));
+            pendingCalls.put(call);
             try {
                 write(request, pair.getValue());
-                results.put(addr, request);
             } catch (Throwable e) {
-                responses.remove(request.getId());
-                results.put(addr, new RpcLocalExceptionIoWriteToTargetFailed("write_target_failed["
-                        + pair.getKey() + "] call " + serviceName));
+                // the call could have been expired by the sweeper already
+                if (pendingCalls.remove(request.getId()) != null && call.abandon()) {
+                    invocation.onCallFailed(call, new RpcLocalExceptionIoWriteToTargetFailed(
+                            "write_target_failed[" + pair.getKey() + "] call " + serviceName));
+                }
             }
         }
+        invocation.sent();
+        return invocation;
+    }
 
-        Object result = null;
-        RpcLocalExceptionMultipleTargets failures = null;
-        boolean timeoutHappened = false;
-        for (Entry<RpcAddress, Object> pair : results.entrySet()) {
-            if (pair.getValue() instanceof RpcRequest) {
-                RpcRequest request = (RpcRequest) pair.getValue();
-                try {
-                    RpcResponse response = get(request, (timeoutHappened ? 1 : configuration
-                            .getTimeout()));
-                    if (response == null) {
-                        timeoutHappened = true;
-                        pair.setValue(new RpcLocalExceptionTimeout("call_target_timeout["
-                                + pair.getKey() + "]in[" + configuration.getTimeout() + "ms] call "
-                                + serviceName));
-                    } else {
-                        result = response.getResult();
-                        // the remote peer return their own RpcLocalException to me,
-                        // but this is meaningless for me so I need wrapper it to RpcRemoteException
-                        if ((result != null) && (result instanceof RpcLocalException)) {
-                            result = new RpcRemoteException(((RpcLocalException) result)
-                                    .getMessage());
-                        }
-                        pair.setValue(result);
-                    }
-                } finally {
-                    responses.remove(request.getId());
-                }
-            }
-            result = pair.getValue();
-            if ((result != null) && (result instanceof Throwable)) {
-                if (failures == null) {
-                    failures = new RpcLocalExceptionMultipleTargets(serviceName);
-                }
-                failures.addFailedTarget(pair.getKey(), ((Throwable) result).getMessage());
-            }
+    protected void invokeFinished(Map<RpcAddress, Object> results) throws Throwable {
+    }
+
+    public RpcStream<Object> invokeStream(Method method, Object[] args, RpcAddress target)
+            throws RpcException {
+        Assert.notNull(method, "method can not be null.");
+        if (args == null) {
+            args = new Object[0];
         }
-        if (failures != null && failures.hasFailedTargets()) {
-            if (results.size() == 1) {
-                throw (Throwable) result;
-            } else {
-                logger.error(failures.getMessage());
-                throw failures;
+        String serviceName = getServiceName(method);
+        IoSession session = null;
+        if (target != null) {
+            session = getSession(target);
+        } else {
+            Iterator<IoSession> sessions = getDefaultSessions().iterator();
+            session = sessions.hasNext() ? sessions.next() : null;
+        }
+        if (session == null) {
+            throw new RpcLocalExceptionIoTargetIsNotConnected("target_not_connected[" + target
+                    + "] stream " + serviceName);
+        }
+        int window = configuration.getStreamWindow();
+        int methodId = getRemoteMethodId(session, serviceName);
+        RpcStreamRequest request = methodId < 0 ? new RpcStreamRequest(serviceName, args, window)
+                : new RpcStreamRequest(methodId, args, window);
+        RpcStreamReceiver stream = new RpcStreamReceiver(this, session, request.getId(), window,
+                configuration.getTimeout());
+        streamReceivers.put(request.getId(), stream);
+        try {
+            write(request, session);
+        } catch (Throwable e) {
+            streamReceivers.remove(request.getId());
+            throw new RpcLocalExceptionIoWriteToTargetFailed("write_target_failed["
+                    + session.getRemoteAddress() + "] stream " + serviceName);
+        }
+        // closed before registered, the session's streams were already failed
+        if (!session.isConnected()) {
+            stream.onClosed();
+        }
+        return stream;
+    }
+
+    void removeStreamReceiver(long id) {
+        streamReceivers.remove(id);
+    }
+
+    /**
+     * @return: the streams the remote peer invoked on the session, created on
+     *          demand.
+     */
+    @SuppressWarnings("unchecked")
+    private ConcurrentMap<Long, RpcStreamSender> getStreamSenders(IoSession session) {
+        synchronized (session) {
+            ConcurrentMap<Long, RpcStreamSender> senders = null;
+            senders = (ConcurrentMap<Long, RpcStreamSender>) session
+                    .getAttribute(KEY_SESSION_STREAMS);
+            if (senders == null) {
+                senders = new ConcurrentHashMap<Long, RpcStreamSender>();
+                session.setAttribute(KEY_SESSION_STREAMS, senders);
             }
+            return senders;
         }
-        invokeFinished(results);
-        return result;
     }
 
-    protected void invokeFinished(Map<RpcAddress, Object> results) throws Throwable {
+    @SuppressWarnings("unchecked")
+    void removeStreamSender(IoSession session, long id) {
+        Map<Long, RpcStreamSender> senders = (Map<Long, RpcStreamSender>) session
+                .getAttribute(KEY_SESSION_STREAMS);
+        if (senders != null) {
+            senders.remove(id);
+        }
+    }
+
+    /**
+     * the stream resumed by the credits is sent by the request pool, or the
+     * event pool when the former is full, the credits are never rejected.
+     */
+    void executeStream(Runnable sender) {
+        try {
+            threadPool.execute(sender);
+        } catch (RejectedExecutionException e) {
+            executeEvent(sender);
+        }
+    }
+
+    /**
+     * @return: the streams invoked by this side and not ended yet.
+     */
+    public int getOpenStreams() {
+        return streamReceivers.size();
+    }
+
+    /**
+     * @return: the sessions the call without targets and group goes to.
+     */
+    protected Collection<IoSession> getDefaultSessions() {
+        return getSessions();
+    }
+
+    /**
+     * @return: the load of the peer, null when never connected.
+     */
+    public RpcPeerLoad getPeerLoad(RpcAddress peer) {
+        Assert.notNull(peer, "peer can not be null.");
+        return peerLoads.get(peer);
+    }
+
+    protected RpcPeerLoad getPeerLoad(IoSession session) {
+        RpcAddress peer = new RpcSocketAddress((InetSocketAddress) session.getRemoteAddress());
+        RpcPeerLoad load = peerLoads.get(peer);
+        if (load == null) {
+            RpcPeerLoad existing = peerLoads.putIfAbsent(peer, load = new RpcPeerLoad());
+            load = existing == null ? load : existing;
+        }
+        return load;
+    }
+
+    /**
+     * take the round trip since the last ping, the handshake counts as the
+     * ping of the connecting side.
+     */
+    private void sampleRtt(IoSession session) {
+        Long sent = (Long) session.removeAttribute(KEY_SESSION_PING_NANOS);
+        if (sent != null) {
+            getPeerLoad(session).onRtt(Math.max(0, System.nanoTime() - sent));
+        }
     }
 
     public boolean isConnected(RpcAddress target) {
         Assert.notNull(target, "target address can not be null.");
-        Set<IoSession> sessions = getSessions();
-        for (IoSession session : sessions) {
-            if (session.getRemoteAddress().equals(target)) {
-                return session.isConnected();
-            }
-        }
-        return false;
+        IoSession session = getSession(target);
+        return session != null && session.isConnected();
     }
 
     public void disconnect(RpcAddress target) {
         Assert.notNull(target, "target can not be null.");
-        Set<IoSession> sessions = getSessions();
-        for (IoSession session : sessions) {
-            if (target.equals(session.getRemoteAddress())) {
-                session.close().join();
-                break;
-            }
+        IoSession session = getSession(target);
+        if (session != null) {
+            session.close().join();
+            sessionRegistry.remove(session);
         }
     }
 
     public void disconnectAll() {
-        Set<IoSession> sessions = getSessions();
-        for (IoSession session : sessions) {
+        for (IoSession session : getSessions()) {
             try {
                 session.close().join();
+                sessionRegistry.remove(session);
             } catch (Throwable e) {
             }
         }
@@ -276,21 +655,32 @@ abstract public class RpcIoHandlerImpl extends IoHandlerAdapter implements RpcIo
     }
 
     /**
-     * @return: all the activated sessions.
+     * @return: the live read only view of all the opened sessions.
      */
     protected Set<IoSession> getSessions() {
-        Set<IoSession> sessions = Collections.emptySet();
-        IoService service = getIoService();
-        if (service != null) {
-            Set<SocketAddress> targets = service.getManagedServiceAddresses();
-            if (targets.size() > 0) {
-                sessions = new HashSet<IoSession>();
-                for (SocketAddress target : targets) {
-                    sessions.addAll(service.getManagedSessions(target));
-                }
-            }
-        }
-        return sessions;
+        return sessionRegistry.getSessions();
+    }
+
+    /**
+     * @return: the opened session connected to the target, null when not
+     *          found.
+     */
+    protected IoSession getSession(RpcAddress target) {
+        return target instanceof SocketAddress ? sessionRegistry.get((SocketAddress) target)
+                : null;
+    }
+
+    /**
+     * @return: the compression counters of the connection to the target, null
+     *          when not connected.
+     */
+    public RpcCompressionStats getCompressionStats(RpcAddress target) {
+        IoSession session = getSession(target);
+        return session == null ? null : RpcCodecFilter.getCompressionStats(session);
+    }
+
+    protected RpcSessionRegistry getSessionRegistry() {
+        return sessionRegistry;
     }
 
     public Collection<RpcConnection> getConnections() {
@@ -317,9 +707,9 @@ abstract public class RpcIoHandlerImpl extends IoHandlerAdapter implements RpcIo
     public String getServiceName(Method method) {
         String serviceName = serviceNames.get(method);
         if (serviceName == null) {
-            StringBuffer sb = new StringBuffer();
-            sb.append(method.getDeclaringClass().getName() + ".");
-            sb.append(method.getName() + "(");
+            StringBuilder sb = new StringBuilder();
+            sb.append(method.getDeclaringClass().getName()).append('.');
+            sb.append(method.getName()).append('(');
             Class<?>[] params = method.getParameterTypes();
             for (int j = 0; j < params.length; j++) {
                 sb.append(params[j].getName());
@@ -334,14 +724,34 @@ abstract public class RpcIoHandlerImpl extends IoHandlerAdapter implements RpcIo
     }
 
     public int getResponsesSize() {
-        return responses.size();
+        return pendingCalls.size();
+    }
+
+    public RpcMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return: the counters of the service method, created on demand.
+     */
+    protected RpcMethodMetrics getMethodMetrics(String serviceName) {
+        return metrics.getOrCreate(serviceName);
+    }
+
+    /**
+     * expose the metrics through JMX, called when the handler started.
+     */
+    protected void registerMetrics() {
+        metrics.register();
     }
 
     final public void sessionIdle(IoSession session, IdleStatus status) throws Exception {
         if (status == IdleStatus.WRITER_IDLE) {
+            session.setAttribute(KEY_SESSION_PING_NANOS, System.nanoTime());
             write(HEART_BEAT_MSG, session);
         } else if (status == IdleStatus.READER_IDLE) {
             logger.warn("remote_no_hb_close_session:" + session.toString());
+            metrics.onHeartbeatClose();
             session.close();
         }
     }
@@ -350,13 +760,23 @@ abstract public class RpcIoHandlerImpl extends IoHandlerAdapter implements RpcIo
         if (logger.isInfoEnabled()) {
             logger.info("sessionOpened:" + session.toString());
         }
+        // indexed before the handshake, the peer may call back once got it
+        sessionRegistry.add(session);
+        // the accepting side's handshake is sent without waiting the other's
+        if (session.getService() instanceof IoConnector) {
+            session.setAttribute(KEY_SESSION_PING_NANOS, System.nanoTime());
+        }
         sendHandshakeMessage(session);
-        if ((getSessions().size() <= configuration.getMaxConnections())
+        // count the sessions already accepted instead of the managed ones, the
+        // later could include the sessions whose sessionOpened not handled yet.
+        if ((acceptedSessions.incrementAndGet() <= configuration.getMaxConnections())
                 || configuration.isIpInWhiteList(getConnection(session).getRemoteAddress()
                         .getIpAddress())) {
+            session.setAttribute(KEY_SESSION_ACCEPTED, Boolean.TRUE);
             setHeartBeat(session, configuration.getSecondsOfHb());
             processIoEvent(session, RpcIoListener.EVENT_CONNECTION_CREATED);
         } else {
+            acceptedSessions.decrementAndGet();
             logger.error("max_connection_reached:" + configuration.getMaxConnections()
                     + " close the connection:" + session.toString());
             session.close();
@@ -405,6 +825,7 @@ abstract public class RpcIoHandlerImpl extends IoHandlerAdapter implements RpcIo
                 }
                 sets.addAll(Arrays.asList(groupNames));
             }
+            sessionRegistry.joinGroups(session, Arrays.asList(groupNames));
         }
     }
 
@@ -433,9 +854,58 @@ abstract public class RpcIoHandlerImpl extends IoHandlerAdapter implements RpcIo
         return connection;
     }
 
+    /**
+     * the event rejected by the pool replaced during shutdown goes to the new
+     * pool.
+     */
+    private void executeEvent(Runnable event) {
+        ThreadPoolExecutor pool = eventPool;
+        try {
+            pool.execute(event);
+        } catch (RejectedExecutionException e) {
+            if (pool == eventPool) {
+                throw e;
+            }
+            eventPool.execute(event);
+        }
+    }
+
+    /**
+     * the event of the session in the ordered execution waits the session's
+     * former requests and events finished.
+     */
+    private void executeEvent(IoSession session, Runnable event) {
+        RpcSerialExecutor serial = getSerialExecutor(session);
+        if (serial != null) {
+            serial.execute(event, eventExecutor);
+        } else {
+            executeEvent(event);
+        }
+    }
+
+    /**
+     * @return: the queue running the session's requests and events one by
+     *          one, null when not in the ordered execution.
+     */
+    protected RpcSerialExecutor getSerialExecutor(IoSession session) {
+        if (configuration.getExecution() != RpcConfiguration.EXECUTION_ORDERED) {
+            return null;
+        }
+        synchronized (session) {
+            RpcSerialExecutor serial = (RpcSerialExecutor) session
+                    .getAttribute(KEY_SESSION_SERIAL);
+            if (serial == null) {
+                // the leftovers of a rejected request never run on the io thread
+                serial = new RpcSerialExecutor(eventExecutor);
+                session.setAttribute(KEY_SESSION_SERIAL, serial);
+            }
+            return serial;
+        }
+    }
+
     private void processIoEvent(IoSession session, int eventType) {
         for (RpcIoListener ioListener : ioListeners) {
-            threadPool.execute(new RpcIoListenerExecutor(getConnection(session), eventType,
+            executeEvent(session, new RpcIoListenerExecutor(getConnection(session), eventType,
                     ioListener, this));
         }
     }
@@ -444,36 +914,135 @@ abstract public class RpcIoHandlerImpl extends IoHandlerAdapter implements RpcIo
         if (logger.isInfoEnabled()) {
             logger.info("sessionClosed:" + session.toString());
         }
+        if (session.removeAttribute(KEY_SESSION_ACCEPTED) != null) {
+            acceptedSessions.decrementAndGet();
+        }
+        // counted before unindexed, so the traffic is never missed
+        metrics.onSessionClosed(session);
+        sessionRegistry.remove(session);
+        closeStreams(session);
+        synchronized (session) {
+            session.notifyAll();
+        }
         processIoEvent(session, RpcIoListener.EVENT_CONNECTION_CLOSED);
     }
 
+    @SuppressWarnings("unchecked")
+    private void closeStreams(IoSession session) {
+        Map<Long, RpcStreamSender> senders = (Map<Long, RpcStreamSender>) session
+                .removeAttribute(KEY_SESSION_STREAMS);
+        if (senders != null) {
+            for (RpcStreamSender sender : senders.values()) {
+                sender.cancel();
+            }
+        }
+        for (RpcStreamReceiver receiver : streamReceivers.values()) {
+            if (receiver.getSession() == session) {
+                receiver.onClosed();
+            }
+        }
+    }
+
+    /**
+     * wait the remote peer's handshake message, the peer sends it only after
+     * the session was opened on its side.
+     *
+     * @param timeout: the milliseconds to wait.
+     * @return: false when the handshake not arrived in time or the session
+     *          closed.
+     */
+    protected boolean awaitHandshake(IoSession session, long timeout) throws InterruptedException {
+        Assert.notNull(session, "session can not be null.");
+        long end = System.currentTimeMillis() + timeout;
+        synchronized (session) {
+            long remaining = timeout;
+            while (!session.containsAttribute(KEY_SESSION_HANDSHAKED) && session.isConnected()
+                    && remaining > 0) {
+                session.wait(remaining);
+                remaining = end - System.currentTimeMillis();
+            }
+            return session.containsAttribute(KEY_SESSION_HANDSHAKED);
+        }
+    }
+
     public void messageReceived(final IoSession session, final Object message) throws Exception {
         if (message != null && session != null) {
             if (message instanceof RpcResponse) {
-                RpcResponse response = (RpcResponse) message;
-                BlockingQueue<RpcResponse> queue = responses.get(response.getId());
-                if (queue != null) {
-                    queue.offer(response);
+                if (!pendingCalls.complete((RpcResponse) message)) {
+                    RpcStreamReceiver receiver = streamReceivers.get(((RpcResponse) message)
+                            .getId());
+                    if (receiver != null) {
+                        receiver.onResponse((RpcResponse) message);
+                    }
+                }
+            } else if (message instanceof RpcStreamChunk) {
+                RpcStreamReceiver receiver = streamReceivers.get(((RpcStreamChunk) message)
+                        .getId());
+                if (receiver != null) {
+                    receiver.onChunk((RpcStreamChunk) message);
+                }
+            } else if (message instanceof RpcStreamCredit) {
+                RpcStreamCredit credit = (RpcStreamCredit) message;
+                RpcStreamSender sender = getStreamSenders(session).get(credit.getId());
+                if (sender != null) {
+                    if (credit.isCancel()) {
+                        sender.cancel();
+                        removeStreamSender(session, credit.getId());
+                    } else {
+                        sender.grant(credit.getCredits());
+                    }
                 }
             } else if (message instanceof RpcRequest) {
                 RpcRequest request = (RpcRequest) message;
-                RpcInvoker invoker = rpcInvokers.get(request.getServiceName());
+                RpcInvoker invoker = request.getMethodId() < 0 ? rpcInvokers.get(request
+                        .getServiceName()) : getRpcInvoker(request.getMethodId());
                 if (invoker != null) {
-                    threadPool.execute(new RpcExecutor(getConnection(session), session, request,
-                            invoker));
+                    execute(session, request, invoker);
                 } else {
-                    logger.error("no invoker registered for call:" + request.getServiceName());
+                    String call = getCallName(request);
+                    logger.error("no invoker registered for call:" + call);
                     RpcResponse response = new RpcResponse(request.getId(), new RpcRemoteException(
-                            "service_not_registered:" + request.getServiceName()));
+                            "service_not_registered:" + call));
                     write(response, session);
                 }
             } else if (message instanceof HandshakeMessage) {
-                threadPool.execute(new Runnable() {
+                // negotiate in the io thread, so the responses written after the
+                // handshake already use the frames and the negotiated codec.
+                if (((HandshakeMessage) message).getParameter(HandshakeMessage.KEY_FRAMES, false)) {
+                    RpcCodecFilter.setFramed(session);
+                }
+                if (((HandshakeMessage) message)
+                        .hasParameter(RpcConfiguration.KEY_RPC_URL_PARAM_CODEC)) {
+                    negotiateCodec(session, (HandshakeMessage) message);
+                }
+                negotiateCompression(session, (HandshakeMessage) message);
+                if (((HandshakeMessage) message)
+                        .getParameter(HandshakeMessage.KEY_CHUNKED, false)) {
+                    RpcWriteLaneFilter.setChunked(session);
+                }
+                acceptMethodIds(session, (HandshakeMessage) message);
+                if (((HandshakeMessage) message).hasParameter(HandshakeMessage.KEY_PEER_ID)) {
+                    session.setAttribute(KEY_SESSION_PEER_ID, ((HandshakeMessage) message)
+                            .getParameter(HandshakeMessage.KEY_PEER_ID, ""));
+                }
+                sampleRtt(session);
+                synchronized (session) {
+                    session.setAttribute(KEY_SESSION_HANDSHAKED, Boolean.TRUE);
+                    session.notifyAll();
+                }
+                executeEvent(session, new Runnable() {
                     public void run() {
                         RpcIoHandlerImpl.this.onHandshakeMessageGot(session,
                                 (HandshakeMessage) message);
                     }
                 });
+            } else if (HEART_BEAT_MSG.equals(message)) {
+                // the peer whose heart beat disabled does not keep the other alive
+                if (session.getIdleTime(IdleStatus.WRITER_IDLE) > 0) {
+                    write(RpcFrame.HEART_BEAT_ACK, session);
+                }
+            } else if (RpcFrame.HEART_BEAT_ACK.equals(message)) {
+                sampleRtt(session);
             } else if (message instanceof String) {
                 if (logger.isInfoEnabled()) {
                     logger.info(message + " " + session.toString());
@@ -485,17 +1054,196 @@ abstract public class RpcIoHandlerImpl extends IoHandlerAdapter implements RpcIo
         }
     }
 
+    /**
+     * answer the server busy exception at once instead of queuing the request
+     * when the method's concurrent calls or the thread pool reached the limit,
+     * or in the ordered execution the session's own queue is full. The
+     * request whose caller gave up already is dropped silently, and the retry
+     * of an idempotent request is answered by the response cache.
+     */
+    private void execute(IoSession session, RpcRequest request, RpcInvoker invoker) {
+        if (request.isExpired(System.currentTimeMillis())) {
+            invoker.onExpired();
+            if (logger.isDebugEnabled()) {
+                logger.debug("drop expired call:" + getCallName(request));
+            }
+            return;
+        }
+        if (request instanceof RpcIdempotentRequest
+                && !responseCache.admit(session, (RpcIdempotentRequest) request)) {
+            return;
+        }
+        String busy = null;
+        if (!invoker.tryAcquire()) {
+            busy = "method_busy:" + invoker.getMaxCalls() + " calls";
+        } else {
+            RpcExecutor executor = newExecutor(session, request, invoker);
+            RpcSerialExecutor serial = getSerialExecutor(session);
+            try {
+                if (serial != null) {
+                    serial.execute(executor, threadPool, Math.max(1, configuration
+                            .getQueueSize()));
+                } else {
+                    threadPool.execute(executor);
+                }
+            } catch (RejectedExecutionException e) {
+                invoker.release();
+                busy = "server_busy:"
+                        + (serial != null ? serial.size() : threadPool.getQueue().size())
+                        + " requests queued";
+            }
+        }
+        if (busy != null) {
+            if (request instanceof RpcIdempotentRequest) {
+                responseCache.abandon(session, ((RpcIdempotentRequest) request).getKey());
+            }
+            rejectedRequests.incrementAndGet();
+            String call = getCallName(request);
+            logger.warn(busy + " reject call:" + call);
+            write(new RpcResponse(request.getId(), new RpcRemoteExceptionServerBusy(busy
+                    + " reject call:" + call)), session);
+        }
+    }
+
+    /**
+     * the result of the stream request is sent by the sender registered to
+     * the session, so the remote peer's credits find it. The result of the
+     * idempotent request is cached even if its caller gave up, the retry
+     * comes for it.
+     */
+    private RpcExecutor newExecutor(final IoSession session, final RpcRequest request,
+                                    RpcInvoker invoker) {
+        if (request instanceof RpcIdempotentRequest) {
+            final String key = ((RpcIdempotentRequest) request).getKey();
+            return new RpcExecutor(getConnection(session), session, request, invoker) {
+                protected void executed(Object result) {
+                    responseCache.complete(session, key, result);
+                }
+
+                protected void dropped() {
+                    responseCache.abandon(session, key);
+                }
+            };
+        }
+        if (!(request instanceof RpcStreamRequest)) {
+            return new RpcExecutor(getConnection(session), session, request, invoker);
+        }
+        return new RpcExecutor(getConnection(session), session, request, invoker) {
+            protected void respond(Object result) {
+                RpcStreamSender sender = new RpcStreamSender(RpcIoHandlerImpl.this, session,
+                        request.getId(), result, configuration.getStreamChunkItems());
+                getStreamSenders(session).put(request.getId(), sender);
+                sender.start(((RpcStreamRequest) request).getWindow());
+            }
+        };
+    }
+
+    /**
+     * @return: the service name, or the method id prefixed with '#'.
+     */
+    private String getCallName(RpcRequest request) {
+        return request.getMethodId() < 0 ? request.getServiceName() : "#"
+                + request.getMethodId();
+    }
+
+    /**
+     * @return: the requests waiting for a thread.
+     */
+    public int getQueuedRequests() {
+        return threadPool.getQueue().size();
+    }
+
+    /**
+     * @return: the io events and handshake callbacks waiting for a thread.
+     */
+    public int getQueuedEvents() {
+        return eventPool.getQueue().size();
+    }
+
+    /**
+     * @return: the threads processing requests right now.
+     */
+    public int getActiveThreads() {
+        return threadPool.getActiveCount();
+    }
+
+    /**
+     * @return: the requests rejected as server busy since started.
+     */
+    public long getRejectedRequests() {
+        return rejectedRequests.get();
+    }
+
+    /**
+     * @return: the requests dropped without processed since their callers
+     *          gave up already.
+     */
+    public long getExpiredRequests() {
+        long expired = 0;
+        for (RpcInvoker invoker : rpcInvokers.values()) {
+            expired += invoker.getExpiredCalls();
+        }
+        return expired;
+    }
+
+    /**
+     * @return: the requests processed but finished after their callers gave
+     *          up, the work done for them was wasted.
+     */
+    public long getLateRequests() {
+        long late = 0;
+        for (RpcInvoker invoker : rpcInvokers.values()) {
+            late += invoker.getLateCalls();
+        }
+        return late;
+    }
+
+    /**
+     * @return: the retried requests answered by the response cache.
+     */
+    public long getDuplicateRequests() {
+        return responseCache.getDuplicates();
+    }
+
+    /**
+     * @return: the responses kept for the retries, and the requests running.
+     */
+    public int getCachedResponses() {
+        return responseCache.size();
+    }
+
     public <T> void registerRequestHandler(Class<? super T> serviceInterface, T service) {
         Assert.notNull(serviceInterface, "serviceInterface can not be null.");
         Assert.notNull(service, "service can not be null.");
         for (Method method : serviceInterface.getMethods()) {
             if (method.getDeclaringClass() != Object.class) {
                 method.setAccessible(true);
-                rpcInvokers.put(getServiceName(method), new RpcInvoker(method, service));
+                registerInvoker(getServiceName(method), new RpcInvoker(method, service,
+                        configuration.getMaxMethodCalls()));
             }
         }
     }
 
+    /**
+     * the service registered again keeps its method id, so the ids already
+     * published to the connected peers stay valid.
+     */
+    private synchronized void registerInvoker(String serviceName, RpcInvoker invoker) {
+        invoker.setMetrics(metrics.getOrCreate(serviceName));
+        rpcInvokers.put(serviceName, invoker);
+        Integer id = methodIds.get(serviceName);
+        if (id == null) {
+            id = namesById.length;
+            methodIds.put(serviceName, id);
+            String[] names = Arrays.copyOf(namesById, id + 1);
+            names[id] = serviceName;
+            namesById = names;
+        }
+        RpcInvoker[] invokers = Arrays.copyOf(invokersById, namesById.length);
+        invokers[id] = invoker;
+        invokersById = invokers;
+    }
+
     public void registerIoListener(RpcIoListener ioListener) {
         Assert.notNull(ioListener, "ioListener can not be null.");
         ioListeners.add(ioListener);
@@ -511,16 +1259,44 @@ abstract public class RpcIoHandlerImpl extends IoHandlerAdapter implements RpcIo
         return rpcInvokers.get(serviceName);
     }
 
+    /**
+     * @return: the invoker of the method id published in the handshake, null
+     *          when not found.
+     */
+    public RpcInvoker getRpcInvoker(int methodId) {
+        RpcInvoker[] invokers = invokersById;
+        return methodId >= 0 && methodId < invokers.length ? invokers[methodId] : null;
+    }
+
     public void shutdown() {
+        // the new pools take over first, the events of the sessions still
+        // closing are not rejected by the pools shutting down.
+        ThreadPoolExecutor oldThreadPool = threadPool;
+        ThreadPoolExecutor oldEventPool = eventPool;
+        ScheduledExecutorService oldSweeper = sweeper;
+        try {
+            threadPool = newThreadPool();
+            eventPool = newEventPool();
+            sweeper = newSweeper();
+        } catch (Throwable e) {
+        }
         try {
-            threadPool.shutdown();
+            oldThreadPool.shutdown();
         } catch (Throwable e) {
         }
         try {
-            threadPool = Executors.newCachedThreadPool(new NamedThreadFactory(getThreadPoolName()
-                    + "-reqProcessor-", false));
-            responses.clear();
+            oldEventPool.shutdown();
         } catch (Throwable e) {
         }
+        try {
+            oldSweeper.shutdownNow();
+        } catch (Throwable e) {
+        }
+        pendingCalls.clear();
+        for (RpcStreamReceiver receiver : streamReceivers.values()) {
+            receiver.onClosed();
+        }
+        sessionRegistry.clear();
+        metrics.unregister();
     }
 }
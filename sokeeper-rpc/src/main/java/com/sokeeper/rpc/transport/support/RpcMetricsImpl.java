@@ -0,0 +1,237 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.transport.support;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.apache.mina.common.IoSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sokeeper.rpc.transport.RpcMethodMetrics;
+import com.sokeeper.rpc.transport.RpcMetrics;
+import com.sokeeper.util.Assert;
+
+/**
+ * The bytes and frames of the opened sessions are read from the session
+ * counters mina keeps anyway, the closed sessions' ones are added up when
+ * they closed.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcMetricsImpl implements RpcMetrics {
+    final static public String                             DOMAIN              = "com.sokeeper.rpc";
+    final static private Logger                            logger              = LoggerFactory
+                                                                                         .getLogger(RpcMetricsImpl.class);
+
+    final private RpcIoHandlerImpl                         handler;
+    final private ConcurrentMap<String, RpcMethodMetrics>  methods             = new ConcurrentHashMap<String, RpcMethodMetrics>();
+    final private AtomicLong                               heartbeatCloses     = new AtomicLong();
+    final private AtomicLong                               closedReadBytes     = new AtomicLong();
+    final private AtomicLong                               closedWrittenBytes  = new AtomicLong();
+    final private AtomicLong                               closedReadFrames    = new AtomicLong();
+    final private AtomicLong                               closedWrittenFrames = new AtomicLong();
+    private ObjectName                                     objectName;
+
+    public RpcMetricsImpl(RpcIoHandlerImpl handler) {
+        Assert.notNull(handler, "handler can not be null.");
+        this.handler = handler;
+    }
+
+    /**
+     * @return: the counters of the method, created on the first call.
+     */
+    public RpcMethodMetrics getOrCreate(String serviceName) {
+        RpcMethodMetrics metrics = methods.get(serviceName);
+        if (metrics == null) {
+            RpcMethodMetrics existing = methods.putIfAbsent(serviceName,
+                    metrics = new RpcMethodMetrics());
+            metrics = existing == null ? metrics : existing;
+        }
+        return metrics;
+    }
+
+    public void onHeartbeatClose() {
+        heartbeatCloses.incrementAndGet();
+    }
+
+    public void onSessionClosed(IoSession session) {
+        closedReadBytes.addAndGet(session.getReadBytes());
+        closedWrittenBytes.addAndGet(session.getWrittenBytes());
+        closedReadFrames.addAndGet(session.getReadMessages());
+        closedWrittenFrames.addAndGet(session.getWrittenMessages());
+    }
+
+    /**
+     * register to the platform MBean server, the failure is only logged.
+     */
+    public synchronized void register() {
+        if (objectName != null) {
+            return;
+        }
+        try {
+            ObjectName name = new ObjectName(DOMAIN + ":type="
+                    + handler.getClass().getSimpleName() + ",address="
+                    + ObjectName.quote(handler.getConfiguration().getMainAddress().toString())
+                    + ",id=" + Integer.toHexString(System.identityHashCode(handler)));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new StandardMBean(this, RpcMetrics.class), name);
+            objectName = name;
+        } catch (Exception e) {
+            logger.warn("register_metrics_failed:", e);
+        }
+    }
+
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (Exception e) {
+            logger.warn("unregister_metrics_failed:", e);
+        }
+        objectName = null;
+    }
+
+    /**
+     * @return: the name registered to the MBean server, null when not.
+     */
+    public synchronized ObjectName getObjectName() {
+        return objectName;
+    }
+
+    public int getSessions() {
+        return handler.getSessions().size();
+    }
+
+    public int getPendingResponses() {
+        return handler.getResponsesSize();
+    }
+
+    public int getOpenStreams() {
+        return handler.getOpenStreams();
+    }
+
+    public int getQueuedRequests() {
+        return handler.getQueuedRequests();
+    }
+
+    public int getQueuedEvents() {
+        return handler.getQueuedEvents();
+    }
+
+    public int getActiveThreads() {
+        return handler.getActiveThreads();
+    }
+
+    public long getRejectedRequests() {
+        return handler.getRejectedRequests();
+    }
+
+    public long getExpiredRequests() {
+        return handler.getExpiredRequests();
+    }
+
+    public long getLateRequests() {
+        return handler.getLateRequests();
+    }
+
+    public long getDuplicateRequests() {
+        return handler.getDuplicateRequests();
+    }
+
+    public int getCachedResponses() {
+        return handler.getCachedResponses();
+    }
+
+    public long getHeartbeatCloses() {
+        return heartbeatCloses.get();
+    }
+
+    public long getReadBytes() {
+        long bytes = closedReadBytes.get();
+        for (IoSession session : handler.getSessions()) {
+            bytes += session.getReadBytes();
+        }
+        return bytes;
+    }
+
+    public long getWrittenBytes() {
+        long bytes = closedWrittenBytes.get();
+        for (IoSession session : handler.getSessions()) {
+            bytes += session.getWrittenBytes();
+        }
+        return bytes;
+    }
+
+    public long getReadFrames() {
+        long frames = closedReadFrames.get();
+        for (IoSession session : handler.getSessions()) {
+            frames += session.getReadMessages();
+        }
+        return frames;
+    }
+
+    public long getWrittenFrames() {
+        long frames = closedWrittenFrames.get();
+        for (IoSession session : handler.getSessions()) {
+            frames += session.getWrittenMessages();
+        }
+        return frames;
+    }
+
+    public String[] getMethodStats() {
+        List<String> stats = new ArrayList<String>();
+        for (Entry<String, RpcMethodMetrics> pair : methods.entrySet()) {
+            stats.add(pair.getKey() + " " + pair.getValue());
+        }
+        return stats.toArray(new String[stats.size()]);
+    }
+
+    public String[] getSessionStats() {
+        List<String> stats = new ArrayList<String>();
+        for (IoSession session : handler.getSessions()) {
+            stats.add(session.getRemoteAddress() + " read:" + session.getReadBytes()
+                    + " bytes " + session.getReadMessages() + " frames, written:"
+                    + session.getWrittenBytes() + " bytes " + session.getWrittenMessages()
+                    + " frames");
+        }
+        return stats.toArray(new String[stats.size()]);
+    }
+
+    public RpcMethodMetrics getMethodMetrics(String serviceName) {
+        Assert.notNull(serviceName, "serviceName can not be null.");
+        return methods.get(serviceName);
+    }
+}
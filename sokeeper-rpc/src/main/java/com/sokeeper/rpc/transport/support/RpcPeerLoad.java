@@ -0,0 +1,85 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.transport.support;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sokeeper.util.Assert;
+
+/**
+ * The load seen of one remote peer: the smoothed rtt sampled from the
+ * handshake and the heart beats, and the requests sent to it still waiting
+ * for their responses. The rtt is smoothed the way tcp does, each sample
+ * weighs 1/8.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcPeerLoad {
+    final static public long    UNKNOWN_RTT = -1;
+
+    final private AtomicInteger inFlight    = new AtomicInteger();
+    private long                smoothedRtt = UNKNOWN_RTT;
+    private long                samples;
+
+    /**
+     * @param rtt: the nanoseconds of one round trip, should >= 0.
+     */
+    public synchronized void onRtt(long rtt) {
+        Assert.isTrue(rtt >= 0, "rtt should >= 0.");
+        smoothedRtt = smoothedRtt == UNKNOWN_RTT ? rtt : smoothedRtt + ((rtt - smoothedRtt) >> 3);
+        samples++;
+    }
+
+    /**
+     * @return: the smoothed rtt in nanoseconds, {@link #UNKNOWN_RTT} when
+     *          never sampled.
+     */
+    public synchronized long getSmoothedRtt() {
+        return smoothedRtt;
+    }
+
+    public synchronized long getSamples() {
+        return samples;
+    }
+
+    public void onSent() {
+        inFlight.incrementAndGet();
+    }
+
+    public void onDone() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * @return: the requests sent and not answered yet.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * the lower the better: the rtt scaled by the requests in flight, the
+     * peer never sampled scores 0 so it gets tried.
+     */
+    public long getScore() {
+        long rtt = getSmoothedRtt();
+        return rtt == UNKNOWN_RTT ? 0 : rtt * (getInFlight() + 1);
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.transport.support;
+
+import com.sokeeper.rpc.message.RpcResponse;
+import com.sokeeper.util.Assert;
+
+/**
+ * The outgoing requests waiting for their responses, indexed by the request
+ * id. The table is split into stripes each guarded by its own lock, the
+ * sequential request ids are spread over all the stripes so the concurrent
+ * callers seldom meet on the same lock. The futures are chained into the
+ * buckets directly, nothing else is allocated per call.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcPendingCalls {
+    final static public int  DEFAULT_STRIPES = 16;
+    final static private int INITIAL_BUCKETS = 16;
+
+    final private Stripe[]   stripes;
+    final private int        stripeBits;
+
+    public RpcPendingCalls() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes: the number of the stripes, should be the power of 2.
+     */
+    public RpcPendingCalls(int stripes) {
+        Assert.isTrue(stripes > 0 && (stripes & (stripes - 1)) == 0,
+                "stripes should be the power of 2.");
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.stripeBits = Integer.numberOfTrailingZeros(stripes);
+    }
+
+    private Stripe stripeOf(long id) {
+        return stripes[(int) id & (stripes.length - 1)];
+    }
+
+    private int hashOf(long id) {
+        long h = id >>> stripeBits;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * @param future: can not be null, the future with the same id will be
+     *            replaced.
+     */
+    public void put(RpcCallFuture future) {
+        Assert.notNull(future, "future can not be null.");
+        stripeOf(future.getId()).put(future);
+    }
+
+    /**
+     * @return: the removed future or null when not found.
+     */
+    public RpcCallFuture remove(long id) {
+        return stripeOf(id).remove(id);
+    }
+
+    /**
+     * remove the future waiting for the response and complete it.
+     *
+     * @return: false when no one was waiting for the response.
+     */
+    public boolean complete(RpcResponse response) {
+        Assert.notNull(response, "response can not be null.");
+        RpcCallFuture future = remove(response.getId());
+        return future != null && future.complete(response);
+    }
+
+    /**
+     * remove and expire the futures whose deadline passed.
+     *
+     * @param now: the current time in the form of System.currentTimeMillis().
+     * @return: the number of the expired futures.
+     */
+    public int sweep(long now) {
+        return expire(now, false);
+    }
+
+    /**
+     * remove and expire all the futures.
+     */
+    public void clear() {
+        expire(0, true);
+    }
+
+    /**
+     * the removed futures are expired out of the stripe locks, since their
+     * invocations' listeners may call back.
+     */
+    private int expire(long now, boolean all) {
+        RpcCallFuture removed = null;
+        for (Stripe stripe : stripes) {
+            removed = stripe.sweep(now, all, removed);
+        }
+        int expired = 0;
+        while (removed != null) {
+            RpcCallFuture next = removed.next;
+            removed.next = null;
+            if (removed.expire()) {
+                expired++;
+            }
+            removed = next;
+        }
+        return expired;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    private class Stripe {
+        private RpcCallFuture[] buckets = new RpcCallFuture[INITIAL_BUCKETS];
+        private int             size;
+
+        synchronized void put(RpcCallFuture future) {
+            remove(future.getId());
+            if (size >= buckets.length - (buckets.length >>> 2)) {
+                resize();
+            }
+            int index = hashOf(future.getId()) & (buckets.length - 1);
+            future.next = buckets[index];
+            buckets[index] = future;
+            size++;
+        }
+
+        synchronized RpcCallFuture remove(long id) {
+            int index = hashOf(id) & (buckets.length - 1);
+            RpcCallFuture previous = null;
+            for (RpcCallFuture future = buckets[index]; future != null; future = future.next) {
+                if (future.getId() == id) {
+                    unlink(index, previous, future);
+                    return future;
+                }
+                previous = future;
+            }
+            return null;
+        }
+
+        /**
+         * @return: the removed futures chained in front of the given ones.
+         */
+        synchronized RpcCallFuture sweep(long now, boolean all, RpcCallFuture removed) {
+            for (int index = 0; index < buckets.length; index++) {
+                RpcCallFuture previous = null;
+                RpcCallFuture future = buckets[index];
+                while (future != null) {
+                    RpcCallFuture next = future.next;
+                    if (all || future.isExpired(now)) {
+                        unlink(index, previous, future);
+                        future.next = removed;
+                        removed = future;
+                    } else {
+                        previous = future;
+                    }
+                    future = next;
+                }
+            }
+            return removed;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        private void unlink(int index, RpcCallFuture previous, RpcCallFuture future) {
+            if (previous == null) {
+                buckets[index] = future.next;
+            } else {
+                previous.next = future.next;
+            }
+            future.next = null;
+            size--;
+        }
+
+        private void resize() {
+            RpcCallFuture[] old = buckets;
+            buckets = new RpcCallFuture[old.length << 1];
+            for (RpcCallFuture head : old) {
+                RpcCallFuture future = head;
+                while (future != null) {
+                    RpcCallFuture next = future.next;
+                    int index = hashOf(future.getId()) & (buckets.length - 1);
+                    future.next = buckets[index];
+                    buckets[index] = future;
+                    future = next;
+                }
+            }
+        }
+    }
+}
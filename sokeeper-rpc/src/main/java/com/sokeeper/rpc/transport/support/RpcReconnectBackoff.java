@@ -0,0 +1,127 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.transport.support;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import com.sokeeper.util.Assert;
+import com.sokeeper.util.RpcAddress;
+
+/**
+ * The reconnect schedule of the servers a client failed to connect: the
+ * delay doubles with every failure up to the max, and a random part of it is
+ * cut off, so the clients which lost the same server do not come back in the
+ * same second.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcReconnectBackoff {
+    final private long                    baseMs;
+    final private long                    maxMs;
+    final private int                     jitterPercent;
+    final private Random                  random   = new Random();
+    // the failed attempts and the time of the next attempt of each server.
+    final private Map<RpcAddress, long[]> failures = new HashMap<RpcAddress, long[]>();
+
+    /**
+     * @param baseMs: the delay after the first failure, should > 0.
+     * @param maxMs: the longest delay, should >= baseMs.
+     * @param jitterPercent: the most percent of the delay cut off randomly,
+     *            between 0 and 100.
+     */
+    public RpcReconnectBackoff(long baseMs, long maxMs, int jitterPercent) {
+        Assert.isTrue(baseMs > 0, "baseMs should > 0.");
+        Assert.isTrue(maxMs >= baseMs, "maxMs should >= baseMs.");
+        Assert.isTrue(jitterPercent >= 0 && jitterPercent <= 100,
+                "jitterPercent should between 0 and 100.");
+        this.baseMs = baseMs;
+        this.maxMs = maxMs;
+        this.jitterPercent = jitterPercent;
+    }
+
+    /**
+     * @param attempts: the failed attempts so far, should > 0.
+     * @return: the milliseconds to wait before the next attempt.
+     */
+    public long delayOf(int attempts) {
+        Assert.isTrue(attempts > 0, "attempts should > 0.");
+        long delay = baseMs;
+        for (int i = 1; i < attempts && delay < maxMs; i++) {
+            delay <<= 1;
+        }
+        delay = Math.min(delay, maxMs);
+        long jitter = delay * jitterPercent / 100;
+        synchronized (random) {
+            return delay - (jitter > 0 ? (long) (random.nextDouble() * jitter) : 0);
+        }
+    }
+
+    /**
+     * @return: true when the server never failed or its delay passed.
+     */
+    public synchronized boolean isDue(RpcAddress server, long now) {
+        long[] failure = failures.get(server);
+        return failure == null || now >= failure[1];
+    }
+
+    /**
+     * schedule the next attempt of the server.
+     *
+     * @return: the milliseconds to wait.
+     */
+    public synchronized long onFailure(RpcAddress server, long now) {
+        long[] failure = failures.get(server);
+        if (failure == null) {
+            failure = new long[2];
+            failures.put(server, failure);
+        }
+        failure[0]++;
+        long delay = delayOf((int) Math.min(failure[0], Integer.MAX_VALUE));
+        failure[1] = now + delay;
+        return delay;
+    }
+
+    public synchronized void onSuccess(RpcAddress server) {
+        failures.remove(server);
+    }
+
+    /**
+     * @return: the failed attempts in a row, 0 when connected or never tried.
+     */
+    public synchronized int getAttempts(RpcAddress server) {
+        long[] failure = failures.get(server);
+        return failure == null ? 0 : (int) failure[0];
+    }
+
+    /**
+     * @param limit: returned when no server is waiting.
+     * @return: the milliseconds till the earliest scheduled attempt, no more
+     *          than the limit.
+     */
+    public synchronized long getNextDelay(long now, long limit) {
+        long delay = limit;
+        for (long[] failure : failures.values()) {
+            delay = Math.min(delay, Math.max(0, failure[1] - now));
+        }
+        return delay;
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.transport.support;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.mina.common.IoSession;
+
+import com.sokeeper.rpc.message.RpcIdempotentRequest;
+import com.sokeeper.rpc.message.RpcResponse;
+import com.sokeeper.util.Assert;
+
+/**
+ * The responses of the idempotent requests, indexed by their callers and keys:
+ * the caller is the peer id told in the handshake, or the remote address of
+ * the peers not telling it, so the callers giving the same key never get the
+ * responses of each other. The first request of a key is executed, its retries are answered with the cached
+ * response, or once the first one finished if it's still running. The cache
+ * keeps at most the given number of keys, the eldest is dropped first, and
+ * the response is dropped once it's kept for the given time.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcResponseCache {
+    final private int                         capacity;
+    final private long                        keepInMs;
+    final private Map<String, CachedResponse> entries;
+    final private AtomicLong                  duplicates = new AtomicLong();
+
+    /**
+     * @param capacity: the most keys kept, should >= 0, 0 means nothing is
+     *            cached.
+     * @param keepInMs: how long the response is kept, should > 0.
+     */
+    public RpcResponseCache(final int capacity, long keepInMs) {
+        Assert.isTrue(capacity >= 0, "capacity should >= 0.");
+        Assert.isTrue(keepInMs > 0, "keepInMs should > 0.");
+        this.capacity = capacity;
+        this.keepInMs = keepInMs;
+        this.entries = new LinkedHashMap<String, CachedResponse>() {
+            private static final long serialVersionUID = 4931573196253401962L;
+
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @param session: the session the request came from, can not be null.
+     * @param request: can not be null.
+     * @return: true when the request should be executed, false when it's
+     *          answered by the cache.
+     */
+    public boolean admit(IoSession session, RpcIdempotentRequest request) {
+        Assert.notNull(session, "session can not be null.");
+        Assert.notNull(request, "request can not be null.");
+        Object result = null;
+        String key = keyOf(session, request.getKey());
+        synchronized (entries) {
+            CachedResponse entry = entries.get(key);
+            if (entry == null || entry.isExpired(System.currentTimeMillis())) {
+                entries.remove(key);
+                entries.put(key, new CachedResponse());
+                return true;
+            }
+            duplicates.incrementAndGet();
+            if (entry.waiters != null) {
+                entry.waiters.add(new Waiter(session, request.getId()));
+                return false;
+            }
+            result = entry.result;
+        }
+        session.write(new RpcResponse(request.getId(), result));
+        return false;
+    }
+
+    /**
+     * cache the result of the executed request, and answer the retries
+     * arrived while it was running.
+     */
+    public void complete(IoSession session, String key, Object result) {
+        List<Waiter> waiters = null;
+        synchronized (entries) {
+            CachedResponse entry = entries.get(keyOf(session, key));
+            if (entry == null || entry.waiters == null) {
+                return;
+            }
+            waiters = entry.waiters;
+            entry.waiters = null;
+            entry.result = result;
+            entry.expireAt = System.currentTimeMillis() + keepInMs;
+        }
+        for (Waiter waiter : waiters) {
+            waiter.session.write(new RpcResponse(waiter.id, result));
+        }
+    }
+
+    /**
+     * forget the request which was not executed, e.g.: rejected as server
+     * busy, so its retry is executed. The retries waiting for it are not
+     * answered, they time out and retry again.
+     */
+    public void abandon(IoSession session, String key) {
+        synchronized (entries) {
+            CachedResponse entry = entries.get(keyOf(session, key));
+            if (entry != null && entry.waiters != null) {
+                entries.remove(keyOf(session, key));
+            }
+        }
+    }
+
+    /**
+     * remove the responses kept long enough.
+     *
+     * @param now: the current time in the form of System.currentTimeMillis().
+     * @return: the number of the removed responses.
+     */
+    public int sweep(long now) {
+        int removed = 0;
+        synchronized (entries) {
+            for (Iterator<CachedResponse> it = entries.values().iterator(); it.hasNext();) {
+                if (it.next().isExpired(now)) {
+                    it.remove();
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return: the retries answered without being executed.
+     */
+    public long getDuplicates() {
+        return duplicates.get();
+    }
+
+    private static String keyOf(IoSession session, String key) {
+        Object caller = session.getAttribute(RpcIoHandlerImpl.KEY_SESSION_PEER_ID);
+        if (caller == null) {
+            caller = session.getRemoteAddress();
+        }
+        return caller + "/" + key;
+    }
+
+    private static class CachedResponse {
+        // null once the request finished
+        private List<Waiter> waiters  = new ArrayList<Waiter>(0);
+        private Object       result;
+        private long         expireAt = Long.MAX_VALUE;
+
+        private boolean isExpired(long now) {
+            return waiters == null && now >= expireAt;
+        }
+    }
+
+    private static class Waiter {
+        final private IoSession session;
+        final private long      id;
+
+        private Waiter(IoSession session, long id) {
+            this.session = session;
+            this.id = id;
+        }
+    }
+}
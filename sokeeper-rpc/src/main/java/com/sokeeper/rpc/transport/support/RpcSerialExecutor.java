@@ -0,0 +1,199 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.transport.support;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sokeeper.util.Assert;
+
+/**
+ * Runs the tasks of one session one after another in the order they were
+ * submitted, on the threads of the shared pools: at most one thread works
+ * for the session at any time, so many sessions are served in parallel while
+ * each of them keeps its own order. The thread gives itself back to the pool
+ * after every batch, a busy session can not starve the others. Each task runs
+ * on the pool it was submitted with, the drainer moves to the next task's
+ * pool when they differ.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcSerialExecutor {
+    final static public int          BATCH_SIZE = 16;
+    final static private Logger      logger     = LoggerFactory
+                                                        .getLogger(RpcSerialExecutor.class);
+
+    final private Queue<Task>        tasks      = new LinkedList<Task>();
+    final private Executor           overflow;
+    private boolean                  running;
+
+    public RpcSerialExecutor() {
+        this(null);
+    }
+
+    /**
+     * @param overflow: runs the tasks queued behind the one whose pool
+     *            rejected to start, null means they wait for the next task.
+     */
+    public RpcSerialExecutor(Executor overflow) {
+        this.overflow = overflow;
+    }
+
+    /**
+     * queue the task without limit, e.g.: the io events.
+     */
+    public void execute(Runnable task, Executor executor) throws RejectedExecutionException {
+        execute(task, executor, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param task: can not be null.
+     * @param executor: the pool to run the task on, can not be null.
+     * @param maxQueued: the most tasks waiting in the session's queue.
+     * @throws RejectedExecutionException: when the queue is full or the
+     *             executor rejected to start, the task is not queued.
+     */
+    public void execute(Runnable task, Executor executor, int maxQueued)
+            throws RejectedExecutionException {
+        Assert.notNull(task, "task can not be null.");
+        Assert.notNull(executor, "executor can not be null.");
+        Task queued = new Task(task, executor);
+        synchronized (this) {
+            if (tasks.size() >= maxQueued) {
+                throw new RejectedExecutionException(tasks.size() + " tasks queued");
+            }
+            tasks.add(queued);
+            if (running) {
+                return;
+            }
+            running = true;
+        }
+        try {
+            executor.execute(new Drainer(executor));
+        } catch (RejectedExecutionException e) {
+            boolean left = false;
+            synchronized (this) {
+                tasks.remove(queued);
+                left = !tasks.isEmpty();
+                running = left;
+            }
+            // the tasks queued meanwhile still need a thread, never the
+            // caller's: it could be the io processor.
+            if (left) {
+                overflow();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return: the tasks waiting, the running one excluded.
+     */
+    public synchronized int size() {
+        return tasks.size();
+    }
+
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    private void start(Executor executor) {
+        try {
+            executor.execute(new Drainer(executor));
+        } catch (RejectedExecutionException e) {
+            overflow();
+        }
+    }
+
+    private void overflow() {
+        if (overflow != null) {
+            try {
+                overflow.execute(new Drainer(null));
+                return;
+            } catch (RejectedExecutionException e) {
+            }
+        }
+        synchronized (this) {
+            running = false;
+        }
+        logger.warn("serial_tasks_left:" + size() + " tasks wait for the next one");
+    }
+
+    private static class Task {
+        final private Runnable task;
+        final private Executor executor;
+
+        Task(Runnable task, Executor executor) {
+            this.task = task;
+            this.executor = executor;
+        }
+    }
+
+    private class Drainer implements Runnable {
+        // null means running any task on the overflow executor
+        final private Executor executor;
+
+        Drainer(Executor executor) {
+            this.executor = executor;
+        }
+
+        public void run() {
+            while (true) {
+                for (int i = 0; i < BATCH_SIZE; i++) {
+                    Runnable task = null;
+                    Executor next = null;
+                    synchronized (RpcSerialExecutor.this) {
+                        Task head = tasks.peek();
+                        if (head == null) {
+                            running = false;
+                            return;
+                        }
+                        if (executor != null && head.executor != executor) {
+                            next = head.executor;
+                        } else {
+                            tasks.poll();
+                            task = head.task;
+                        }
+                    }
+                    if (next != null) {
+                        start(next);
+                        return;
+                    }
+                    try {
+                        task.run();
+                    } catch (Throwable e) {
+                        logger.error("serial_task_failed:", e);
+                    }
+                }
+                try {
+                    (executor != null ? executor : overflow).execute(this);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // the pool is shutting down or full, keep on in this thread
+                }
+            }
+        }
+    }
+}
@@ -25,6 +25,7 @@ import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
+import org.apache.mina.common.IoFilter;
 import org.apache.mina.common.IoService;
 import org.apache.mina.common.IoSession;
 import org.apache.mina.transport.socket.nio.SocketAcceptor;
@@ -50,6 +51,7 @@ public class RpcServerIoHandlerImpl extends RpcIoHandlerImpl {
     public boolean startup() {
         boolean succeed = true;
         if (acceptor == null) {
+            registerMetrics();
             try {
                 acceptorThreadPool = Executors.newCachedThreadPool(new NamedThreadFactory(
                         getThreadPoolName() + "-acceptor-", true));
@@ -60,6 +62,14 @@ public class RpcServerIoHandlerImpl extends RpcIoHandlerImpl {
                 acceptor.getDefaultConfig().setReuseAddress(true);
                 acceptor.getDefaultConfig().setThreadModel(
                         ExecutorThreadModel.getInstance(getThreadPoolName() + "-acceptor", true));
+                IoFilter batchFilter = getWriteBatchFilter();
+                if (batchFilter != null) {
+                    acceptor.getFilterChain().addLast("batch", batchFilter);
+                }
+                IoFilter laneFilter = getWriteLaneFilter();
+                if (laneFilter != null) {
+                    acceptor.getFilterChain().addLast("lane", laneFilter);
+                }
                 acceptor.getFilterChain().addLast("codec", getCodecFactory());
                 if (configuration.getMainAddress().getPort() > 0
                         && NetUtils.selectAvailablePort(configuration.getMainAddress().getPort()) == configuration
@@ -125,7 +135,7 @@ public class RpcServerIoHandlerImpl extends RpcIoHandlerImpl {
     @Override
     protected void sendHandshakeMessage(IoSession session) {
         Assert.notNull(session, "session can not be null.");
-        HandshakeMessage message = new HandshakeMessage();
+        HandshakeMessage message = newHandshakeMessage();
         // 1, server tell the client heart beat parameters
         message.addParameter(RpcConfiguration.KEY_RPC_URL_PARAM_HEART_BEAT_SEC, ""
                 + configuration.getSecondsOfHb());
@@ -0,0 +1,158 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.transport.support;
+
+import java.net.SocketAddress;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.mina.common.IoSession;
+
+import com.sokeeper.util.Assert;
+
+/**
+ * The opened sessions indexed by the remote address and by the groups they
+ * joined in, so the lookups and the fan out cost the number of the targets
+ * instead of all the sessions. The lookups are lock free, the changes are
+ * serialized since they only happen on open, close and handshake.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcSessionRegistry {
+    final private Set<IoSession>                      sessions  = newSessionSet();
+    final private Map<SocketAddress, IoSession>       addresses = new ConcurrentHashMap<SocketAddress, IoSession>();
+    final private Map<String, Set<IoSession>>         groups    = new ConcurrentHashMap<String, Set<IoSession>>();
+    final private Map<IoSession, Collection<String>>  joined    = new ConcurrentHashMap<IoSession, Collection<String>>();
+
+    private static Set<IoSession> newSessionSet() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<IoSession, Boolean>());
+    }
+
+    /**
+     * @param session: can not be null, the session with the same remote
+     *            address will be replaced in the address index.
+     */
+    public synchronized void add(IoSession session) {
+        Assert.notNull(session, "session can not be null.");
+        sessions.add(session);
+        if (session.getRemoteAddress() != null) {
+            addresses.put(session.getRemoteAddress(), session);
+        }
+    }
+
+    /**
+     * remove the session and leave all the groups it joined in.
+     *
+     * @return: false when the session was not registered.
+     */
+    public synchronized boolean remove(IoSession session) {
+        Assert.notNull(session, "session can not be null.");
+        if (!sessions.remove(session)) {
+            return false;
+        }
+        SocketAddress address = session.getRemoteAddress();
+        if (address != null && addresses.get(address) == session) {
+            addresses.remove(address);
+        }
+        Collection<String> names = joined.remove(session);
+        if (names != null) {
+            for (String name : names) {
+                Set<IoSession> members = groups.get(name);
+                if (members != null) {
+                    members.remove(session);
+                    if (members.isEmpty()) {
+                        groups.remove(name);
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * let the registered session join in the groups, the not registered
+     * session, e.g.: closed already, is ignored.
+     *
+     * @param names: the group names, can not be null.
+     */
+    public synchronized void joinGroups(IoSession session, Collection<String> names) {
+        Assert.notNull(session, "session can not be null.");
+        Assert.notNull(names, "names can not be null.");
+        if (sessions.contains(session)) {
+            Collection<String> current = joined.get(session);
+            if (current == null) {
+                current = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                joined.put(session, current);
+            }
+            for (String name : names) {
+                Set<IoSession> members = groups.get(name);
+                if (members == null) {
+                    members = newSessionSet();
+                    groups.put(name, members);
+                }
+                members.add(session);
+                current.add(name);
+            }
+        }
+    }
+
+    /**
+     * @return: the session connected to the remote address, null when not
+     *          found.
+     */
+    public IoSession get(SocketAddress address) {
+        return address == null ? null : addresses.get(address);
+    }
+
+    /**
+     * @return: the live read only view of the group's sessions, empty when
+     *          nobody joined in.
+     */
+    public Set<IoSession> getGroup(String name) {
+        Set<IoSession> members = name == null ? null : groups.get(name);
+        return members == null ? Collections.<IoSession> emptySet() : Collections
+                .unmodifiableSet(members);
+    }
+
+    public boolean isInGroup(IoSession session, String name) {
+        return session != null && getGroup(name).contains(session);
+    }
+
+    /**
+     * @return: the live read only view of all the sessions.
+     */
+    public Set<IoSession> getSessions() {
+        return Collections.unmodifiableSet(sessions);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    public synchronized void clear() {
+        sessions.clear();
+        addresses.clear();
+        groups.clear();
+        joined.clear();
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.transport.support;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.mina.common.IoSession;
+
+import com.sokeeper.exception.RpcException;
+import com.sokeeper.rpc.exception.RpcLocalException;
+import com.sokeeper.rpc.exception.RpcLocalExceptionIo;
+import com.sokeeper.rpc.exception.RpcLocalExceptionTimeout;
+import com.sokeeper.rpc.exception.RpcRemoteException;
+import com.sokeeper.rpc.message.RpcResponse;
+import com.sokeeper.rpc.message.RpcStreamChunk;
+import com.sokeeper.rpc.message.RpcStreamCredit;
+import com.sokeeper.rpc.transport.RpcStream;
+import com.sokeeper.util.Assert;
+
+/**
+ * The local end of a stream invocation. The chunks arrived are queued in
+ * their sequence, the chunks overtaking the former ones wait aside. Once half
+ * of the window consumed the consumed chunks are granted to the remote peer
+ * again, so at most one window of chunks is buffered.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcStreamReceiver implements RpcStream<Object> {
+    final private RpcIoHandlerImpl             handler;
+    final private IoSession                    session;
+    final private long                         id;
+    final private int                          window;
+    final private int                          timeout;
+    final private LinkedList<Object[]>         chunks = new LinkedList<Object[]>();
+    final private Map<Integer, RpcStreamChunk> early  = new HashMap<Integer, RpcStreamChunk>();
+    private int                                expected;
+    private int                                position;
+    private int                                consumed;
+    private boolean                            ended;
+    private boolean                            closed;
+    private Throwable                          exception;
+
+    /**
+     * @param id: the stream request's id.
+     * @param window: the chunks the request granted, should > 0.
+     * @param timeout: the milliseconds to wait each chunk.
+     */
+    public RpcStreamReceiver(RpcIoHandlerImpl handler, IoSession session, long id, int window,
+                             int timeout) {
+        Assert.notNull(handler, "handler can not be null.");
+        Assert.notNull(session, "session can not be null.");
+        Assert.isTrue(window > 0, "window should > 0.");
+        this.handler = handler;
+        this.session = session;
+        this.id = id;
+        this.window = window;
+        this.timeout = timeout;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public IoSession getSession() {
+        return session;
+    }
+
+    public synchronized void onChunk(RpcStreamChunk chunk) {
+        if (ended || chunk.getSequence() < expected) {
+            return;
+        }
+        early.put(chunk.getSequence(), chunk);
+        while ((chunk = early.remove(expected)) != null) {
+            expected++;
+            if (chunk.getItems().length > 0) {
+                chunks.add(chunk.getItems());
+            } else {
+                consumed++;
+            }
+            if (chunk.isLast()) {
+                end(chunk.getException());
+                break;
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * the remote peer answered with a response instead, e.g.: the server was
+     * busy or the service was not registered.
+     */
+    public synchronized void onResponse(RpcResponse response) {
+        if (ended) {
+            return;
+        }
+        Object result = response.getResult();
+        end(result instanceof Throwable ? (Throwable) result : null);
+        notifyAll();
+    }
+
+    /**
+     * the connection closed before the stream ended.
+     */
+    public synchronized void onClosed() {
+        if (!ended) {
+            end(new RpcLocalExceptionIo("connection_closed[" + session.getRemoteAddress()
+                    + "] stream " + id));
+            notifyAll();
+        }
+    }
+
+    private void end(Throwable exception) {
+        // the remote peer's own local exception is meaningless here
+        if (exception instanceof RpcLocalException) {
+            exception = new RpcRemoteException(exception.getMessage());
+        }
+        this.exception = exception;
+        ended = true;
+        early.clear();
+        handler.removeStreamReceiver(id);
+    }
+
+    public synchronized boolean hasNext() throws RpcException, Throwable {
+        long end = System.currentTimeMillis() + timeout;
+        long remaining = timeout;
+        while (chunks.isEmpty() && !ended && !closed && remaining > 0) {
+            wait(remaining);
+            remaining = end - System.currentTimeMillis();
+        }
+        if (!chunks.isEmpty()) {
+            return true;
+        }
+        if (closed) {
+            return false;
+        }
+        if (!ended) {
+            close();
+            throw new RpcLocalExceptionTimeout("timeout[" + timeout + "ms] stream " + id
+                    + " from " + session.getRemoteAddress());
+        }
+        if (exception != null) {
+            throw exception;
+        }
+        return false;
+    }
+
+    public synchronized Object next() throws RpcException, Throwable {
+        if (!hasNext()) {
+            throw new NoSuchElementException("stream " + id + " ended.");
+        }
+        Object[] head = chunks.getFirst();
+        Object item = head[position++];
+        if (position == head.length) {
+            chunks.removeFirst();
+            position = 0;
+            consumed++;
+        }
+        if (!ended && consumed >= Math.max(1, window / 2)) {
+            handler.write(new RpcStreamCredit(id, consumed), session);
+            consumed = 0;
+        }
+        return item;
+    }
+
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        chunks.clear();
+        if (!ended) {
+            end(null);
+            if (session.isConnected()) {
+                handler.write(new RpcStreamCredit(id, RpcStreamCredit.CANCEL), session);
+            }
+        }
+        notifyAll();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.transport.support;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.mina.common.IoSession;
+
+import com.sokeeper.rpc.message.RpcStreamChunk;
+import com.sokeeper.util.Assert;
+
+/**
+ * Sends the result of one stream request in chunks, no more chunks than the
+ * remote peer granted. The items are taken from the result's iterator only
+ * when a chunk is about to be sent, so the service returning an iterator
+ * produces them on demand. At most one thread sends the chunks at a time.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcStreamSender implements Runnable {
+    final private RpcIoHandlerImpl handler;
+    final private IoSession        session;
+    final private long             id;
+    final private Iterator<?>      items;
+    final private int              chunkItems;
+    private Throwable              exception;
+    private int                    credits;
+    private int                    sequence;
+    private boolean                running;
+    private boolean                done;
+
+    /**
+     * @param id: the stream request's id.
+     * @param result: the service's result, the exception ends the stream at
+     *            once.
+     * @param chunkItems: the most items of one chunk, should > 0.
+     */
+    public RpcStreamSender(RpcIoHandlerImpl handler, IoSession session, long id, Object result,
+                           int chunkItems) {
+        Assert.notNull(handler, "handler can not be null.");
+        Assert.notNull(session, "session can not be null.");
+        Assert.isTrue(chunkItems > 0, "chunkItems should > 0.");
+        this.handler = handler;
+        this.session = session;
+        this.id = id;
+        this.chunkItems = chunkItems;
+        if (result instanceof Throwable) {
+            exception = (Throwable) result;
+            items = Collections.emptyList().iterator();
+        } else {
+            items = toIterator(result);
+        }
+    }
+
+    private static Iterator<?> toIterator(Object result) {
+        if (result == null) {
+            return Collections.emptyList().iterator();
+        } else if (result instanceof Iterator) {
+            return (Iterator<?>) result;
+        } else if (result instanceof Iterable) {
+            return ((Iterable<?>) result).iterator();
+        } else if (result instanceof Object[]) {
+            return Arrays.asList((Object[]) result).iterator();
+        }
+        return Collections.singletonList(result).iterator();
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * send the first window of chunks in the caller's thread.
+     *
+     * @param window: the chunks the request granted, should > 0.
+     */
+    public void start(int window) {
+        Assert.isTrue(window > 0, "window should > 0.");
+        synchronized (this) {
+            credits += window;
+            running = true;
+        }
+        run();
+    }
+
+    /**
+     * the chunks consumed by the remote peer are granted again, the sending
+     * paused for the credits goes on in the handler's pool.
+     */
+    public void grant(int credits) {
+        synchronized (this) {
+            this.credits += credits;
+            if (done || running || this.credits <= 0) {
+                return;
+            }
+            running = true;
+        }
+        handler.executeStream(this);
+    }
+
+    /**
+     * stop sending, the chunk being sent is the last one sent.
+     */
+    public synchronized void cancel() {
+        done = true;
+    }
+
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    public void run() {
+        for (;;) {
+            synchronized (this) {
+                if (!done && !session.isConnected()) {
+                    done = true;
+                }
+                if (done || credits <= 0) {
+                    running = false;
+                    return;
+                }
+                credits--;
+            }
+            RpcStreamChunk chunk = nextChunk();
+            handler.write(chunk, session);
+            if (chunk.isLast()) {
+                synchronized (this) {
+                    done = true;
+                    running = false;
+                }
+                handler.removeStreamSender(session, id);
+                return;
+            }
+        }
+    }
+
+    /**
+     * the exception thrown by the iterator ends the stream after the items
+     * got before it.
+     */
+    private RpcStreamChunk nextChunk() {
+        List<Object> chunk = new ArrayList<Object>(Math.min(chunkItems, 16));
+        boolean last = true;
+        try {
+            while (chunk.size() < chunkItems && items.hasNext()) {
+                chunk.add(items.next());
+            }
+            last = !items.hasNext();
+        } catch (Throwable e) {
+            exception = e;
+        }
+        return new RpcStreamChunk(id, sequence++, chunk.toArray(), last, last ? exception : null);
+    }
+}
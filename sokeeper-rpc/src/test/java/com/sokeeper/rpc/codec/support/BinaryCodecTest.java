@@ -0,0 +1,230 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.codec.support;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.apache.mina.common.ByteBuffer;
+
+import com.sokeeper.domain.AssociationChangesEvent;
+import com.sokeeper.domain.ChangesEvent;
+import com.sokeeper.domain.ResourceChangesEvent;
+import com.sokeeper.domain.resource.AttributeEntity;
+import com.sokeeper.domain.resource.ResourceEntity;
+import com.sokeeper.domain.resource.ResourceKey;
+import com.sokeeper.rpc.codec.RpcCodec;
+import com.sokeeper.rpc.codec.RpcSymbolTable;
+import com.sokeeper.rpc.exception.RpcRemoteException;
+import com.sokeeper.rpc.message.HandshakeMessage;
+import com.sokeeper.rpc.message.RpcIdempotentRequest;
+import com.sokeeper.rpc.message.RpcRequest;
+import com.sokeeper.rpc.message.RpcResponse;
+import com.sokeeper.rpc.message.RpcStreamChunk;
+import com.sokeeper.rpc.message.RpcStreamCredit;
+import com.sokeeper.rpc.message.RpcStreamRequest;
+import com.sokeeper.util.RpcAddress;
+import com.sokeeper.util.RpcSocketAddress;
+
+/**
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class BinaryCodecTest extends TestCase {
+    private RpcCodec codec = new BinaryCodec();
+
+    private Object roundTrip(RpcCodec codec, Object message) throws Throwable {
+        RpcSymbolTable sending = new RpcSymbolTable();
+        ByteBuffer buffer = ByteBuffer.allocate(16).setAutoExpand(true);
+        codec.encode(message, buffer, sending);
+        buffer.flip();
+        RpcSymbolTable receiving = new RpcSymbolTable();
+        for (int i = 0; i < sending.size(); i++) {
+            receiving.define(i, sending.getSymbol(i));
+        }
+        Object decoded = codec.decode(buffer, receiving);
+        assertFalse(buffer.hasRemaining());
+        return decoded;
+    }
+
+    private int sizeOf(RpcCodec codec, Object message) throws Throwable {
+        ByteBuffer buffer = ByteBuffer.allocate(16).setAutoExpand(true);
+        codec.encode(message, buffer, new RpcSymbolTable());
+        return buffer.position();
+    }
+
+    public void test_scalars() throws Throwable {
+        Object[] values = new Object[] { null, true, false, 0, -1, Integer.MAX_VALUE,
+                Integer.MIN_VALUE, 0L, Long.MIN_VALUE, Long.MAX_VALUE, "", "abc", "中文",
+                1.5d, 2.5f, (short) 3, (byte) 4, 'c' };
+        for (Object value : values) {
+            assertEquals(value, roundTrip(codec, value));
+        }
+        Timestamp timestamp = new Timestamp(System.currentTimeMillis());
+        timestamp.setNanos(123456789);
+        assertEquals(timestamp, roundTrip(codec, timestamp));
+        byte[] bytes = (byte[]) roundTrip(codec, new byte[] { 1, 2, 3 });
+        assertEquals(3, bytes.length);
+        assertEquals(3, bytes[2]);
+    }
+
+    @SuppressWarnings("unchecked")
+    public void test_collections() throws Throwable {
+        List<Object> list = new ArrayList<Object>();
+        list.add("a");
+        list.add("a");
+        list.add(1L);
+        Map<Object, Object> map = new HashMap<Object, Object>();
+        map.put("key", list);
+        Set<Object> set = new HashSet<Object>();
+        set.add(map);
+        assertEquals(set, roundTrip(codec, set));
+        // not built in collections fall back to java serialization
+        List<String> unmodifiable = Collections.unmodifiableList(new ArrayList<String>());
+        assertEquals(unmodifiable, roundTrip(codec, unmodifiable));
+        Object[] array = (Object[]) roundTrip(codec, new Object[] { "x", null, 2 });
+        assertEquals("x", array[0]);
+        assertNull(array[1]);
+        assertEquals(2, array[2]);
+    }
+
+    public void test_rpc_messages() throws Throwable {
+        RpcRequest request = new RpcRequest("service.name()", new Object[] { "arg", 1 });
+        RpcRequest decodedRequest = (RpcRequest) roundTrip(codec, request);
+        assertEquals(request.getId(), decodedRequest.getId());
+        assertEquals(request.getServiceName(), decodedRequest.getServiceName());
+        assertEquals(2, decodedRequest.getArguments().length);
+        assertEquals(RpcRequest.NO_METHOD_ID, decodedRequest.getMethodId());
+
+        request = new RpcRequest(3, new Object[] { "arg" });
+        decodedRequest = (RpcRequest) roundTrip(codec, request);
+        assertEquals(request.getId(), decodedRequest.getId());
+        assertEquals(3, decodedRequest.getMethodId());
+        assertNull(decodedRequest.getServiceName());
+        assertEquals("arg", decodedRequest.getArguments()[0]);
+
+        // the remaining milliseconds are sent instead of the deadline
+        assertEquals(-1, decodedRequest.getRemaining(System.currentTimeMillis()));
+        request.setRemaining(System.currentTimeMillis(), 5000);
+        for (RpcCodec codec : new RpcCodec[] { this.codec, new JavaSerializationCodec() }) {
+            long remaining = ((RpcRequest) roundTrip(codec, request)).getRemaining(System
+                    .currentTimeMillis());
+            assertTrue(remaining > 4000 && remaining <= 5000);
+        }
+
+        RpcResponse response = (RpcResponse) roundTrip(codec, new RpcResponse(
+                Long.MAX_VALUE, new RpcRemoteException("failed")));
+        assertEquals(Long.MAX_VALUE, response.getId());
+        assertEquals("failed", ((RpcRemoteException) response.getResult()).getMessage());
+
+        RpcStreamRequest stream = (RpcStreamRequest) roundTrip(codec, new RpcStreamRequest(3,
+                new Object[] { "arg" }, 8));
+        assertEquals(3, stream.getMethodId());
+        assertEquals(8, stream.getWindow());
+        assertEquals("arg", stream.getArguments()[0]);
+        RpcStreamChunk chunk = (RpcStreamChunk) roundTrip(codec, new RpcStreamChunk(5L, 2,
+                new Object[] { "a", 1 }, true, new IllegalStateException("failed")));
+        assertEquals(5L, chunk.getId());
+        assertEquals(2, chunk.getSequence());
+        assertEquals(1, chunk.getItems()[1]);
+        assertTrue(chunk.isLast());
+        assertEquals("failed", chunk.getException().getMessage());
+        RpcStreamCredit credit = (RpcStreamCredit) roundTrip(codec, new RpcStreamCredit(5L,
+                RpcStreamCredit.CANCEL));
+        assertEquals(5L, credit.getId());
+        assertTrue(credit.isCancel());
+        RpcIdempotentRequest idempotent = (RpcIdempotentRequest) roundTrip(codec,
+                new RpcIdempotentRequest("service", new Object[] { "arg" }, "key"));
+        assertEquals("service", idempotent.getServiceName());
+        assertEquals("key", idempotent.getKey());
+        assertEquals("arg", idempotent.getArguments()[0]);
+
+        HandshakeMessage handshake = new HandshakeMessage();
+        handshake.addParameter("codec", "binary");
+        Set<RpcAddress> servers = new HashSet<RpcAddress>();
+        servers.add(new RpcSocketAddress("127.0.0.1", 9010));
+        handshake.setServers(servers);
+        HandshakeMessage decodedHandshake = (HandshakeMessage) roundTrip(codec, handshake);
+        assertEquals("binary", decodedHandshake.getParameter("codec", ""));
+        assertEquals(servers, decodedHandshake.getServers());
+    }
+
+    public void test_domain_entities() throws Throwable {
+        ResourceEntity entity = new ResourceEntity();
+        entity.setId(10L);
+        entity.setResourceType("type");
+        entity.setResourceName("name");
+        entity.setVersion(3L);
+        entity.setGmtCreated(new Timestamp(1000L));
+        AttributeEntity attribute = new AttributeEntity();
+        attribute.setKey("k");
+        attribute.setValue("v");
+        entity.addAttribute(attribute);
+        ResourceEntity decoded = (ResourceEntity) roundTrip(codec, entity);
+        assertEquals(entity.getResourceKey(), decoded.getResourceKey());
+        assertEquals(entity.getId(), decoded.getId());
+        assertEquals(entity.getVersion(), decoded.getVersion());
+        assertEquals(entity.getGmtCreated(), decoded.getGmtCreated());
+        assertNull(decoded.getGmtModified());
+        assertEquals("v", decoded.getAttribute("k").getValue());
+
+        // the resource key of a new event has no value yet
+        ResourceChangesEvent event = new ResourceChangesEvent();
+        event.setSequence(7L);
+        assertEquals(new ResourceKey(), ((ResourceChangesEvent) roundTrip(codec, event))
+                .getResourceKey());
+
+        AssociationChangesEvent association = new AssociationChangesEvent();
+        association.setChanges(ChangesEvent.class.getName());
+        association.setLeftType("l");
+        association.setLeftId("1");
+        association.setRightType("r");
+        association.setRightId("2");
+        AssociationChangesEvent decodedAssociation = (AssociationChangesEvent) roundTrip(codec,
+                association);
+        assertEquals(association.getLeftKey(), decodedAssociation.getLeftKey());
+        assertEquals(association.getRightKey(), decodedAssociation.getRightKey());
+        assertEquals(association.getChanges(), decodedAssociation.getChanges());
+    }
+
+    public void test_binary_smaller_than_java() throws Throwable {
+        List<ChangesEvent> events = new ArrayList<ChangesEvent>();
+        for (int i = 0; i < 100; i++) {
+            ResourceChangesEvent event = new ResourceChangesEvent();
+            event.setChanges("UPDATED");
+            event.setSubscriber("127.0.0.1:9010");
+            event.setSequence((long) i);
+            event.setResourceType("type");
+            event.setResourceId("resource" + i);
+            events.add(event);
+        }
+        RpcRequest request = new RpcRequest("service.name()", new Object[] { events });
+        int binary = sizeOf(codec, request);
+        int java = sizeOf(new JavaSerializationCodec(), request);
+        assertTrue(binary * 2 < java);
+    }
+}
@@ -0,0 +1,331 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.codec.support;
+
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamField;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import junit.framework.TestCase;
+
+import org.apache.mina.common.ByteBuffer;
+import org.apache.mina.common.IoSession;
+import org.apache.mina.common.WriteFuture;
+import org.apache.mina.filter.codec.ProtocolDecoder;
+import org.apache.mina.filter.codec.ProtocolDecoderOutput;
+import org.apache.mina.filter.codec.ProtocolEncoder;
+import org.apache.mina.filter.codec.ProtocolEncoderOutput;
+import org.apache.mina.filter.codec.serialization.ObjectSerializationCodecFactory;
+
+import com.sokeeper.rpc.codec.RpcCompressionStats;
+import com.sokeeper.rpc.codec.RpcFrame;
+import com.sokeeper.rpc.message.HandshakeMessage;
+import com.sokeeper.rpc.message.RpcBroadcastPayload;
+import com.sokeeper.rpc.message.RpcBroadcastRequest;
+import com.sokeeper.rpc.message.RpcConfiguration;
+import com.sokeeper.rpc.message.RpcRequest;
+import com.sokeeper.rpc.message.RpcResponse;
+import com.sokeeper.rpc.transport.support.MockIoSession;
+
+/**
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcProtocolCodecFactoryTest extends TestCase {
+
+    static class AttributedIoSession extends MockIoSession {
+        private Map<String, Object> attributes = new HashMap<String, Object>();
+
+        public Object getAttribute(String key) {
+            return attributes.get(key);
+        }
+
+        public Object setAttribute(String key, Object value) {
+            return attributes.put(key, value);
+        }
+
+        public Object removeAttribute(String key) {
+            return attributes.remove(key);
+        }
+    }
+
+    private static class EncoderOutput implements ProtocolEncoderOutput {
+        private List<Object> messages = new ArrayList<Object>();
+
+        public void write(ByteBuffer buf) {
+            messages.add(buf);
+        }
+
+        public void mergeAll() {
+        }
+
+        public WriteFuture flush() {
+            return null;
+        }
+    }
+
+    private static class DecoderOutput implements ProtocolDecoderOutput {
+        private List<Object> messages = new ArrayList<Object>();
+
+        public void write(Object message) {
+            messages.add(message);
+        }
+
+        public void flush() {
+        }
+    }
+
+    private ByteBuffer concat(List<Object> buffers) {
+        ByteBuffer wire = ByteBuffer.allocate(64).setAutoExpand(true);
+        for (Object buffer : buffers) {
+            wire.put((ByteBuffer) buffer);
+        }
+        wire.flip();
+        return wire;
+    }
+
+    public void test_encode_decode_with_symbols() throws Exception {
+        IoSession session = new AttributedIoSession();
+        RpcCodecFilter.setFramed(session);
+        RpcCodecFilter.setCodec(session, RpcProtocolCodecFactory
+                .getCodec(RpcConfiguration.CODEC_BINARY));
+        RpcProtocolCodecFactory factory = new RpcProtocolCodecFactory();
+        ProtocolEncoder encoder = factory.getEncoder();
+        EncoderOutput encoded = new EncoderOutput();
+        encoder.encode(session, new RpcRequest("service()", new Object[] { "a" }), encoded);
+        // the symbol definition goes before the request
+        assertEquals(2, encoded.messages.size());
+        encoder.encode(session, new RpcRequest("service()", new Object[] { "b" }), encoded);
+        encoder.encode(session, RpcFrame.HEART_BEAT, encoded);
+        encoder.encode(session, RpcFrame.HEART_BEAT_ACK, encoded);
+        assertEquals(5, encoded.messages.size());
+
+        ByteBuffer wire = concat(encoded.messages);
+        ProtocolDecoder decoder = factory.getDecoder();
+        DecoderOutput decoded = new DecoderOutput();
+        // feed the frames byte by byte to cover the partial frames
+        while (wire.hasRemaining()) {
+            ByteBuffer piece = ByteBuffer.allocate(1);
+            piece.put(wire.get());
+            piece.flip();
+            decoder.decode(session, piece, decoded);
+        }
+        assertEquals(4, decoded.messages.size());
+        assertEquals("service()", ((RpcRequest) decoded.messages.get(0)).getServiceName());
+        assertEquals("b", ((RpcRequest) decoded.messages.get(1)).getArguments()[0]);
+        assertEquals(RpcFrame.HEART_BEAT, decoded.messages.get(2));
+        assertEquals(RpcFrame.HEART_BEAT_ACK, decoded.messages.get(3));
+    }
+
+    public void test_java_codec_by_default() throws Exception {
+        IoSession session = new AttributedIoSession();
+        RpcCodecFilter.setFramed(session);
+        RpcProtocolCodecFactory factory = new RpcProtocolCodecFactory();
+        EncoderOutput encoded = new EncoderOutput();
+        factory.getEncoder().encode(session, new RpcRequest("service()", new Object[0]), encoded);
+        assertEquals(1, encoded.messages.size());
+        ByteBuffer wire = concat(encoded.messages);
+        assertEquals(RpcConfiguration.CODEC_JAVA, RpcFrame.getCodecId(wire.get(4)));
+        DecoderOutput decoded = new DecoderOutput();
+        factory.getDecoder().decode(session, wire, decoded);
+        assertEquals("service()", ((RpcRequest) decoded.messages.get(0)).getServiceName());
+    }
+
+    public void test_frame_too_big() throws Exception {
+        IoSession session = new AttributedIoSession();
+        RpcProtocolCodecFactory factory = new RpcProtocolCodecFactory(32);
+        try {
+            factory.getEncoder().encode(session, new byte[64], new EncoderOutput());
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        RpcCodecFilter.setFramed(session);
+        try {
+            factory.getEncoder().encode(session, new byte[64], new EncoderOutput());
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void test_legacy_until_framed() throws Exception {
+        IoSession session = new AttributedIoSession();
+        RpcProtocolCodecFactory factory = new RpcProtocolCodecFactory();
+        ProtocolEncoder encoder = factory.getEncoder();
+        EncoderOutput encoded = new EncoderOutput();
+        RpcRequest request = new RpcRequest("service()", new Object[] { "a" });
+        encoder.encode(session, request, encoded);
+        encoder.encode(session, RpcFrame.HEART_BEAT, encoded);
+        // no symbol frame, the mina object serialization format
+        assertEquals(2, encoded.messages.size());
+        assertEquals(RpcFrame.LEGACY_MAGIC, ((ByteBuffer) encoded.messages.get(0)).get(4));
+        RpcCodecFilter.setFramed(session);
+        encoder.encode(session, new RpcResponse(request.getId(), "b"), encoded);
+        assertEquals(RpcFrame.TYPE_MESSAGE, RpcFrame.getType(((ByteBuffer) encoded.messages
+                .get(2)).get(4)));
+
+        // the decoder reads both, whenever the peer switched
+        DecoderOutput decoded = new DecoderOutput();
+        factory.getDecoder().decode(session, concat(encoded.messages), decoded);
+        assertEquals(3, decoded.messages.size());
+        RpcRequest received = (RpcRequest) decoded.messages.get(0);
+        assertEquals(request.getId(), received.getId());
+        assertEquals("service()", received.getServiceName());
+        assertEquals("a", received.getArguments()[0]);
+        assertEquals(RpcFrame.HEART_BEAT, decoded.messages.get(1));
+        assertEquals("b", ((RpcResponse) decoded.messages.get(2)).getResult());
+    }
+
+    public void test_handshake_with_old_nodes() throws Exception {
+        // the old nodes run the mina object serialization codec
+        IoSession session = new AttributedIoSession();
+        HandshakeMessage handshake = new HandshakeMessage();
+        handshake.addParameter(HandshakeMessage.KEY_FRAMES, "true");
+        EncoderOutput encoded = new EncoderOutput();
+        new RpcProtocolCodecFactory().getEncoder().encode(session, handshake, encoded);
+        DecoderOutput decoded = new DecoderOutput();
+        ObjectSerializationCodecFactory mina = new ObjectSerializationCodecFactory();
+        mina.getDecoder().decode(session, concat(encoded.messages), decoded);
+        assertTrue(((HandshakeMessage) decoded.messages.get(0)).getParameter(
+                HandshakeMessage.KEY_FRAMES, false));
+
+        encoded = new EncoderOutput();
+        mina.getEncoder().encode(session, new HandshakeMessage(), encoded);
+        decoded = new DecoderOutput();
+        new RpcProtocolCodecFactory().getDecoder().decode(session, concat(encoded.messages),
+                decoded);
+        assertFalse(((HandshakeMessage) decoded.messages.get(0)).getParameter(
+                HandshakeMessage.KEY_FRAMES, false));
+    }
+
+    public void test_legacy_form_of_old_nodes() throws Exception {
+        // the fields of the requests and responses of the nodes before the frames
+        ObjectStreamField[] fields = ObjectStreamClass.lookup(
+                LegacySerialization.LegacyRequest.class).getFields();
+        assertEquals(3, fields.length);
+        assertEquals("arguments", fields[0].getName());
+        assertEquals(Object[].class, fields[0].getType());
+        assertEquals("id", fields[1].getName());
+        assertEquals(String.class, fields[1].getType());
+        assertEquals("serviceName", fields[2].getName());
+        assertEquals(String.class, fields[2].getType());
+        fields = ObjectStreamClass.lookup(LegacySerialization.LegacyResponse.class).getFields();
+        assertEquals(2, fields.length);
+        assertEquals("id", fields[0].getName());
+        assertEquals(String.class, fields[0].getType());
+        assertEquals("result", fields[1].getName());
+        assertEquals(Object.class, fields[1].getType());
+
+        // an old node calls with its own string id and gets it back
+        IoSession session = new AttributedIoSession();
+        String id = UUID.randomUUID().toString();
+        ByteBuffer wire = LegacySerialization.encode(session, new LegacySerialization.LegacyRequest(
+                id, "service()", new Object[] { "a" }), 1024);
+        String name = "com.sokeeper.rpc.message.RpcRequest";
+        byte[] bytes = new byte[wire.remaining()];
+        wire.duplicate().get(bytes);
+        assertTrue(new String(bytes, "ISO-8859-1").indexOf(name) > 0);
+        DecoderOutput decoded = new DecoderOutput();
+        RpcProtocolCodecFactory factory = new RpcProtocolCodecFactory();
+        factory.getDecoder().decode(session, wire, decoded);
+        RpcRequest request = (RpcRequest) decoded.messages.get(0);
+        assertTrue(request.getId() < 0);
+        assertEquals("a", request.getArguments()[0]);
+
+        EncoderOutput encoded = new EncoderOutput();
+        factory.getEncoder().encode(session, new RpcResponse(request.getId(), "b"), encoded);
+        ByteBuffer expected = LegacySerialization.encode(session,
+                new LegacySerialization.LegacyResponse(id, "b"), 1024);
+        assertEquals(expected, encoded.messages.get(0));
+    }
+
+    public void test_compression() throws Exception {
+        IoSession session = new AttributedIoSession();
+        RpcCodecFilter.setFramed(session);
+        RpcCodecFilter.setCodec(session, RpcProtocolCodecFactory
+                .getCodec(RpcConfiguration.CODEC_BINARY));
+        RpcCodecFilter.setCompressBytes(session, 256);
+        RpcProtocolCodecFactory factory = new RpcProtocolCodecFactory();
+        ProtocolEncoder encoder = factory.getEncoder();
+        List<String> events = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            events.add("127.0.0.1:9010/resource" + i);
+        }
+        EncoderOutput encoded = new EncoderOutput();
+        encoder.encode(session, new RpcRequest("service()", new Object[] { events }), encoded);
+        // the symbol frame is never compressed
+        assertEquals(2, encoded.messages.size());
+        ByteBuffer big = (ByteBuffer) encoded.messages.get(1);
+        assertEquals(RpcFrame.TYPE_COMPRESSED, RpcFrame.getType(big.get(4)));
+        encoder.encode(session, new RpcRequest("service()", new Object[] { "small" }), encoded);
+        ByteBuffer small = (ByteBuffer) encoded.messages.get(2);
+        assertEquals(RpcFrame.TYPE_MESSAGE, RpcFrame.getType(small.get(4)));
+
+        RpcCompressionStats stats = RpcCodecFilter.getCompressionStats(session);
+        assertEquals(1, stats.getDeflatedFrames());
+        assertTrue(stats.getDeflatedBytes() * 2 < stats.getDeflatedRawBytes());
+        assertEquals(big.remaining() - 4, stats.getDeflatedBytes());
+
+        DecoderOutput decoded = new DecoderOutput();
+        factory.getDecoder().decode(session, concat(encoded.messages), decoded);
+        assertEquals(2, decoded.messages.size());
+        assertEquals(events, ((RpcRequest) decoded.messages.get(0)).getArguments()[0]);
+        assertEquals("small", ((RpcRequest) decoded.messages.get(1)).getArguments()[0]);
+        assertEquals(1, stats.getInflatedFrames());
+        assertEquals(stats.getDeflatedRawBytes(), stats.getInflatedRawBytes());
+        assertEquals(stats.getDeflatedBytes(), stats.getInflatedBytes());
+    }
+
+    public void test_broadcast_encoded_once() throws Exception {
+        RpcProtocolCodecFactory factory = new RpcProtocolCodecFactory();
+        RpcBroadcastPayload payload = new RpcBroadcastPayload("service()", new Object[] { "a" });
+        List<RpcBroadcastRequest> requests = new ArrayList<RpcBroadcastRequest>();
+        List<ByteBuffer> bodies = new ArrayList<ByteBuffer>();
+        for (int i = 0; i < 3; i++) {
+            IoSession session = new AttributedIoSession();
+            RpcCodecFilter.setFramed(session);
+            RpcCodecFilter.setCodec(session, RpcProtocolCodecFactory
+                    .getCodec(i < 2 ? RpcConfiguration.CODEC_BINARY : RpcConfiguration.CODEC_JAVA));
+            RpcBroadcastRequest request = new RpcBroadcastRequest(payload);
+            request.setRemaining(System.currentTimeMillis(), 5000);
+            EncoderOutput encoded = new EncoderOutput();
+            factory.getEncoder().encode(session, request, encoded);
+            // no symbol frame, the per session header and the shared body
+            assertEquals(2, encoded.messages.size());
+            bodies.add((ByteBuffer) encoded.messages.get(1));
+
+            DecoderOutput decoded = new DecoderOutput();
+            factory.getDecoder().decode(session, concat(encoded.messages), decoded);
+            RpcRequest received = (RpcRequest) decoded.messages.get(0);
+            assertEquals(RpcRequest.class, received.getClass());
+            assertEquals(request.getId(), received.getId());
+            assertEquals("service()", received.getServiceName());
+            assertEquals("a", received.getArguments()[0]);
+            assertTrue(received.getRemaining(System.currentTimeMillis()) > 4000);
+            requests.add(request);
+        }
+        assertTrue(requests.get(0).getId() != requests.get(1).getId());
+        // the sessions using the same codec share the encoded body
+        assertSame(bodies.get(0).array(), bodies.get(1).array());
+        assertNotSame(bodies.get(0).array(), bodies.get(2).array());
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.codec.support;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.mina.common.ByteBuffer;
+import org.apache.mina.common.IdleStatus;
+import org.apache.mina.common.IoSession;
+import org.apache.mina.common.WriteFuture;
+import org.apache.mina.common.IoFilter.NextFilter;
+import org.apache.mina.common.IoFilter.WriteRequest;
+import org.apache.mina.common.support.DefaultWriteFuture;
+import org.apache.mina.filter.codec.ProtocolDecoderOutput;
+import org.apache.mina.filter.codec.ProtocolEncoder;
+import org.apache.mina.filter.codec.ProtocolEncoderOutput;
+
+import com.sokeeper.rpc.codec.RpcFrame;
+import com.sokeeper.rpc.message.RpcRequest;
+
+/**
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcWriteLaneFilterTest extends TestCase {
+
+    private static class RecordingNextFilter implements NextFilter {
+        private List<WriteRequest> written = new ArrayList<WriteRequest>();
+        private List<Object>       sent    = new ArrayList<Object>();
+
+        public void filterWrite(IoSession session, WriteRequest writeRequest) {
+            written.add(writeRequest);
+        }
+
+        public void messageSent(IoSession session, Object message) {
+            sent.add(message);
+        }
+
+        public void sessionCreated(IoSession session) {
+        }
+
+        public void sessionOpened(IoSession session) {
+        }
+
+        public void sessionClosed(IoSession session) {
+        }
+
+        public void sessionIdle(IoSession session, IdleStatus status) {
+        }
+
+        public void exceptionCaught(IoSession session, Throwable cause) {
+        }
+
+        public void messageReceived(IoSession session, Object message) {
+        }
+
+        public void filterClose(IoSession session) {
+        }
+    }
+
+    private List<ByteBuffer> encode(IoSession session, Object message) throws Exception {
+        final List<ByteBuffer> frames = new ArrayList<ByteBuffer>();
+        ProtocolEncoder encoder = new RpcProtocolCodecFactory().getEncoder();
+        encoder.encode(session, message, new ProtocolEncoderOutput() {
+            public void write(ByteBuffer buf) {
+                frames.add(buf);
+            }
+
+            public void mergeAll() {
+            }
+
+            public WriteFuture flush() {
+                return null;
+            }
+        });
+        return frames;
+    }
+
+    public void test_small_frames_jump_ahead_of_chunks() throws Exception {
+        IoSession session = new RpcProtocolCodecFactoryTest.AttributedIoSession();
+        RpcCodecFilter.setFramed(session);
+        RpcWriteLaneFilter.setChunked(session);
+        RpcWriteLaneFilter filter = new RpcWriteLaneFilter(512);
+        RecordingNextFilter next = new RecordingNextFilter();
+
+        List<String> events = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            events.add("resource" + i);
+        }
+        for (ByteBuffer frame : encode(session, new RpcRequest("big()", new Object[] { events }))) {
+            filter.filterWrite(next, session, new WriteRequest(frame));
+        }
+        WriteFuture bigWritten = new DefaultWriteFuture(session);
+        filter.filterWrite(next, session, new WriteRequest(ByteBuffer.wrap(new byte[0]), bigWritten));
+        // only the first chunks are handed to the socket
+        assertEquals(RpcWriteLaneFilter.BULK_WINDOW, next.written.size());
+        for (ByteBuffer frame : encode(session, new RpcRequest("small()", new Object[0]))) {
+            filter.filterWrite(next, session, new WriteRequest(frame));
+        }
+        for (ByteBuffer frame : encode(session, RpcFrame.HEART_BEAT)) {
+            filter.filterWrite(next, session, new WriteRequest(frame));
+        }
+        assertEquals(RpcWriteLaneFilter.BULK_WINDOW + 2, next.written.size());
+
+        // the socket reports the chunks sent one by one
+        for (int i = 0; i < next.written.size(); i++) {
+            ByteBuffer buffer = (ByteBuffer) next.written.get(i).getMessage();
+            if (RpcFrame.getType(buffer.get(4)) == RpcFrame.TYPE_CHUNK) {
+                assertFalse(bigWritten.isWritten());
+                filter.messageSent(next, session, buffer);
+            }
+        }
+        assertTrue(bigWritten.isWritten());
+        assertTrue(next.written.size() > RpcWriteLaneFilter.BULK_WINDOW + 2);
+
+        ByteBuffer wire = ByteBuffer.allocate(64).setAutoExpand(true);
+        for (WriteRequest request : next.written) {
+            wire.put(((ByteBuffer) request.getMessage()).duplicate());
+        }
+        wire.flip();
+        final List<Object> decoded = new ArrayList<Object>();
+        new RpcProtocolCodecFactory().getDecoder().decode(session, wire,
+                new ProtocolDecoderOutput() {
+                    public void write(Object message) {
+                        decoded.add(message);
+                    }
+
+                    public void flush() {
+                    }
+                });
+        assertEquals(3, decoded.size());
+        assertEquals("small()", ((RpcRequest) decoded.get(0)).getServiceName());
+        assertEquals(RpcFrame.HEART_BEAT, decoded.get(1));
+        assertEquals(events, ((RpcRequest) decoded.get(2)).getArguments()[0]);
+    }
+
+    public void test_whole_frames_when_not_chunked() throws Exception {
+        IoSession session = new RpcProtocolCodecFactoryTest.AttributedIoSession();
+        RpcCodecFilter.setFramed(session);
+        RpcWriteLaneFilter filter = new RpcWriteLaneFilter(16);
+        RecordingNextFilter next = new RecordingNextFilter();
+        List<ByteBuffer> frames = new ArrayList<ByteBuffer>();
+        for (int i = 0; i < 3; i++) {
+            frames.addAll(encode(session, new RpcRequest("big()", new Object[] { "" + i })));
+        }
+        for (ByteBuffer frame : frames) {
+            filter.filterWrite(next, session, new WriteRequest(frame));
+        }
+        assertEquals(RpcWriteLaneFilter.BULK_WINDOW, next.written.size());
+        filter.messageSent(next, session, next.written.get(0).getMessage());
+        assertEquals(3, next.written.size());
+        // the original frames are written as they are and reported when sent
+        assertSame(frames.get(2).buf(), ((ByteBuffer) next.written.get(2).getMessage()).buf());
+        assertSame(frames.get(0), next.sent.get(0));
+    }
+
+    public void test_legacy_messages_never_chunked() throws Exception {
+        IoSession session = new RpcProtocolCodecFactoryTest.AttributedIoSession();
+        RpcWriteLaneFilter.setChunked(session);
+        RpcWriteLaneFilter filter = new RpcWriteLaneFilter(16);
+        RecordingNextFilter next = new RecordingNextFilter();
+        List<ByteBuffer> messages = encode(session, new RpcRequest("big()", new Object[0]));
+        assertEquals(1, messages.size());
+        filter.filterWrite(next, session, new WriteRequest(messages.get(0)));
+        assertEquals(1, next.written.size());
+        assertSame(messages.get(0).buf(), ((ByteBuffer) next.written.get(0).getMessage()).buf());
+    }
+}
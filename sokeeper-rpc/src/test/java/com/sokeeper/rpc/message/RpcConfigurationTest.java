@@ -138,4 +138,128 @@ public class RpcConfigurationTest {
 
     }
 
+    @Test
+    public void test_thread_pool_parameters() throws Throwable {
+        RpcConfiguration cfg = new RpcConfiguration("tcp://localhost:9090/server");
+        assertEquals(16, cfg.getCoreThreads());
+        assertEquals(256, cfg.getMaxThreads());
+        assertEquals(1024, cfg.getQueueSize());
+        assertEquals(0, cfg.getMaxMethodCalls());
+        cfg = new RpcConfiguration(
+                "tcp://localhost:9090/server?core_threads=2&max_threads=4&queue_size=0&max_method_calls=3");
+        assertEquals(2, cfg.getCoreThreads());
+        assertEquals(4, cfg.getMaxThreads());
+        assertEquals(0, cfg.getQueueSize());
+        assertEquals(3, cfg.getMaxMethodCalls());
+        try {
+            new RpcConfiguration("tcp://localhost:9090/server?core_threads=4&max_threads=2");
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void test_write_batch_parameters() throws Throwable {
+        RpcConfiguration cfg = new RpcConfiguration("tcp://localhost:9090/server");
+        assertEquals(0, cfg.getWriteLingerInUs());
+        assertEquals(65536, cfg.getWriteBatchBytes());
+        cfg = new RpcConfiguration(
+                "tcp://localhost:9090/server?write_linger_us=200&write_batch_bytes=1024");
+        assertEquals(200, cfg.getWriteLingerInUs());
+        assertEquals(1024, cfg.getWriteBatchBytes());
+        assertEquals(0, cfg.getCompressBytes());
+        assertEquals(0, cfg.getChunkBytes());
+        assertEquals(16384, new RpcConfiguration("tcp://localhost:9090/server?chunk_bytes=16384")
+                .getChunkBytes());
+        assertEquals(4096, new RpcConfiguration("tcp://localhost:9090/server?compress_bytes=4096")
+                .getCompressBytes());
+        try {
+            new RpcConfiguration("tcp://localhost:9090/server?write_batch_bytes=0");
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void test_reconnect_parameters() throws Throwable {
+        RpcConfiguration cfg = new RpcConfiguration("tcp://localhost:9090/client?timeout_ms=3000");
+        assertEquals(3000, cfg.getConnectTimeout());
+        assertEquals(60000, cfg.getReconnectMaxInMs());
+        assertEquals(50, cfg.getReconnectJitter());
+        cfg = new RpcConfiguration("tcp://localhost:9090/client?auto_reconnect_ms=100000");
+        assertEquals(100000, cfg.getReconnectMaxInMs());
+        cfg = new RpcConfiguration(
+                "tcp://localhost:9090/client?connect_timeout_ms=500&reconnect_max_ms=8000&reconnect_jitter=0");
+        assertEquals(500, cfg.getConnectTimeout());
+        assertEquals(8000, cfg.getReconnectMaxInMs());
+        assertEquals(0, cfg.getReconnectJitter());
+        try {
+            new RpcConfiguration("tcp://localhost:9090/client?reconnect_jitter=101");
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new RpcConfiguration(
+                    "tcp://localhost:9090/client?auto_reconnect_ms=1000&reconnect_max_ms=500");
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void test_execution() throws Throwable {
+        RpcConfiguration cfg = new RpcConfiguration("tcp://localhost:9090/server");
+        assertEquals(RpcConfiguration.EXECUTION_CONCURRENT, cfg.getExecution());
+        cfg = new RpcConfiguration("tcp://localhost:9090/server?execution=Ordered");
+        assertEquals(RpcConfiguration.EXECUTION_ORDERED, cfg.getExecution());
+        cfg.setExecution(RpcConfiguration.EXECUTION_CONCURRENT);
+        assertEquals(RpcConfiguration.EXECUTION_CONCURRENT, cfg.getExecution());
+        try {
+            cfg.setExecution(2);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void test_stream() throws Throwable {
+        RpcConfiguration cfg = new RpcConfiguration("tcp://localhost:9090/server");
+        assertEquals(1048576, cfg.getMaxFrameBytes());
+        assertEquals(8, cfg.getStreamWindow());
+        assertEquals(128, cfg.getStreamChunkItems());
+        cfg = new RpcConfiguration("tcp://localhost:9090/server?max_frame_bytes=65536"
+                + "&stream_window=2&stream_chunk_items=16");
+        assertEquals(65536, cfg.getMaxFrameBytes());
+        assertEquals(2, cfg.getStreamWindow());
+        assertEquals(16, cfg.getStreamChunkItems());
+        try {
+            new RpcConfiguration("tcp://localhost:9090/server?stream_window=0");
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void test_retries() throws Throwable {
+        RpcConfiguration cfg = new RpcConfiguration("tcp://localhost:9090/server");
+        assertEquals(2, cfg.getRetries());
+        assertEquals(cfg.getTimeout(), cfg.getTryTimeout());
+        assertEquals(10000, cfg.getResponseCacheSize());
+        assertEquals(60000, cfg.getResponseCacheInMs());
+        // the response outlives the retries, they all end before the timeout
+        cfg = new RpcConfiguration("tcp://localhost:9090/server?timeout_ms=90000&retries=3");
+        assertEquals(90000, cfg.getResponseCacheInMs());
+        cfg = new RpcConfiguration("tcp://localhost:9090/server?retries=0"
+                + "&response_cache_size=0&response_cache_ms=1000");
+        assertEquals(0, cfg.getRetries());
+        assertEquals(0, cfg.getResponseCacheSize());
+        assertEquals(1000, cfg.getResponseCacheInMs());
+        cfg = new RpcConfiguration("tcp://localhost:9090/server?timeout_ms=3000&try_timeout_ms=1000");
+        assertEquals(1000, cfg.getTryTimeout());
+        try {
+            new RpcConfiguration("tcp://localhost:9090/server?retries=-1");
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
 }
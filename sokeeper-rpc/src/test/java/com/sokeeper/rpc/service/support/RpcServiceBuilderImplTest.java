@@ -25,6 +25,7 @@ import java.util.Set;
 import com.sokeeper.exception.RpcException;
 import com.sokeeper.rpc.message.RpcConfiguration;
 import com.sokeeper.rpc.service.support.RpcServiceBuilderImpl;
+import com.sokeeper.rpc.transport.RpcFuture;
 import com.sokeeper.rpc.transport.support.MockRpcIoHandlerImpl;
 import com.sokeeper.util.RpcAddress;
 
@@ -92,4 +93,38 @@ public class RpcServiceBuilderImplTest extends TestCase {
         assertNull(service.toString());
 
     }
+
+    public interface AsyncInterface {
+        public RpcFuture<String> sayHello();
+
+        public String toString();
+    }
+
+    public interface MismatchedAsyncInterface {
+        public RpcFuture<String> sayGoodbye();
+    }
+
+    public void test_buildAsyncRemoteServiceProxy() throws Throwable {
+        RpcServiceBuilderImpl builder = new RpcServiceBuilderImpl();
+        final Method sayHello = RpcServiceBuilderImplTestInterface.class.getMethod("sayHello");
+        MockRpcIoHandlerImpl ioHandler = new MockRpcIoHandlerImpl(new RpcConfiguration(
+                "tcp://localhost:9010/server")) {
+            public RpcFuture<Object> invokeAsync(Method method, Object[] args,
+                                                 Set<RpcAddress> targets, String targetGroup,
+                                                 boolean argsFilterEnabled) {
+                assertEquals(sayHello, method);
+                return null;
+            }
+        };
+        try {
+            builder.buildRemoteServiceProxy(MismatchedAsyncInterface.class,
+                    RpcServiceBuilderImplTestInterface.class, null, null, ioHandler, false);
+            fail("sayGoodbye can not be mapped");
+        } catch (IllegalArgumentException e) {
+        }
+        AsyncInterface service = builder.buildRemoteServiceProxy(AsyncInterface.class,
+                RpcServiceBuilderImplTestInterface.class, null, null, ioHandler, false);
+        assertNull(service.sayHello());
+        assertNull(service.toString());
+    }
 }
@@ -0,0 +1,67 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.transport;
+
+import junit.framework.TestCase;
+
+/**
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcHistogramTest extends TestCase {
+
+    public void test_record() throws Throwable {
+        RpcHistogram histogram = new RpcHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMicros(99));
+        assertEquals(0, histogram.getMeanMicros());
+        // 0.5us, 1us, 3us, 1000us
+        histogram.record(500);
+        histogram.record(1000);
+        histogram.record(3000);
+        histogram.record(1000000);
+        histogram.record(-1);
+        assertEquals(4, histogram.getCount());
+        assertEquals(1, histogram.getCount(0));
+        assertEquals(1, histogram.getCount(1));
+        assertEquals(1, histogram.getCount(2));
+        assertEquals(1, histogram.getCount(10));
+        assertEquals(1000, histogram.getMaxMicros());
+        assertEquals(251, histogram.getMeanMicros());
+        assertEquals(1, histogram.getPercentileMicros(25));
+        assertEquals(4, histogram.getPercentileMicros(75));
+        assertEquals(1024, histogram.getPercentileMicros(99));
+        // the longest latencies share the last bucket
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(1, histogram.getCount(RpcHistogram.BUCKETS - 1));
+    }
+
+    public void test_method_metrics() throws Throwable {
+        RpcMethodMetrics metrics = new RpcMethodMetrics();
+        metrics.onCalled(2000, false);
+        metrics.onCalled(-1, true);
+        metrics.onInvoked(1000, true);
+        assertEquals(2, metrics.getCalls());
+        assertEquals(1, metrics.getCallErrors());
+        assertEquals(1, metrics.getCallRtt().getCount());
+        assertEquals(1, metrics.getInvocations());
+        assertEquals(1, metrics.getInvocationErrors());
+        assertEquals(1, metrics.getExecutionTime().getMaxMicros());
+    }
+}
@@ -19,8 +19,6 @@
  */
 package com.sokeeper.rpc.transport.support;
 
-import java.util.Set;
-
 import org.apache.mina.common.IoService;
 import org.apache.mina.common.IoSession;
 
@@ -41,11 +39,6 @@ public class MockRpcIoHandlerImpl extends RpcIoHandlerImpl {
         return true;
     }
 
-    @Override
-    protected Set<IoSession> getSessions() {
-        return null;
-    }
-
     @Override
     protected void onHandshakeMessageGot(IoSession session, HandshakeMessage message) {
     }
@@ -23,6 +23,7 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.TestCase;
 
@@ -32,6 +33,9 @@ import org.apache.mina.common.IoSession;
 import com.sokeeper.rpc.exception.RpcLocalExceptionIoTargetIsNotConnected;
 import com.sokeeper.rpc.message.HandshakeMessage;
 import com.sokeeper.rpc.message.RpcConfiguration;
+import com.sokeeper.rpc.transport.RpcConnection;
+import com.sokeeper.rpc.transport.RpcIoHandler;
+import com.sokeeper.rpc.transport.RpcIoListener;
 import com.sokeeper.rpc.transport.support.RpcClientIoHandlerImpl;
 import com.sokeeper.rpc.transport.support.RpcServerIoHandlerImpl;
 import com.sokeeper.util.NetUtils;
@@ -310,6 +314,79 @@ public class RpcClientIoHandlerImplTest extends TestCase {
         client.shutdown();
     }
 
+    public void test_parallel_connect_with_backoff() throws Throwable {
+        RpcServerIoHandlerImpl server = new RpcServerIoHandlerImpl(new RpcConfiguration(
+                "tcp://localhost:9010/server"));
+        RpcClientIoHandlerImpl client = new RpcClientIoHandlerImpl(new RpcConfiguration(
+                "tcp://localhost:9010/client?connect_policy=all&auto_reconnect_ms=100&"
+                        + "reconnect_max_ms=400&connect_timeout_ms=1000&"
+                        + RpcConfiguration.KEY_RPC_URL_PARAM_SERVERS
+                        + "=localhost:9011,localhost:9012"));
+        RpcServerIoHandlerImpl restarted = new RpcServerIoHandlerImpl(new RpcConfiguration(
+                "tcp://localhost:9011/server"));
+        try {
+            server.startup();
+            // the servers down do not stop the one up from being connected
+            assertFalse(client.startup());
+            assertEquals(1, client.getSessions().size());
+            restarted.startup();
+            // the backoff never waits longer than reconnect_max_ms
+            long end = System.currentTimeMillis() + 5000;
+            while (client.getSessions().size() < 2 && System.currentTimeMillis() < end) {
+                Thread.sleep(50);
+            }
+            assertEquals(2, client.getSessions().size());
+        } finally {
+            client.shutdown();
+            restarted.shutdown();
+            server.shutdown();
+        }
+    }
+
+    public void test_anyone_connects_only_one_server() throws Throwable {
+        final AtomicInteger created = new AtomicInteger();
+        RpcIoListener listener = new RpcIoListener() {
+            public void onConnectionCreated(RpcConnection connection, RpcIoHandler ioHandler) {
+                created.incrementAndGet();
+            }
+
+            public void onConnectionClosed(RpcConnection connection, RpcIoHandler ioHandler) {
+            }
+        };
+        RpcServerIoHandlerImpl[] servers = new RpcServerIoHandlerImpl[3];
+        RpcClientIoHandlerImpl client = new RpcClientIoHandlerImpl(new RpcConfiguration(
+                "tcp://localhost:9010/client?connect_policy=anyone&"
+                        + RpcConfiguration.KEY_RPC_URL_PARAM_SERVERS
+                        + "=localhost:9011,localhost:9012"));
+        client.registerIoListener(listener);
+        try {
+            for (int i = 0; i < servers.length; i++) {
+                servers[i] = new RpcServerIoHandlerImpl(new RpcConfiguration(
+                        "tcp://localhost:901" + i + "/server"));
+                servers[i].registerIoListener(listener);
+                servers[i].startup();
+            }
+            assertTrue(client.startup());
+            Thread.sleep(500);
+            // the servers not preferred are never connected, neither peer
+            // tells its listeners more than once
+            int sessions = 0;
+            for (RpcServerIoHandlerImpl server : servers) {
+                sessions += server.getSessions().size();
+            }
+            assertEquals(1, sessions);
+            assertEquals(1, client.getSessions().size());
+            assertEquals(2, created.get());
+        } finally {
+            client.shutdown();
+            for (RpcServerIoHandlerImpl server : servers) {
+                if (server != null) {
+                    server.shutdown();
+                }
+            }
+        }
+    }
+
     public void test_client_connect_non_localhost_server_should_accept_localhost_server_address()
             throws Throwable {
         String nonLocal = null;
@@ -65,6 +65,14 @@ public class RpcExecutorTest extends TestCase {
         return dummyReturned;
     }
 
+    private long remaining = 0;
+
+    public Object sleepy() throws Throwable {
+        remaining = RpcConnection.getCurrentRemaining();
+        Thread.sleep(100);
+        return null;
+    }
+
     //public Object dummy(Object p1) throws Throwable {
     //    return null;
     //}
@@ -108,4 +116,44 @@ public class RpcExecutorTest extends TestCase {
                 IllegalArgumentException.class);
     }
 
+    public void test_deadline() throws Throwable {
+        IoSession session = new MockIoSession() {
+            public WriteFuture write(Object message) {
+                messageWrite = message;
+                return null;
+            }
+        };
+        RpcConnection connection = new RpcConnection(new RpcSocketAddress(new InetSocketAddress(
+                "localhost", 3000)), new RpcSocketAddress(new InetSocketAddress("localhost", 4000)));
+        RpcInvoker invoker = new RpcInvoker(getClass().getMethod("sleepy", new Class<?>[] {}), this);
+
+        // expired before processed
+        RpcRequest request = new RpcRequest("serviceName", new Object[] {});
+        request.setDeadline(System.currentTimeMillis() - 1);
+        messageWrite = null;
+        invoker.tryAcquire();
+        new RpcExecutor(connection, session, request, invoker).run();
+        assertNull(messageWrite);
+        assertEquals(1, invoker.getExpiredCalls());
+        assertEquals(0, invoker.getActiveCalls());
+
+        // expired while processing
+        request.setRemaining(System.currentTimeMillis(), 50);
+        invoker.tryAcquire();
+        new RpcExecutor(connection, session, request, invoker).run();
+        assertNull(messageWrite);
+        assertTrue(remaining > 0 && remaining <= 50);
+        assertEquals(1, invoker.getLateCalls());
+
+        // in time
+        request.setRemaining(System.currentTimeMillis(), 5000);
+        invoker.tryAcquire();
+        new RpcExecutor(connection, session, request, invoker).run();
+        assertEquals(request.getId(), ((RpcResponse) messageWrite).getId());
+        assertTrue(remaining > 4000 && remaining <= 5000);
+
+        request.setDeadline(RpcRequest.NO_DEADLINE);
+        new RpcExecutor(connection, session, request, invoker).run();
+        assertEquals(Long.MAX_VALUE, remaining);
+    }
 }
@@ -21,9 +21,15 @@ package com.sokeeper.rpc.transport.support;
 
 import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import junit.framework.TestCase;
 
@@ -38,9 +44,13 @@ import com.sokeeper.rpc.exception.RpcLocalExceptionIoWriteToTargetFailed;
 import com.sokeeper.rpc.exception.RpcLocalExceptionMultipleTargets;
 import com.sokeeper.rpc.exception.RpcLocalExceptionTimeout;
 import com.sokeeper.rpc.exception.RpcRemoteException;
+import com.sokeeper.rpc.exception.RpcRemoteExceptionServerBusy;
+import com.sokeeper.rpc.message.HandshakeMessage;
 import com.sokeeper.rpc.message.RpcConfiguration;
 import com.sokeeper.rpc.message.RpcRequest;
 import com.sokeeper.rpc.message.RpcResponse;
+import com.sokeeper.rpc.transport.RpcFuture;
+import com.sokeeper.rpc.transport.RpcFutureListener;
 import com.sokeeper.rpc.transport.support.RpcIoHandlerImpl;
 import com.sokeeper.util.RpcAddress;
 import com.sokeeper.util.RpcSocketAddress;
@@ -49,23 +59,19 @@ public class RpcIoHandlerImplTest extends TestCase {
 
     protected void setUp() throws Exception {
         super.setUp();
-        sessions = null;
         returned = null;
         ioHandler = new MockRpcIoHandlerImpl(new RpcConfiguration(
-                "tcp://localhost:9010/client?timeout_ms=10")) {
-            protected Set<IoSession> getSessions() {
-                return sessions;
-            }
-        };
+                "tcp://localhost:9010/client?timeout_ms=10"));
+        sessions = ioHandler.getSessionRegistry();
     }
 
     protected void tearDown() throws Exception {
         super.tearDown();
     }
 
-    private Set<IoSession>   sessions  = null;
-    private Object           returned  = null;
-    private RpcIoHandlerImpl ioHandler = null;
+    private RpcSessionRegistry sessions  = null;
+    private Object             returned  = null;
+    private RpcIoHandlerImpl   ioHandler = null;
 
     public Object dummy(Object arg1, Object arg2, Object[] arg3) throws Throwable {
         return returned;
@@ -121,6 +127,125 @@ public class RpcIoHandlerImplTest extends TestCase {
         ioHandler.shutdown();
     }
 
+    public void test_method_ids() throws Throwable {
+        ioHandler.registerRequestHandler(MyInterface.class, new MyImpl());
+        Method method = MyInterface.class.getMethod("sayHello", new Class<?>[] { String.class });
+        String serviceName = ioHandler.getServiceName(method);
+        // 1, the registered services are published in the handshake
+        HandshakeMessage handshake = ioHandler.newHandshakeMessage();
+        assertEquals(serviceName, handshake.getParameter(HandshakeMessage.KEY_METHODS, ""));
+        // registered again keeps the id
+        ioHandler.registerRequestHandler(MyInterface.class, new MyImpl());
+        assertEquals(serviceName, ioHandler.newHandshakeMessage().getParameter(
+                HandshakeMessage.KEY_METHODS, ""));
+        assertSame(ioHandler.getRpcInvoker(serviceName), ioHandler.getRpcInvoker(0));
+        assertNull(ioHandler.getRpcInvoker(1));
+        assertNull(ioHandler.getRpcInvoker(-1));
+
+        // 2, the peer got the handshake sends the id instead of the name
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+        final List<Object> written = new ArrayList<Object>();
+        MockIoSession session = new MockIoSession() {
+            public Object setAttribute(String key, Object value) {
+                return attributes.put(key, value);
+            }
+
+            public Object getAttribute(String key) {
+                return attributes.get(key);
+            }
+
+            public WriteFuture write(Object message) {
+                written.add(message);
+                return null;
+            }
+        };
+        session.setRemoteAddress(new InetSocketAddress("localhost", 9090));
+        session.setLocalAddress(new InetSocketAddress("localhost", 8899));
+        assertEquals(RpcRequest.NO_METHOD_ID, ioHandler.getRemoteMethodId(session, serviceName));
+        ioHandler.messageReceived(session, handshake);
+        assertEquals(0, ioHandler.getRemoteMethodId(session, serviceName));
+        assertEquals(RpcRequest.NO_METHOD_ID, ioHandler.getRemoteMethodId(session, "unknown"));
+
+        sessions.clear();
+        sessions.add(session);
+        ioHandler.invokeAsync(method, new Object[] { "JamesFu" }, null, null, false);
+        RpcRequest request = (RpcRequest) written.get(0);
+        assertEquals(0, request.getMethodId());
+        assertNull(request.getServiceName());
+
+        // 3, dispatched by the id
+        ioHandler.messageReceived(session, request);
+        while (returned == null) {
+            Thread.sleep(10);
+        }
+        assertEquals("JamesFu", returned);
+
+        // 4, the unknown id
+        ioHandler.messageReceived(session, new RpcRequest(5, new Object[] {}));
+        RpcResponse response = (RpcResponse) written.get(written.size() - 1);
+        assertEquals("service_not_registered:#5", ((RpcRemoteException) response.getResult())
+                .getMessage());
+        ioHandler.shutdown();
+    }
+
+    public void test_server_busy() throws Throwable {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch entered = new CountDownLatch(1);
+        RpcIoHandlerImpl handler = new MockRpcIoHandlerImpl(new RpcConfiguration(
+                "tcp://localhost:9010/server?core_threads=1&max_threads=1&queue_size=0"));
+        handler.registerRequestHandler(MyInterface.class, new MyInterface() {
+            public String sayHello(String name) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                }
+                return name;
+            }
+        });
+        final List<Object> written = new ArrayList<Object>();
+        MockIoSession session = new MockIoSession() {
+            public WriteFuture write(Object message) {
+                synchronized (written) {
+                    written.add(message);
+                }
+                return null;
+            }
+        };
+        session.setRemoteAddress(new InetSocketAddress("localhost", 8080));
+        session.setLocalAddress(new InetSocketAddress("localhost", 8899));
+        String serviceName = handler.getServiceName(MyInterface.class.getMethod("sayHello",
+                new Class<?>[] { String.class }));
+
+        // 1, the only thread is busy and nothing queued, rejected at once
+        handler.messageReceived(session, new RpcRequest(serviceName, new Object[] { "1" }));
+        entered.await();
+        assertEquals(1, handler.getActiveThreads());
+        RpcRequest rejected = new RpcRequest(serviceName, new Object[] { "2" });
+        handler.messageReceived(session, rejected);
+        assertEquals(1, written.size());
+        RpcResponse response = (RpcResponse) written.get(0);
+        assertEquals(rejected.getId(), response.getId());
+        assertTrue(response.getResult() instanceof RpcRemoteExceptionServerBusy);
+        assertEquals(1, handler.getRejectedRequests());
+        assertEquals(0, handler.getQueuedRequests());
+        // the rejected call released its slot
+        assertEquals(1, handler.getRpcInvoker(serviceName).getActiveCalls());
+
+        // 2, the method reached its own limit
+        handler.getRpcInvoker(serviceName).setMaxCalls(1);
+        handler.messageReceived(session, new RpcRequest(serviceName, new Object[] { "3" }));
+        assertEquals(2, written.size());
+        assertTrue(((RpcResponse) written.get(1)).getResult() instanceof RpcRemoteExceptionServerBusy);
+        assertEquals(2, handler.getRejectedRequests());
+
+        release.countDown();
+        while (handler.getRpcInvoker(serviceName).getActiveCalls() > 0) {
+            Thread.sleep(10);
+        }
+        handler.shutdown();
+    }
+
     public void test_invoke() throws Throwable {
         Method method = getClass().getMethod("dummy",
                 new Class<?>[] { Object.class, Object.class, new Object[0].getClass() });
@@ -137,7 +262,7 @@ public class RpcIoHandlerImplTest extends TestCase {
         //}
         // 2, targets is null sessions has 1 session
         {
-            sessions = new HashSet<IoSession>();
+            sessions.clear();
             MockIoSession session = new MockIoSession();
             session.setRemoteAddress(new InetSocketAddress("localhost", 8080));
             sessions.add(session);
@@ -160,7 +285,7 @@ public class RpcIoHandlerImplTest extends TestCase {
         }
         // 3, 1 target, sessions is null or mismatch with target
         {
-            sessions = new HashSet<IoSession>();
+            sessions.clear();
             try {
                 Set<RpcAddress> targets = new HashSet<RpcAddress>();
                 targets.add(new RpcSocketAddress("localhost", 8080));
@@ -168,7 +293,7 @@ public class RpcIoHandlerImplTest extends TestCase {
                 fail("should reprot RpcLocalExceptionIoTargetIsNotConnected");
             } catch (RpcLocalExceptionIoTargetIsNotConnected e) {
             }
-            sessions = new HashSet<IoSession>();
+            sessions.clear();
             MockIoSession session = new MockIoSession();
             session.setRemoteAddress(new InetSocketAddress("localhost", 9090));
             sessions.add(session);
@@ -182,7 +307,7 @@ public class RpcIoHandlerImplTest extends TestCase {
         }
         // 4, 2 targets, 1 match 1 mismatched
         {
-            sessions = new HashSet<IoSession>();
+            sessions.clear();
             MockIoSession session = new MockIoSession();
             session.setRemoteAddress(new InetSocketAddress("localhost", 9090));
             sessions.add(session);
@@ -204,7 +329,7 @@ public class RpcIoHandlerImplTest extends TestCase {
         // 5, 1 target, 1 session and matched
         {
             returned = "Hello";
-            sessions = new HashSet<IoSession>();
+            sessions.clear();
             MockIoSession session = new MockIoSession() {
                 public WriteFuture write(Object message) {
                     RpcRequest request = (RpcRequest) message;
@@ -248,4 +373,118 @@ public class RpcIoHandlerImplTest extends TestCase {
         // 6, the responses should keep empty
         assertEquals(ioHandler.getResponsesSize(), 0);
     }
+
+    public void test_invokeAsync() throws Throwable {
+        Method method = getClass().getMethod("dummy",
+                new Class<?>[] { Object.class, Object.class, new Object[0].getClass() });
+        final List<RpcRequest> requests = new ArrayList<RpcRequest>();
+        MockIoSession session = new MockIoSession() {
+            public WriteFuture write(Object message) {
+                requests.add((RpcRequest) message);
+                return null;
+            }
+        };
+        session.setRemoteAddress(new InetSocketAddress("localhost", 9090));
+        sessions.clear();
+        sessions.add(session);
+
+        // 1, the caller is not blocked, the listener is notified by the io thread
+        final AtomicReference<RpcFuture<?>> completed = new AtomicReference<RpcFuture<?>>();
+        RpcFuture<Object> future = ioHandler.invokeAsync(method, null, null, null, false);
+        future.addListener(new RpcFutureListener() {
+            public void operationComplete(RpcFuture<?> future) {
+                completed.set(future);
+            }
+        });
+        assertFalse(future.isDone());
+        assertEquals(1, requests.size());
+        assertEquals(1, ioHandler.getResponsesSize());
+        ioHandler.messageReceived(session, new RpcResponse(requests.get(0).getId(), "Hello"));
+        assertTrue(future.isDone());
+        assertSame(future, completed.get());
+        assertEquals("Hello", future.get());
+        assertEquals("Hello", future.get(0));
+        assertEquals(0, ioHandler.getResponsesSize());
+
+        // 2, the listener added after done is notified immediately
+        completed.set(null);
+        future.addListener(new RpcFutureListener() {
+            public void operationComplete(RpcFuture<?> future) {
+                completed.set(future);
+            }
+        });
+        assertSame(future, completed.get());
+
+        // 3, no response
+        future = ioHandler.invokeAsync(method, null, null, null, false);
+        try {
+            future.get(0);
+            fail("not done yet");
+        } catch (RpcLocalExceptionTimeout e) {
+        }
+        try {
+            future.get();
+            fail("the call should be timeout");
+        } catch (RpcLocalExceptionTimeout e) {
+        }
+        assertTrue(future.isDone());
+        // the late response is dropped
+        ioHandler.messageReceived(session, new RpcResponse(requests.get(1).getId(), "Hello"));
+        assertEquals(0, ioHandler.getResponsesSize());
+
+        // 4, the failures known before sending complete the future at once
+        Set<RpcAddress> targets = new HashSet<RpcAddress>();
+        targets.add(new RpcSocketAddress("localhost", 8080));
+        future = ioHandler.invokeAsync(method, null, targets, null, false);
+        assertTrue(future.isDone());
+        try {
+            future.get();
+            fail();
+        } catch (RpcLocalExceptionIoTargetIsNotConnected e) {
+        }
+        ioHandler.shutdown();
+    }
+
+    public void test_scatterGather() throws Throwable {
+        Method method = getClass().getMethod("dummy",
+                new Class<?>[] { Object.class, Object.class, new Object[0].getClass() });
+        MockIoSession responding = new MockIoSession() {
+            public WriteFuture write(Object message) {
+                try {
+                    ioHandler.messageReceived(this, new RpcResponse(((RpcRequest) message)
+                            .getId(), "Hello"));
+                } catch (Exception e) {
+                }
+                return null;
+            }
+        };
+        responding.setRemoteAddress(new InetSocketAddress("localhost", 9090));
+        MockIoSession silent = new MockIoSession();
+        silent.setRemoteAddress(new InetSocketAddress("localhost", 8080));
+        sessions.clear();
+        sessions.add(responding);
+        sessions.add(silent);
+        RpcAddress respondingAddress = new RpcSocketAddress("localhost", 9090);
+        RpcAddress silentAddress = new RpcSocketAddress("localhost", 8080);
+
+        // 1, the quorum reached without waiting for the silent target
+        RpcFuture<Map<RpcAddress, Object>> future = ioHandler.scatterGather(method, null, null,
+                null, false, 1);
+        assertTrue(future.isDone());
+        Map<RpcAddress, Object> results = future.get();
+        assertEquals(1, results.size());
+        assertEquals("Hello", results.get(respondingAddress));
+        assertTrue(future.getLatencies().get(respondingAddress) >= 0);
+        assertEquals(0, ioHandler.getResponsesSize());
+
+        // 2, wait for all the targets until the deadline, the failures are gathered
+        future = ioHandler.scatterGather(method, null, null, null, false, 0);
+        results = future.get();
+        assertEquals(2, results.size());
+        assertEquals("Hello", results.get(respondingAddress));
+        assertTrue(results.get(silentAddress) instanceof RpcLocalExceptionTimeout);
+        assertEquals(1, future.getLatencies().size());
+        assertEquals(0, ioHandler.getResponsesSize());
+        ioHandler.shutdown();
+    }
 }
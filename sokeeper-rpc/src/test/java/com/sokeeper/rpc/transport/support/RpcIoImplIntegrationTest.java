@@ -19,17 +19,27 @@
  */
 package com.sokeeper.rpc.transport.support;
 
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import junit.framework.TestCase;
 
 import org.apache.mina.common.IdleStatus;
@@ -37,14 +47,22 @@ import org.apache.mina.common.IoSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.sokeeper.exception.RpcException;
+import com.sokeeper.handler.Idempotent;
+import com.sokeeper.rpc.codec.RpcCompressionStats;
+import com.sokeeper.rpc.codec.support.RpcCodecFilter;
 import com.sokeeper.rpc.exception.RpcLocalExceptionIoTargetIsNotConnected;
 import com.sokeeper.rpc.exception.RpcLocalExceptionMultipleTargets;
+import com.sokeeper.rpc.exception.RpcLocalExceptionTimeout;
 import com.sokeeper.rpc.exception.RpcRemoteException;
 import com.sokeeper.rpc.message.RpcConfiguration;
 import com.sokeeper.rpc.service.support.RpcServiceBuilderImpl;
 import com.sokeeper.rpc.transport.RpcConnection;
+import com.sokeeper.rpc.transport.RpcFuture;
 import com.sokeeper.rpc.transport.RpcIoHandler;
 import com.sokeeper.rpc.transport.RpcIoListener;
+import com.sokeeper.rpc.transport.RpcMethodMetrics;
+import com.sokeeper.rpc.transport.RpcStream;
 import com.sokeeper.rpc.transport.support.RpcClientIoHandlerImpl;
 import com.sokeeper.rpc.transport.support.RpcServerIoHandlerImpl;
 import com.sokeeper.util.NetUtils;
@@ -386,6 +404,461 @@ public class RpcIoImplIntegrationTest extends TestCase {
 
     }
 
+    public void test_write_batch() throws Throwable {
+        server = new RpcServerIoHandlerImpl(new RpcConfiguration(
+                "tcp://localhost:9010/server?write_linger_us=2000&write_batch_bytes=512"));
+        client = new RpcClientIoHandlerImpl(new RpcConfiguration(
+                "tcp://localhost:9010/client?write_linger_us=2000&write_batch_bytes=512"));
+        server.registerRequestHandler(RpcIoImplIntegrationTestInterface.class,
+                new RpcIoImplIntegrationTestInterfaceImpl(null));
+        server.startup();
+        client.startup();
+        final RpcIoImplIntegrationTestInterface service = builder.buildRemoteServiceProxy(
+                RpcIoImplIntegrationTestInterface.class, null, null, client, false);
+        final int threads = 10;
+        final int callsPerThread = 50;
+        final CountDownLatch finished = new CountDownLatch(threads);
+        final AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < threads; i++) {
+            final int finalI = i;
+            new Thread() {
+                public void run() {
+                    try {
+                        for (int call = 0; call < callsPerThread; call++) {
+                            String msg = finalI + ":" + call;
+                            if (!msg.equals(service.sayHello(msg))) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            }.start();
+        }
+        finished.await();
+        assertEquals(0, failures.get());
+    }
+
+    public void test_write_lanes() throws Throwable {
+        server = new RpcServerIoHandlerImpl(new RpcConfiguration(
+                "tcp://localhost:9010/server?chunk_bytes=256&write_linger_us=500"));
+        client = new RpcClientIoHandlerImpl(new RpcConfiguration(
+                "tcp://localhost:9010/client?chunk_bytes=256&write_linger_us=500"));
+        server.registerRequestHandler(RpcIoImplIntegrationTestInterface.class,
+                new RpcIoImplIntegrationTestInterfaceImpl(null));
+        server.startup();
+        client.startup();
+        final RpcIoImplIntegrationTestInterface service = builder.buildRemoteServiceProxy(
+                RpcIoImplIntegrationTestInterface.class, null, null, client, false);
+        final StringBuilder big = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            big.append(i).append(',');
+        }
+        final int threads = 10;
+        final CountDownLatch finished = new CountDownLatch(threads);
+        final AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < threads; i++) {
+            final int finalI = i;
+            new Thread() {
+                public void run() {
+                    try {
+                        for (int call = 0; call < 20; call++) {
+                            // the big and the small messages interleave
+                            String msg = (finalI % 2 == 0 ? big.toString() : "") + finalI + ":"
+                                    + call;
+                            if (!msg.equals(service.sayHello(msg))) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            }.start();
+        }
+        finished.await();
+        assertEquals(0, failures.get());
+    }
+
+    public void test_compression() throws Throwable {
+        server = new RpcServerIoHandlerImpl(new RpcConfiguration(
+                "tcp://localhost:9010/server?compress_bytes=256"));
+        client = new RpcClientIoHandlerImpl(new RpcConfiguration(
+                "tcp://localhost:9010/client?compress_bytes=256"));
+        server.registerRequestHandler(RpcIoImplIntegrationTestInterface.class,
+                new RpcIoImplIntegrationTestInterfaceImpl(null));
+        server.startup();
+        client.startup();
+        RpcIoImplIntegrationTestInterface service = builder.buildRemoteServiceProxy(
+                RpcIoImplIntegrationTestInterface.class, null, null, client, false);
+        StringBuilder msg = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            msg.append("127.0.0.1:9010/resource").append(i).append(';');
+        }
+        assertEquals(msg.toString(), service.sayHello(msg.toString()));
+        assertEquals("small", service.sayHello("small"));
+
+        RpcCompressionStats clientStats = client.getCompressionStats(client.getConfiguration()
+                .getMainAddress());
+        RpcCompressionStats serverStats = RpcCodecFilter.getCompressionStats(server
+                .getSessions().iterator().next());
+        // the request and the response are both compressed
+        assertEquals(1, clientStats.getDeflatedFrames());
+        assertEquals(1, clientStats.getInflatedFrames());
+        assertEquals(clientStats.getDeflatedRawBytes(), serverStats.getInflatedRawBytes());
+        assertEquals(serverStats.getDeflatedBytes(), clientStats.getInflatedBytes());
+    }
+
+    public void test_least_loaded() throws Throwable {
+        RpcServerIoHandlerImpl other = new RpcServerIoHandlerImpl(new RpcConfiguration(
+                "tcp://localhost:9011/server"));
+        server = new RpcServerIoHandlerImpl(new RpcConfiguration("tcp://localhost:9010/server"));
+        client = new RpcClientIoHandlerImpl(new RpcConfiguration(
+                "tcp://localhost:9010/client?connect_policy=least_loaded&servers=localhost:9011"));
+        RpcIoImplIntegrationTestInterfaceImpl[] impls = new RpcIoImplIntegrationTestInterfaceImpl[] {
+                new RpcIoImplIntegrationTestInterfaceImpl(null),
+                new RpcIoImplIntegrationTestInterfaceImpl(null) };
+        server.registerRequestHandler(RpcIoImplIntegrationTestInterface.class, impls[0]);
+        other.registerRequestHandler(RpcIoImplIntegrationTestInterface.class, impls[1]);
+        try {
+            server.startup();
+            other.startup();
+            assertTrue(client.startup());
+            assertEquals(2, client.getSessions().size());
+            RpcAddress[] addresses = new RpcAddress[] {
+                    server.getConfiguration().getMainAddress(),
+                    other.getConfiguration().getMainAddress() };
+            // the handshakes sampled the rtt of both servers
+            for (RpcAddress address : addresses) {
+                assertEquals(1, client.getPeerLoad(address).getSamples());
+                assertTrue(client.getPeerLoad(address).getSmoothedRtt() >= 0);
+            }
+            RpcIoImplIntegrationTestInterface service = builder.buildRemoteServiceProxy(
+                    RpcIoImplIntegrationTestInterface.class, null, null, client, false);
+            // the calls without targets go to one server instead of both
+            for (int i = 0; i < 2; i++) {
+                // load the server called, the next call goes to the other one
+                impls[0].connection = impls[1].connection = null;
+                assertEquals("hello", service.sayHello("hello"));
+                int called = impls[0].connection != null ? 0 : 1;
+                assertNull(impls[1 - called].connection);
+                assertEquals(0, client.getPeerLoad(addresses[called]).getInFlight());
+                for (int j = 0; j < 100; j++) {
+                    client.getPeerLoad(addresses[called]).onSent();
+                }
+                impls[0].connection = impls[1].connection = null;
+                assertEquals("hello", service.sayHello("hello"));
+                assertNotNull(impls[1 - called].connection);
+                assertNull(impls[called].connection);
+                for (int j = 0; j < 100; j++) {
+                    client.getPeerLoad(addresses[called]).onDone();
+                }
+            }
+        } finally {
+            other.shutdown();
+        }
+    }
+
+    public void test_heartbeat_rtt() throws Throwable {
+        server = new RpcServerIoHandlerImpl(new RpcConfiguration(
+                "tcp://localhost:9010/server?hb_sec=1"));
+        client = new RpcClientIoHandlerImpl(new RpcConfiguration("tcp://localhost:9010/client"));
+        server.startup();
+        client.startup();
+        RpcAddress address = client.getConfiguration().getMainAddress();
+        assertEquals(1, client.getPeerLoad(address).getSamples());
+        // the pongs answering the pings sample the rtt again
+        long end = System.currentTimeMillis() + 5000;
+        while (client.getPeerLoad(address).getSamples() < 2 && System.currentTimeMillis() < end) {
+            Thread.sleep(100);
+        }
+        assertTrue(client.getPeerLoad(address).getSamples() >= 2);
+        assertTrue(client.isConnected(address));
+    }
+
+    public void test_ordered_execution() throws Throwable {
+        server = new RpcServerIoHandlerImpl(new RpcConfiguration(
+                "tcp://localhost:9010/server?execution=ordered"));
+        client = new RpcClientIoHandlerImpl(new RpcConfiguration("tcp://localhost:9010/client"));
+        final List<String> processed = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger overlapped = new AtomicInteger();
+        server.registerIoListener(new RpcIoListener() {
+            public void onConnectionCreated(RpcConnection connection, RpcIoHandler ioHandler) {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                }
+                processed.add("created");
+            }
+
+            public void onConnectionClosed(RpcConnection connection, RpcIoHandler ioHandler) {
+            }
+        });
+        server.registerRequestHandler(RpcIoImplIntegrationTestInterface.class,
+                new RpcIoImplIntegrationTestInterfaceImpl(null) {
+                    public String sayHello(String msg) throws Throwable {
+                        if (running.incrementAndGet() > 1) {
+                            overlapped.incrementAndGet();
+                        }
+                        Thread.sleep(1);
+                        processed.add(msg);
+                        running.decrementAndGet();
+                        return msg;
+                    }
+                });
+        server.startup();
+        client.startup();
+        Method method = RpcIoImplIntegrationTestInterface.class.getMethod("sayHello",
+                String.class);
+        List<RpcFuture<Object>> futures = new ArrayList<RpcFuture<Object>>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(client.invokeAsync(method, new Object[] { "" + i }, null, null, false));
+        }
+        for (int i = 0; i < 50; i++) {
+            assertEquals("" + i, futures.get(i).get());
+        }
+        // the requests waited the connection event, and ran one by one in order
+        assertEquals(0, overlapped.get());
+        assertEquals(51, processed.size());
+        assertEquals("created", processed.get(0));
+        for (int i = 0; i < 50; i++) {
+            assertEquals("" + i, processed.get(i + 1));
+        }
+    }
+
+    public void test_metrics() throws Throwable {
+        server = new RpcServerIoHandlerImpl(new RpcConfiguration("tcp://localhost:9010/server"));
+        client = new RpcClientIoHandlerImpl(new RpcConfiguration("tcp://localhost:9010/client"));
+        server.registerRequestHandler(RpcIoImplIntegrationTestInterface.class,
+                new RpcIoImplIntegrationTestInterfaceImpl(null));
+        server.startup();
+        client.startup();
+        RpcIoImplIntegrationTestInterface service = builder.buildRemoteServiceProxy(
+                RpcIoImplIntegrationTestInterface.class, null, null, client, false);
+        for (int i = 0; i < 10; i++) {
+            assertEquals("hello", service.sayHello("hello"));
+        }
+        String serviceName = client.getServiceName(RpcIoImplIntegrationTestInterface.class
+                .getMethod("sayHello", String.class));
+        RpcMethodMetrics called = client.getMetrics().getMethodMetrics(serviceName);
+        assertEquals(10, called.getCalls());
+        assertEquals(0, called.getCallErrors());
+        assertEquals(10, called.getCallRtt().getCount());
+        assertEquals(0, called.getInvocations());
+        RpcMethodMetrics served = server.getMetrics().getMethodMetrics(serviceName);
+        assertEquals(0, served.getCalls());
+        assertEquals(10, served.getInvocations());
+        assertEquals(10, served.getExecutionTime().getCount());
+        assertEquals(1, client.getMetrics().getMethodStats().length);
+        assertEquals(1, client.getMetrics().getSessions());
+        assertEquals(1, client.getMetrics().getSessionStats().length);
+        assertEquals(0, client.getMetrics().getPendingResponses());
+        // the handshake, the requests and the responses at least
+        assertTrue(client.getMetrics().getWrittenFrames() >= 11);
+        assertTrue(server.getMetrics().getReadFrames() >= 11);
+        assertTrue(client.getMetrics().getWrittenBytes() > 0);
+
+        // the same counters through JMX
+        MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = ((RpcMetricsImpl) server.getMetrics()).getObjectName();
+        assertNotNull(name);
+        assertEquals(1, mbeans.getAttribute(name, "Sessions"));
+        assertEquals(0L, mbeans.getAttribute(name, "HeartbeatCloses"));
+        // both the methods of the service were registered
+        assertEquals(2, ((String[]) mbeans.getAttribute(name, "MethodStats")).length);
+        // the closed sessions' traffic is kept
+        long readFrames = server.getMetrics().getReadFrames();
+        client.shutdown();
+        client = null;
+        long end = System.currentTimeMillis() + 5000;
+        while (server.getMetrics().getSessions() > 0 && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, server.getMetrics().getSessions());
+        assertEquals(readFrames, server.getMetrics().getReadFrames());
+        server.shutdown();
+        assertFalse(mbeans.isRegistered(name));
+        assertNull(((RpcMetricsImpl) server.getMetrics()).getObjectName());
+    }
+
+    public static interface StreamService {
+        public Iterator<Integer> range(int from, int to);
+    }
+
+    public static interface StreamServiceStream {
+        public RpcStream<Integer> range(int from, int to);
+    }
+
+    public void test_stream() throws Throwable {
+        server = new RpcServerIoHandlerImpl(new RpcConfiguration(
+                "tcp://localhost:9010/server?stream_chunk_items=10"));
+        client = new RpcClientIoHandlerImpl(new RpcConfiguration(
+                "tcp://localhost:9010/client?stream_window=2&timeout_ms=3000"));
+        final AtomicInteger produced = new AtomicInteger();
+        server.registerRequestHandler(StreamService.class, new StreamService() {
+            public Iterator<Integer> range(final int from, final int to) {
+                return new Iterator<Integer>() {
+                    private int next = from;
+
+                    public boolean hasNext() {
+                        if (next == 15 && to < 0) {
+                            throw new IllegalStateException("failed at 15");
+                        }
+                        return next < Math.abs(to);
+                    }
+
+                    public Integer next() {
+                        produced.incrementAndGet();
+                        return next++;
+                    }
+
+                    public void remove() {
+                    }
+                };
+            }
+        });
+        server.startup();
+        client.startup();
+        StreamServiceStream service = builder.buildRemoteServiceProxy(StreamServiceStream.class,
+                StreamService.class, null, null, client, false);
+        // the server produces no more than the window granted
+        RpcStream<Integer> stream = service.range(0, 1000);
+        assertTrue(stream.hasNext());
+        assertEquals(0, stream.next().intValue());
+        Thread.sleep(200);
+        assertEquals(20, produced.get());
+        for (int i = 1; i < 1000; i++) {
+            assertTrue(stream.hasNext());
+            assertEquals(i, stream.next().intValue());
+        }
+        assertFalse(stream.hasNext());
+        assertEquals(1000, produced.get());
+        assertEquals(0, client.getOpenStreams());
+
+        // the items before the failure are consumed first
+        stream = service.range(0, -1000);
+        for (int i = 0; i < 15; i++) {
+            assertEquals(i, stream.next().intValue());
+        }
+        try {
+            stream.hasNext();
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("failed at 15", e.getMessage());
+        }
+
+        // the server stops sending once closed
+        produced.set(0);
+        stream = service.range(0, 1000);
+        assertEquals(0, stream.next().intValue());
+        stream.close();
+        assertFalse(stream.hasNext());
+        Thread.sleep(200);
+        assertEquals(20, produced.get());
+        assertEquals(0, client.getOpenStreams());
+        IoSession session = server.getSessions().iterator().next();
+        assertTrue(((Map<?, ?>) session.getAttribute(RpcIoHandlerImpl.KEY_SESSION_STREAMS))
+                .isEmpty());
+
+        // the result not iterable is one item, the unknown service fails
+        server.registerRequestHandler(RpcIoImplIntegrationTestInterface.class,
+                new RpcIoImplIntegrationTestInterfaceImpl(null));
+        Method method = RpcIoImplIntegrationTestInterface.class.getMethod("sayHello",
+                String.class);
+        RpcStream<Object> hello = client.invokeStream(method, new Object[] { "hello" }, client
+                .getConfiguration().getMainAddress());
+        assertEquals("hello", hello.next());
+        assertFalse(hello.hasNext());
+        hello = client.invokeStream(Object.class.getMethod("toString"), null, null);
+        try {
+            hello.hasNext();
+            fail();
+        } catch (RpcRemoteException e) {
+        }
+    }
+
+    public static interface CounterService {
+        @Idempotent
+        public int increase(long sleepMs) throws RpcException;
+
+        public int increaseOnce(long sleepMs) throws RpcException;
+    }
+
+    public void test_idempotent_retry() throws Throwable {
+        server = new RpcServerIoHandlerImpl(new RpcConfiguration("tcp://localhost:9010/server"));
+        client = new RpcClientIoHandlerImpl(new RpcConfiguration(
+                "tcp://localhost:9010/client?timeout_ms=1500&try_timeout_ms=500&retries=2"));
+        final AtomicInteger executed = new AtomicInteger();
+        server.registerRequestHandler(CounterService.class, new CounterService() {
+            public int increase(long sleepMs) {
+                int count = executed.incrementAndGet();
+                try {
+                    Thread.sleep(sleepMs);
+                } catch (InterruptedException e) {
+                }
+                return count;
+            }
+
+            public int increaseOnce(long sleepMs) {
+                return increase(sleepMs);
+            }
+        });
+        server.startup();
+        client.startup();
+        CounterService service = builder.buildRemoteServiceProxy(CounterService.class, null,
+                null, client, false);
+        // the first try timed out in its 500ms, its retry gets its result instead of
+        // executing again
+        assertEquals(1, service.increase(800));
+        assertEquals(1, executed.get());
+        assertEquals(1, server.getMetrics().getDuplicateRequests());
+        assertEquals(1, server.getMetrics().getCachedResponses());
+        // the retries never wait beyond the timeout of the call
+        long start = System.currentTimeMillis();
+        try {
+            service.increase(3000);
+            fail();
+        } catch (RpcLocalExceptionTimeout e) {
+        }
+        assertTrue(System.currentTimeMillis() - start < 2500);
+        assertEquals(2, executed.get());
+        // by default the first try waits the whole timeout, nothing is retried
+        RpcClientIoHandlerImpl patient = new RpcClientIoHandlerImpl(new RpcConfiguration(
+                "tcp://localhost:9010/client?timeout_ms=1500&retries=2"));
+        long duplicates = server.getMetrics().getDuplicateRequests();
+        try {
+            patient.startup();
+            assertEquals(3, builder.buildRemoteServiceProxy(CounterService.class, null, null,
+                    patient, false).increase(800));
+            assertEquals(duplicates, server.getMetrics().getDuplicateRequests());
+        } finally {
+            patient.shutdown();
+        }
+        // the method not idempotent is not retried
+        try {
+            service.increaseOnce(2000);
+            fail();
+        } catch (RpcLocalExceptionTimeout e) {
+        }
+        assertEquals(4, executed.get());
+        // the key given by the caller
+        RpcConnection.setCurrentIdempotencyKey("order-1");
+        try {
+            assertEquals(5, service.increaseOnce(0));
+            assertEquals(5, service.increaseOnce(0));
+        } finally {
+            RpcConnection.setCurrentIdempotencyKey(null);
+        }
+        assertEquals(5, executed.get());
+        assertEquals(6, service.increaseOnce(0));
+    }
+
     public void test_disconnectAll() throws Throwable {
         // 1 client 2 servers, client disconnect all servers
         RpcServerIoHandlerImpl[] servers = new RpcServerIoHandlerImpl[2];
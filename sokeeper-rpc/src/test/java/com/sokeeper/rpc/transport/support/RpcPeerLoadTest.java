@@ -0,0 +1,92 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.transport.support;
+
+import junit.framework.TestCase;
+
+import com.sokeeper.rpc.message.RpcResponse;
+import com.sokeeper.util.RpcSocketAddress;
+
+/**
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcPeerLoadTest extends TestCase {
+
+    public void test_smoothed_rtt() throws Throwable {
+        RpcPeerLoad load = new RpcPeerLoad();
+        assertEquals(RpcPeerLoad.UNKNOWN_RTT, load.getSmoothedRtt());
+        assertEquals(0, load.getScore());
+        load.onRtt(800);
+        assertEquals(800, load.getSmoothedRtt());
+        // one sample weighs 1/8
+        load.onRtt(1600);
+        assertEquals(900, load.getSmoothedRtt());
+        load.onRtt(900);
+        assertEquals(900, load.getSmoothedRtt());
+        assertEquals(3, load.getSamples());
+        try {
+            load.onRtt(-1);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void test_score() throws Throwable {
+        RpcPeerLoad near = new RpcPeerLoad();
+        RpcPeerLoad far = new RpcPeerLoad();
+        near.onRtt(100);
+        far.onRtt(300);
+        assertTrue(near.getScore() < far.getScore());
+        // the near one gets behind once it has too many calls in flight
+        near.onSent();
+        near.onSent();
+        near.onSent();
+        assertEquals(3, near.getInFlight());
+        assertTrue(near.getScore() > far.getScore());
+        near.onDone();
+        near.onDone();
+        near.onDone();
+        assertEquals(0, near.getInFlight());
+        assertEquals(100, near.getScore());
+    }
+
+    public void test_calls_not_waited_after_quorum_leave_the_load() throws Throwable {
+        RpcPendingCalls pendingCalls = new RpcPendingCalls();
+        RpcInvocationFuture invocation = new RpcInvocationFuture(null, pendingCalls,
+                "service.name()", 5000, true, 1);
+        RpcPeerLoad fast = new RpcPeerLoad();
+        RpcPeerLoad slow = new RpcPeerLoad();
+        RpcCallFuture call = invocation.newCall(1, RpcSocketAddress
+                .fromFullAddress("localhost:9010"), fast);
+        pendingCalls.put(call);
+        pendingCalls.put(invocation.newCall(2, RpcSocketAddress.fromFullAddress("localhost:9011"),
+                slow));
+        invocation.sent();
+        assertEquals(1, slow.getInFlight());
+        assertTrue(pendingCalls.complete(new RpcResponse(1, "ok")));
+        assertTrue(invocation.isDone());
+        assertEquals(0, fast.getInFlight());
+        // the slow one is not waited any more, its late response is dropped
+        assertEquals(0, slow.getInFlight());
+        assertEquals(0, pendingCalls.size());
+        assertFalse(pendingCalls.complete(new RpcResponse(2, "late")));
+        assertEquals(0, slow.getInFlight());
+    }
+}
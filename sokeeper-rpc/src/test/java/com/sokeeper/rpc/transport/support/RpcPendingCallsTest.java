@@ -0,0 +1,125 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.transport.support;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.sokeeper.rpc.message.RpcResponse;
+
+/**
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcPendingCallsTest extends TestCase {
+
+    public void test_constructor() throws Throwable {
+        try {
+            new RpcPendingCalls(3);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new RpcPendingCalls(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        new RpcPendingCalls(1);
+    }
+
+    public void test_put_remove_complete() throws Throwable {
+        RpcPendingCalls calls = new RpcPendingCalls(4);
+        for (long id = 1; id <= 1000; id++) {
+            calls.put(new RpcCallFuture(id, 1000));
+        }
+        assertEquals(1000, calls.size());
+        // replaced
+        calls.put(new RpcCallFuture(1, 1000));
+        assertEquals(1000, calls.size());
+
+        RpcCallFuture future = calls.remove(500);
+        assertEquals(500, future.getId());
+        assertNull(calls.remove(500));
+        assertEquals(999, calls.size());
+        assertFalse(calls.complete(new RpcResponse(500, "result")));
+
+        future = calls.remove(501);
+        calls.put(future);
+        assertTrue(calls.complete(new RpcResponse(501, "result")));
+        assertTrue(future.isDone());
+        assertEquals("result", future.get(0).getResult());
+        assertFalse(future.complete(new RpcResponse(501, "again")));
+        assertEquals("result", future.get(0).getResult());
+        assertEquals(998, calls.size());
+    }
+
+    public void test_sweep() throws Throwable {
+        RpcPendingCalls calls = new RpcPendingCalls();
+        RpcCallFuture expiring = new RpcCallFuture(1, 0);
+        RpcCallFuture waiting = new RpcCallFuture(2, 60000);
+        calls.put(expiring);
+        calls.put(waiting);
+        assertEquals(1, calls.sweep(System.currentTimeMillis()));
+        assertEquals(1, calls.size());
+        assertTrue(expiring.isDone());
+        assertNull(expiring.get(1000));
+        // the response arrived after the expiration is dropped
+        assertFalse(calls.complete(new RpcResponse(1, "late")));
+        assertFalse(waiting.isDone());
+
+        calls.clear();
+        assertEquals(0, calls.size());
+        assertTrue(waiting.isDone());
+        assertNull(waiting.get(0));
+    }
+
+    public void test_concurrent_complete() throws Throwable {
+        final RpcPendingCalls calls = new RpcPendingCalls();
+        final int threads = 8;
+        final int callsPerThread = 2000;
+        final CountDownLatch finished = new CountDownLatch(threads);
+        final AtomicInteger failures = new AtomicInteger();
+        for (int i = 0; i < threads; i++) {
+            final long base = i * callsPerThread;
+            new Thread() {
+                public void run() {
+                    try {
+                        for (long id = base; id < base + callsPerThread; id++) {
+                            RpcCallFuture future = new RpcCallFuture(id, 10000);
+                            calls.put(future);
+                            if (!calls.complete(new RpcResponse(id, id))
+                                    || !Long.valueOf(id).equals(future.get(0).getResult())) {
+                                failures.incrementAndGet();
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failures.incrementAndGet();
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            }.start();
+        }
+        finished.await();
+        assertEquals(0, failures.get());
+        assertEquals(0, calls.size());
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.transport.support;
+
+import junit.framework.TestCase;
+
+import com.sokeeper.util.RpcAddress;
+import com.sokeeper.util.RpcSocketAddress;
+
+/**
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcReconnectBackoffTest extends TestCase {
+
+    public void test_constructor() throws Throwable {
+        try {
+            new RpcReconnectBackoff(0, 100, 50);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new RpcReconnectBackoff(100, 99, 50);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new RpcReconnectBackoff(100, 1000, 101);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void test_delay() throws Throwable {
+        RpcReconnectBackoff backoff = new RpcReconnectBackoff(100, 1000, 0);
+        assertEquals(100, backoff.delayOf(1));
+        assertEquals(200, backoff.delayOf(2));
+        assertEquals(800, backoff.delayOf(4));
+        assertEquals(1000, backoff.delayOf(5));
+        assertEquals(1000, backoff.delayOf(Integer.MAX_VALUE));
+
+        // the jitter spreads the delays of the same attempt
+        backoff = new RpcReconnectBackoff(1000, 1000, 50);
+        long min = Long.MAX_VALUE, max = 0;
+        for (int i = 0; i < 1000; i++) {
+            long delay = backoff.delayOf(3);
+            assertTrue(delay > 500 && delay <= 1000);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue(max - min > 250);
+    }
+
+    public void test_schedule() throws Throwable {
+        RpcReconnectBackoff backoff = new RpcReconnectBackoff(100, 1000, 0);
+        RpcAddress server = new RpcSocketAddress("localhost", 9010);
+        assertTrue(backoff.isDue(server, 0));
+        assertEquals(500, backoff.getNextDelay(0, 500));
+
+        assertEquals(100, backoff.onFailure(server, 0));
+        assertEquals(200, backoff.onFailure(server, 0));
+        assertEquals(2, backoff.getAttempts(server));
+        assertFalse(backoff.isDue(server, 199));
+        assertTrue(backoff.isDue(server, 200));
+        assertEquals(150, backoff.getNextDelay(50, 500));
+        assertEquals(0, backoff.getNextDelay(300, 500));
+
+        backoff.onSuccess(server);
+        assertEquals(0, backoff.getAttempts(server));
+        assertTrue(backoff.isDue(server, 0));
+        assertEquals(100, backoff.onFailure(server, 0));
+    }
+}
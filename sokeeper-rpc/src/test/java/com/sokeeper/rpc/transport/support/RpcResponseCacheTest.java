@@ -0,0 +1,129 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.transport.support;
+
+import java.net.InetSocketAddress;
+
+import junit.framework.TestCase;
+
+import com.sokeeper.rpc.message.RpcIdempotentRequest;
+import com.sokeeper.rpc.message.RpcResponse;
+
+/**
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcResponseCacheTest extends TestCase {
+
+    public void test_constructor() throws Throwable {
+        try {
+            new RpcResponseCache(-1, 1000);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new RpcResponseCache(10, 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void test_admit_complete() throws Throwable {
+        RpcResponseCache cache = new RpcResponseCache(10, 60000);
+        MockIoSession session = new MockIoSession();
+        RpcIdempotentRequest first = new RpcIdempotentRequest("service", new Object[0], "key");
+        assertTrue(cache.admit(session, first));
+        // the retry arrived while the first one running waits for its result
+        RpcIdempotentRequest retry = new RpcIdempotentRequest("service", new Object[0], "key");
+        assertFalse(cache.admit(session, retry));
+        assertNull(session.getWritedMessage());
+        cache.complete(session, "key", "result");
+        RpcResponse response = (RpcResponse) session.getWritedMessage();
+        assertEquals(retry.getId(), response.getId());
+        assertEquals("result", response.getResult());
+        // the later retry is answered at once
+        retry = new RpcIdempotentRequest("service", new Object[0], "key");
+        assertFalse(cache.admit(session, retry));
+        response = (RpcResponse) session.getWritedMessage();
+        assertEquals(retry.getId(), response.getId());
+        assertEquals("result", response.getResult());
+        assertEquals(2, cache.getDuplicates());
+        assertEquals(1, cache.size());
+        // completed only once
+        cache.complete(session, "key", "again");
+        assertFalse(cache.admit(session, retry));
+        assertEquals("result", ((RpcResponse) session.getWritedMessage()).getResult());
+    }
+
+    public void test_abandon() throws Throwable {
+        RpcResponseCache cache = new RpcResponseCache(10, 60000);
+        MockIoSession session = new MockIoSession();
+        assertTrue(cache.admit(session, new RpcIdempotentRequest("service", new Object[0], "key")));
+        cache.abandon(session, "key");
+        assertEquals(0, cache.size());
+        assertTrue(cache.admit(session, new RpcIdempotentRequest("service", new Object[0], "key")));
+        // the finished one is kept
+        cache.complete(session, "key", "result");
+        cache.abandon(session, "key");
+        assertEquals(1, cache.size());
+    }
+
+    public void test_bounded_and_sweep() throws Throwable {
+        RpcResponseCache cache = new RpcResponseCache(2, 100);
+        MockIoSession session = new MockIoSession();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(cache.admit(session, new RpcIdempotentRequest("service", new Object[0],
+                    "key" + i)));
+            cache.complete(session, "key" + i, i);
+        }
+        assertEquals(2, cache.size());
+        // the eldest is dropped
+        assertTrue(cache.admit(session, new RpcIdempotentRequest("service", new Object[0],
+                "key0")));
+        assertEquals(0, cache.sweep(System.currentTimeMillis()));
+        // the running one is never swept
+        assertEquals(1, cache.sweep(System.currentTimeMillis() + 100));
+        assertEquals(1, cache.size());
+
+        cache = new RpcResponseCache(0, 100);
+        assertTrue(cache.admit(session, new RpcIdempotentRequest("service", new Object[0], "key")));
+        assertTrue(cache.admit(session, new RpcIdempotentRequest("service", new Object[0], "key")));
+        assertEquals(0, cache.size());
+    }
+
+    public void test_scoped_by_caller() throws Throwable {
+        RpcResponseCache cache = new RpcResponseCache(10, 60000);
+        MockIoSession session = new MockIoSession();
+        session.setRemoteAddress(new InetSocketAddress("localhost", 8010));
+        MockIoSession other = new MockIoSession();
+        other.setRemoteAddress(new InetSocketAddress("localhost", 8011));
+        assertTrue(cache.admit(session, new RpcIdempotentRequest("service", new Object[0],
+                "order-42")));
+        cache.complete(session, "order-42", "mine");
+        // the other caller giving the same key is executed
+        assertTrue(cache.admit(other, new RpcIdempotentRequest("service", new Object[0],
+                "order-42")));
+        assertNull(other.getWritedMessage());
+        cache.complete(other, "order-42", "its");
+        assertEquals(2, cache.size());
+        assertFalse(cache.admit(session, new RpcIdempotentRequest("service", new Object[0],
+                "order-42")));
+        assertEquals("mine", ((RpcResponse) session.getWritedMessage()).getResult());
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.transport.support;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcSerialExecutorTest extends TestCase {
+
+    public void test_ordered_per_session() throws Throwable {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            final int sessions = 8;
+            final int tasksPerSession = 500;
+            RpcSerialExecutor[] serials = new RpcSerialExecutor[sessions];
+            final List<List<Integer>> processed = new ArrayList<List<Integer>>();
+            final AtomicInteger[] running = new AtomicInteger[sessions];
+            final AtomicInteger overlapped = new AtomicInteger();
+            final CountDownLatch finished = new CountDownLatch(sessions * tasksPerSession);
+            for (int i = 0; i < sessions; i++) {
+                serials[i] = new RpcSerialExecutor();
+                processed.add(new ArrayList<Integer>());
+                running[i] = new AtomicInteger();
+            }
+            for (int task = 0; task < tasksPerSession; task++) {
+                for (int i = 0; i < sessions; i++) {
+                    final int session = i;
+                    final int value = task;
+                    serials[i].execute(new Runnable() {
+                        public void run() {
+                            if (running[session].incrementAndGet() > 1) {
+                                overlapped.incrementAndGet();
+                            }
+                            // guarded by the serial execution only
+                            processed.get(session).add(value);
+                            running[session].decrementAndGet();
+                            finished.countDown();
+                        }
+                    }, pool);
+                }
+            }
+            assertTrue(finished.await(10, TimeUnit.SECONDS));
+            assertEquals(0, overlapped.get());
+            for (int i = 0; i < sessions; i++) {
+                assertEquals(tasksPerSession, processed.get(i).size());
+                for (int task = 0; task < tasksPerSession; task++) {
+                    assertEquals(task, processed.get(i).get(task).intValue());
+                }
+                assertEquals(0, serials[i].size());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void test_max_queued() throws Throwable {
+        final List<Runnable> started = new ArrayList<Runnable>();
+        Executor manual = new Executor() {
+            public void execute(Runnable command) {
+                started.add(command);
+            }
+        };
+        final List<Integer> processed = Collections.synchronizedList(new ArrayList<Integer>());
+        RpcSerialExecutor serial = new RpcSerialExecutor();
+        for (int i = 0; i < 2; i++) {
+            final int value = i;
+            serial.execute(new Runnable() {
+                public void run() {
+                    processed.add(value);
+                }
+            }, manual, 2);
+        }
+        // the second task joined the queue instead of starting another thread
+        assertEquals(1, started.size());
+        assertTrue(serial.isRunning());
+        try {
+            serial.execute(new Runnable() {
+                public void run() {
+                }
+            }, manual, 2);
+            fail();
+        } catch (RejectedExecutionException e) {
+        }
+        started.get(0).run();
+        assertEquals(2, processed.size());
+        assertFalse(serial.isRunning());
+        assertEquals(0, serial.size());
+    }
+
+    public void test_batch_and_rejected() throws Throwable {
+        final List<Runnable> started = new ArrayList<Runnable>();
+        Executor manual = new Executor() {
+            public void execute(Runnable command) {
+                started.add(command);
+            }
+        };
+        final AtomicInteger processed = new AtomicInteger();
+        Runnable task = new Runnable() {
+            public void run() {
+                processed.incrementAndGet();
+            }
+        };
+        RpcSerialExecutor serial = new RpcSerialExecutor();
+        for (int i = 0; i < RpcSerialExecutor.BATCH_SIZE + 1; i++) {
+            serial.execute(task, manual);
+        }
+        // the thread is given back after one batch
+        started.remove(0).run();
+        assertEquals(RpcSerialExecutor.BATCH_SIZE, processed.get());
+        assertEquals(1, started.size());
+        started.remove(0).run();
+        assertEquals(RpcSerialExecutor.BATCH_SIZE + 1, processed.get());
+
+        // the rejected task is not queued, the later ones still run
+        Executor rejecting = new Executor() {
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        };
+        try {
+            serial.execute(task, rejecting);
+            fail();
+        } catch (RejectedExecutionException e) {
+        }
+        assertFalse(serial.isRunning());
+        assertEquals(0, serial.size());
+        serial.execute(task, manual);
+        started.remove(0).run();
+        assertEquals(RpcSerialExecutor.BATCH_SIZE + 2, processed.get());
+    }
+
+    public void test_each_task_runs_on_its_pool() throws Throwable {
+        final List<Runnable> events = new ArrayList<Runnable>();
+        final List<Runnable> requests = new ArrayList<Runnable>();
+        Executor eventPool = new Executor() {
+            public void execute(Runnable command) {
+                events.add(command);
+            }
+        };
+        Executor requestPool = new Executor() {
+            public void execute(Runnable command) {
+                requests.add(command);
+            }
+        };
+        final List<String> processed = new ArrayList<String>();
+        RpcSerialExecutor serial = new RpcSerialExecutor();
+        serial.execute(record(processed, "event"), eventPool);
+        serial.execute(record(processed, "request"), requestPool);
+        serial.execute(record(processed, "event2"), eventPool);
+        assertEquals(1, events.size());
+        // the event drainer hands the request over to the request pool
+        events.remove(0).run();
+        assertEquals("[event]", processed.toString());
+        assertEquals(1, requests.size());
+        requests.remove(0).run();
+        assertEquals("[event, request]", processed.toString());
+        assertEquals(1, events.size());
+        events.remove(0).run();
+        assertEquals("[event, request, event2]", processed.toString());
+        assertFalse(serial.isRunning());
+    }
+
+    public void test_leftovers_go_to_overflow() throws Throwable {
+        final List<Runnable> overflowed = new ArrayList<Runnable>();
+        Executor overflow = new Executor() {
+            public void execute(Runnable command) {
+                overflowed.add(command);
+            }
+        };
+        final List<String> processed = new ArrayList<String>();
+        final RpcSerialExecutor serial = new RpcSerialExecutor(overflow);
+        final Executor pool = new Executor() {
+            public void execute(Runnable command) {
+                // another task joins the queue before the pool rejects
+                serial.execute(record(processed, "left"), this);
+                throw new RejectedExecutionException();
+            }
+        };
+        try {
+            serial.execute(record(processed, "rejected"), pool);
+            fail();
+        } catch (RejectedExecutionException e) {
+        }
+        // the leftover never runs on the caller's thread
+        assertEquals(0, processed.size());
+        assertTrue(serial.isRunning());
+        assertEquals(1, overflowed.size());
+        overflowed.remove(0).run();
+        assertEquals("[left]", processed.toString());
+        assertFalse(serial.isRunning());
+
+        // without an overflow executor the leftover waits for the next task
+        final RpcSerialExecutor waiting = new RpcSerialExecutor();
+        final List<Runnable> started = new ArrayList<Runnable>();
+        final Executor manual = new Executor() {
+            public void execute(Runnable command) {
+                started.add(command);
+            }
+        };
+        Executor rejecting = new Executor() {
+            public void execute(Runnable command) {
+                waiting.execute(record(processed, "waiting"), manual);
+                throw new RejectedExecutionException();
+            }
+        };
+        try {
+            waiting.execute(record(processed, "rejected"), rejecting);
+            fail();
+        } catch (RejectedExecutionException e) {
+        }
+        assertFalse(waiting.isRunning());
+        assertEquals(1, waiting.size());
+        waiting.execute(record(processed, "next"), manual);
+        started.remove(0).run();
+        assertEquals("[left, waiting, next]", processed.toString());
+    }
+
+    private Runnable record(final List<String> processed, final String name) {
+        return new Runnable() {
+            public void run() {
+                processed.add(name);
+            }
+        };
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.rpc.transport.support;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.sokeeper.util.RpcSocketAddress;
+
+/**
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class RpcSessionRegistryTest extends TestCase {
+
+    private MockIoSession newSession(int port) {
+        MockIoSession session = new MockIoSession();
+        session.setRemoteAddress(new InetSocketAddress("localhost", port));
+        return session;
+    }
+
+    public void test_add_remove() throws Throwable {
+        RpcSessionRegistry registry = new RpcSessionRegistry();
+        MockIoSession session1 = newSession(9001);
+        MockIoSession session2 = newSession(9002);
+        registry.add(session1);
+        registry.add(session2);
+        assertEquals(2, registry.size());
+        // looked up by the rpc address as well
+        assertSame(session1, registry.get(new RpcSocketAddress("localhost", 9001)));
+        assertNull(registry.get(new InetSocketAddress("localhost", 9003)));
+        try {
+            registry.getSessions().clear();
+            fail();
+        } catch (UnsupportedOperationException e) {
+        }
+
+        assertTrue(registry.remove(session1));
+        assertFalse(registry.remove(session1));
+        assertNull(registry.get(session1.getRemoteAddress()));
+        assertEquals(1, registry.size());
+
+        // the replaced session closed later does not remove the new one
+        MockIoSession reconnected = newSession(9002);
+        registry.add(reconnected);
+        registry.remove(session2);
+        assertSame(reconnected, registry.get(reconnected.getRemoteAddress()));
+    }
+
+    public void test_groups() throws Throwable {
+        RpcSessionRegistry registry = new RpcSessionRegistry();
+        MockIoSession session1 = newSession(9001);
+        MockIoSession session2 = newSession(9002);
+        registry.add(session1);
+        registry.add(session2);
+        registry.joinGroups(session1, Arrays.asList("a", "b"));
+        registry.joinGroups(session2, Arrays.asList("b"));
+        assertEquals(1, registry.getGroup("a").size());
+        assertEquals(2, registry.getGroup("b").size());
+        assertTrue(registry.isInGroup(session1, "a"));
+        assertFalse(registry.isInGroup(session2, "a"));
+        assertEquals(0, registry.getGroup("c").size());
+        assertEquals(0, registry.getGroup(null).size());
+
+        // the closed session leaves its groups
+        registry.remove(session1);
+        assertEquals(0, registry.getGroup("a").size());
+        assertEquals(1, registry.getGroup("b").size());
+        // the not registered session can not join in
+        registry.joinGroups(session1, Arrays.asList("a"));
+        assertEquals(0, registry.getGroup("a").size());
+
+        registry.clear();
+        assertEquals(0, registry.size());
+        assertEquals(0, registry.getGroup("b").size());
+    }
+}
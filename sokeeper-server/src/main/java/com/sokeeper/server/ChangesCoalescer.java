@@ -0,0 +1,264 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.sokeeper.domain.AssociationChangesEvent;
+import com.sokeeper.domain.ChangesEvent;
+import com.sokeeper.domain.PersistedConfiguration;
+import com.sokeeper.domain.ResourceChanges;
+import com.sokeeper.domain.ResourceChangesEvent;
+import com.sokeeper.util.Assert;
+
+/**
+ * Hold the changes of the resource types having a coalescing window, the
+ * changes of the same resource or association held by one client collapse into
+ * one carrying the latest sequence. The client ignores the changes older than
+ * the ones it received, so the held changes of a client go out together with
+ * its changes not held.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class ChangesCoalescer {
+    final static private Comparator<ChangesEvent>        BY_SEQUENCE = new SequenceComparator();
+    final private PersistedConfiguration                 configuration;
+    final private Map<String, Map<Object, ChangesEvent>> held        = new HashMap<String, Map<Object, ChangesEvent>>();
+    final private Map<String, Long>                      deadlines   = new HashMap<String, Long>();
+    private long                                         coalesced;
+
+    /**
+     * @param configuration: gives the coalescing window of each resource type,
+     *            can not be null.
+     */
+    public ChangesCoalescer(PersistedConfiguration configuration) {
+        Assert.notNull(configuration, "configuration can not be null.");
+        this.configuration = configuration;
+    }
+
+    /**
+     * @param changes: the client address mapped to its changes, can not be
+     *            null.
+     * @param now: the current time in milliseconds.
+     * @return: the client address mapped to the changes should be notified at
+     *          once.
+     */
+    public synchronized Map<String, Collection<ChangesEvent>> offer(Map<String, Collection<ChangesEvent>> changes,
+                                                                    long now) {
+        Assert.notNull(changes, "changes can not be null.");
+        Map<String, Collection<ChangesEvent>> toNotify = new HashMap<String, Collection<ChangesEvent>>();
+        for (Map.Entry<String, Collection<ChangesEvent>> pair : changes.entrySet()) {
+            String client = pair.getKey();
+            List<ChangesEvent> events = new ArrayList<ChangesEvent>(pair.getValue());
+            Collections.sort(events, BY_SEQUENCE);
+            Collection<ChangesEvent> immediate = new ArrayList<ChangesEvent>();
+            for (ChangesEvent event : events) {
+                long window = windowOf(event);
+                if (window > 0) {
+                    hold(client, event, now + window);
+                } else {
+                    immediate.add(event);
+                }
+            }
+            if (immediate.size() > 0) {
+                immediate.addAll(release(client));
+                toNotify.put(client, immediate);
+            }
+        }
+        return toNotify;
+    }
+
+    /**
+     * @return: the client address mapped to the held changes whose window
+     *          elapsed.
+     */
+    public synchronized Map<String, Collection<ChangesEvent>> flush(long now) {
+        Map<String, Collection<ChangesEvent>> toNotify = new HashMap<String, Collection<ChangesEvent>>();
+        Collection<String> due = new ArrayList<String>();
+        for (Map.Entry<String, Long> pair : deadlines.entrySet()) {
+            if (pair.getValue() <= now) {
+                due.add(pair.getKey());
+            }
+        }
+        for (String client : due) {
+            Collection<ChangesEvent> changes = release(client);
+            if (changes.size() > 0) {
+                toNotify.put(client, changes);
+            }
+        }
+        return toNotify;
+    }
+
+    /**
+     * @return: the earliest time the held changes should be flushed, -1 when
+     *          nothing held.
+     */
+    public synchronized long getNextDeadline() {
+        long next = -1;
+        for (Long deadline : deadlines.values()) {
+            if (next < 0 || deadline < next) {
+                next = deadline;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * @return: the number of the changes held.
+     */
+    public synchronized int getHeldChanges() {
+        int size = 0;
+        for (Map<Object, ChangesEvent> changes : held.values()) {
+            size += changes.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return: the number of the changes saved by the coalescing.
+     */
+    public synchronized long getCoalescedChanges() {
+        return coalesced;
+    }
+
+    /**
+     * the window of an association is the larger one of its two sides.
+     */
+    private long windowOf(ChangesEvent event) {
+        if (event instanceof AssociationChangesEvent) {
+            AssociationChangesEvent association = (AssociationChangesEvent) event;
+            return Math.max(configuration.getMillisOfCoalescingWindow(association.getLeftType()),
+                    configuration.getMillisOfCoalescingWindow(association.getRightType()));
+        }
+        return configuration.getMillisOfCoalescingWindow(((ResourceChangesEvent) event)
+                .getResourceType());
+    }
+
+    private void hold(String client, ChangesEvent event, long deadline) {
+        Map<Object, ChangesEvent> changes = held.get(client);
+        if (changes == null) {
+            changes = new LinkedHashMap<Object, ChangesEvent>();
+            held.put(client, changes);
+        }
+        Object key = keyOf(event);
+        ChangesEvent previous = changes.remove(key);
+        if (previous != null) {
+            event = merge(previous, event);
+            coalesced++;
+        }
+        changes.put(key, event);
+        // the window starts from the first held changes, the hot resources are
+        // still notified once each window
+        Long current = deadlines.get(client);
+        if (current == null || deadline < current) {
+            deadlines.put(client, deadline);
+        }
+    }
+
+    private Collection<ChangesEvent> release(String client) {
+        deadlines.remove(client);
+        Map<Object, ChangesEvent> changes = held.remove(client);
+        return changes == null ? new ArrayList<ChangesEvent>() : changes.values();
+    }
+
+    /**
+     * @return: the resource key of the resource changes, the left and right
+     *          keys of the association changes.
+     */
+    static Object keyOf(ChangesEvent change) {
+        if (change instanceof AssociationChangesEvent) {
+            AssociationChangesEvent event = (AssociationChangesEvent) change;
+            return Arrays.asList(event.getLeftKey(), event.getRightKey());
+        }
+        return ((ResourceChangesEvent) change).getResourceKey();
+    }
+
+    /**
+     * collapse two changes of the same resource or association into one
+     * carrying the latest sequence: removed then created is an update,
+     * created then updated is still a creation, otherwise the latest changes
+     * win, so created then removed is told as removed and the client drops
+     * what it cached in the meantime.
+     *
+     * @return: the collapsed changes.
+     */
+    static ChangesEvent merge(ChangesEvent previous, ChangesEvent later) {
+        if (previous.getSequence() > later.getSequence()) {
+            ChangesEvent swap = previous;
+            previous = later;
+            later = swap;
+        }
+        if (ResourceChanges.CHANGES_CREATED.equals(previous.getChanges()) && !isRemoved(later)) {
+            return copyOf(later, ResourceChanges.CHANGES_CREATED);
+        }
+        if (isRemoved(previous) && ResourceChanges.CHANGES_CREATED.equals(later.getChanges())) {
+            return copyOf(later, ResourceChanges.CHANGES_UPDATED);
+        }
+        return later;
+    }
+
+    private static boolean isRemoved(ChangesEvent change) {
+        return ResourceChanges.CHANGES_DELETED.equals(change.getChanges())
+                || ResourceChanges.OWNER_DIED.equals(change.getChanges());
+    }
+
+    /**
+     * the changes are shared by the subscribers, never modify them in place.
+     */
+    private static ChangesEvent copyOf(ChangesEvent change, String changes) {
+        if (changes.equals(change.getChanges())) {
+            return change;
+        }
+        ChangesEvent copy;
+        if (change instanceof AssociationChangesEvent) {
+            AssociationChangesEvent event = (AssociationChangesEvent) change;
+            AssociationChangesEvent association = new AssociationChangesEvent();
+            association.setLeftType(event.getLeftType());
+            association.setLeftId(event.getLeftId());
+            association.setRightType(event.getRightType());
+            association.setRightId(event.getRightId());
+            copy = association;
+        } else {
+            ResourceChangesEvent event = (ResourceChangesEvent) change;
+            ResourceChangesEvent resource = new ResourceChangesEvent();
+            resource.setResourceType(event.getResourceType());
+            resource.setResourceId(event.getResourceId());
+            copy = resource;
+        }
+        copy.setSubscriber(change.getSubscriber());
+        copy.setSequence(change.getSequence());
+        copy.setChanges(changes);
+        return copy;
+    }
+
+    private static class SequenceComparator implements Comparator<ChangesEvent> {
+        public int compare(ChangesEvent o1, ChangesEvent o2) {
+            return o1.getSequence().compareTo(o2.getSequence());
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sokeeper.domain.ChangesEvent;
+import com.sokeeper.domain.PersistedConfiguration;
+import com.sokeeper.handler.ResourceChangesHandler;
+import com.sokeeper.util.Assert;
+import com.sokeeper.util.RpcAddress;
+
+/**
+ * The bounded changes waiting for one client, drained by one sender at a time
+ * in the order they offered, so a slow client only delays itself.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class ClientNotificationQueue {
+    final protected Logger     logger    = LoggerFactory.getLogger(getClass());
+    final private RpcAddress   client;
+    final private int          capacity;
+    final private int          overflow;
+    private List<ChangesEvent> pending   = new ArrayList<ChangesEvent>();
+    private long               pendingSince;
+    private long               sendingSince;
+    private boolean            sending;
+    private Long               resyncFrom;
+    private long               delivered = -1;
+    private long               coalesced;
+    private long               dropped;
+
+    /**
+     * @param client: can not be null.
+     * @param capacity: should > 0.
+     * @param overflow: {@link PersistedConfiguration#OVERFLOW_COALESCE} or
+     *            {@link PersistedConfiguration#OVERFLOW_RESYNC}.
+     */
+    public ClientNotificationQueue(RpcAddress client, int capacity, int overflow) {
+        Assert.notNull(client, "client can not be null.");
+        Assert.isTrue(capacity > 0, "capacity should > 0.");
+        this.client = client;
+        this.capacity = capacity;
+        this.overflow = overflow;
+    }
+
+    /**
+     * @return: true when the caller should start a sender to drain the queue,
+     *          false when a sender is draining it already.
+     */
+    public synchronized boolean offer(Collection<? extends ChangesEvent> changes) {
+        if (changes.size() > 0) {
+            if (pending.isEmpty()) {
+                pendingSince = System.currentTimeMillis();
+            }
+            pending.addAll(changes);
+            if (pending.size() > capacity && overflow == PersistedConfiguration.OVERFLOW_COALESCE) {
+                coalesce();
+            }
+            if (pending.size() > capacity) {
+                drop(pending);
+                pending = new ArrayList<ChangesEvent>();
+            }
+        }
+        if (sending || (pending.isEmpty() && resyncFrom == null)) {
+            return false;
+        }
+        sending = true;
+        return true;
+    }
+
+    /**
+     * send the pending changes until none left, the changes failed to be sent
+     * are dropped and the client is told to recover them.
+     *
+     * @param notifier: the proxy notifies the clients given by its first
+     *            argument's keys.
+     */
+    public void drain(ResourceChangesHandler notifier) {
+        while (true) {
+            Long from;
+            List<ChangesEvent> changes;
+            synchronized (this) {
+                from = resyncFrom;
+                changes = pending;
+                if (from == null && changes.isEmpty()) {
+                    sending = false;
+                    return;
+                }
+                sendingSince = from != null ? System.currentTimeMillis() : pendingSince;
+                resyncFrom = null;
+                pending = new ArrayList<ChangesEvent>();
+            }
+            try {
+                if (from != null) {
+                    notifier.onChangesDropped(Collections.singletonMap(client, from));
+                }
+                if (changes.size() > 0) {
+                    notifier.onResourcesChanged(Collections.singletonMap(client,
+                            (Collection<ChangesEvent>) changes));
+                    synchronized (this) {
+                        delivered = Math.max(delivered, maxSequence(changes));
+                    }
+                }
+            } catch (Throwable e) {
+                logger.error("notify changes to " + client + " failed, it will be resynced:", e);
+                synchronized (this) {
+                    if (from != null) {
+                        resyncFrom = resyncFrom == null ? from : Math.min(from, resyncFrom);
+                    }
+                    drop(changes);
+                    // retried by the next offer instead of spinning on the broken client
+                    sending = false;
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * keep the latest changes of each resource or association, in the order
+     * of their latest changes.
+     */
+    private void coalesce() {
+        Map<Object, ChangesEvent> latest = new LinkedHashMap<Object, ChangesEvent>();
+        for (ChangesEvent change : pending) {
+            Object key = ChangesCoalescer.keyOf(change);
+            ChangesEvent previous = latest.remove(key);
+            if (previous != null && previous.getSequence() > change.getSequence()) {
+                change = previous;
+            }
+            latest.put(key, change);
+        }
+        coalesced += pending.size() - latest.size();
+        pending = new ArrayList<ChangesEvent>(latest.values());
+    }
+
+    private void drop(Collection<ChangesEvent> changes) {
+        if (changes.size() > 0) {
+            long from = minSequence(changes) - 1;
+            resyncFrom = resyncFrom == null ? from : Math.min(from, resyncFrom);
+            dropped += changes.size();
+        }
+    }
+
+    private static long maxSequence(Collection<ChangesEvent> changes) {
+        long max = -1;
+        for (ChangesEvent change : changes) {
+            max = Math.max(max, change.getSequence());
+        }
+        return max;
+    }
+
+    private static long minSequence(Collection<ChangesEvent> changes) {
+        long min = Long.MAX_VALUE;
+        for (ChangesEvent change : changes) {
+            min = Math.min(min, change.getSequence());
+        }
+        return min;
+    }
+
+    public RpcAddress getClient() {
+        return client;
+    }
+
+    /**
+     * @return: the number of the changes waiting for the sender.
+     */
+    public synchronized int getPendings() {
+        return pending.size();
+    }
+
+    /**
+     * @return: how long the oldest changes not delivered yet have waited, 0
+     *          when all delivered.
+     */
+    public synchronized long getLagInMs() {
+        long since = sending ? sendingSince : (pending.isEmpty() ? 0 : pendingSince);
+        return since == 0 ? 0 : Math.max(0, System.currentTimeMillis() - since);
+    }
+
+    /**
+     * @return: the sequence of the latest changes delivered, -1 when none.
+     */
+    public synchronized long getDelivered() {
+        return delivered;
+    }
+
+    public synchronized long getCoalesced() {
+        return coalesced;
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return: true when the client is going to be told to recover the
+     *          dropped changes.
+     */
+    public synchronized boolean isResyncPending() {
+        return resyncFrom != null;
+    }
+}
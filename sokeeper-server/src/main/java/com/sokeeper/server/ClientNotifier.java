@@ -0,0 +1,252 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.server;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sokeeper.domain.ChangesEvent;
+import com.sokeeper.domain.PersistedConfiguration;
+import com.sokeeper.handler.ResourceChangesHandler;
+import com.sokeeper.rpc.service.RpcServiceBuilder;
+import com.sokeeper.rpc.transport.RpcConnection;
+import com.sokeeper.rpc.transport.RpcIoHandler;
+import com.sokeeper.rpc.transport.RpcIoListener;
+import com.sokeeper.util.Assert;
+import com.sokeeper.util.NamedThreadFactory;
+import com.sokeeper.util.RpcAddress;
+
+/**
+ * Notify the changes to each client through its own bounded queue and sender,
+ * a slow or half dead client only delays itself instead of the dispatcher and
+ * the other clients.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class ClientNotifier implements RpcIoListener, NotificationMetrics {
+    final static public String                                    DOMAIN           = "com.sokeeper.server";
+    final protected Logger                                        logger           = LoggerFactory
+                                                                                           .getLogger(getClass());
+    final private ConcurrentMap<String, ClientNotificationQueue> queues           = new ConcurrentHashMap<String, ClientNotificationQueue>();
+    final private AtomicLong                                      closedCoalesced  = new AtomicLong();
+    final private AtomicLong                                      closedDropped    = new AtomicLong();
+    private RpcIoHandler                                          notifierIoHandler;
+    private RpcServiceBuilder                                     serviceBuilder;
+    private int                                                   capacity         = 10000;
+    private int                                                   overflow         = PersistedConfiguration.OVERFLOW_COALESCE;
+    private ResourceChangesHandler                                toClientsNotifier;
+    private ExecutorService                                       senders;
+    private ObjectName                                            objectName;
+
+    public synchronized void startup() {
+        Assert.notNull(notifierIoHandler, "notifierIoHandler can not be null.");
+        Assert.notNull(serviceBuilder, "serviceBuilder can not be null.");
+        if (senders == null) {
+            toClientsNotifier = serviceBuilder.buildRemoteServiceProxy(
+                    ResourceChangesHandler.class, null, null, notifierIoHandler, true);
+            senders = Executors.newCachedThreadPool(new NamedThreadFactory(notifierIoHandler
+                    .getConfiguration().getMainAddress().getFullAddress()
+                    + "-notifier-", true));
+            notifierIoHandler.registerIoListener(this);
+            register();
+        }
+    }
+
+    public synchronized void shutdown() {
+        if (senders != null) {
+            notifierIoHandler.unregisterIoListener(this);
+            senders.shutdownNow();
+            senders = null;
+            queues.clear();
+            unregister();
+        }
+    }
+
+    /**
+     * queue the changes of each client and start its sender when it's idle.
+     *
+     * @param changes: the client address mapped to its changes.
+     */
+    public void notify(Map<RpcAddress, Collection<ChangesEvent>> changes) {
+        Assert.notNull(changes, "changes can not be null.");
+        ExecutorService executor = senders;
+        Assert.state(executor != null, "the notifier is not started.");
+        for (Map.Entry<RpcAddress, Collection<ChangesEvent>> pair : changes.entrySet()) {
+            final ClientNotificationQueue queue = getOrCreate(pair.getKey());
+            if (queue.offer(pair.getValue())) {
+                executor.execute(new Runnable() {
+                    public void run() {
+                        queue.drain(toClientsNotifier);
+                    }
+                });
+            }
+        }
+    }
+
+    private ClientNotificationQueue getOrCreate(RpcAddress client) {
+        String address = client.getFullAddress();
+        ClientNotificationQueue queue = queues.get(address);
+        if (queue == null) {
+            ClientNotificationQueue existing = queues.putIfAbsent(address,
+                    queue = new ClientNotificationQueue(client, capacity, overflow));
+            queue = existing == null ? queue : existing;
+        }
+        return queue;
+    }
+
+    /**
+     * @return: the queue of the client, null when nothing notified to it yet.
+     */
+    public ClientNotificationQueue getQueue(String clientAddress) {
+        return queues.get(clientAddress);
+    }
+
+    /**
+     * the client recovers its changes when it reconnected, its queue is
+     * useless.
+     */
+    public void onConnectionClosed(RpcConnection connection, RpcIoHandler ioHandler) {
+        ClientNotificationQueue queue = queues.remove(connection.getRemoteAddress()
+                .getFullAddress());
+        if (queue != null) {
+            closedCoalesced.addAndGet(queue.getCoalesced());
+            closedDropped.addAndGet(queue.getDropped());
+        }
+    }
+
+    public void onConnectionCreated(RpcConnection connection, RpcIoHandler ioHandler) {
+    }
+
+    public int getClients() {
+        return queues.size();
+    }
+
+    public int getPendingChanges() {
+        int pendings = 0;
+        for (ClientNotificationQueue queue : queues.values()) {
+            pendings += queue.getPendings();
+        }
+        return pendings;
+    }
+
+    public long getMaxLagInMs() {
+        long max = 0;
+        for (ClientNotificationQueue queue : queues.values()) {
+            max = Math.max(max, queue.getLagInMs());
+        }
+        return max;
+    }
+
+    public Map<String, Long> getLagsInMs() {
+        Map<String, Long> lags = new HashMap<String, Long>();
+        for (Map.Entry<String, ClientNotificationQueue> pair : queues.entrySet()) {
+            lags.put(pair.getKey(), pair.getValue().getLagInMs());
+        }
+        return lags;
+    }
+
+    public long getCoalescedChanges() {
+        long coalesced = closedCoalesced.get();
+        for (ClientNotificationQueue queue : queues.values()) {
+            coalesced += queue.getCoalesced();
+        }
+        return coalesced;
+    }
+
+    public long getDroppedChanges() {
+        long dropped = closedDropped.get();
+        for (ClientNotificationQueue queue : queues.values()) {
+            dropped += queue.getDropped();
+        }
+        return dropped;
+    }
+
+    /**
+     * register to the platform MBean server, the failure is only logged.
+     */
+    private void register() {
+        try {
+            ObjectName name = new ObjectName(DOMAIN
+                    + ":type=ClientNotifier,address="
+                    + ObjectName.quote(notifierIoHandler.getConfiguration().getMainAddress()
+                            .toString()) + ",id="
+                    + Integer.toHexString(System.identityHashCode(this)));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    new StandardMBean(this, NotificationMetrics.class), name);
+            objectName = name;
+        } catch (Exception e) {
+            logger.warn("register_metrics_failed:", e);
+        }
+    }
+
+    private void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (Exception e) {
+            logger.warn("unregister_metrics_failed:", e);
+        }
+        objectName = null;
+    }
+
+    public void setNotifierIoHandler(RpcIoHandler notifierIoHandler) {
+        this.notifierIoHandler = notifierIoHandler;
+    }
+
+    public void setServiceBuilder(RpcServiceBuilder serviceBuilder) {
+        this.serviceBuilder = serviceBuilder;
+    }
+
+    /**
+     * @param capacity: how many changes waiting for one client before its
+     *            overflow, should > 0.
+     */
+    public void setCapacity(int capacity) {
+        Assert.isTrue(capacity > 0, "capacity should > 0.");
+        this.capacity = capacity;
+    }
+
+    /**
+     * @param overflow: refer to
+     *            {@link PersistedConfiguration#getPendingChangesOverflow()}.
+     */
+    public void setOverflow(int overflow) {
+        this.overflow = overflow;
+    }
+}
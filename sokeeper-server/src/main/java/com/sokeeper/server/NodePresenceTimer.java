@@ -54,6 +54,8 @@ public class NodePresenceTimer extends TimerTask implements RpcIoListener {
     private SubscriberService       subscriberService;
     private ChangesService          changesService;
     private Timer                   serverPresenceTimer;
+    private ResourceChangesBus      changesBus;
+    private ResourceChangesGossip   changesGossip;
 
     public synchronized void startup() {
         // 1, check parameters
@@ -172,6 +174,9 @@ public class NodePresenceTimer extends TimerTask implements RpcIoListener {
             serverIoHandler.getConfiguration().setWhiteIpList(whiteIpList);
             serverIoHandler.publishNewAddedServers(addrs);
         }
+        if (changesGossip != null) {
+            changesGossip.setPeers(servers);
+        }
     }
 
     public void onConnectionClosed(RpcConnection connection, RpcIoHandler ioHandler) {
@@ -179,7 +184,9 @@ public class NodePresenceTimer extends TimerTask implements RpcIoListener {
         String serverAddress = connection.getLocalAddress().getFullAddress();
         nodeOnlineStatusService.unregisterChildNode(clientAddress, serverAddress);
         subscriberService.removeSubscriber(clientAddress, serverAddress);
-        changesService.updateStatusToOwnerDied(clientAddress, serverAddress);
+        if (changesService.updateStatusToOwnerDied(clientAddress, serverAddress) > 0) {
+            publishChanges();
+        }
     }
 
     public void onConnectionCreated(RpcConnection connection, RpcIoHandler ioHandler) {
@@ -221,7 +228,15 @@ public class NodePresenceTimer extends TimerTask implements RpcIoListener {
                 nodeOnlineStatusService.removeNodeAndChildrenNodes(servers);
             }
             subscriberService.removeSubscribersOfServers(servers);
-            changesService.updateStatusToServerDied(servers);
+            if (changesService.updateStatusToServerDied(servers) > 0) {
+                publishChanges();
+            }
+        }
+    }
+
+    private void publishChanges() {
+        if (changesBus != null) {
+            changesBus.publish(null);
         }
     }
 
@@ -280,4 +295,16 @@ public class NodePresenceTimer extends TimerTask implements RpcIoListener {
         this.serverIoHandler = serverIoHandler;
     }
 
+    /**
+     * @param changesBus: the bus the owner died changes are published to,
+     *            could be null.
+     */
+    public void setChangesBus(ResourceChangesBus changesBus) {
+        this.changesBus = changesBus;
+    }
+
+    public void setChangesGossip(ResourceChangesGossip changesGossip) {
+        this.changesGossip = changesGossip;
+    }
+
 }
@@ -0,0 +1,62 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.server;
+
+import java.util.Map;
+
+/**
+ * The instrumentation of the per client changes notifications, it is also
+ * registered to the platform MBean server once the dispatcher started.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public interface NotificationMetrics {
+    /**
+     * @return: the clients having a notification queue.
+     */
+    public int getClients();
+
+    /**
+     * @return: the changes waiting for their senders of all the clients.
+     */
+    public int getPendingChanges();
+
+    /**
+     * @return: the lag of the slowest client.
+     */
+    public long getMaxLagInMs();
+
+    /**
+     * @return: the client address mapped to how long its oldest changes not
+     *          delivered yet have waited.
+     */
+    public Map<String, Long> getLagsInMs();
+
+    /**
+     * @return: the changes collapsed into the later ones of the same key on
+     *          overflow.
+     */
+    public long getCoalescedChanges();
+
+    /**
+     * @return: the changes dropped and left to the clients to recover.
+     */
+    public long getDroppedChanges();
+}
@@ -19,9 +19,13 @@
  */
 package com.sokeeper.server;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 
 import org.springframework.util.Assert;
@@ -53,6 +57,8 @@ public class ResourceAccessHandlerImpl implements ResourceAccessHandler {
 
     private Cache<ResourceKey, ResourceEntity> resourcesCache;
 
+    private ResourceChangesBus                 changesBus;
+
     public void setSubscriberService(SubscriberService subscriberService) {
         this.subscriberService = subscriberService;
     }
@@ -73,6 +79,20 @@ public class ResourceAccessHandlerImpl implements ResourceAccessHandler {
         this.changesService = changesService;
     }
 
+    /**
+     * @param changesBus: the bus the committed changes are published to,
+     *            could be null.
+     */
+    public void setChangesBus(ResourceChangesBus changesBus) {
+        this.changesBus = changesBus;
+    }
+
+    private void publishChanges(ResourceKey... keys) {
+        if (changesBus != null) {
+            changesBus.publish(Arrays.asList(keys));
+        }
+    }
+
     public Long getCurrentSequenceOfChanges() {
         return changesService.getCurrentSequenceOfChanges();
     }
@@ -93,8 +113,11 @@ public class ResourceAccessHandlerImpl implements ResourceAccessHandler {
         String serverAddress = connection.getLocalAddress().getFullAddress();
         subscriberService.addResourceChangesSubscriber(resourceEntity.getResourceType(),
                 resourceEntity.getResourceName(), clientAddress, serverAddress);
+        ResourceKey resourceKey = new ResourceKey(resourceEntity.getResourceType(), resourceEntity
+                .getResourceName());
         resourceEntity = resourceService.addOrUpdateResource(resourceEntity, rightResourceType,
                 rightAssociations, clientAddress, serverAddress);
+        publishChanges(resourceKey);
         return resourceEntity;
     }
 
@@ -158,6 +181,7 @@ public class ResourceAccessHandlerImpl implements ResourceAccessHandler {
         String serverAddress = connection.getLocalAddress().getFullAddress();
         resourceService.removeNonHistoricResourcesByNames(resourceKey.getResourceType(), Arrays
                 .asList(resourceKey.getResourceName()), clientAddress, serverAddress);
+        publishChanges(resourceKey);
     }
 
     public AssociationEntity addOrUpdateAssociation(ResourceKey leftKey, ResourceKey rightKey,
@@ -170,14 +194,17 @@ public class ResourceAccessHandlerImpl implements ResourceAccessHandler {
         RpcConnection connection = RpcConnection.getCurrentRpcConnection();
         String clientAddress = connection.getRemoteAddress().getFullAddress();
         String serverAddress = connection.getLocalAddress().getFullAddress();
-        return resourceService.addOrUpdateAssociation(leftKey, rightKey, attributes, clientAddress,
-                serverAddress);
+        AssociationEntity association = resourceService.addOrUpdateAssociation(leftKey,
+                rightKey, attributes, clientAddress, serverAddress);
+        publishChanges(leftKey, rightKey);
+        return association;
     }
 
     public void removeAssociation(ResourceKey leftKey, ResourceKey rightKey) throws RpcException {
         ResourceKey.validate(leftKey);
         ResourceKey.validate(rightKey);
         resourceService.removeAssociation(leftKey, rightKey);
+        publishChanges(leftKey, rightKey);
     }
 
     public AssociationEntity getAssociationEntity(ResourceKey leftKey, ResourceKey rightKey)
@@ -194,7 +221,7 @@ public class ResourceAccessHandlerImpl implements ResourceAccessHandler {
         String serverAddress = connection.getLocalAddress().getFullAddress();
         Long sequenceFrom = sequenceGot + 1;
         Long sequenceTo = getCurrentSequenceOfChanges();
-        Collection<ChangesEvent> changes = new HashSet<ChangesEvent>();
+        List<ChangesEvent> changes = new ArrayList<ChangesEvent>();
         if (sequenceFrom <= sequenceTo) {
             Collection<AssociationChangesEvent> associationChanges = changesService
                     .listAssociationChangesEvent(sequenceFrom, sequenceTo, clientAddress,
@@ -204,6 +231,12 @@ public class ResourceAccessHandlerImpl implements ResourceAccessHandler {
                             serverAddress);
             changes.addAll(resourceChanges);
             changes.addAll(associationChanges);
+            // the client streaming them applies the changes as they arrive
+            Collections.sort(changes, new Comparator<ChangesEvent>() {
+                public int compare(ChangesEvent change1, ChangesEvent change2) {
+                    return change1.getSequence().compareTo(change2.getSequence());
+                }
+            });
         }
         return changes;
     }
@@ -0,0 +1,71 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.server;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sokeeper.domain.resource.ResourceKey;
+import com.sokeeper.util.Assert;
+
+/**
+ * The in-process bus the changes committed through this server are published
+ * to, so the {@link ResourceChangesDispatcher} dispatches them at once instead
+ * of waiting for its next polling.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class ResourceChangesBus {
+    final protected Logger                            logger    = LoggerFactory
+                                                                        .getLogger(getClass());
+    final private Collection<ResourceChangesListener> listeners = new CopyOnWriteArrayList<ResourceChangesListener>();
+
+    public void registerListener(ResourceChangesListener listener) {
+        Assert.notNull(listener, "listener can not be null.");
+        listeners.add(listener);
+    }
+
+    public void unregisterListener(ResourceChangesListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * the listener's failure is logged, it never fails the committer.
+     *
+     * @param keys: the resources whose changes committed, could be null or
+     *            empty when unknown.
+     */
+    public void publish(Collection<ResourceKey> keys) {
+        if (keys == null) {
+            keys = Collections.emptySet();
+        }
+        for (ResourceChangesListener listener : listeners) {
+            try {
+                listener.onChangesCommitted(keys);
+            } catch (Throwable e) {
+                logger.error("publish changes of " + keys + " failed:", e);
+            }
+        }
+    }
+}
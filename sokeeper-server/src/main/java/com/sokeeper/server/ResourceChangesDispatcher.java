@@ -25,6 +25,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
@@ -37,7 +38,6 @@ import com.sokeeper.domain.PersistedConfiguration;
 import com.sokeeper.domain.ResourceChangesEvent;
 import com.sokeeper.domain.resource.ResourceEntity;
 import com.sokeeper.domain.resource.ResourceKey;
-import com.sokeeper.handler.ResourceChangesHandler;
 import com.sokeeper.persist.service.ChangesService;
 import com.sokeeper.rpc.service.RpcServiceBuilder;
 import com.sokeeper.rpc.transport.RpcIoHandler;
@@ -50,11 +50,15 @@ import com.sokeeper.util.RpcSocketAddress;
  * on demand(means when the client subscribed the changes event it will receive
  * the changes).The dispatcher will listen the receiverIoHandler's IO events,
  * when it reconnected with master server, need recover the lost resource
- * changes events during the receiverIoHandler off line time.
+ * changes events during the receiverIoHandler off line time. The changes
+ * committed through this server or told by the peers wake the dispatcher up at
+ * once, the timer only catches up the changes the gossip missed. The changes
+ * of the resource types having a coalescing window are collapsed by the
+ * {@link ChangesCoalescer} before notified.
  *
  * @author James Fu (fuyinhai@gmail.com)
  */
-public class ResourceChangesDispatcher extends TimerTask {
+public class ResourceChangesDispatcher extends TimerTask implements ResourceChangesListener {
     final protected Logger                     logger     = LoggerFactory.getLogger(getClass());
     private Timer                              watcherTimer;
     private PersistedConfiguration             persistedConfiguration;
@@ -63,21 +67,30 @@ public class ResourceChangesDispatcher extends TimerTask {
     private ChangesService                     changesService;
     private Collection<String>                 localServers;
     private AtomicLong                         rcsVisited = new AtomicLong(0);
-    private ResourceChangesHandler             toClientsNotifier;
+    private ClientNotifier                     clientNotifier;
+    private ChangesCoalescer                   changesCoalescer;
+    private long                               flushAt    = Long.MAX_VALUE;
     private Cache<ResourceKey, ResourceEntity> resourcesCache;
+    final private AtomicBoolean                wakeup     = new AtomicBoolean();
+    private SubscriptionIndex                  subscriptionIndex;
 
     public synchronized void startup() {
         Assert.notNull(serviceBuilder, "serviceBuilder can not be null.");
         Assert.notNull(notifierIoHandler, "notifierIoHandler can not be null.");
         Assert.notNull(changesService, "changesService can not be null.");
         Assert.notEmpty(localServers, "localServers can not be empty");
-        toClientsNotifier = serviceBuilder.buildRemoteServiceProxy(ResourceChangesHandler.class,
-                null, null, notifierIoHandler, true);
         if (watcherTimer == null) {
+            clientNotifier = new ClientNotifier();
+            clientNotifier.setNotifierIoHandler(notifierIoHandler);
+            clientNotifier.setServiceBuilder(serviceBuilder);
+            clientNotifier.setCapacity(persistedConfiguration.getMaxPendingChangesOfClient());
+            clientNotifier.setOverflow(persistedConfiguration.getPendingChangesOverflow());
+            clientNotifier.startup();
+            changesCoalescer = new ChangesCoalescer(persistedConfiguration);
             rcsVisited.set(changesService.getCurrentSequenceOfChanges());
             watcherTimer = new Timer(getTimerName(), true);
             watcherTimer.schedule(this, 0, persistedConfiguration
-                    .getSecondsOfResourceChangesWatcherTimer());
+                    .getSecondsOfResourceChangesWatcherTimer() * 1000L);
         }
     }
 
@@ -90,19 +103,68 @@ public class ResourceChangesDispatcher extends TimerTask {
         if (watcherTimer != null) {
             watcherTimer.cancel();
             watcherTimer = null;
+            wakeup.set(false);
+            flushAt = Long.MAX_VALUE;
+            clientNotifier.shutdown();
         }
     }
 
+    /**
+     * dispatch in the timer thread as soon as possible, the changes committed
+     * while one dispatch is waiting are dispatched by it together.
+     */
+    public synchronized void onChangesCommitted(Collection<ResourceKey> keys) {
+        if (watcherTimer != null && wakeup.compareAndSet(false, true)) {
+            watcherTimer.schedule(new TimerTask() {
+                public void run() {
+                    wakeup.set(false);
+                    ResourceChangesDispatcher.this.run();
+                }
+            }, 0);
+        }
+    }
+
+    /**
+     * @return: the notifier queues the changes of each client, null before
+     *          startup.
+     */
+    public ClientNotifier getClientNotifier() {
+        return clientNotifier;
+    }
+
+    /**
+     * @return: the coalescer holds the changes of the hot resource types, null
+     *          before startup.
+     */
+    public ChangesCoalescer getChangesCoalescer() {
+        return changesCoalescer;
+    }
+
+    /**
+     * @return: the sequence of changes dispatched already.
+     */
+    public long getVisitedSequence() {
+        return rcsVisited.get();
+    }
+
     public void run() {
         Long sequenceTo = changesService.getCurrentSequenceOfChanges();
         Long sequenceFrom = rcsVisited.get() + 1;
         if (sequenceTo >= sequenceFrom) {
             rcsVisited.set(sequenceTo);
             // 1, query changes events
-            Collection<ResourceChangesEvent> resourceChanges = changesService
-                    .listResourceChangesEvent(sequenceFrom, sequenceTo, localServers);
-            Collection<AssociationChangesEvent> associationChanges = changesService
-                    .listAssociationChangesEvent(sequenceFrom, sequenceTo, localServers);
+            Collection<ResourceChangesEvent> resourceChanges;
+            Collection<AssociationChangesEvent> associationChanges;
+            if (subscriptionIndex != null) {
+                resourceChanges = changesService.listResourceChanges(sequenceFrom, sequenceTo);
+                associationChanges = changesService.listAssociationChanges(sequenceFrom,
+                        sequenceTo);
+            } else {
+                resourceChanges = changesService.listResourceChangesEvent(sequenceFrom,
+                        sequenceTo, localServers);
+                associationChanges = changesService.listAssociationChangesEvent(sequenceFrom,
+                        sequenceTo, localServers);
+            }
             // 2, remove the cached resources
             Collection<ResourceKey> removedKeys = new HashSet<ResourceKey>();
             for (ResourceChangesEvent event : resourceChanges) {
@@ -112,32 +174,73 @@ public class ResourceChangesDispatcher extends TimerTask {
                 resourcesCache.removeElements(removedKeys.toArray(new Object[0]));
             }
             // 3, notify subscribers
-            Map<RpcAddress, Collection<ChangesEvent>> changesToClients = new HashMap<RpcAddress, Collection<ChangesEvent>>();
             Map<String, Collection<ChangesEvent>> changes = new HashMap<String, Collection<ChangesEvent>>();
             for (ResourceChangesEvent event : resourceChanges) {
-                if (!changes.containsKey(event.getSubscriber())) {
-                    changes.put(event.getSubscriber(), new HashSet<ChangesEvent>());
+                if (subscriptionIndex != null) {
+                    for (String subscriber : subscriptionIndex.getSubscribers(event
+                            .getResourceKey())) {
+                        addChanges(changes, subscriber, event);
+                    }
+                } else {
+                    addChanges(changes, event.getSubscriber(), event);
                 }
-                changes.get(event.getSubscriber()).add(event);
             }
             for (AssociationChangesEvent event : associationChanges) {
-                if (!changes.containsKey(event.getSubscriber())) {
-                    changes.put(event.getSubscriber(), new HashSet<ChangesEvent>());
+                if (subscriptionIndex != null) {
+                    Collection<String> subscribers = subscriptionIndex.getSubscribers(event
+                            .getLeftKey());
+                    subscribers.addAll(subscriptionIndex.getSubscribers(event.getRightKey()));
+                    for (String subscriber : subscribers) {
+                        addChanges(changes, subscriber, event);
+                    }
+                } else {
+                    addChanges(changes, event.getSubscriber(), event);
                 }
-                changes.get(event.getSubscriber()).add(event);
-            }
-            for (Map.Entry<String, Collection<ChangesEvent>> pair : changes.entrySet()) {
-                changesToClients.put(RpcSocketAddress.fromFullAddress(pair.getKey()), pair
-                        .getValue());
             }
-            if (changesToClients.size() > 0) {
-                try {
-                    toClientsNotifier.onResourcesChanged(changesToClients);
-                } catch (Throwable e) {
-                    logger.error("send association changes to clients failed,due to:", e);
+            // the changes of the resource types having a coalescing window are held
+            notifyClients(changesCoalescer.offer(changes, System.currentTimeMillis()));
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * flush the held changes when the earliest window elapsed, nothing to do
+     * when one flush is scheduled earlier already.
+     */
+    private synchronized void scheduleFlush() {
+        long deadline = changesCoalescer.getNextDeadline();
+        if (watcherTimer == null || deadline < 0 || deadline >= flushAt) {
+            return;
+        }
+        flushAt = deadline;
+        watcherTimer.schedule(new TimerTask() {
+            public void run() {
+                synchronized (ResourceChangesDispatcher.this) {
+                    flushAt = Long.MAX_VALUE;
                 }
+                notifyClients(changesCoalescer.flush(System.currentTimeMillis()));
+                scheduleFlush();
             }
+        }, Math.max(0, deadline - System.currentTimeMillis()));
+    }
+
+    private void notifyClients(Map<String, Collection<ChangesEvent>> changes) {
+        Map<RpcAddress, Collection<ChangesEvent>> changesToClients = new HashMap<RpcAddress, Collection<ChangesEvent>>();
+        for (Map.Entry<String, Collection<ChangesEvent>> pair : changes.entrySet()) {
+            changesToClients.put(RpcSocketAddress.fromFullAddress(pair.getKey()), pair.getValue());
         }
+        if (changesToClients.size() > 0) {
+            // each client has its own queue and sender, a slow one only delays itself
+            clientNotifier.notify(changesToClients);
+        }
+    }
+
+    private void addChanges(Map<String, Collection<ChangesEvent>> changes, String subscriber,
+                            ChangesEvent event) {
+        if (!changes.containsKey(subscriber)) {
+            changes.put(subscriber, new HashSet<ChangesEvent>());
+        }
+        changes.get(subscriber).add(event);
     }
 
     public void setServiceBuilder(RpcServiceBuilder serviceBuilder) {
@@ -160,6 +263,14 @@ public class ResourceChangesDispatcher extends TimerTask {
         this.resourcesCache = cache;
     }
 
+    /**
+     * @param subscriptionIndex: the subscribers are resolved through it, null
+     *            means joining the subscriber table for them.
+     */
+    public void setSubscriptionIndex(SubscriptionIndex subscriptionIndex) {
+        this.subscriptionIndex = subscriptionIndex;
+    }
+
     public void setPersistedConfiguration(PersistedConfiguration persistedConfiguration) {
         this.persistedConfiguration = persistedConfiguration;
     }
@@ -0,0 +1,225 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.server;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sokeeper.cache.Cache;
+import com.sokeeper.domain.PersistedConfiguration;
+import com.sokeeper.domain.resource.ResourceEntity;
+import com.sokeeper.domain.resource.ResourceKey;
+import com.sokeeper.persist.service.ChangesService;
+import com.sokeeper.rpc.message.RpcConfiguration;
+import com.sokeeper.rpc.service.RpcServiceBuilder;
+import com.sokeeper.rpc.transport.RpcIoHandler;
+import com.sokeeper.rpc.transport.support.RpcClientIoHandlerImpl;
+import com.sokeeper.util.Assert;
+import com.sokeeper.util.RpcAddress;
+import com.sokeeper.util.RpcSocketAddress;
+
+/**
+ * The gossip between the online servers: the changes committed through this
+ * server are told to the peers together with the sequence they advanced to,
+ * the peers wake their dispatchers up at once instead of polling the changes
+ * sequence. The peers talk through their own endpoint, listening on the
+ * server port plus the peer port offset, never through the clients' one.
+ * Without the offset there is no gossip and the peers poll.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class ResourceChangesGossip implements ResourceChangesListener, PeerChangesHandler {
+    final static public String                 DEFAULT_SUFFIX_OF_PEER = "/peer?connect_policy=all&timeout_ms=1000&connect_timeout_ms=1000&auto_reconnect_ms=1000";
+    final protected Logger                     logger                 = LoggerFactory
+                                                                              .getLogger(getClass());
+    private Collection<String>                 localServers;
+    private ChangesService                     changesService;
+    private RpcServiceBuilder                  serviceBuilder;
+    private ResourceChangesDispatcher          dispatcher;
+    private Cache<ResourceKey, ResourceEntity> resourcesCache;
+    private String                             suffixOfPeer           = DEFAULT_SUFFIX_OF_PEER;
+    private int                                peerPortOffset         = PersistedConfiguration.DEFAULT_PEER_PORT_OFFSET;
+    private RpcIoHandler                       peerIoHandler;
+    private PeerChangesHandler                 peers;
+    private Timer                              gossipTimer;
+    private Set<ResourceKey>                   pendingKeys;
+
+    public synchronized void startup() {
+        Assert.notEmpty(localServers, "localServers can not be empty");
+        Assert.notNull(changesService, "changesService can not be null.");
+        Assert.notNull(serviceBuilder, "serviceBuilder can not be null.");
+        Assert.notNull(dispatcher, "dispatcher can not be null.");
+        if (gossipTimer == null) {
+            gossipTimer = new Timer(getTimerName(), true);
+        }
+    }
+
+    public synchronized void shutdown() {
+        if (gossipTimer != null) {
+            gossipTimer.cancel();
+            gossipTimer = null;
+            pendingKeys = null;
+        }
+        if (peerIoHandler != null) {
+            peerIoHandler.shutdown();
+            peerIoHandler = null;
+            peers = null;
+        }
+    }
+
+    /**
+     * connect the peer endpoints of the given online servers except the local
+     * ones, the loopback addresses are meaningless for the peers. Nothing is
+     * connected when the peer port offset is 0.
+     *
+     * @param servers: the online servers, can not be null.
+     */
+    public synchronized void setPeers(Collection<String> servers) {
+        Assert.notNull(servers, "servers can not be null.");
+        Set<RpcAddress> addrs = new HashSet<RpcAddress>();
+        for (String server : servers) {
+            RpcAddress addr = RpcSocketAddress.fromFullAddress(server);
+            String ip = addr.getIpAddress();
+            if (!localServers.contains(server) && !ip.equals(RpcAddress.LOCAL_HOST_ADDRESS)
+                    && !ip.equals(RpcAddress.ALL_ZERO_ADDRESS)) {
+                addrs.add(new RpcSocketAddress(ip, addr.getPort() + peerPortOffset));
+            }
+        }
+        if (gossipTimer == null || peerPortOffset == 0 || addrs.isEmpty()) {
+            return;
+        }
+        RpcAddress main = addrs.iterator().next();
+        if (peerIoHandler == null) {
+            RpcConfiguration configuration = new RpcConfiguration("tcp://"
+                    + main.getFullAddress() + suffixOfPeer);
+            // the peers' handshakes list ourselves too
+            configuration.setAcceptServersThroughHandshake(false);
+            configuration.setServers(main, addrs);
+            peerIoHandler = new RpcClientIoHandlerImpl(configuration);
+            peers = serviceBuilder.buildRemoteServiceProxy(PeerChangesHandler.class, null, null,
+                    peerIoHandler, false);
+            peerIoHandler.startup();
+        } else {
+            // the reconnect thread connects the new added ones
+            peerIoHandler.getConfiguration().setServers(main, addrs);
+        }
+        logger.info("peers changed:" + addrs);
+    }
+
+    /**
+     * the changes committed while one gossip is waiting are told by it
+     * together.
+     */
+    public synchronized void onChangesCommitted(Collection<ResourceKey> keys) {
+        if (gossipTimer == null || peerIoHandler == null) {
+            return;
+        }
+        boolean scheduled = pendingKeys != null;
+        if (!scheduled) {
+            pendingKeys = new HashSet<ResourceKey>();
+        }
+        if (keys != null) {
+            pendingKeys.addAll(keys);
+        }
+        if (!scheduled) {
+            gossipTimer.schedule(new TimerTask() {
+                public void run() {
+                    gossip();
+                }
+            }, 0);
+        }
+    }
+
+    private void gossip() {
+        Collection<ResourceKey> keys;
+        PeerChangesHandler to;
+        synchronized (this) {
+            keys = pendingKeys;
+            pendingKeys = null;
+            to = peers;
+            if (keys == null || to == null || peerIoHandler.getConnections().isEmpty()) {
+                return;
+            }
+        }
+        try {
+            to.onSequenceAdvanced(changesService.getCurrentSequenceOfChanges(), keys);
+        } catch (Throwable e) {
+            logger.warn("gossip changes of " + keys + " failed, the peers poll them later:", e);
+        }
+    }
+
+    /**
+     * the peer's changes evict the cached resources at once, the dispatcher is
+     * woken up only when it has not visited the sequence yet.
+     */
+    public void onSequenceAdvanced(Long sequence, Collection<ResourceKey> keys) {
+        Assert.notNull(sequence, "sequence can not be null.");
+        if (keys != null && resourcesCache != null) {
+            resourcesCache.removeElements(keys.toArray(new Object[0]));
+        }
+        if (sequence > dispatcher.getVisitedSequence()) {
+            dispatcher.onChangesCommitted(keys);
+        }
+    }
+
+    public boolean isConnected(RpcAddress peer) {
+        RpcIoHandler ioHandler = peerIoHandler;
+        return ioHandler != null && ioHandler.isConnected(peer);
+    }
+
+    private String getTimerName() {
+        return localServers.iterator().next() + "-gossipTimer";
+    }
+
+    public void setLocalServers(Collection<String> localServers) {
+        this.localServers = localServers;
+    }
+
+    public void setChangesService(ChangesService changesService) {
+        this.changesService = changesService;
+    }
+
+    public void setServiceBuilder(RpcServiceBuilder serviceBuilder) {
+        this.serviceBuilder = serviceBuilder;
+    }
+
+    public void setDispatcher(ResourceChangesDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
+
+    public void setResourcesCache(Cache<ResourceKey, ResourceEntity> cache) {
+        this.resourcesCache = cache;
+    }
+
+    public void setSuffixOfPeer(String suffixOfPeer) {
+        Assert.hasText(suffixOfPeer, "suffixOfPeer can not be empty.");
+        this.suffixOfPeer = suffixOfPeer;
+    }
+
+    public void setPeerPortOffset(int peerPortOffset) {
+        this.peerPortOffset = peerPortOffset;
+    }
+}
@@ -47,6 +47,7 @@ import com.sokeeper.util.RpcAddress;
  * @author James Fu (fuyinhai@gmail.com)
  */
 public class Server {
+    final static public String                 SUFFIX_OF_PEER  = "/peer?timeout_ms=1000&hb_sec=10";
     final protected Logger                     logger          = LoggerFactory
                                                                        .getLogger(getClass());
     private NodePresenceTimer                  nodePresenceTimer;
@@ -62,10 +63,14 @@ public class Server {
     private int                                serverPort      = 9010;
     private RpcConfiguration                   serverRpcConfiguration;
     private RpcIoHandler                       serverIoHandler;
+    private RpcIoHandler                       peerIoHandler;
     private ResourceChangesDispatcher          resourceChangesDispatcher;
     private RpcServiceBuilder                  serviceBuilder;
     private Cache<ResourceKey, ResourceEntity> resourcesCache;
     private ResourceAccessHandler              resourceAccessHandler;
+    private ResourceChangesBus                 changesBus;
+    private ResourceChangesGossip              changesGossip;
+    private SubscriptionIndex                  subscriptionIndex;
 
     public synchronized void startup() {
         Assert.notNull(subscriberService, "subscriberService can not be null.");
@@ -81,12 +86,18 @@ public class Server {
             setResourcesCache(new CacheLRU<ResourceKey, ResourceEntity>(persistedConfiguration
                     .getMaxCachedEntities()));
         }
+        changesBus = new ResourceChangesBus();
+        // the subscriber list writes go through the index, the given handler
+        // does not know it, the dispatcher joins the subscriber table then
+        subscriptionIndex = new SubscriptionIndex(subscriberService);
+        boolean indexed = resourceAccessHandler == null;
         if (resourceAccessHandler == null) {
             ResourceAccessHandlerImpl resourceHandlerImpl = new ResourceAccessHandlerImpl();
             resourceHandlerImpl.setResourceService(resourceService);
-            resourceHandlerImpl.setSubscriberService(subscriberService);
+            resourceHandlerImpl.setSubscriberService(subscriptionIndex);
             resourceHandlerImpl.setResourcesCache(resourcesCache);
             resourceHandlerImpl.setChangesService(changesService);
+            resourceHandlerImpl.setChangesBus(changesBus);
             setResourceAccessHandler(resourceHandlerImpl);
         }
         serviceBuilder = new RpcServiceBuilderImpl();
@@ -111,7 +122,30 @@ public class Server {
             resourceChangesDispatcher.setChangesService(changesService);
             resourceChangesDispatcher.setServiceBuilder(serviceBuilder);
             resourceChangesDispatcher.setResourcesCache(resourcesCache);
+            if (indexed) {
+                resourceChangesDispatcher.setSubscriptionIndex(subscriptionIndex);
+            }
             resourceChangesDispatcher.setPersistedConfiguration(persistedConfiguration);
+            changesBus.registerListener(resourceChangesDispatcher);
+        }
+        // initialize changesGossip
+        {
+            changesGossip = new ResourceChangesGossip();
+            changesGossip.setLocalServers(localServers);
+            changesGossip.setChangesService(changesService);
+            changesGossip.setServiceBuilder(serviceBuilder);
+            changesGossip.setDispatcher(resourceChangesDispatcher);
+            changesGossip.setResourcesCache(resourcesCache);
+            changesGossip.setPeerPortOffset(persistedConfiguration.getPeerPortOffset());
+            changesBus.registerListener(changesGossip);
+            // the peers have their own endpoint: they are not the clients, the
+            // presence timer and the max connections never see them
+            if (persistedConfiguration.getPeerPortOffset() != 0) {
+                peerIoHandler = new RpcServerIoHandlerImpl(new RpcConfiguration("tcp://"
+                        + serverIp + ":" + (serverPort + persistedConfiguration.getPeerPortOffset())
+                        + SUFFIX_OF_PEER));
+                peerIoHandler.registerRequestHandler(PeerChangesHandler.class, changesGossip);
+            }
         }
         // initialize nodePresenceTimer
         {
@@ -120,13 +154,21 @@ public class Server {
             nodePresenceTimer.setNodeOnlineStatusService(nodeOnlineStatusService);
             nodePresenceTimer.setLocalServers(localServers);
             nodePresenceTimer.setChangesService(changesService);
-            nodePresenceTimer.setSubscriberService(subscriberService);
+            nodePresenceTimer.setSubscriberService(subscriptionIndex);
             nodePresenceTimer.setServerIoHandler(serverIoHandler);
+            nodePresenceTimer.setChangesBus(changesBus);
+            nodePresenceTimer.setChangesGossip(changesGossip);
             serverIoHandler.registerIoListener(nodePresenceTimer);
         }
-        // startup
+        // startup, the index is loaded before any client could subscribe
+        subscriptionIndex.rebuild(localServers);
         if (serverIoHandler.startup()) {
+            if (peerIoHandler != null && !peerIoHandler.startup()) {
+                logger.error("startup peer endpoint failed, the peers poll the changes:"
+                        + peerIoHandler.getConfiguration().getMainAddress().getFullAddress());
+            }
             resourceChangesDispatcher.startup();
+            changesGossip.startup();
             nodePresenceTimer.startup();
             logger.info("startup server succeed on:"
                     + serverRpcConfiguration.getMainAddress().getFullAddress());
@@ -140,6 +182,9 @@ public class Server {
         if (nodePresenceTimer != null) {
             nodePresenceTimer.shutdown();
         }
+        if (changesGossip != null) {
+            changesGossip.shutdown();
+        }
         if (resourceChangesDispatcher != null) {
             resourceChangesDispatcher.shutdown();
         }
@@ -147,6 +192,10 @@ public class Server {
             serverIoHandler.shutdown();
             serverIoHandler = null;
         }
+        if (peerIoHandler != null) {
+            peerIoHandler.shutdown();
+            peerIoHandler = null;
+        }
         if (resourcesCache != null) {
             resourcesCache.clear();
         }
@@ -225,4 +274,16 @@ public class Server {
         return resourceAccessHandler;
     }
 
+    public ResourceChangesBus getChangesBus() {
+        return changesBus;
+    }
+
+    public ResourceChangesGossip getChangesGossip() {
+        return changesGossip;
+    }
+
+    public SubscriptionIndex getSubscriptionIndex() {
+        return subscriptionIndex;
+    }
+
 }
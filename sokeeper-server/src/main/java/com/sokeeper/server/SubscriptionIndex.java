@@ -0,0 +1,205 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.server;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.sokeeper.domain.ChangesSubscriber;
+import com.sokeeper.domain.resource.ResourceKey;
+import com.sokeeper.persist.service.SubscriberService;
+import com.sokeeper.util.Assert;
+
+/**
+ * The subscriber list of this server's clients kept in memory: the writes go
+ * to the persisted subscriber service first, then the index follows, so the
+ * {@link ResourceChangesDispatcher} finds the subscribers of the changes by
+ * hash lookups instead of joining the subscriber table.
+ *
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class SubscriptionIndex implements SubscriberService {
+    final private SubscriberService             subscriberService;
+    final private Map<ResourceKey, Set<String>> clientsOfResource = new HashMap<ResourceKey, Set<String>>();
+    final private Map<String, Set<ResourceKey>> resourcesOfClient = new HashMap<String, Set<ResourceKey>>();
+    final private Map<String, String>           serverOfClient    = new HashMap<String, String>();
+
+    /**
+     * @param subscriberService: the persisted subscriber service, can not be
+     *            null otherwise throw {@link IllegalArgumentException}.
+     */
+    public SubscriptionIndex(SubscriberService subscriberService) {
+        Assert.notNull(subscriberService, "subscriberService can not be null.");
+        this.subscriberService = subscriberService;
+    }
+
+    /**
+     * reload the given servers' subscriber list from the persisted subscriber
+     * service, the subscriptions of the other servers are dropped. Call it
+     * before the clients can subscribe: the subscriptions indexed while the
+     * list is loading are dropped too.
+     *
+     * @param serverAddresses: can not be null otherwise throw
+     *            {@link IllegalArgumentException}.
+     */
+    public void rebuild(Collection<String> serverAddresses) throws IllegalArgumentException {
+        Collection<ChangesSubscriber> subscribers = subscriberService
+                .getSubscribersOfServers(serverAddresses);
+        synchronized (this) {
+            clientsOfResource.clear();
+            resourcesOfClient.clear();
+            serverOfClient.clear();
+            for (ChangesSubscriber subscriber : subscribers) {
+                index(new ResourceKey(subscriber.getResourceType(), subscriber.getResourceId()),
+                        subscriber.getClientAddress(), subscriber.getServerAddress());
+            }
+        }
+    }
+
+    /**
+     * @return: the client addresses subscribed the resource, could be empty,
+     *          impossible be null.
+     */
+    public synchronized Collection<String> getSubscribers(ResourceKey resourceKey) {
+        Set<String> clients = clientsOfResource.get(resourceKey);
+        return clients == null ? new HashSet<String>() : new HashSet<String>(clients);
+    }
+
+    /**
+     * @return: the number of the indexed subscriptions.
+     */
+    public synchronized int size() {
+        int size = 0;
+        for (Set<ResourceKey> keys : resourcesOfClient.values()) {
+            size += keys.size();
+        }
+        return size;
+    }
+
+    public void addResourceChangesSubscriber(ChangesSubscriber subscriber)
+            throws IllegalArgumentException {
+        subscriberService.addResourceChangesSubscriber(subscriber);
+        synchronized (this) {
+            index(new ResourceKey(subscriber.getResourceType(), subscriber.getResourceId()),
+                    subscriber.getClientAddress(), subscriber.getServerAddress());
+        }
+    }
+
+    public void addResourceChangesSubscriber(String resourceType, String resourceId,
+                                             String clientAddress, String serverAddress)
+            throws IllegalArgumentException {
+        subscriberService.addResourceChangesSubscriber(resourceType, resourceId, clientAddress,
+                serverAddress);
+        synchronized (this) {
+            index(new ResourceKey(resourceType, resourceId), clientAddress, serverAddress);
+        }
+    }
+
+    public int removeSubscriber(String clientAddress, String serverAddress)
+            throws IllegalArgumentException {
+        int impacted = subscriberService.removeSubscriber(clientAddress, serverAddress);
+        synchronized (this) {
+            if (serverAddress.equals(serverOfClient.get(clientAddress))) {
+                unindex(clientAddress);
+            }
+        }
+        return impacted;
+    }
+
+    public int removeSubscriber(ResourceKey resourceKey, String clientAddress, String serverAddress)
+            throws IllegalArgumentException {
+        int impacted = subscriberService.removeSubscriber(resourceKey, clientAddress,
+                serverAddress);
+        synchronized (this) {
+            if (serverAddress.equals(serverOfClient.get(clientAddress))) {
+                unindex(resourceKey, clientAddress);
+            }
+        }
+        return impacted;
+    }
+
+    public int removeSubscribersOfServers(Collection<String> serverAddresses)
+            throws IllegalArgumentException {
+        int impacted = subscriberService.removeSubscribersOfServers(serverAddresses);
+        synchronized (this) {
+            Collection<String> clients = new HashSet<String>();
+            for (Map.Entry<String, String> pair : serverOfClient.entrySet()) {
+                if (serverAddresses.contains(pair.getValue())) {
+                    clients.add(pair.getKey());
+                }
+            }
+            for (String client : clients) {
+                unindex(client);
+            }
+        }
+        return impacted;
+    }
+
+    public Collection<ChangesSubscriber> getSubscribedResources(String clientAddress,
+                                                                String serverAddress)
+            throws IllegalArgumentException {
+        return subscriberService.getSubscribedResources(clientAddress, serverAddress);
+    }
+
+    public Collection<ChangesSubscriber> getSubscribersOfServers(Collection<String> serverAddresses)
+            throws IllegalArgumentException {
+        return subscriberService.getSubscribersOfServers(serverAddresses);
+    }
+
+    private void index(ResourceKey resourceKey, String clientAddress, String serverAddress) {
+        Set<String> clients = clientsOfResource.get(resourceKey);
+        if (clients == null) {
+            clients = new HashSet<String>();
+            clientsOfResource.put(resourceKey, clients);
+        }
+        clients.add(clientAddress);
+        Set<ResourceKey> keys = resourcesOfClient.get(clientAddress);
+        if (keys == null) {
+            keys = new HashSet<ResourceKey>();
+            resourcesOfClient.put(clientAddress, keys);
+        }
+        keys.add(resourceKey);
+        serverOfClient.put(clientAddress, serverAddress);
+    }
+
+    private void unindex(String clientAddress) {
+        Set<ResourceKey> keys = resourcesOfClient.get(clientAddress);
+        if (keys != null) {
+            for (ResourceKey key : new HashSet<ResourceKey>(keys)) {
+                unindex(key, clientAddress);
+            }
+        }
+    }
+
+    private void unindex(ResourceKey resourceKey, String clientAddress) {
+        Set<String> clients = clientsOfResource.get(resourceKey);
+        if (clients != null && clients.remove(clientAddress) && clients.isEmpty()) {
+            clientsOfResource.remove(resourceKey);
+        }
+        Set<ResourceKey> keys = resourcesOfClient.get(clientAddress);
+        if (keys != null && keys.remove(resourceKey) && keys.isEmpty()) {
+            resourcesOfClient.remove(clientAddress);
+            serverOfClient.remove(clientAddress);
+        }
+    }
+}
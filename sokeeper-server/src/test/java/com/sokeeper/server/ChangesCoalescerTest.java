@@ -0,0 +1,165 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import com.sokeeper.domain.AssociationChangesEvent;
+import com.sokeeper.domain.ChangesEvent;
+import com.sokeeper.domain.PersistedConfiguration;
+import com.sokeeper.domain.ResourceChanges;
+import com.sokeeper.domain.ResourceChangesEvent;
+
+/**
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class ChangesCoalescerTest extends TestCase {
+    final private PersistedConfiguration configuration = new PersistedConfiguration();
+    private ChangesCoalescer             coalescer;
+
+    public void setUp() throws Exception {
+        configuration.addParameter(PersistedConfiguration.KEY_MILLIS_OF_COALESCING_WINDOW
+                + ".hot", "100");
+        coalescer = new ChangesCoalescer(configuration);
+    }
+
+    private ChangesEvent changes(String resourceType, String resourceId, long sequence,
+                                 String changes) {
+        ResourceChangesEvent event = new ResourceChangesEvent();
+        event.setResourceType(resourceType);
+        event.setResourceId(resourceId);
+        event.setSequence(sequence);
+        event.setChanges(changes);
+        return event;
+    }
+
+    private Map<String, Collection<ChangesEvent>> toClient(String client, ChangesEvent... changes) {
+        Map<String, Collection<ChangesEvent>> toClient = new HashMap<String, Collection<ChangesEvent>>();
+        toClient.put(client, new ArrayList<ChangesEvent>(Arrays.asList(changes)));
+        return toClient;
+    }
+
+    public void test_hold_and_flush() throws Throwable {
+        try {
+            new ChangesCoalescer(null);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        assertEquals(-1, coalescer.getNextDeadline());
+        Map<String, Collection<ChangesEvent>> toNotify = coalescer.offer(toClient("c1", changes(
+                "hot", "r1", 1, ResourceChanges.CHANGES_UPDATED), changes("hot", "r1", 3,
+                ResourceChanges.CHANGES_UPDATED), changes("hot", "r2", 2,
+                ResourceChanges.CHANGES_UPDATED)), 1000);
+        assertEquals(0, toNotify.size());
+        assertEquals(2, coalescer.getHeldChanges());
+        assertEquals(1, coalescer.getCoalescedChanges());
+        // the window starts from the first held changes
+        coalescer.offer(toClient("c1", changes("hot", "r1", 4, ResourceChanges.CHANGES_UPDATED)),
+                1050);
+        assertEquals(1100, coalescer.getNextDeadline());
+        assertEquals(0, coalescer.flush(1099).size());
+        toNotify = coalescer.flush(1100);
+        assertEquals(1, toNotify.size());
+        Collection<ChangesEvent> changes = toNotify.get("c1");
+        assertEquals(2, changes.size());
+        for (ChangesEvent change : changes) {
+            if (((ResourceChangesEvent) change).getResourceId().equals("r1")) {
+                assertEquals(Long.valueOf(4), change.getSequence());
+            } else {
+                assertEquals(Long.valueOf(2), change.getSequence());
+            }
+        }
+        assertEquals(0, coalescer.getHeldChanges());
+        assertEquals(-1, coalescer.getNextDeadline());
+    }
+
+    public void test_held_changes_go_out_with_the_others() throws Throwable {
+        coalescer.offer(toClient("c1", changes("hot", "r1", 1, ResourceChanges.CHANGES_UPDATED)),
+                1000);
+        coalescer.offer(toClient("c2", changes("hot", "r1", 1, ResourceChanges.CHANGES_UPDATED)),
+                1000);
+        // the client ignores the changes older than the ones it received
+        Map<String, Collection<ChangesEvent>> toNotify = coalescer.offer(toClient("c1", changes(
+                "cold", "r2", 2, ResourceChanges.CHANGES_UPDATED)), 1010);
+        assertEquals(1, toNotify.size());
+        assertEquals(2, toNotify.get("c1").size());
+        assertEquals(1, coalescer.getHeldChanges());
+        assertEquals(1, coalescer.flush(1100).get("c2").size());
+    }
+
+    public void test_created_and_deleted_transitions() throws Throwable {
+        ChangesEvent created = changes("hot", "r1", 1, ResourceChanges.CHANGES_CREATED);
+        ChangesEvent updated = changes("hot", "r1", 2, ResourceChanges.CHANGES_UPDATED);
+        ChangesEvent deleted = changes("hot", "r1", 3, ResourceChanges.CHANGES_DELETED);
+        ChangesEvent recreated = changes("hot", "r1", 4, ResourceChanges.CHANGES_CREATED);
+
+        ChangesEvent merged = ChangesCoalescer.merge(created, updated);
+        assertEquals(ResourceChanges.CHANGES_CREATED, merged.getChanges());
+        assertEquals(Long.valueOf(2), merged.getSequence());
+        // the shared changes are not modified
+        assertEquals(ResourceChanges.CHANGES_UPDATED, updated.getChanges());
+        // the client may have cached the created resource, it has to be told
+        assertSame(deleted, ChangesCoalescer.merge(created, deleted));
+        assertSame(deleted, ChangesCoalescer.merge(deleted, created));
+        assertSame(deleted, ChangesCoalescer.merge(updated, deleted));
+        merged = ChangesCoalescer.merge(deleted, recreated);
+        assertEquals(ResourceChanges.CHANGES_UPDATED, merged.getChanges());
+        assertEquals(Long.valueOf(4), merged.getSequence());
+
+        coalescer.offer(toClient("c1", created, updated, deleted), 1000);
+        assertEquals(1, coalescer.getHeldChanges());
+        assertEquals(2, coalescer.getCoalescedChanges());
+        Collection<ChangesEvent> flushed = coalescer.flush(1100).get("c1");
+        assertEquals(1, flushed.size());
+        ChangesEvent removed = flushed.iterator().next();
+        assertEquals(ResourceChanges.CHANGES_DELETED, removed.getChanges());
+        assertEquals(Long.valueOf(3), removed.getSequence());
+    }
+
+    public void test_association_changes() throws Throwable {
+        AssociationChangesEvent created = new AssociationChangesEvent();
+        created.setLeftType("cold");
+        created.setLeftId("l1");
+        created.setRightType("hot");
+        created.setRightId("r1");
+        created.setSequence(1L);
+        created.setChanges(ResourceChanges.CHANGES_CREATED);
+        AssociationChangesEvent died = new AssociationChangesEvent();
+        died.setLeftType("cold");
+        died.setLeftId("l1");
+        died.setRightType("hot");
+        died.setRightId("r1");
+        died.setSequence(2L);
+        died.setChanges(ResourceChanges.OWNER_DIED);
+        assertEquals(ChangesCoalescer.keyOf(created), ChangesCoalescer.keyOf(died));
+        // the window of an association is the larger one of its two sides
+        assertEquals(0, coalescer.offer(toClient("c1", created), 1000).size());
+        coalescer.offer(toClient("c1", died), 1010);
+        assertEquals(1, coalescer.getHeldChanges());
+        assertEquals(ResourceChanges.OWNER_DIED, coalescer.flush(Long.MAX_VALUE).get("c1")
+                .iterator().next().getChanges());
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import com.sokeeper.domain.ChangesEvent;
+import com.sokeeper.domain.PersistedConfiguration;
+import com.sokeeper.domain.ResourceChanges;
+import com.sokeeper.domain.ResourceChangesEvent;
+import com.sokeeper.exception.RpcException;
+import com.sokeeper.handler.ResourceChangesHandler;
+import com.sokeeper.util.RpcAddress;
+import com.sokeeper.util.RpcSocketAddress;
+
+/**
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class ClientNotificationQueueTest extends TestCase {
+    final private RpcAddress         client   = RpcSocketAddress.fromFullAddress("localhost:8010");
+    final private List<ChangesEvent> notified = new ArrayList<ChangesEvent>();
+    final private List<Long>         resynced = new ArrayList<Long>();
+    private boolean                  broken   = false;
+    private ResourceChangesHandler   notifier = new ResourceChangesHandler() {
+                                                  public void onResourcesChanged(Map<RpcAddress, Collection<ChangesEvent>> changes)
+                                                          throws RpcException {
+                                                      if (broken) {
+                                                          throw new RpcException("broken");
+                                                      }
+                                                      notified.addAll(changes.get(client));
+                                                  }
+
+                                                  public void onChangesDropped(Map<RpcAddress, Long> sequences)
+                                                          throws RpcException {
+                                                      if (broken) {
+                                                          throw new RpcException("broken");
+                                                      }
+                                                      resynced.add(sequences.get(client));
+                                                  }
+                                              };
+
+    private ChangesEvent changes(String resourceId, long sequence, String changes) {
+        ResourceChangesEvent event = new ResourceChangesEvent();
+        event.setResourceType("t1");
+        event.setResourceId(resourceId);
+        event.setSequence(sequence);
+        event.setChanges(changes);
+        return event;
+    }
+
+    public void test_offer_and_drain() throws Throwable {
+        try {
+            new ClientNotificationQueue(client, 0, PersistedConfiguration.OVERFLOW_COALESCE);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        ClientNotificationQueue queue = new ClientNotificationQueue(client, 10,
+                PersistedConfiguration.OVERFLOW_COALESCE);
+        assertFalse(queue.offer(new ArrayList<ChangesEvent>()));
+        assertTrue(queue.offer(Arrays.asList(changes("r1", 1, ResourceChanges.CHANGES_CREATED))));
+        // the sender is draining it already
+        assertFalse(queue.offer(Arrays.asList(changes("r2", 2, ResourceChanges.CHANGES_CREATED))));
+        assertEquals(2, queue.getPendings());
+        queue.drain(notifier);
+        assertEquals(2, notified.size());
+        assertEquals(0, queue.getPendings());
+        assertEquals(0, queue.getLagInMs());
+        assertEquals(2, queue.getDelivered());
+        assertTrue(queue.offer(Arrays.asList(changes("r1", 3, ResourceChanges.CHANGES_UPDATED))));
+    }
+
+    public void test_overflow_coalesce() throws Throwable {
+        ClientNotificationQueue queue = new ClientNotificationQueue(client, 2,
+                PersistedConfiguration.OVERFLOW_COALESCE);
+        queue.offer(Arrays.asList(changes("r1", 1, ResourceChanges.CHANGES_CREATED), changes(
+                "r2", 2, ResourceChanges.CHANGES_CREATED), changes("r1", 3,
+                ResourceChanges.CHANGES_UPDATED)));
+        assertEquals(2, queue.getPendings());
+        assertEquals(1, queue.getCoalesced());
+        assertEquals(0, queue.getDropped());
+        assertFalse(queue.isResyncPending());
+        queue.drain(notifier);
+        assertEquals(2, notified.size());
+        assertEquals(Long.valueOf(2), notified.get(0).getSequence());
+        assertEquals(Long.valueOf(3), notified.get(1).getSequence());
+        assertEquals(0, resynced.size());
+        // nothing to coalesce, the client recovers them
+        queue.offer(Arrays.asList(changes("r3", 4, ResourceChanges.CHANGES_CREATED), changes(
+                "r4", 5, ResourceChanges.CHANGES_CREATED), changes("r5", 6,
+                ResourceChanges.CHANGES_CREATED)));
+        assertEquals(0, queue.getPendings());
+        assertEquals(3, queue.getDropped());
+        assertTrue(queue.isResyncPending());
+        queue.drain(notifier);
+        assertEquals(Arrays.asList(3L), resynced);
+        assertFalse(queue.isResyncPending());
+    }
+
+    public void test_overflow_resync() throws Throwable {
+        ClientNotificationQueue queue = new ClientNotificationQueue(client, 2,
+                PersistedConfiguration.OVERFLOW_RESYNC);
+        queue.offer(Arrays.asList(changes("r1", 1, ResourceChanges.CHANGES_CREATED), changes(
+                "r2", 2, ResourceChanges.CHANGES_CREATED)));
+        queue.offer(Arrays.asList(changes("r1", 3, ResourceChanges.CHANGES_UPDATED)));
+        assertEquals(0, queue.getCoalesced());
+        assertEquals(3, queue.getDropped());
+        queue.offer(Arrays.asList(changes("r3", 4, ResourceChanges.CHANGES_CREATED)));
+        queue.drain(notifier);
+        // the resync goes ahead of the changes offered after the overflow
+        assertEquals(Arrays.asList(0L), resynced);
+        assertEquals(1, notified.size());
+        assertEquals(Long.valueOf(4), notified.get(0).getSequence());
+    }
+
+    public void test_failed_changes_resynced() throws Throwable {
+        ClientNotificationQueue queue = new ClientNotificationQueue(client, 10,
+                PersistedConfiguration.OVERFLOW_COALESCE);
+        broken = true;
+        assertTrue(queue.offer(Arrays.asList(changes("r1", 5, ResourceChanges.CHANGES_CREATED))));
+        queue.drain(notifier);
+        assertEquals(1, queue.getDropped());
+        assertTrue(queue.isResyncPending());
+        broken = false;
+        // the next offer starts a new sender
+        assertTrue(queue.offer(Arrays.asList(changes("r2", 6, ResourceChanges.CHANGES_CREATED))));
+        queue.drain(notifier);
+        assertEquals(Arrays.asList(4L), resynced);
+        assertEquals(1, notified.size());
+        assertEquals(6, queue.getDelivered());
+    }
+}
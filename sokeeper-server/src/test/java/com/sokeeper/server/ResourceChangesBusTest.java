@@ -0,0 +1,68 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.sokeeper.domain.resource.ResourceKey;
+
+/**
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class ResourceChangesBusTest extends TestCase {
+
+    public void test_publish() throws Throwable {
+        ResourceChangesBus bus = new ResourceChangesBus();
+        final List<Collection<ResourceKey>> published = new ArrayList<Collection<ResourceKey>>();
+        ResourceChangesListener failed = new ResourceChangesListener() {
+            public void onChangesCommitted(Collection<ResourceKey> keys) {
+                throw new IllegalStateException("failed");
+            }
+        };
+        ResourceChangesListener listener = new ResourceChangesListener() {
+            public void onChangesCommitted(Collection<ResourceKey> keys) {
+                published.add(keys);
+            }
+        };
+        try {
+            bus.registerListener(null);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        bus.registerListener(failed);
+        bus.registerListener(listener);
+        // the failed listener does not stop the others
+        ResourceKey key = new ResourceKey("type", "name");
+        bus.publish(Arrays.asList(key));
+        bus.publish(null);
+        assertEquals(2, published.size());
+        assertEquals(Arrays.asList(key), published.get(0));
+        assertTrue(published.get(1).isEmpty());
+
+        bus.unregisterListener(listener);
+        bus.publish(null);
+        assertEquals(2, published.size());
+    }
+}
@@ -139,9 +139,13 @@ public class ResourceChangesDispatcherTest extends BaseTestCase {
         service.setResourceName("service");
         service.setDescription("service");
         resourceService.addOrUpdateResource(service, null, null, "C0", "S0");
+        dispatcher.onChangesCommitted(null);
         //Map<RpcAddress, Collection<ResourceChangesEvent>> resourceChangesToClients should be push to args[0]
         assertTrue("service created should increment the sequence", changesService
                 .getCurrentSequenceOfChanges().intValue() > 0);
+        while (args.size() < 1) {
+            Thread.sleep(100);
+        }
         ResourceEntity provider = new ResourceEntity();
         provider.setResourceType("online");
         provider.setResourceName("service.email");
@@ -150,6 +154,7 @@ public class ResourceChangesDispatcherTest extends BaseTestCase {
         associations.put("service", new AssociationEntity());
         resourceService.addOrUpdateResource(provider, "not-online", associations, "localhost:8010",
                 "localhost:9010");
+        dispatcher.onChangesCommitted(null);
         //Map<RpcAddress, Collection<ResourceChangesEvent>> resourceChangesToClients should be push to args[1]
         //Map<RpcAddress, Collection<AssociationChangesEvent>> associationChangesToClients should be push to args[2]
         while (args.size() < 2) {
@@ -196,4 +201,43 @@ public class ResourceChangesDispatcherTest extends BaseTestCase {
         }
         dispatcher.shutdown();
     }
+
+    @SuppressWarnings("unchecked")
+    public void test_dispatch_through_subscription_index() throws Throwable {
+        ResourceChangesDispatcher dispatcher = new ResourceChangesDispatcher();
+        initializeDispatcher(dispatcher, Arrays.asList("localhost:9010"));
+        SubscriptionIndex index = new SubscriptionIndex(subscriberService);
+        dispatcher.setSubscriptionIndex(index);
+        dispatcher.startup();
+        registerResourceType("not-online", false);
+        index.addResourceChangesSubscriber("not-online", "service", "localhost:8010",
+                "localhost:9010");
+        index.addResourceChangesSubscriber("not-online", "service", "localhost:8011",
+                "localhost:9010");
+
+        ResourceEntity service = new ResourceEntity();
+        service.setResourceType("not-online");
+        service.setResourceName("service");
+        service.setDescription("service");
+        resourceService.addOrUpdateResource(service, null, null, "C0", "S0");
+        dispatcher.onChangesCommitted(null);
+        // each client is notified by its own sender
+        while (args.size() < 2) {
+            Thread.sleep(100);
+        }
+        Map<RpcAddress, Collection<ChangesEvent>> changesToClients = new HashMap<RpcAddress, Collection<ChangesEvent>>();
+        for (Object arg : args) {
+            assertEquals(((Map<RpcAddress, Collection<ChangesEvent>>) arg).size(), 1);
+            changesToClients.putAll((Map<RpcAddress, Collection<ChangesEvent>>) arg);
+        }
+        assertEquals(changesToClients.size(), 2);
+        assertEquals(dispatcher.getClientNotifier().getClients(), 2);
+        for (Collection<ChangesEvent> changes : changesToClients.values()) {
+            assertEquals(changes.size(), 1);
+            ResourceChangesEvent event = (ResourceChangesEvent) changes.iterator().next();
+            assertEquals(event.getResourceId(), "service");
+            assertEquals(event.getChanges(), ResourceChanges.CHANGES_CREATED);
+        }
+        dispatcher.shutdown();
+    }
 }
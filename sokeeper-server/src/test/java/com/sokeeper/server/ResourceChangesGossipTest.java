@@ -0,0 +1,149 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.server;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import com.sokeeper.cache.Cache;
+import com.sokeeper.cache.support.CacheLRU;
+import com.sokeeper.domain.resource.ResourceEntity;
+import com.sokeeper.domain.resource.ResourceKey;
+import com.sokeeper.persist.service.ChangesService;
+import com.sokeeper.rpc.message.RpcConfiguration;
+import com.sokeeper.rpc.service.support.RpcServiceBuilderImpl;
+import com.sokeeper.rpc.transport.support.RpcServerIoHandlerImpl;
+import com.sokeeper.util.NetUtils;
+import com.sokeeper.util.RpcAddress;
+import com.sokeeper.util.RpcSocketAddress;
+
+/**
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class ResourceChangesGossipTest extends TestCase {
+    final private AtomicInteger                 changesServiceCalls = new AtomicInteger();
+    final private List<Collection<ResourceKey>> wakeups             = new ArrayList<Collection<ResourceKey>>();
+    private ResourceChangesGossip               gossip;
+
+    public void setUp() throws Exception {
+        ChangesService changesService = (ChangesService) Proxy.newProxyInstance(getClass()
+                .getClassLoader(), new Class<?>[] { ChangesService.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        changesServiceCalls.incrementAndGet();
+                        return null;
+                    }
+                });
+        ResourceChangesDispatcher dispatcher = new ResourceChangesDispatcher() {
+            public long getVisitedSequence() {
+                return 5;
+            }
+
+            public synchronized void onChangesCommitted(Collection<ResourceKey> keys) {
+                wakeups.add(keys);
+            }
+        };
+        gossip = new ResourceChangesGossip();
+        gossip.setLocalServers(Arrays.asList("192.168.0.1:9010"));
+        gossip.setChangesService(changesService);
+        gossip.setServiceBuilder(new RpcServiceBuilderImpl());
+        gossip.setDispatcher(dispatcher);
+    }
+
+    public void tearDown() throws Exception {
+        gossip.shutdown();
+    }
+
+    public void test_onSequenceAdvanced() throws Throwable {
+        Cache<ResourceKey, ResourceEntity> cache = new CacheLRU<ResourceKey, ResourceEntity>(10);
+        ResourceKey key = new ResourceKey("type", "name");
+        cache.put(key, null);
+        gossip.setResourcesCache(cache);
+        try {
+            gossip.onSequenceAdvanced(null, null);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        // the visited sequence only evicts the cache
+        gossip.onSequenceAdvanced(5L, Arrays.asList(key));
+        assertFalse(cache.containsKey(key));
+        assertEquals(0, wakeups.size());
+        gossip.onSequenceAdvanced(6L, Arrays.asList(key));
+        assertEquals(1, wakeups.size());
+        assertEquals(Arrays.asList(key), wakeups.get(0));
+    }
+
+    public void test_setPeers_should_skip_local_and_loopback_servers() throws Throwable {
+        gossip.startup();
+        gossip.setPeers(Arrays.asList("192.168.0.1:9010", "127.0.0.1:9010", "0.0.0.0:9010"));
+        assertFalse(gossip.isConnected(RpcSocketAddress.fromFullAddress("127.0.0.1:9010")));
+        // no peers, nothing to gossip
+        gossip.onChangesCommitted(Arrays.asList(new ResourceKey("type", "name")));
+        Thread.sleep(100);
+        assertEquals(0, changesServiceCalls.get());
+        try {
+            gossip.setPeers(null);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    public void test_setPeers_should_connect_the_peer_endpoints() throws Throwable {
+        String ip = null;
+        for (String addr : NetUtils.getAllLocalAddresses()) {
+            if (!addr.equals(RpcAddress.LOCAL_HOST_ADDRESS) && addr.indexOf(':') < 0) {
+                ip = addr;
+            }
+        }
+        if (ip == null) {
+            return;
+        }
+        int port = NetUtils.selectAvailablePort(9010);
+        RpcServerIoHandlerImpl peer = new RpcServerIoHandlerImpl(new RpcConfiguration("tcp://"
+                + ip + ":" + (port + 100) + Server.SUFFIX_OF_PEER));
+        peer.registerRequestHandler(PeerChangesHandler.class, gossip);
+        assertTrue(peer.startup());
+        try {
+            RpcAddress endpoint = new RpcSocketAddress(ip, port + 100);
+            gossip.startup();
+            // the peer endpoint is opt-in
+            gossip.setPeers(Arrays.asList(ip + ":" + port));
+            Thread.sleep(100);
+            assertFalse(gossip.isConnected(endpoint));
+            gossip.setPeerPortOffset(100);
+            gossip.setPeers(Arrays.asList(ip + ":" + port));
+            for (int i = 0; i < 50 && !gossip.isConnected(endpoint); i++) {
+                Thread.sleep(100);
+            }
+            assertTrue(gossip.isConnected(endpoint));
+            assertFalse(gossip.isConnected(new RpcSocketAddress(ip, port)));
+        } finally {
+            peer.shutdown();
+        }
+    }
+}
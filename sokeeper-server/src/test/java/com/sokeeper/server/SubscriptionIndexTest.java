@@ -0,0 +1,109 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one
+ *  or more contributor license agreements.  See the NOTICE file
+ *  distributed with this work for additional information
+ *  regarding copyright ownership.  The ASF licenses this file
+ *  to you under the Apache License, Version 2.0 (the
+ *  "License"); you may not use this file except in compliance
+ *  with the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package com.sokeeper.server;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+
+import junit.framework.TestCase;
+
+import com.sokeeper.domain.ChangesSubscriber;
+import com.sokeeper.domain.resource.ResourceKey;
+import com.sokeeper.persist.service.SubscriberService;
+
+/**
+ * @author James Fu (fuyinhai@gmail.com)
+ */
+public class SubscriptionIndexTest extends TestCase {
+    final private Collection<ChangesSubscriber> persisted = new ArrayList<ChangesSubscriber>();
+    private SubscriptionIndex                   index;
+
+    public void setUp() throws Exception {
+        SubscriberService subscriberService = (SubscriberService) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] { SubscriberService.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getSubscribersOfServers")) {
+                            return persisted;
+                        }
+                        return method.getReturnType() == int.class ? 1 : null;
+                    }
+                });
+        index = new SubscriptionIndex(subscriberService);
+    }
+
+    public void test_subscribe_and_unsubscribe() throws Throwable {
+        try {
+            new SubscriptionIndex(null);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        ResourceKey r1 = new ResourceKey("t1", "r1");
+        ResourceKey r2 = new ResourceKey("t1", "r2");
+        index.addResourceChangesSubscriber("t1", "r1", "localhost:8010", "localhost:9010");
+        index.addResourceChangesSubscriber("t1", "r2", "localhost:8010", "localhost:9010");
+        index.addResourceChangesSubscriber("t1", "r1", "localhost:8011", "localhost:9010");
+        assertEquals(3, index.size());
+        assertEquals(new HashSet<String>(Arrays.asList("localhost:8010", "localhost:8011")),
+                index.getSubscribers(r1));
+        assertEquals(0, index.getSubscribers(new ResourceKey("t1", "r3")).size());
+        // the returned subscribers are a copy
+        index.getSubscribers(r1).clear();
+        assertEquals(2, index.getSubscribers(r1).size());
+
+        assertEquals(1, index.removeSubscriber(r1, "localhost:8011", "localhost:9010"));
+        assertEquals(Arrays.asList("localhost:8010"), new ArrayList<String>(index
+                .getSubscribers(r1)));
+        // the other server's subscriber is not indexed
+        index.removeSubscriber("localhost:8010", "localhost:9011");
+        assertEquals(2, index.size());
+        index.removeSubscriber("localhost:8010", "localhost:9010");
+        assertEquals(0, index.size());
+        assertEquals(0, index.getSubscribers(r2).size());
+    }
+
+    public void test_removeSubscribersOfServers() throws Throwable {
+        index.addResourceChangesSubscriber("t1", "r1", "localhost:8010", "localhost:9010");
+        index.addResourceChangesSubscriber("t1", "r1", "localhost:8011", "127.0.0.1:9010");
+        index.removeSubscribersOfServers(Arrays.asList("localhost:9010"));
+        assertEquals(Arrays.asList("localhost:8011"), new ArrayList<String>(index
+                .getSubscribers(new ResourceKey("t1", "r1"))));
+    }
+
+    public void test_rebuild() throws Throwable {
+        index.addResourceChangesSubscriber("t1", "r2", "localhost:8012", "localhost:9010");
+        ChangesSubscriber subscriber = new ChangesSubscriber();
+        subscriber.setResourceType("t1");
+        subscriber.setResourceId("r1");
+        subscriber.setClientAddress("localhost:8010");
+        subscriber.setServerAddress("localhost:9010");
+        persisted.add(subscriber);
+        index.rebuild(Arrays.asList("localhost:9010"));
+        assertEquals(1, index.size());
+        assertEquals(Arrays.asList("localhost:8010"), new ArrayList<String>(index
+                .getSubscribers(new ResourceKey("t1", "r1"))));
+        assertEquals(0, index.getSubscribers(new ResourceKey("t1", "r2")).size());
+    }
+}